@@ -0,0 +1,377 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kaazing.netx;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@code HostResolver} caches the addresses of resolved host names, so that opening many connections to the same host
+ * does not resolve the host name each time.
+ *
+ * Each cached entry expires after its time-to-live. An expired entry continues to be used for a further stale period while
+ * it is refreshed in the background, so that callers are not blocked by resolution of frequently used host names. Failed
+ * resolutions are also cached, for a shorter time-to-live. Concurrent callers that miss the cache for the same host name
+ * wait for a single resolution, rather than each resolving the host name. The number of cached host names is bounded, when
+ * the bound is exceeded entries past their stale period are dropped first, then arbitrary entries.
+ *
+ * When a host name resolves to multiple addresses, each call to {@link #resolveAll(String)} returns the addresses rotated
+ * by one position, distributing connections across all of the addresses.
+ *
+ * The default {@code HostResolver} is shared by the netx tcp, http and ws protocol implementations.
+ */
+public final class HostResolver {
+
+    /**
+     * Default time-to-live in milliseconds of successfully resolved addresses.
+     */
+    public static final long DEFAULT_TIME_TO_LIVE = 30000L;
+
+    /**
+     * Default period in milliseconds after expiry during which addresses continue to be used while being refreshed.
+     */
+    public static final long DEFAULT_STALE_PERIOD = 60000L;
+
+    /**
+     * Default time-to-live in milliseconds of failed resolutions.
+     */
+    public static final long DEFAULT_NEGATIVE_TIME_TO_LIVE = 1000L;
+
+    /**
+     * Default maximum number of cached host names.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+
+    private static final HostResolver DEFAULT = new HostResolver(
+            DEFAULT_TIME_TO_LIVE, DEFAULT_STALE_PERIOD, DEFAULT_NEGATIVE_TIME_TO_LIVE, new SystemLookup(), null);
+
+    private final ConcurrentMap<String, Entry> entries;
+    private final ConcurrentMap<String, Flight> flights;
+    private final long timeToLive;
+    private final long stalePeriod;
+    private final long negativeTimeToLive;
+    private final int maxEntries;
+    private final Lookup lookup;
+
+    private volatile Executor refresher;
+
+    /**
+     * Returns the default {@code HostResolver}, shared by all netx connections.
+     *
+     * @return the default {@code HostResolver}
+     */
+    public static HostResolver getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Creates a new {@code HostResolver}.
+     *
+     * @param timeToLive          the time-to-live in milliseconds of successfully resolved addresses
+     * @param stalePeriod         the period in milliseconds after expiry during which addresses are refreshed in the background
+     * @param negativeTimeToLive  the time-to-live in milliseconds of failed resolutions
+     *
+     * @return a new {@code HostResolver}
+     */
+    public static HostResolver newInstance(long timeToLive, long stalePeriod, long negativeTimeToLive) {
+        return new HostResolver(timeToLive, stalePeriod, negativeTimeToLive, new SystemLookup(), null);
+    }
+
+    HostResolver(long timeToLive, long stalePeriod, long negativeTimeToLive, Lookup lookup, Executor refresher) {
+        this(timeToLive, stalePeriod, negativeTimeToLive, DEFAULT_MAX_ENTRIES, lookup, refresher);
+    }
+
+    HostResolver(long timeToLive, long stalePeriod, long negativeTimeToLive, int maxEntries, Lookup lookup,
+            Executor refresher) {
+        if (timeToLive < 0 || stalePeriod < 0 || negativeTimeToLive < 0) {
+            throw new IllegalArgumentException("Time-to-live and stale period must not be negative");
+        }
+
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Maximum entries must be a positive integer value");
+        }
+
+        this.entries = new ConcurrentHashMap<String, Entry>();
+        this.flights = new ConcurrentHashMap<String, Flight>();
+        this.timeToLive = timeToLive;
+        this.stalePeriod = stalePeriod;
+        this.negativeTimeToLive = negativeTimeToLive;
+        this.maxEntries = maxEntries;
+        this.lookup = lookup;
+        this.refresher = refresher;
+    }
+
+    /**
+     * Resolves a host name to a single address, rotating through the addresses of the host name on successive calls.
+     *
+     * @param host  the host name
+     *
+     * @return an address of the host name
+     *
+     * @throws UnknownHostException if the host name cannot be resolved
+     */
+    public InetAddress resolve(String host) throws UnknownHostException {
+        return resolveAll(host)[0];
+    }
+
+    /**
+     * Resolves a host name to all of its addresses, rotated by one position on successive calls.
+     *
+     * @param host  the host name
+     *
+     * @return the addresses of the host name, never empty
+     *
+     * @throws UnknownHostException if the host name cannot be resolved
+     */
+    public InetAddress[] resolveAll(String host) throws UnknownHostException {
+        String key = (host != null) ? host.toLowerCase() : "";
+
+        long now = System.nanoTime();
+        Entry entry = entries.get(key);
+
+        if (entry == null || now - entry.staleAt >= 0) {
+            entry = lookup(key, host);
+        }
+        else if (now - entry.expiresAt >= 0 && entry.addresses != null) {
+            refreshLater(key, host, entry);
+        }
+
+        if (entry.addresses == null) {
+            throw new UnknownHostException(host);
+        }
+
+        return entry.rotate();
+    }
+
+    /**
+     * Removes any cached addresses for a host name, typically after the addresses have been found to be unreachable.
+     *
+     * @param host  the host name
+     */
+    public void invalidate(String host) {
+        entries.remove((host != null) ? host.toLowerCase() : "");
+    }
+
+    /**
+     * Removes all cached addresses.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    private Entry lookup(String key, String host) {
+        // only one resolution per host name is in flight, other callers wait for its entry
+        Flight flight = new Flight();
+        Flight current = flights.putIfAbsent(key, flight);
+        if (current != null) {
+            Entry entry = current.await();
+            // null when the lookup in flight failed unexpectedly, then the waiting caller looks up itself
+            return (entry != null) ? entry : lookup(key, host);
+        }
+
+        try {
+            Entry entry = entries.get(key);
+            if (entry == null || System.nanoTime() - entry.staleAt >= 0) {
+                // not resolved by a flight that landed since the caller missed the cache
+                entry = resolve(key, host);
+            }
+            flight.land(entry);
+            return entry;
+        }
+        finally {
+            flights.remove(key, flight);
+            flight.land(null);
+        }
+    }
+
+    private Entry resolve(String key, String host) {
+        Entry entry;
+        try {
+            InetAddress[] addresses = lookup.lookup(host);
+            entry = newEntry(addresses, timeToLive, stalePeriod);
+        }
+        catch (UnknownHostException e) {
+            entry = newEntry(null, negativeTimeToLive, 0L);
+        }
+        entries.put(key, entry);
+
+        if (entries.size() > maxEntries) {
+            evict();
+        }
+        return entry;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private void evict() {
+        long now = System.nanoTime();
+        for (Iterator<Entry> i = entries.values().iterator(); i.hasNext();) {
+            if (now - i.next().staleAt >= 0) {
+                i.remove();
+            }
+        }
+
+        if (entries.size() > maxEntries) {
+            // evicts down to three quarters of the bound, so that a full cache does not evict on every lookup
+            int excess = entries.size() - maxEntries * 3 / 4;
+            for (Iterator<Entry> i = entries.values().iterator(); excess > 0 && i.hasNext(); excess--) {
+                i.next();
+                i.remove();
+            }
+        }
+    }
+
+    private void refreshLater(final String key, final String host, final Entry entry) {
+        if (entry.refreshing.compareAndSet(false, true)) {
+            refresher().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        InetAddress[] addresses = lookup.lookup(host);
+                        entries.replace(key, entry, newEntry(addresses, timeToLive, stalePeriod));
+                    }
+                    catch (UnknownHostException e) {
+                        // keep using the stale addresses until the stale period ends
+                    }
+                    finally {
+                        entry.refreshing.set(false);
+                    }
+                }
+            });
+        }
+    }
+
+    private Executor refresher() {
+        Executor refresher = this.refresher;
+        if (refresher == null) {
+            synchronized (this) {
+                refresher = this.refresher;
+                if (refresher == null) {
+                    ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "netx-resolver");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                    this.refresher = refresher = executor;
+                }
+            }
+        }
+        return refresher;
+    }
+
+    private static Entry newEntry(InetAddress[] addresses, long timeToLive, long stalePeriod) {
+        long now = System.nanoTime();
+        long expiresAt = now + NANOSECONDS.convert(timeToLive, MILLISECONDS);
+        long staleAt = expiresAt + NANOSECONDS.convert(stalePeriod, MILLISECONDS);
+        return new Entry(addresses, expiresAt, staleAt);
+    }
+
+    private static final class Flight {
+
+        private final CountDownLatch landed = new CountDownLatch(1);
+        private Entry entry;
+
+        synchronized void land(Entry entry) {
+            if (landed.getCount() != 0) {
+                this.entry = entry;
+                landed.countDown();
+            }
+        }
+
+        Entry await() {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        landed.await();
+                        break;
+                    }
+                    catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            synchronized (this) {
+                return entry;
+            }
+        }
+    }
+
+    interface Lookup {
+
+        InetAddress[] lookup(String host) throws UnknownHostException;
+    }
+
+    private static final class SystemLookup implements Lookup {
+
+        @Override
+        public InetAddress[] lookup(String host) throws UnknownHostException {
+            return InetAddress.getAllByName(host);
+        }
+    }
+
+    private static final class Entry {
+
+        private final InetAddress[] addresses;
+        private final long expiresAt;
+        private final long staleAt;
+        private final AtomicInteger rotation;
+        private final AtomicBoolean refreshing;
+
+        Entry(InetAddress[] addresses, long expiresAt, long staleAt) {
+            this.addresses = addresses;
+            this.expiresAt = expiresAt;
+            this.staleAt = staleAt;
+            this.rotation = new AtomicInteger();
+            this.refreshing = new AtomicBoolean();
+        }
+
+        InetAddress[] rotate() {
+            int length = addresses.length;
+            InetAddress[] rotated = new InetAddress[length];
+            int start = (rotation.getAndIncrement() & Integer.MAX_VALUE) % length;
+            for (int i = 0; i < length; i++) {
+                rotated[i] = addresses[(start + i) % length];
+            }
+            return rotated;
+        }
+    }
+}
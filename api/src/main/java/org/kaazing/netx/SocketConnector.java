@@ -0,0 +1,341 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kaazing.netx;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.SocketFactory;
+
+/**
+ * {@code SocketConnector} connects a socket to a host name that may resolve to multiple addresses.
+ *
+ * Connection attempts race across all of the resolved addresses, as described by RFC 8305 "Happy Eyeballs". Addresses are
+ * interleaved by address family, and each further attempt is started after a short delay, or as soon as the previous
+ * attempt fails. The first attempt to connect wins, and all other attempts are abandoned. The connect timeout applies to
+ * the whole race, rather than to each attempt.
+ */
+public final class SocketConnector {
+
+    /**
+     * Default delay in milliseconds before starting the next connection attempt, as recommended by RFC 8305.
+     */
+    public static final long DEFAULT_ATTEMPT_DELAY = 250L;
+
+    private static final String MSG_CONNECT_TIMED_OUT = "connect timed out";
+
+    private static final SocketConnector DEFAULT = new SocketConnector(HostResolver.getDefault(), DEFAULT_ATTEMPT_DELAY);
+
+    private static final Executor ATTEMPTS = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "netx-connect-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final HostResolver resolver;
+    private final long attemptDelay;
+
+    /**
+     * Returns the default {@code SocketConnector}, which resolves host names with the default {@link HostResolver}.
+     *
+     * @return the default {@code SocketConnector}
+     */
+    public static SocketConnector getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Creates a new {@code SocketConnector}.
+     *
+     * @param resolver      the host resolver
+     * @param attemptDelay  the delay in milliseconds before starting the next connection attempt
+     *
+     * @return a new {@code SocketConnector}
+     */
+    public static SocketConnector newInstance(HostResolver resolver, long attemptDelay) {
+        if (resolver == null) {
+            throw new NullPointerException("Null resolver passed in");
+        }
+
+        if (attemptDelay < 0) {
+            throw new IllegalArgumentException("Attempt delay must not be negative");
+        }
+
+        return new SocketConnector(resolver, attemptDelay);
+    }
+
+    private SocketConnector(HostResolver resolver, long attemptDelay) {
+        this.resolver = resolver;
+        this.attemptDelay = attemptDelay;
+    }
+
+    /**
+     * Connects a plain socket to a host name and port.
+     *
+     * @param host     the host name
+     * @param port     the port
+     * @param timeout  the connect timeout in milliseconds, or zero for no timeout
+     *
+     * @return the connected socket
+     *
+     * @throws IOException if no address of the host name could be connected before the timeout
+     */
+    public Socket connect(String host, int port, int timeout) throws IOException {
+        return connect(SocketFactory.getDefault(), host, port, timeout);
+    }
+
+    /**
+     * Connects a socket created by the specified {@code SocketFactory} to a host name and port.
+     *
+     * @param socketFactory  the factory of unconnected sockets
+     * @param host           the host name
+     * @param port           the port
+     * @param timeout        the connect timeout in milliseconds, or zero for no timeout
+     *
+     * @return the connected socket
+     *
+     * @throws IOException if no address of the host name could be connected before the timeout
+     */
+    public Socket connect(SocketFactory socketFactory, String host, int port, int timeout) throws IOException {
+        return connect(socketFactory, host, port, timeout, null);
+    }
+
+    /**
+     * Connects a socket created by the specified {@code SocketFactory} to a host name and port, applying socket options
+     * to each attempt before it connects.
+     *
+     * @param socketFactory  the factory of unconnected sockets
+     * @param host           the host name
+     * @param port           the port
+     * @param timeout        the connect timeout in milliseconds, or zero for no timeout
+     * @param options        the socket options, or {@code null} for platform defaults
+     *
+     * @return the connected socket
+     *
+     * @throws IOException if no address of the host name could be connected before the timeout
+     */
+    public Socket connect(SocketFactory socketFactory, String host, int port, int timeout, TransportOptions options)
+            throws IOException {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Connect timeout must not be negative");
+        }
+
+        // a failed connect keeps the resolved addresses, they are refreshed when their time-to-live expires
+        InetAddress[] addresses = interleave(resolver.resolveAll(host));
+
+        if (addresses.length == 1) {
+            Socket socket = socketFactory.createSocket();
+            try {
+                if (options != null) {
+                    options.apply(socket);
+                }
+                socket.connect(new InetSocketAddress(addresses[0], port), timeout);
+            }
+            catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+            return socket;
+        }
+
+        return new Race(socketFactory, addresses, port, timeout, options).run();
+    }
+
+    static InetAddress[] interleave(InetAddress[] addresses) {
+        List<InetAddress> preferred = new LinkedList<InetAddress>();
+        List<InetAddress> other = new LinkedList<InetAddress>();
+        boolean preferIPv6 = addresses[0] instanceof Inet6Address;
+        for (InetAddress address : addresses) {
+            if ((address instanceof Inet6Address) == preferIPv6) {
+                preferred.add(address);
+            }
+            else {
+                other.add(address);
+            }
+        }
+
+        InetAddress[] interleaved = new InetAddress[addresses.length];
+        int index = 0;
+        while (!preferred.isEmpty() || !other.isEmpty()) {
+            if (!preferred.isEmpty()) {
+                interleaved[index++] = preferred.remove(0);
+            }
+            if (!other.isEmpty()) {
+                interleaved[index++] = other.remove(0);
+            }
+        }
+        return interleaved;
+    }
+
+    private final class Race {
+
+        private final SocketFactory socketFactory;
+        private final InetAddress[] addresses;
+        private final int port;
+        private final int timeout;
+        private final TransportOptions options;
+        private final List<Socket> attempts;
+
+        private Socket winner;
+        private IOException failure;
+        private int started;
+        private int failed;
+        private boolean finished;
+
+        Race(SocketFactory socketFactory, InetAddress[] addresses, int port, int timeout, TransportOptions options) {
+            this.socketFactory = socketFactory;
+            this.addresses = addresses;
+            this.port = port;
+            this.timeout = timeout;
+            this.options = options;
+            this.attempts = new ArrayList<Socket>(addresses.length);
+        }
+
+        synchronized Socket run() throws IOException {
+            long deadline = System.nanoTime() + NANOSECONDS.convert(timeout, MILLISECONDS);
+            Socket connected = null;
+
+            try {
+                while (winner == null && failed < addresses.length) {
+                    if (started < addresses.length && failed == started) {
+                        // no attempt in progress, start the next attempt immediately
+                        start();
+                        continue;
+                    }
+
+                    long remaining = (timeout != 0) ? MILLISECONDS.convert(deadline - System.nanoTime(), NANOSECONDS) : 0L;
+                    if (timeout != 0 && remaining <= 0L) {
+                        throw new SocketTimeoutException(MSG_CONNECT_TIMED_OUT);
+                    }
+
+                    if (started < addresses.length && attemptDelay == 0L) {
+                        start();
+                    }
+                    else if (started < addresses.length) {
+                        long delay = (timeout != 0) ? Math.min(attemptDelay, remaining) : attemptDelay;
+                        long startedAt = System.nanoTime();
+                        int failedBefore = failed;
+                        waitAtMost(delay);
+                        boolean delayElapsed = System.nanoTime() - startedAt >= NANOSECONDS.convert(delay, MILLISECONDS);
+                        if (winner == null && (delayElapsed || failed != failedBefore) && started < addresses.length) {
+                            start();
+                        }
+                    }
+                    else {
+                        waitAtMost(remaining);
+                    }
+                }
+
+                if (winner == null) {
+                    throw (failure != null) ? failure : new ConnectException("Connection refused");
+                }
+
+                connected = winner;
+                return connected;
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SocketTimeoutException(MSG_CONNECT_TIMED_OUT);
+            }
+            finally {
+                finished = true;
+                for (Socket attempt : attempts) {
+                    if (attempt != connected) {
+                        close(attempt);
+                    }
+                }
+            }
+        }
+
+        private void waitAtMost(long millis) throws InterruptedException {
+            if (millis > 0L) {
+                wait(millis);
+            }
+            else {
+                wait();
+            }
+        }
+
+        private void start() throws IOException {
+            final Socket socket = socketFactory.createSocket();
+            final InetSocketAddress endpoint = new InetSocketAddress(addresses[started++], port);
+            attempts.add(socket);
+
+            if (options != null) {
+                options.apply(socket);
+            }
+
+            ATTEMPTS.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        socket.connect(endpoint, timeout);
+                        connected(socket);
+                    }
+                    catch (IOException e) {
+                        failed(e);
+                    }
+                }
+            });
+        }
+
+        private synchronized void connected(Socket socket) {
+            if (winner == null && !finished) {
+                winner = socket;
+                notifyAll();
+            }
+            else {
+                close(socket);
+            }
+        }
+
+        private synchronized void failed(IOException e) {
+            failure = e;
+            failed++;
+            notifyAll();
+        }
+    }
+
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        }
+        catch (IOException e) {
+            // ignore
+        }
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kaazing.netx;
+
+import static java.lang.String.format;
+
+import java.net.Socket;
+import java.net.SocketException;
+
+/**
+ * {@code TransportOptions} are the socket options applied to each socket created by netx, before it is connected.
+ *
+ * Options start from a {@link TransportProfile} and can be overridden individually. An option that is {@code null} leaves
+ * the platform default unchanged.
+ *
+ * Options can also be overridden per connection by URL query parameters, which are removed from the URL before it is sent
+ * to the server:
+ * <ul>
+ * <li>{@code netx.transport} - the name of a {@link TransportProfile}, such as {@code low-latency}</li>
+ * <li>{@code netx.tcpNoDelay} - {@code true} or {@code false}</li>
+ * <li>{@code netx.sendBufferSize} - the send buffer size in bytes</li>
+ * <li>{@code netx.receiveBufferSize} - the receive buffer size in bytes</li>
+ * <li>{@code netx.keepAlive} - {@code true} or {@code false}</li>
+ * <li>{@code netx.trafficClass} - the IP traffic class, such as {@code 0x10}</li>
+ * </ul>
+ */
+public final class TransportOptions {
+
+    private static final String PARAMETER_PREFIX = "netx.";
+    private static final String PARAMETER_TRANSPORT = "netx.transport";
+    private static final String PARAMETER_TCP_NO_DELAY = "netx.tcpNoDelay";
+    private static final String PARAMETER_SEND_BUFFER_SIZE = "netx.sendBufferSize";
+    private static final String PARAMETER_RECEIVE_BUFFER_SIZE = "netx.receiveBufferSize";
+    private static final String PARAMETER_KEEP_ALIVE = "netx.keepAlive";
+    private static final String PARAMETER_TRAFFIC_CLASS = "netx.trafficClass";
+
+    private Boolean tcpNoDelay;
+    private Integer sendBufferSize;
+    private Integer receiveBufferSize;
+    private Boolean keepAlive;
+    private Integer trafficClass;
+
+    /**
+     * Creates new {@code TransportOptions} that leave all socket options at the platform defaults.
+     */
+    public TransportOptions() {
+    }
+
+    /**
+     * Creates new {@code TransportOptions} initialized from a {@link TransportProfile}.
+     *
+     * @param profile  the transport profile
+     */
+    public TransportOptions(TransportProfile profile) {
+        if (profile == null) {
+            throw new NullPointerException("Null profile passed in");
+        }
+
+        profile.applyTo(this);
+    }
+
+    /**
+     * Creates a copy of existing {@code TransportOptions}.
+     *
+     * @param options  the options to copy
+     */
+    public TransportOptions(TransportOptions options) {
+        if (options == null) {
+            throw new NullPointerException("Null options passed in");
+        }
+
+        this.tcpNoDelay = options.tcpNoDelay;
+        this.sendBufferSize = options.sendBufferSize;
+        this.receiveBufferSize = options.receiveBufferSize;
+        this.keepAlive = options.keepAlive;
+        this.trafficClass = options.trafficClass;
+    }
+
+    /**
+     * Returns whether Nagle's algorithm is disabled, or {@code null} for the platform default.
+     *
+     * @return the {@code TCP_NODELAY} option
+     */
+    public Boolean getTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    /**
+     * Sets whether Nagle's algorithm is disabled, or {@code null} for the platform default.
+     *
+     * @param tcpNoDelay  the {@code TCP_NODELAY} option
+     */
+    public void setTcpNoDelay(Boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    /**
+     * Returns the send buffer size in bytes, or {@code null} for the platform default.
+     *
+     * @return the {@code SO_SNDBUF} option
+     */
+    public Integer getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    /**
+     * Sets the send buffer size in bytes, or {@code null} for the platform default.
+     *
+     * @param sendBufferSize  the {@code SO_SNDBUF} option
+     */
+    public void setSendBufferSize(Integer sendBufferSize) {
+        if (sendBufferSize != null && sendBufferSize <= 0) {
+            throw new IllegalArgumentException("Send buffer size must be a positive integer value");
+        }
+        this.sendBufferSize = sendBufferSize;
+    }
+
+    /**
+     * Returns the receive buffer size in bytes, or {@code null} for the platform default.
+     *
+     * @return the {@code SO_RCVBUF} option
+     */
+    public Integer getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    /**
+     * Sets the receive buffer size in bytes, or {@code null} for the platform default.
+     *
+     * @param receiveBufferSize  the {@code SO_RCVBUF} option
+     */
+    public void setReceiveBufferSize(Integer receiveBufferSize) {
+        if (receiveBufferSize != null && receiveBufferSize <= 0) {
+            throw new IllegalArgumentException("Receive buffer size must be a positive integer value");
+        }
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    /**
+     * Returns whether TCP keep-alive is enabled, or {@code null} for the platform default.
+     *
+     * @return the {@code SO_KEEPALIVE} option
+     */
+    public Boolean getKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * Sets whether TCP keep-alive is enabled, or {@code null} for the platform default.
+     *
+     * @param keepAlive  the {@code SO_KEEPALIVE} option
+     */
+    public void setKeepAlive(Boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * Returns the IP traffic class, or {@code null} for the platform default.
+     *
+     * @return the {@code IP_TOS} option
+     */
+    public Integer getTrafficClass() {
+        return trafficClass;
+    }
+
+    /**
+     * Sets the IP traffic class, or {@code null} for the platform default.
+     *
+     * @param trafficClass  the {@code IP_TOS} option
+     */
+    public void setTrafficClass(Integer trafficClass) {
+        if (trafficClass != null && (trafficClass < 0 || trafficClass > 255)) {
+            throw new IllegalArgumentException("Traffic class must be in the range 0 to 255");
+        }
+        this.trafficClass = trafficClass;
+    }
+
+    /**
+     * Applies these options to an unconnected socket.
+     *
+     * @param socket  the socket
+     *
+     * @throws SocketException if a socket option cannot be set
+     */
+    public void apply(Socket socket) throws SocketException {
+        if (tcpNoDelay != null) {
+            socket.setTcpNoDelay(tcpNoDelay);
+        }
+        if (sendBufferSize != null) {
+            socket.setSendBufferSize(sendBufferSize);
+        }
+        if (receiveBufferSize != null) {
+            socket.setReceiveBufferSize(receiveBufferSize);
+        }
+        if (keepAlive != null) {
+            socket.setKeepAlive(keepAlive);
+        }
+        if (trafficClass != null) {
+            socket.setTrafficClass(trafficClass);
+        }
+    }
+
+    /**
+     * Returns the options overridden by the {@code netx.*} parameters of a URL query.
+     *
+     * @param query     the URL query, or {@code null}
+     * @param defaults  the options to override, or {@code null} for platform defaults
+     *
+     * @return the overridden options, or {@code defaults} if the query has no {@code netx.*} parameters
+     *
+     * @throws IllegalArgumentException if a {@code netx.*} parameter is not recognized or has an invalid value
+     */
+    public static TransportOptions fromQuery(String query, TransportOptions defaults) {
+        if (query == null || query.indexOf(PARAMETER_PREFIX) == -1) {
+            return defaults;
+        }
+
+        TransportOptions options;
+        String transport = null;
+
+        // apply the profile before any individual overrides, regardless of parameter order
+        for (String parameter : query.split("&")) {
+            if (parameter.startsWith(PARAMETER_TRANSPORT + "=")) {
+                transport = parameter.substring(PARAMETER_TRANSPORT.length() + 1);
+            }
+        }
+
+        if (transport != null) {
+            options = new TransportOptions(TransportProfile.forName(transport));
+        }
+        else {
+            options = (defaults != null) ? new TransportOptions(defaults) : new TransportOptions();
+        }
+
+        for (String parameter : query.split("&")) {
+            if (!parameter.startsWith(PARAMETER_PREFIX)) {
+                continue;
+            }
+
+            int equals = parameter.indexOf('=');
+            String name = (equals != -1) ? parameter.substring(0, equals) : parameter;
+            String value = (equals != -1) ? parameter.substring(equals + 1) : "";
+
+            try {
+                if (PARAMETER_TRANSPORT.equals(name)) {
+                    continue;
+                }
+                else if (PARAMETER_TCP_NO_DELAY.equals(name)) {
+                    options.setTcpNoDelay(parseBoolean(name, value));
+                }
+                else if (PARAMETER_SEND_BUFFER_SIZE.equals(name)) {
+                    options.setSendBufferSize(Integer.decode(value));
+                }
+                else if (PARAMETER_RECEIVE_BUFFER_SIZE.equals(name)) {
+                    options.setReceiveBufferSize(Integer.decode(value));
+                }
+                else if (PARAMETER_KEEP_ALIVE.equals(name)) {
+                    options.setKeepAlive(parseBoolean(name, value));
+                }
+                else if (PARAMETER_TRAFFIC_CLASS.equals(name)) {
+                    options.setTrafficClass(Integer.decode(value));
+                }
+                else {
+                    throw new IllegalArgumentException(format("Unrecognized transport parameter: %s", name));
+                }
+            }
+            catch (NumberFormatException e) {
+                throw new IllegalArgumentException(format("Invalid value for %s: %s", name, value));
+            }
+        }
+
+        return options;
+    }
+
+    /**
+     * Removes the {@code netx.*} parameters from a URL query.
+     *
+     * @param query  the URL query, or {@code null}
+     *
+     * @return the remaining query, or {@code null} if no parameters remain
+     */
+    public static String stripQuery(String query) {
+        if (query == null || query.indexOf(PARAMETER_PREFIX) == -1) {
+            return query;
+        }
+
+        StringBuilder stripped = new StringBuilder(query.length());
+        for (String parameter : query.split("&")) {
+            if (!parameter.startsWith(PARAMETER_PREFIX)) {
+                if (stripped.length() != 0) {
+                    stripped.append('&');
+                }
+                stripped.append(parameter);
+            }
+        }
+        return (stripped.length() != 0) ? stripped.toString() : null;
+    }
+
+    private static Boolean parseBoolean(String name, String value) {
+        if ("true".equalsIgnoreCase(value)) {
+            return Boolean.TRUE;
+        }
+        else if ("false".equalsIgnoreCase(value)) {
+            return Boolean.FALSE;
+        }
+        throw new IllegalArgumentException(format("Invalid value for %s: %s", name, value));
+    }
+
+    @Override
+    public String toString() {
+        return format("[tcpNoDelay=%s, sendBufferSize=%s, receiveBufferSize=%s, keepAlive=%s, trafficClass=%s]",
+                tcpNoDelay, sendBufferSize, receiveBufferSize, keepAlive, trafficClass);
+    }
+}
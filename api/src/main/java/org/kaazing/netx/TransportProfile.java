@@ -0,0 +1,95 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kaazing.netx;
+
+/**
+ * Named sets of socket options, applied by {@link TransportOptions} to every socket created by netx.
+ */
+public enum TransportProfile {
+
+    /**
+     * Small messages sent as soon as they are written: Nagle's algorithm is disabled and low delay is requested.
+     */
+    LOW_LATENCY("low-latency", true, null, null, true, 0x10),
+
+    /**
+     * Large transfers: Nagle's algorithm remains enabled, with large socket buffers and high throughput requested.
+     */
+    BULK_THROUGHPUT("bulk-throughput", false, 262144, 262144, true, 0x08),
+
+    /**
+     * Mobile networks: Nagle's algorithm is disabled, and moderate socket buffers limit the data queued on slow links.
+     */
+    MOBILE("mobile", true, 32768, 32768, true, null);
+
+    private final String name;
+    private final Boolean tcpNoDelay;
+    private final Integer sendBufferSize;
+    private final Integer receiveBufferSize;
+    private final Boolean keepAlive;
+    private final Integer trafficClass;
+
+    private TransportProfile(
+            String name,
+            Boolean tcpNoDelay,
+            Integer sendBufferSize,
+            Integer receiveBufferSize,
+            Boolean keepAlive,
+            Integer trafficClass) {
+        this.name = name;
+        this.tcpNoDelay = tcpNoDelay;
+        this.sendBufferSize = sendBufferSize;
+        this.receiveBufferSize = receiveBufferSize;
+        this.keepAlive = keepAlive;
+        this.trafficClass = trafficClass;
+    }
+
+    /**
+     * Returns the name of this profile, as used by the {@code netx.transport} URL query parameter.
+     *
+     * @return the profile name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the profile with the specified name, ignoring case. Enum constant names are also accepted.
+     *
+     * @param name  the profile name
+     *
+     * @return the transport profile
+     *
+     * @throws IllegalArgumentException if there is no profile with the specified name
+     */
+    public static TransportProfile forName(String name) {
+        for (TransportProfile profile : values()) {
+            if (profile.name.equalsIgnoreCase(name) || profile.name().equalsIgnoreCase(name)) {
+                return profile;
+            }
+        }
+        throw new IllegalArgumentException("Unrecognized transport profile: " + name);
+    }
+
+    void applyTo(TransportOptions options) {
+        options.setTcpNoDelay(tcpNoDelay);
+        options.setSendBufferSize(sendBufferSize);
+        options.setReceiveBufferSize(receiveBufferSize);
+        options.setKeepAlive(keepAlive);
+        options.setTrafficClass(trafficClass);
+    }
+}
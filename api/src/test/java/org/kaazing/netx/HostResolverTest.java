@@ -0,0 +1,294 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kaazing.netx;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class HostResolverTest {
+
+    private InetAddress address1;
+    private InetAddress address2;
+    private CountingLookup lookup;
+    private QueuedExecutor refresher;
+
+    @Before
+    public void setUp() throws Exception {
+        address1 = InetAddress.getByAddress("example.com", new byte[] { 10, 0, 0, 1 });
+        address2 = InetAddress.getByAddress("example.com", new byte[] { 10, 0, 0, 2 });
+        lookup = new CountingLookup();
+        refresher = new QueuedExecutor();
+    }
+
+    @Test
+    public void shouldResolveOnceWithinTimeToLive() throws Exception {
+        lookup.addresses = new InetAddress[] { address1 };
+        HostResolver resolver = new HostResolver(60000L, 0L, 0L, lookup, refresher);
+
+        assertSame(address1, resolver.resolve("example.com"));
+        assertSame(address1, resolver.resolve("EXAMPLE.COM"));
+        assertEquals(1, lookup.count);
+    }
+
+    @Test
+    public void shouldRotateAddresses() throws Exception {
+        lookup.addresses = new InetAddress[] { address1, address2 };
+        HostResolver resolver = new HostResolver(60000L, 0L, 0L, lookup, refresher);
+
+        assertArrayEquals(new InetAddress[] { address1, address2 }, resolver.resolveAll("example.com"));
+        assertArrayEquals(new InetAddress[] { address2, address1 }, resolver.resolveAll("example.com"));
+        assertSame(address1, resolver.resolve("example.com"));
+    }
+
+    @Test
+    public void shouldServeStaleAddressesWhileRefreshing() throws Exception {
+        lookup.addresses = new InetAddress[] { address1 };
+        HostResolver resolver = new HostResolver(0L, 60000L, 0L, lookup, refresher);
+
+        assertSame(address1, resolver.resolve("example.com"));
+        MILLISECONDS.sleep(1L);
+
+        lookup.addresses = new InetAddress[] { address2 };
+        assertSame(address1, resolver.resolve("example.com"));
+        assertSame(address1, resolver.resolve("example.com"));
+        assertEquals(1, refresher.tasks.size());
+
+        refresher.runAll();
+        assertEquals(2, lookup.count);
+        assertSame(address2, resolver.resolve("example.com"));
+    }
+
+    @Test
+    public void shouldResolveSynchronouslyAfterStalePeriod() throws Exception {
+        lookup.addresses = new InetAddress[] { address1 };
+        HostResolver resolver = new HostResolver(0L, 0L, 0L, lookup, refresher);
+
+        assertSame(address1, resolver.resolve("example.com"));
+        MILLISECONDS.sleep(1L);
+
+        lookup.addresses = new InetAddress[] { address2 };
+        assertSame(address2, resolver.resolve("example.com"));
+        assertEquals(0, refresher.tasks.size());
+    }
+
+    @Test
+    public void shouldCacheFailedResolution() throws Exception {
+        HostResolver resolver = new HostResolver(60000L, 0L, 60000L, lookup, refresher);
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                resolver.resolve("unknown.example.com");
+                fail("Expected UnknownHostException");
+            }
+            catch (UnknownHostException e) {
+                assertEquals("unknown.example.com", e.getMessage());
+            }
+        }
+        assertEquals(1, lookup.count);
+    }
+
+    @Test
+    public void shouldResolveAgainAfterInvalidate() throws Exception {
+        lookup.addresses = new InetAddress[] { address1 };
+        HostResolver resolver = new HostResolver(60000L, 0L, 0L, lookup, refresher);
+
+        resolver.resolve("example.com");
+        resolver.invalidate("example.com");
+        resolver.resolve("example.com");
+        assertEquals(2, lookup.count);
+    }
+
+    @Test(timeout = 10000)
+    public void shouldResolveOnceForConcurrentMisses() throws Exception {
+        final BlockingLookup lookup = new BlockingLookup(new InetAddress[] { address1 });
+        final HostResolver resolver = new HostResolver(60000L, 0L, 0L, lookup, refresher);
+        final List<InetAddress> resolved = new CopyOnWriteArrayList<InetAddress>();
+
+        Thread[] callers = new Thread[8];
+        for (int i = 0; i < callers.length; i++) {
+            callers[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        resolved.add(resolver.resolve("example.com"));
+                    }
+                    catch (UnknownHostException e) {
+                        // not added
+                    }
+                }
+            };
+            callers[i].start();
+        }
+
+        // every caller waits, one for the lookup and the others for its result
+        for (Thread caller : callers) {
+            while (caller.getState() != Thread.State.WAITING) {
+                MILLISECONDS.sleep(1L);
+            }
+        }
+        lookup.released.countDown();
+        for (Thread caller : callers) {
+            caller.join();
+        }
+
+        assertEquals(1, lookup.count.get());
+        assertEquals(callers.length, resolved.size());
+        for (InetAddress address : resolved) {
+            assertSame(address1, address);
+        }
+    }
+
+    @Test
+    public void shouldResolveAgainAfterFailedLookupInFlight() throws Exception {
+        HostResolver.Lookup failing = new HostResolver.Lookup() {
+            private int count;
+
+            @Override
+            public InetAddress[] lookup(String host) throws UnknownHostException {
+                if (count++ == 0) {
+                    throw new SecurityException("denied");
+                }
+                return new InetAddress[] { address1 };
+            }
+        };
+        HostResolver resolver = new HostResolver(60000L, 0L, 0L, failing, refresher);
+
+        try {
+            resolver.resolve("example.com");
+            fail("Expected SecurityException");
+        }
+        catch (SecurityException e) {
+            // the failed flight is not left behind
+        }
+        assertSame(address1, resolver.resolve("example.com"));
+    }
+
+    @Test
+    public void shouldBoundCachedEntries() throws Exception {
+        lookup.addresses = new InetAddress[] { address1 };
+        HostResolver resolver = new HostResolver(60000L, 0L, 0L, 4, lookup, refresher);
+
+        for (int i = 0; i < 10; i++) {
+            resolver.resolve("host" + i + ".example.com");
+            assertTrue(resolver.size() <= 4);
+        }
+        assertEquals(10, lookup.count);
+    }
+
+    @Test
+    public void shouldEvictExpiredEntriesFirst() throws Exception {
+        HostResolver resolver = new HostResolver(60000L, 0L, 0L, 3, lookup, refresher);
+
+        for (String host : new String[] { "typo1.example.com", "typo2.example.com" }) {
+            try {
+                resolver.resolve(host);
+                fail("Expected UnknownHostException");
+            }
+            catch (UnknownHostException e) {
+                // negative entry expires immediately
+            }
+        }
+        MILLISECONDS.sleep(1L);
+
+        lookup.addresses = new InetAddress[] { address1 };
+        resolver.resolve("a.example.com");
+        resolver.resolve("b.example.com");
+        assertEquals(2, resolver.size());
+
+        resolver.resolve("a.example.com");
+        resolver.resolve("b.example.com");
+        assertEquals(4, lookup.count);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectNegativeTimeToLive() throws Exception {
+        HostResolver.newInstance(-1L, 0L, 0L);
+    }
+
+    private static final class CountingLookup implements HostResolver.Lookup {
+
+        private InetAddress[] addresses;
+        private int count;
+
+        @Override
+        public InetAddress[] lookup(String host) throws UnknownHostException {
+            count++;
+            if (addresses == null) {
+                throw new UnknownHostException(host);
+            }
+            return addresses;
+        }
+    }
+
+    private static final class BlockingLookup implements HostResolver.Lookup {
+
+        private final InetAddress[] addresses;
+        private final AtomicInteger count;
+        private final CountDownLatch released;
+
+        BlockingLookup(InetAddress[] addresses) {
+            this.addresses = addresses;
+            this.count = new AtomicInteger();
+            this.released = new CountDownLatch(1);
+        }
+
+        @Override
+        public InetAddress[] lookup(String host) throws UnknownHostException {
+            count.incrementAndGet();
+            try {
+                released.await();
+            }
+            catch (InterruptedException e) {
+                throw new UnknownHostException(host);
+            }
+            return addresses;
+        }
+    }
+
+    private static final class QueuedExecutor implements Executor {
+
+        private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        void runAll() {
+            for (Runnable task : tasks) {
+                task.run();
+            }
+            tasks.clear();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.kaazing.netx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SocketConnectorTest {
+
+    private InetAddress stalled;
+    private InetAddress reachable;
+    private InetAddress refused;
+    private ServerSocket stalledServer;
+    private ServerSocket reachableServer;
+    private List<Socket> sockets;
+    private FixedLookup lookup;
+    private int port;
+
+    @Before
+    public void setUp() throws Exception {
+        stalled = InetAddress.getByAddress("example.com", new byte[] { 127, 0, 0, 1 });
+        refused = InetAddress.getByAddress("example.com", new byte[] { 127, 0, 0, 2 });
+        reachable = InetAddress.getByAddress("example.com", new byte[] { 127, 0, 0, 3 });
+        sockets = new CopyOnWriteArrayList<Socket>();
+        lookup = new FixedLookup();
+
+        // the same port on each loopback address, attempts differ only by address
+        stalledServer = new ServerSocket(0, 1, stalled);
+        port = stalledServer.getLocalPort();
+        reachableServer = new ServerSocket(port, 50, reachable);
+
+        // fills the accept queue, so further connects to the stalled address are never answered
+        for (boolean filled = false; !filled; ) {
+            Socket socket = new Socket();
+            sockets.add(socket);
+            try {
+                socket.connect(new InetSocketAddress(stalled, port), 200);
+            }
+            catch (SocketTimeoutException e) {
+                filled = true;
+            }
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        stalledServer.close();
+        reachableServer.close();
+    }
+
+    @Test(timeout = 5000)
+    public void shouldStartNextAttemptWhenAttemptFails() throws Exception {
+        lookup.addresses = new InetAddress[] { refused, reachable };
+        SocketConnector connector = SocketConnector.newInstance(newResolver(), 60000L);
+
+        Socket socket = connect(connector, 0);
+        assertEquals(reachable, socket.getInetAddress());
+    }
+
+    @Test(timeout = 5000)
+    public void shouldStartNextAttemptAfterAttemptDelay() throws Exception {
+        lookup.addresses = new InetAddress[] { stalled, reachable };
+        SocketConnector connector = SocketConnector.newInstance(newResolver(), 50L);
+
+        Socket socket = connect(connector, 0);
+        assertEquals(reachable, socket.getInetAddress());
+    }
+
+    @Test(timeout = 5000)
+    public void shouldTimeOutWholeRace() throws Exception {
+        lookup.addresses = new InetAddress[] { stalled, stalled };
+        SocketConnector connector = SocketConnector.newInstance(newResolver(), 50L);
+
+        try {
+            connect(connector, 200);
+            fail("Expected SocketTimeoutException");
+        }
+        catch (SocketTimeoutException e) {
+            // expected
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void shouldTimeOutSingleAddress() throws Exception {
+        lookup.addresses = new InetAddress[] { stalled };
+        SocketConnector connector = SocketConnector.newInstance(newResolver(), 50L);
+
+        try {
+            connect(connector, 200);
+            fail("Expected SocketTimeoutException");
+        }
+        catch (SocketTimeoutException e) {
+            // expected
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void shouldKeepResolvedAddressesAfterFailedConnect() throws Exception {
+        lookup.addresses = new InetAddress[] { refused };
+        SocketConnector connector = SocketConnector.newInstance(newResolver(), 50L);
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                connect(connector, 1000);
+                fail("Expected ConnectException");
+            }
+            catch (ConnectException e) {
+                // expected
+            }
+        }
+        assertEquals(1, lookup.count.get());
+    }
+
+    private HostResolver newResolver() {
+        return new HostResolver(60000L, 0L, 0L, lookup, null);
+    }
+
+    private Socket connect(SocketConnector connector, int timeout) throws IOException {
+        Socket socket = connector.connect("example.com", port, timeout);
+        sockets.add(socket);
+        return socket;
+    }
+
+    private static final class FixedLookup implements HostResolver.Lookup {
+
+        private final AtomicInteger count = new AtomicInteger();
+        private InetAddress[] addresses;
+
+        @Override
+        public InetAddress[] lookup(String host) throws UnknownHostException {
+            count.incrementAndGet();
+            return addresses;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kaazing.netx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class TransportOptionsTest {
+
+    @Test
+    public void shouldReturnDefaultsWithoutTransportParameters() throws Exception {
+        TransportOptions defaults = new TransportOptions(TransportProfile.LOW_LATENCY);
+
+        assertSame(defaults, TransportOptions.fromQuery(null, defaults));
+        assertSame(defaults, TransportOptions.fromQuery("a=1&b=2", defaults));
+    }
+
+    @Test
+    public void shouldOverrideDefaultsWithTransportParameters() throws Exception {
+        TransportOptions defaults = new TransportOptions(TransportProfile.LOW_LATENCY);
+
+        TransportOptions options = TransportOptions.fromQuery("netx.tcpNoDelay=false&netx.trafficClass=0x08", defaults);
+
+        assertEquals(Boolean.FALSE, options.getTcpNoDelay());
+        assertEquals(Integer.valueOf(0x08), options.getTrafficClass());
+        assertEquals(Boolean.TRUE, options.getKeepAlive());
+        assertEquals(Boolean.TRUE, defaults.getTcpNoDelay());
+    }
+
+    @Test
+    public void shouldApplyProfileBeforeOverrides() throws Exception {
+        TransportOptions options = TransportOptions.fromQuery("netx.sendBufferSize=1024&netx.transport=bulk-throughput", null);
+
+        assertEquals(Boolean.FALSE, options.getTcpNoDelay());
+        assertEquals(Integer.valueOf(1024), options.getSendBufferSize());
+        assertEquals(Integer.valueOf(262144), options.getReceiveBufferSize());
+    }
+
+    @Test
+    public void shouldStripTransportParameters() throws Exception {
+        assertEquals("a=1&b=2", TransportOptions.stripQuery("a=1&netx.transport=mobile&b=2"));
+        assertEquals("a=1", TransportOptions.stripQuery("a=1"));
+        assertNull(TransportOptions.stripQuery("netx.keepAlive=true"));
+        assertNull(TransportOptions.stripQuery(null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectUnrecognizedTransportParameter() throws Exception {
+        TransportOptions.fromQuery("netx.unknown=1", null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectUnrecognizedTransportProfile() throws Exception {
+        TransportOptions.fromQuery("netx.transport=satellite", null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidBufferSize() throws Exception {
+        TransportOptions.fromQuery("netx.receiveBufferSize=large", null);
+    }
+}
@@ -17,15 +17,19 @@
 package org.kaazing.netx.http.bridge.internal;
 
 import static java.lang.String.format;
+import static org.kaazing.netx.http.SSLSessionCache.getInstance;
 
 import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.URL;
 
 import javax.net.SocketFactory;
-import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.SSLContext;
 
+import org.kaazing.netx.TransportOptions;
+import org.kaazing.netx.http.SSLSessionCache;
 import org.kaazing.netx.http.internal.HttpOriginSecuritySpi;
 
 public final class HttpOriginSecurityImpl extends HttpOriginSecuritySpi {
@@ -49,7 +53,11 @@ public final class HttpOriginSecurityImpl extends HttpOriginSecuritySpi {
     }
 
     @Override
-    protected Socket createSocket0(URL url) throws IOException {
+    protected Socket createSocket0(
+            URL url,
+            SSLContext sslContext,
+            int connectTimeout,
+            TransportOptions transportOptions) throws IOException {
         String protocol = url.getProtocol();
         String host = url.getHost();
         int port = url.getPort();
@@ -58,12 +66,15 @@ public final class HttpOriginSecurityImpl extends HttpOriginSecuritySpi {
         }
 
         if ("http".equalsIgnoreCase(protocol)) {
-            SocketFactory socketFactory = SocketFactory.getDefault();
-            return socketFactory.createSocket(host, port);
+            return connect(host, port, connectTimeout, transportOptions);
         }
         else if ("https".equalsIgnoreCase(protocol)) {
-            SocketFactory socketFactory = SSLSocketFactory.getDefault();
-            return socketFactory.createSocket(host, port);
+            Socket socket = connect(host, port, connectTimeout, transportOptions);
+            socket.setSoTimeout(connectTimeout);
+            SSLSessionCache sessionCache = (sslContext != null) ? getInstance(sslContext) : SSLSessionCache.getDefault();
+            Socket sslSocket = sessionCache.createSocket(socket, host, port);
+            sslSocket.setSoTimeout(0);
+            return sslSocket;
         }
         else {
             throw new IllegalStateException(format("Unexpected protocol: %s", protocol));
@@ -71,4 +82,19 @@ public final class HttpOriginSecurityImpl extends HttpOriginSecuritySpi {
 
     }
 
+    private static Socket connect(String host, int port, int connectTimeout, TransportOptions transportOptions)
+            throws IOException {
+        Socket socket = SocketFactory.getDefault().createSocket();
+        try {
+            if (transportOptions != null) {
+                transportOptions.apply(socket);
+            }
+            socket.connect(new InetSocketAddress(host, port), connectTimeout);
+        }
+        catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
 }
@@ -0,0 +1,553 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.kaazing.netx.http;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLContext;
+
+import org.kaazing.netx.TransportOptions;
+
+/**
+ * {@code HttpConnectionPool} keeps HTTP/1.1 and HTTP/2 connections alive between requests to the same origin.
+ *
+ * A connection whose response has been fully read is returned to the pool, and the next request to the same origin sends
+ * its request on that connection instead of connecting a new socket. At most a configured number of idle connections are
+ * kept per origin, and connections idle for longer than the idle timeout are closed.
+ * <p>
+ * Optionally, {@code GET} and {@code HEAD} requests without a body are pipelined: such a request may be sent on a
+ * connection that is still waiting for earlier responses, and its response is read once the earlier responses have been
+ * read.
+ * <p>
+ * HTTP/2 connections, used when enabled with {@link HttpURLConnection#setHttp2Enabled}, are multiplexed: any request may
+ * be sent on such a connection while earlier requests are outstanding, up to the number of concurrent streams allowed by
+ * the server, so a single connection serves the concurrent requests to an origin.
+ * <p>
+ * A pool is used by an {@link HttpURLConnection} only when set with {@link HttpURLConnection#setConnectionPool}; requests
+ * are then sent by the netx HTTP/1.1 and HTTP/2 implementation rather than the JDK {@code java.net.HttpURLConnection}.
+ */
+public final class HttpConnectionPool {
+
+    /**
+     * Default maximum number of idle connections kept per origin.
+     */
+    public static final int DEFAULT_MAX_IDLE_CONNECTIONS = 8;
+
+    /**
+     * Default time in milliseconds after which an idle connection is closed.
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT = 15000L;
+
+    /**
+     * Default maximum number of requests outstanding on a connection, where {@code 1} disables pipelining.
+     */
+    public static final int DEFAULT_MAX_PIPELINED_REQUESTS = 1;
+
+    private static final HttpConnectionPool DEFAULT = new HttpConnectionPool(
+            DEFAULT_MAX_IDLE_CONNECTIONS, DEFAULT_IDLE_TIMEOUT, DEFAULT_MAX_PIPELINED_REQUESTS);
+
+    private final int maxIdleConnections;
+    private final long idleTimeout;
+    private final int maxPipelinedRequests;
+    private final Map<String, Endpoint> endpoints;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong pipelined;
+    private final AtomicLong multiplexed;
+    private final AtomicLong evictions;
+
+    private ScheduledExecutorService eviction;
+
+    /**
+     * Returns the default {@code HttpConnectionPool}, shared by all connections configured to use it.
+     *
+     * @return the default {@code HttpConnectionPool}
+     */
+    public static HttpConnectionPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Creates a new {@code HttpConnectionPool} with the default limits and idle timeout, without pipelining.
+     *
+     * @return a new {@code HttpConnectionPool}
+     */
+    public static HttpConnectionPool newInstance() {
+        return new HttpConnectionPool(DEFAULT_MAX_IDLE_CONNECTIONS, DEFAULT_IDLE_TIMEOUT, DEFAULT_MAX_PIPELINED_REQUESTS);
+    }
+
+    /**
+     * Creates a new {@code HttpConnectionPool}.
+     *
+     * @param maxIdleConnections    the maximum number of idle connections kept per origin
+     * @param idleTimeout           the time in milliseconds after which an idle connection is closed
+     * @param maxPipelinedRequests  the maximum number of requests outstanding on a connection, {@code 1} for no pipelining
+     *
+     * @return a new {@code HttpConnectionPool}
+     */
+    public static HttpConnectionPool newInstance(int maxIdleConnections, long idleTimeout, int maxPipelinedRequests) {
+        if (maxIdleConnections < 0) {
+            throw new IllegalArgumentException("Maximum idle connections must not be negative");
+        }
+
+        if (idleTimeout <= 0L) {
+            throw new IllegalArgumentException("Idle timeout must be positive");
+        }
+
+        if (maxPipelinedRequests < 1) {
+            throw new IllegalArgumentException("Maximum pipelined requests must be positive");
+        }
+
+        return new HttpConnectionPool(maxIdleConnections, idleTimeout, maxPipelinedRequests);
+    }
+
+    private HttpConnectionPool(int maxIdleConnections, long idleTimeout, int maxPipelinedRequests) {
+        this.maxIdleConnections = maxIdleConnections;
+        this.idleTimeout = idleTimeout;
+        this.maxPipelinedRequests = maxPipelinedRequests;
+        this.endpoints = new HashMap<String, Endpoint>();
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.pipelined = new AtomicLong();
+        this.multiplexed = new AtomicLong();
+        this.evictions = new AtomicLong();
+    }
+
+    /**
+     * Returns the maximum number of idle connections kept per origin.
+     *
+     * @return the maximum number of idle connections
+     */
+    public int getMaxIdleConnections() {
+        return maxIdleConnections;
+    }
+
+    /**
+     * Returns the time in milliseconds after which an idle connection is closed.
+     *
+     * @return the idle timeout
+     */
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Returns the maximum number of requests outstanding on a connection.
+     *
+     * @return the maximum number of pipelined requests, {@code 1} if pipelining is disabled
+     */
+    public int getMaxPipelinedRequests() {
+        return maxPipelinedRequests;
+    }
+
+    /**
+     * Takes a pooled connection to an origin and reserves it for one request. An idle connection is preferred; otherwise a
+     * multiplexed connection with streams in progress is used, or, when the request may be pipelined, a connection still
+     * waiting for earlier responses.
+     *
+     * @param url               the request location; only the protocol, host and port are used
+     * @param sslContext        the SSL context for {@code https}, or {@code null} for the default SSL context
+     * @param transportOptions  the socket options, or {@code null} for platform defaults
+     * @param pipeline          {@code true} if the request may be pipelined
+     *
+     * @return a reserved connection, or {@code null} if a new connection is needed
+     */
+    public Connection take(URL url, SSLContext sslContext, TransportOptions transportOptions, boolean pipeline) {
+        if (url == null) {
+            throw new NullPointerException("Null url passed in");
+        }
+
+        Endpoint endpoint = endpoint(key(url, sslContext, transportOptions), false);
+        Connection connection = (endpoint != null) ? endpoint.take(pipeline && maxPipelinedRequests > 1) : null;
+        if (connection != null) {
+            hits.incrementAndGet();
+        }
+        else {
+            misses.incrementAndGet();
+        }
+        return connection;
+    }
+
+    /**
+     * Offers a new connection, already reserved for a pipelinable request, to later pipelinable requests to the same
+     * origin, or a new multiplexed connection to later requests to the same origin. Has no effect on a connection that is
+     * not multiplexed unless pipelining is enabled.
+     *
+     * @param url               the request location
+     * @param sslContext        the SSL context for {@code https}, or {@code null} for the default SSL context
+     * @param transportOptions  the socket options, or {@code null} for platform defaults
+     * @param connection        the connection
+     */
+    public void share(URL url, SSLContext sslContext, TransportOptions transportOptions, Connection connection) {
+        if (connection == null) {
+            throw new NullPointerException("Null connection passed in");
+        }
+
+        if (maxPipelinedRequests > 1 || connection.isMultiplexed()) {
+            endpoint(key(url, sslContext, transportOptions), true).share(connection);
+        }
+    }
+
+    /**
+     * Returns a connection to the pool after a response has been read. The connection becomes idle once it has no
+     * outstanding requests, and is closed if it is no longer usable or the origin already has enough idle connections.
+     *
+     * @param url               the request location
+     * @param sslContext        the SSL context for {@code https}, or {@code null} for the default SSL context
+     * @param transportOptions  the socket options, or {@code null} for platform defaults
+     * @param connection        the connection
+     */
+    public void release(URL url, SSLContext sslContext, TransportOptions transportOptions, Connection connection) {
+        if (connection == null) {
+            throw new NullPointerException("Null connection passed in");
+        }
+
+        endpoint(key(url, sslContext, transportOptions), true).release(connection);
+    }
+
+    /**
+     * Returns the number of idle connections kept for an origin.
+     *
+     * @param url               the origin
+     * @param sslContext        the SSL context for {@code https}, or {@code null} for the default SSL context
+     * @param transportOptions  the socket options, or {@code null} for platform defaults
+     *
+     * @return the number of idle connections
+     */
+    public int getIdleConnectionCount(URL url, SSLContext sslContext, TransportOptions transportOptions) {
+        Endpoint endpoint = endpoint(key(url, sslContext, transportOptions), false);
+        return (endpoint != null) ? endpoint.idleCount() : 0;
+    }
+
+    /**
+     * Returns the number of requests sent on a pooled connection.
+     *
+     * @return the number of pool hits
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of requests that found no pooled connection and connected a new socket.
+     *
+     * @return the number of pool misses
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of requests pipelined behind earlier requests on the same connection.
+     *
+     * @return the number of pipelined requests
+     */
+    public long getPipelinedCount() {
+        return pipelined.get();
+    }
+
+    /**
+     * Returns the number of requests sent as an additional stream on a multiplexed connection.
+     *
+     * @return the number of multiplexed requests
+     */
+    public long getMultiplexedCount() {
+        return multiplexed.get();
+    }
+
+    /**
+     * Returns the number of idle connections closed because they were idle for longer than the idle timeout or were closed
+     * by the server.
+     *
+     * @return the number of evicted connections
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Closes all idle connections. Connections in use are closed when they are released.
+     */
+    public void clear() {
+        List<Endpoint> removed;
+        synchronized (endpoints) {
+            removed = new ArrayList<Endpoint>(endpoints.values());
+            endpoints.clear();
+
+            if (eviction != null) {
+                eviction.shutdown();
+                eviction = null;
+            }
+        }
+
+        for (Endpoint endpoint : removed) {
+            endpoint.clear();
+        }
+    }
+
+    /**
+     * A connection kept in an {@code HttpConnectionPool}.
+     */
+    public abstract static class Connection {
+
+        /**
+         * Reserves the connection for one more request, unless it is closed or already has the maximum number of
+         * outstanding requests.
+         *
+         * @param maxPending  the maximum number of outstanding requests, including the reserved one
+         *
+         * @return {@code true} if the connection was reserved
+         */
+        protected abstract boolean reserve(int maxPending);
+
+        /**
+         * Returns whether the connection is open, without outstanding requests.
+         *
+         * @return {@code true} if the connection is idle
+         */
+        protected abstract boolean isIdle();
+
+        /**
+         * Returns whether the connection can send further requests.
+         *
+         * @return {@code true} if the connection is open
+         */
+        protected abstract boolean isOpen();
+
+        /**
+         * Returns whether the connection carries concurrent requests as independent streams, such as an HTTP/2 connection,
+         * so that it may be reserved while earlier requests are outstanding regardless of pipelining.
+         *
+         * @return {@code true} if the connection is multiplexed
+         */
+        protected boolean isMultiplexed() {
+            return false;
+        }
+
+        /**
+         * Closes the connection.
+         */
+        protected abstract void close();
+    }
+
+    private Endpoint endpoint(String key, boolean create) {
+        synchronized (endpoints) {
+            Endpoint endpoint = endpoints.get(key);
+            if (endpoint == null && create) {
+                endpoint = new Endpoint();
+                endpoints.put(key, endpoint);
+
+                if (eviction == null) {
+                    eviction = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "netx-connection-pool-eviction");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                    long interval = Math.max(idleTimeout / 2, 1L);
+                    eviction.scheduleWithFixedDelay(new Runnable() {
+                        @Override
+                        public void run() {
+                            evict();
+                        }
+                    }, interval, interval, MILLISECONDS);
+                }
+            }
+            return endpoint;
+        }
+    }
+
+    private void evict() {
+        List<Endpoint> candidates;
+        synchronized (endpoints) {
+            candidates = new ArrayList<Endpoint>(endpoints.values());
+        }
+
+        for (Endpoint endpoint : candidates) {
+            endpoint.evict();
+        }
+    }
+
+    private static String key(URL url, SSLContext sslContext, TransportOptions transportOptions) {
+        int port = url.getPort();
+        if (port == -1) {
+            port = url.getDefaultPort();
+        }
+
+        StringBuilder key = new StringBuilder();
+        key.append(url.getProtocol().toLowerCase()).append("://").append(url.getHost().toLowerCase()).append(':').append(port);
+        if (sslContext != null) {
+            key.append('#').append(System.identityHashCode(sslContext));
+        }
+        if (transportOptions != null) {
+            key.append(transportOptions);
+        }
+        return key.toString();
+    }
+
+    private static final class IdleConnection {
+        final Connection connection;
+        final long idleSince;
+
+        IdleConnection(Connection connection) {
+            this.connection = connection;
+            this.idleSince = System.currentTimeMillis();
+        }
+    }
+
+    private final class Endpoint {
+        private final LinkedList<IdleConnection> idle;
+        private final LinkedList<Connection> active;
+
+        Endpoint() {
+            this.idle = new LinkedList<IdleConnection>();
+            this.active = new LinkedList<Connection>();
+        }
+
+        Connection take(boolean pipeline) {
+            Connection connection = null;
+            List<Connection> expired = new LinkedList<Connection>();
+            long now = System.currentTimeMillis();
+
+            synchronized (this) {
+                // most recently used first, its socket is the least likely to have been closed by the server
+                while (connection == null && !idle.isEmpty()) {
+                    IdleConnection idleConnection = idle.removeLast();
+                    Connection candidate = idleConnection.connection;
+                    if (now - idleConnection.idleSince < idleTimeout && candidate.reserve(maxPipelinedRequests)) {
+                        connection = candidate;
+                        if (pipeline || connection.isMultiplexed()) {
+                            active.add(connection);
+                        }
+                    }
+                    else {
+                        expired.add(candidate);
+                    }
+                }
+
+                if (connection == null) {
+                    for (Iterator<Connection> i = active.iterator(); i.hasNext(); ) {
+                        Connection candidate = i.next();
+                        boolean multiplex = candidate.isMultiplexed();
+                        if (!candidate.isOpen()) {
+                            i.remove();
+                        }
+                        else if ((pipeline || multiplex) && candidate.reserve(maxPipelinedRequests)) {
+                            connection = candidate;
+                            if (multiplex) {
+                                multiplexed.incrementAndGet();
+                            }
+                            else {
+                                pipelined.incrementAndGet();
+                            }
+                            break;
+                        }
+                    }
+                }
+            }
+
+            for (Connection candidate : expired) {
+                evictions.incrementAndGet();
+                candidate.close();
+            }
+
+            return connection;
+        }
+
+        synchronized void share(Connection connection) {
+            if (!active.contains(connection)) {
+                active.add(connection);
+            }
+        }
+
+        void release(Connection connection) {
+            boolean close = false;
+            synchronized (this) {
+                if (!connection.isOpen()) {
+                    active.remove(connection);
+                    close = true;
+                }
+                else if (connection.isIdle()) {
+                    // still busy when a pipelined request reserved it before this release
+                    active.remove(connection);
+                    if (idle.size() < maxIdleConnections) {
+                        idle.addLast(new IdleConnection(connection));
+                    }
+                    else {
+                        close = true;
+                    }
+                }
+            }
+
+            if (close) {
+                connection.close();
+            }
+        }
+
+        synchronized int idleCount() {
+            return idle.size();
+        }
+
+        void evict() {
+            List<Connection> expired = new LinkedList<Connection>();
+            long now = System.currentTimeMillis();
+
+            synchronized (this) {
+                for (Iterator<IdleConnection> i = idle.iterator(); i.hasNext(); ) {
+                    IdleConnection idleConnection = i.next();
+                    if (now - idleConnection.idleSince >= idleTimeout || !idleConnection.connection.isOpen()) {
+                        i.remove();
+                        expired.add(idleConnection.connection);
+                    }
+                }
+            }
+
+            for (Connection connection : expired) {
+                evictions.incrementAndGet();
+                connection.close();
+            }
+        }
+
+        void clear() {
+            List<IdleConnection> removed;
+            synchronized (this) {
+                removed = new ArrayList<IdleConnection>(idle);
+                idle.clear();
+                active.clear();
+            }
+
+            for (IdleConnection idleConnection : removed) {
+                idleConnection.connection.close();
+            }
+        }
+    }
+}
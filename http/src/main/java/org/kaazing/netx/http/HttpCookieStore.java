@@ -0,0 +1,673 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.kaazing.netx.http;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.io.IOException;
+import java.net.CookieHandler;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@code HttpCookieStore} keeps the cookies received in {@code Set-Cookie} response headers and supplies the
+ * {@code Cookie} request header for later requests.
+ *
+ * Cookies are indexed by the registrable domain of the host that set them, and the {@code Cookie} header of each origin
+ * and path is encoded once and reused until the cookies of its domain change, so the work per request does not grow with
+ * the total number of cookies in the store. Expired cookies are removed by a timer rather than by scanning the store.
+ * <p>
+ * The registrable domain is approximated without a full public suffix list: the last two labels of the host name, or the
+ * last three labels below a two letter country code domain whose second level label is one that registries commonly open
+ * for registration, such as {@code co.uk} or {@code com.au}. Other names under a country code domain, such as
+ * {@code sap.de}, are registrable domains themselves. A cookie whose {@code Domain} attribute is wider than the registrable
+ * domain of the host setting it is ignored. At most a
+ * configured number of cookies are kept per registrable domain, oldest first to be removed.
+ * <p>
+ * A store is used by an {@link HttpURLConnection} when set with {@link HttpURLConnection#setCookieStore}, instead of the
+ * system-wide {@link CookieHandler#getDefault()}. As a {@link CookieHandler}, a store can also be installed system-wide.
+ */
+public final class HttpCookieStore extends CookieHandler {
+
+    /**
+     * Default maximum number of cookies kept per registrable domain.
+     */
+    public static final int DEFAULT_MAX_COOKIES_PER_DOMAIN = 50;
+
+    private static final String HEADER_COOKIE = "Cookie";
+    private static final int MAX_CACHED_HEADERS_PER_DOMAIN = 64;
+
+    // second level labels under which country code registries commonly register names, as listed by the public suffix list
+    private static final Set<String> COUNTRY_CODE_SECOND_LEVEL_LABELS = new HashSet<String>(Arrays.asList(
+            "ac", "co", "com", "edu", "gob", "go", "gov", "govt", "ltd", "me", "mil", "ne", "net", "nhs", "nic", "or", "org",
+            "plc", "sch"));
+
+    private static final CookieHeader NO_COOKIES = new CookieHeader(null, Long.MAX_VALUE);
+
+    private static final HttpCookieStore DEFAULT = new HttpCookieStore(DEFAULT_MAX_COOKIES_PER_DOMAIN);
+
+    private final int maxCookiesPerDomain;
+    private final Map<String, Domain> domains;
+    private final TreeSet<StoredCookie> expiries;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong expirations;
+
+    private long sequence;
+    private int size;
+    private ScheduledExecutorService expiry;
+    private ScheduledFuture<?> nextExpiry;
+    private long nextExpiryAt;
+
+    /**
+     * Returns the default {@code HttpCookieStore}, shared by all connections configured to use it.
+     *
+     * @return the default {@code HttpCookieStore}
+     */
+    public static HttpCookieStore getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Creates a new, empty {@code HttpCookieStore} with the default maximum number of cookies per domain.
+     *
+     * @return a new {@code HttpCookieStore}
+     */
+    public static HttpCookieStore newInstance() {
+        return new HttpCookieStore(DEFAULT_MAX_COOKIES_PER_DOMAIN);
+    }
+
+    /**
+     * Creates a new, empty {@code HttpCookieStore}.
+     *
+     * @param maxCookiesPerDomain  the maximum number of cookies kept per registrable domain
+     *
+     * @return a new {@code HttpCookieStore}
+     */
+    public static HttpCookieStore newInstance(int maxCookiesPerDomain) {
+        if (maxCookiesPerDomain <= 0) {
+            throw new IllegalArgumentException("Maximum cookies per domain must be positive");
+        }
+
+        return new HttpCookieStore(maxCookiesPerDomain);
+    }
+
+    private HttpCookieStore(int maxCookiesPerDomain) {
+        this.maxCookiesPerDomain = maxCookiesPerDomain;
+        this.domains = new HashMap<String, Domain>();
+        this.expiries = new TreeSet<StoredCookie>();
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.expirations = new AtomicLong();
+        this.nextExpiryAt = Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns the maximum number of cookies kept per registrable domain.
+     *
+     * @return the maximum number of cookies per domain
+     */
+    public int getMaxCookiesPerDomain() {
+        return maxCookiesPerDomain;
+    }
+
+    /**
+     * Returns the value of the {@code Cookie} request header for a location.
+     *
+     * @param location  the requested location
+     *
+     * @return the {@code Cookie} header value, or {@code null} if no cookie applies to the location
+     */
+    public String getCookieHeader(URL location) {
+        if (location == null) {
+            throw new NullPointerException("Null location passed in");
+        }
+
+        return lookup(location.getProtocol(), location.getHost(), location.getPath()).value;
+    }
+
+    /**
+     * Returns the value of the {@code Cookie} request header for a location, encoded as US-ASCII bytes. The bytes are
+     * encoded once and shared by all requests with the same cookies, so the returned buffer is read-only.
+     *
+     * @param location  the requested location
+     *
+     * @return the encoded {@code Cookie} header value, or {@code null} if no cookie applies to the location
+     */
+    public ByteBuffer getEncodedCookieHeader(URL location) {
+        if (location == null) {
+            throw new NullPointerException("Null location passed in");
+        }
+
+        CookieHeader header = lookup(location.getProtocol(), location.getHost(), location.getPath());
+        return (header.encoded != null) ? ByteBuffer.wrap(header.encoded).asReadOnlyBuffer() : null;
+    }
+
+    /**
+     * Stores the cookies of a {@code Set-Cookie} or {@code Set-Cookie2} response header value. A cookie with the same name,
+     * domain and path as a stored cookie replaces it, and a cookie that has already expired removes it.
+     *
+     * @param location   the location of the response
+     * @param setCookie  the header value
+     */
+    public void add(URL location, String setCookie) {
+        if (location == null) {
+            throw new NullPointerException("Null location passed in");
+        }
+
+        if (setCookie == null) {
+            throw new NullPointerException("Null cookie passed in");
+        }
+
+        add(location.getHost(), location.getPath(), setCookie);
+    }
+
+    /**
+     * Stores the cookies of the {@code Set-Cookie} and {@code Set-Cookie2} headers of a response.
+     *
+     * @param location         the location of the response
+     * @param responseHeaders  the response header fields
+     */
+    public void put(URL location, Map<String, List<String>> responseHeaders) {
+        if (location == null) {
+            throw new NullPointerException("Null location passed in");
+        }
+
+        if (responseHeaders == null) {
+            throw new NullPointerException("Null response headers passed in");
+        }
+
+        put(location.getHost(), location.getPath(), responseHeaders);
+    }
+
+    @Override
+    public Map<String, List<String>> get(URI uri, Map<String, List<String>> requestHeaders) throws IOException {
+        if (uri == null) {
+            throw new NullPointerException("Null URI passed in");
+        }
+
+        if (requestHeaders == null) {
+            throw new NullPointerException("Null request headers passed in");
+        }
+
+        String value = lookup(uri.getScheme(), uri.getHost(), uri.getPath()).value;
+        if (value == null) {
+            return Collections.emptyMap();
+        }
+        return Collections.singletonMap(HEADER_COOKIE, Collections.singletonList(value));
+    }
+
+    @Override
+    public void put(URI uri, Map<String, List<String>> responseHeaders) throws IOException {
+        if (uri == null) {
+            throw new NullPointerException("Null URI passed in");
+        }
+
+        if (responseHeaders == null) {
+            throw new NullPointerException("Null response headers passed in");
+        }
+
+        put(uri.getHost(), uri.getPath(), responseHeaders);
+    }
+
+    /**
+     * Removes all cookies.
+     */
+    public void clear() {
+        synchronized (domains) {
+            domains.clear();
+            expiries.clear();
+            size = 0;
+
+            if (expiry != null) {
+                expiry.shutdownNow();
+                expiry = null;
+                nextExpiry = null;
+                nextExpiryAt = Long.MAX_VALUE;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of stored cookies.
+     *
+     * @return the number of cookies
+     */
+    public int size() {
+        synchronized (domains) {
+            return size;
+        }
+    }
+
+    /**
+     * Returns the number of {@code Cookie} header lookups answered by a previously encoded header.
+     *
+     * @return the number of header cache hits
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of {@code Cookie} header lookups that encoded the header from the stored cookies.
+     *
+     * @return the number of header cache misses
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of cookies removed because they expired.
+     *
+     * @return the number of expired cookies
+     */
+    public long getExpiredCount() {
+        return expirations.get();
+    }
+
+    private void put(String host, String path, Map<String, List<String>> responseHeaders) {
+        for (Map.Entry<String, List<String>> entry : responseHeaders.entrySet()) {
+            String name = entry.getKey();
+            if ("Set-Cookie".equalsIgnoreCase(name) || "Set-Cookie2".equalsIgnoreCase(name)) {
+                for (String setCookie : entry.getValue()) {
+                    add(host, path, setCookie);
+                }
+            }
+        }
+    }
+
+    private void add(String host, String path, String setCookie) {
+        if (host == null || host.isEmpty()) {
+            return;
+        }
+
+        List<HttpCookie> cookies;
+        try {
+            cookies = HttpCookie.parse(setCookie);
+        }
+        catch (IllegalArgumentException e) {
+            // malformed cookies are ignored
+            return;
+        }
+
+        host = normalizeHost(host);
+        String registrableDomain = registrableDomain(host);
+        long now = System.currentTimeMillis();
+
+        synchronized (domains) {
+            for (HttpCookie cookie : cookies) {
+                String cookieDomain = cookie.getDomain();
+                boolean hostOnly = cookieDomain == null;
+                if (hostOnly) {
+                    cookieDomain = host;
+                }
+                else {
+                    cookieDomain = normalizeHost(cookieDomain.startsWith(".") ? cookieDomain.substring(1) : cookieDomain);
+                    if (!domainMatches(host, cookieDomain) || !registrableDomain.equals(registrableDomain(cookieDomain))) {
+                        continue;
+                    }
+                }
+
+                String cookiePath = cookie.getPath();
+                if (cookiePath == null || !cookiePath.startsWith("/")) {
+                    cookiePath = defaultPath(path);
+                }
+
+                long maxAge = cookie.getMaxAge();
+                long expiresAt = (maxAge < 0L) ? Long.MAX_VALUE : now + Math.min(maxAge, Long.MAX_VALUE / 2000L) * 1000L;
+
+                StoredCookie stored = new StoredCookie(cookie.getName(), cookie.getValue(), cookieDomain, hostOnly,
+                        cookiePath, cookie.getSecure(), expiresAt, sequence++);
+                store(registrableDomain, stored, maxAge == 0L);
+            }
+        }
+    }
+
+    private void store(String registrableDomain, StoredCookie cookie, boolean expired) {
+        Domain domain = domains.get(registrableDomain);
+        if (domain == null) {
+            if (expired) {
+                return;
+            }
+            domain = new Domain();
+            domains.put(registrableDomain, domain);
+        }
+
+        StoredCookie replaced = domain.remove(cookie);
+        if (replaced != null) {
+            forget(replaced);
+        }
+
+        if (!expired) {
+            if (domain.cookies.size() >= maxCookiesPerDomain) {
+                forget(domain.removeOldest());
+            }
+
+            domain.add(cookie);
+            size++;
+
+            if (cookie.expiresAt != Long.MAX_VALUE) {
+                expiries.add(cookie);
+                scheduleExpiry();
+            }
+        }
+        else if (domain.cookies.isEmpty()) {
+            domains.remove(registrableDomain);
+        }
+    }
+
+    private void forget(StoredCookie cookie) {
+        size--;
+        if (cookie.expiresAt != Long.MAX_VALUE) {
+            expiries.remove(cookie);
+        }
+    }
+
+    private CookieHeader lookup(String scheme, String host, String path) {
+        if (host == null || host.isEmpty()) {
+            return NO_COOKIES;
+        }
+
+        host = normalizeHost(host);
+        boolean secure = "https".equalsIgnoreCase(scheme) || "wss".equalsIgnoreCase(scheme);
+        if (path == null || path.isEmpty()) {
+            path = "/";
+        }
+
+        synchronized (domains) {
+            Domain domain = domains.get(registrableDomain(host));
+            if (domain == null) {
+                return NO_COOKIES;
+            }
+
+            // the applicable cookies only depend on the longest matching cookie path
+            String matchedPath = domain.longestMatchingPath(path);
+            if (matchedPath == null) {
+                return NO_COOKIES;
+            }
+
+            String key = (secure ? "https://" : "http://") + host + matchedPath;
+            long now = System.currentTimeMillis();
+            CookieHeader header = domain.headers.get(key);
+            if (header != null && now < header.expiresAt) {
+                hits.incrementAndGet();
+                return header;
+            }
+
+            misses.incrementAndGet();
+            header = domain.encode(host, path, secure, now);
+            domain.headers.put(key, header);
+            return header;
+        }
+    }
+
+    private void scheduleExpiry() {
+        long expiresAt = expiries.first().expiresAt;
+        if (expiresAt >= nextExpiryAt) {
+            return;
+        }
+
+        if (expiry == null) {
+            expiry = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "netx-cookie-store-expiry");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        if (nextExpiry != null) {
+            nextExpiry.cancel(false);
+        }
+
+        long delay = Math.max(expiresAt - System.currentTimeMillis(), 0L);
+        nextExpiryAt = expiresAt;
+        nextExpiry = expiry.schedule(new Runnable() {
+            @Override
+            public void run() {
+                expire();
+            }
+        }, delay, MILLISECONDS);
+    }
+
+    private void expire() {
+        synchronized (domains) {
+            nextExpiry = null;
+            nextExpiryAt = Long.MAX_VALUE;
+
+            long now = System.currentTimeMillis();
+            while (!expiries.isEmpty() && expiries.first().expiresAt <= now) {
+                StoredCookie cookie = expiries.pollFirst();
+                String registrableDomain = registrableDomain(cookie.domain);
+                Domain domain = domains.get(registrableDomain);
+                if (domain != null && domain.remove(cookie) != null) {
+                    size--;
+                    expirations.incrementAndGet();
+                    if (domain.cookies.isEmpty()) {
+                        domains.remove(registrableDomain);
+                    }
+                }
+            }
+
+            if (!expiries.isEmpty() && expiry != null) {
+                scheduleExpiry();
+            }
+        }
+    }
+
+    static String registrableDomain(String host) {
+        int length = host.length();
+        if (length == 0 || host.indexOf(':') != -1 || Character.isDigit(host.charAt(length - 1))) {
+            // IP addresses have no parent domain
+            return host;
+        }
+
+        int last = host.lastIndexOf('.');
+        int second = (last > 0) ? host.lastIndexOf('.', last - 1) : -1;
+        if (second == -1) {
+            return host;
+        }
+
+        // country code second level domains, such as co.uk or com.au
+        if (length - last - 1 == 2 && COUNTRY_CODE_SECOND_LEVEL_LABELS.contains(host.substring(second + 1, last))) {
+            int third = host.lastIndexOf('.', second - 1);
+            return (third == -1) ? host : host.substring(third + 1);
+        }
+
+        return host.substring(second + 1);
+    }
+
+    private static String normalizeHost(String host) {
+        if (host.endsWith(".")) {
+            host = host.substring(0, host.length() - 1);
+        }
+        return host.toLowerCase();
+    }
+
+    private static boolean domainMatches(String host, String domain) {
+        return host.equals(domain) ||
+                (host.endsWith(domain) && host.charAt(host.length() - domain.length() - 1) == '.' &&
+                 !Character.isDigit(host.charAt(host.length() - 1)));
+    }
+
+    private static boolean pathMatches(String path, String cookiePath) {
+        return path.startsWith(cookiePath) &&
+                (path.length() == cookiePath.length() || cookiePath.endsWith("/") || path.charAt(cookiePath.length()) == '/');
+    }
+
+    private static String defaultPath(String path) {
+        int slashAt = (path != null) ? path.lastIndexOf('/') : -1;
+        return (slashAt <= 0) ? "/" : path.substring(0, slashAt);
+    }
+
+    private static byte[] ascii(String value) {
+        byte[] bytes = new byte[value.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            char ch = value.charAt(i);
+            bytes[i] = (ch < 0x80) ? (byte) ch : (byte) '?';
+        }
+        return bytes;
+    }
+
+    private static final class Domain {
+        final List<StoredCookie> cookies;
+        final Map<String, CookieHeader> headers;
+
+        Domain() {
+            this.cookies = new ArrayList<StoredCookie>();
+            this.headers = new LinkedHashMap<String, CookieHeader>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CookieHeader> eldest) {
+                    return size() > MAX_CACHED_HEADERS_PER_DOMAIN;
+                }
+            };
+        }
+
+        // cookies are kept with longer paths first, then in creation order, which is also the Cookie header order
+        void add(StoredCookie cookie) {
+            int index = cookies.size();
+            while (index > 0 && cookies.get(index - 1).path.length() < cookie.path.length()) {
+                index--;
+            }
+            cookies.add(index, cookie);
+            headers.clear();
+        }
+
+        StoredCookie remove(StoredCookie cookie) {
+            for (int i = 0; i < cookies.size(); i++) {
+                StoredCookie candidate = cookies.get(i);
+                if (candidate.sameIdentity(cookie)) {
+                    cookies.remove(i);
+                    headers.clear();
+                    return candidate;
+                }
+            }
+            return null;
+        }
+
+        StoredCookie removeOldest() {
+            int oldest = 0;
+            for (int i = 1; i < cookies.size(); i++) {
+                if (cookies.get(i).sequence < cookies.get(oldest).sequence) {
+                    oldest = i;
+                }
+            }
+            headers.clear();
+            return cookies.remove(oldest);
+        }
+
+        String longestMatchingPath(String path) {
+            for (StoredCookie cookie : cookies) {
+                if (pathMatches(path, cookie.path)) {
+                    return cookie.path;
+                }
+            }
+            return null;
+        }
+
+        CookieHeader encode(String host, String path, boolean secure, long now) {
+            StringBuilder value = new StringBuilder();
+            long expiresAt = Long.MAX_VALUE;
+            for (StoredCookie cookie : cookies) {
+                if (cookie.expiresAt <= now || (cookie.secure && !secure) || !pathMatches(path, cookie.path)) {
+                    continue;
+                }
+
+                if (cookie.hostOnly ? !host.equals(cookie.domain) : !domainMatches(host, cookie.domain)) {
+                    continue;
+                }
+
+                if (value.length() != 0) {
+                    value.append("; ");
+                }
+                value.append(cookie.name).append('=').append(cookie.value);
+                expiresAt = Math.min(expiresAt, cookie.expiresAt);
+            }
+            return (value.length() != 0) ? new CookieHeader(value.toString(), expiresAt) : NO_COOKIES;
+        }
+    }
+
+    private static final class StoredCookie implements Comparable<StoredCookie> {
+        final String name;
+        final String value;
+        final String domain;
+        final boolean hostOnly;
+        final String path;
+        final boolean secure;
+        final long expiresAt;
+        final long sequence;
+
+        StoredCookie(String name, String value, String domain, boolean hostOnly, String path, boolean secure,
+                long expiresAt, long sequence) {
+            this.name = name;
+            this.value = value;
+            this.domain = domain;
+            this.hostOnly = hostOnly;
+            this.path = path;
+            this.secure = secure;
+            this.expiresAt = expiresAt;
+            this.sequence = sequence;
+        }
+
+        boolean sameIdentity(StoredCookie that) {
+            return this.name.equals(that.name) && this.domain.equals(that.domain) && this.path.equals(that.path);
+        }
+
+        @Override
+        public int compareTo(StoredCookie that) {
+            if (this.expiresAt != that.expiresAt) {
+                return (this.expiresAt < that.expiresAt) ? -1 : 1;
+            }
+            return (this.sequence < that.sequence) ? -1 : (this.sequence == that.sequence) ? 0 : 1;
+        }
+    }
+
+    private static final class CookieHeader {
+        final String value;
+        final byte[] encoded;
+        final long expiresAt;
+
+        CookieHeader(String value, long expiresAt) {
+            this.value = value;
+            this.encoded = (value != null) ? ascii(value) : null;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kaazing.netx.http;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@code HttpCredentialCache} remembers the {@code Authorization} header that answered an authentication challenge, so that
+ * later connections within the same protection space send it preemptively instead of first receiving a
+ * {@code 401 Unauthorized} response.
+ *
+ * Credentials are cached per protection space, that is the origin and the directory of the authenticated location, together
+ * with the authentication scheme and realm of the challenge, as described by RFC 7617. A location within the directory, or
+ * any of its subdirectories, is sent the credentials of the deepest such directory, the most recently authenticated first.
+ * Credentials are also scoped to the {@link java.net.Authenticator} or {@link org.kaazing.netx.http.auth.ChallengeHandler}
+ * that supplied them, so that connections answering challenges for another user never send them. When preemptively sent
+ * credentials are rejected, they are removed from the cache and the challenge is answered as usual.
+ * <p>
+ * Most schemes send the same {@code Authorization} header on every request. Schemes such as Digest compute a new header
+ * for each request from cached {@link Credentials}.
+ * <p>
+ * A cache is used by an {@link HttpURLConnection} only when set with {@link HttpURLConnection#setCredentialCache}.
+ */
+public final class HttpCredentialCache {
+
+    private static final HttpCredentialCache DEFAULT = new HttpCredentialCache();
+
+    private final Map<String, List<Entry>> entries;
+
+    private long sequence;
+    private int size;
+
+    /**
+     * Returns the default {@code HttpCredentialCache}, shared by all connections configured to use it.
+     *
+     * @return the default {@code HttpCredentialCache}
+     */
+    public static HttpCredentialCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Creates a new, empty {@code HttpCredentialCache}.
+     *
+     * @return a new {@code HttpCredentialCache}
+     */
+    public static HttpCredentialCache newInstance() {
+        return new HttpCredentialCache();
+    }
+
+    private HttpCredentialCache() {
+        this.entries = new HashMap<String, List<Entry>>();
+    }
+
+    /**
+     * Returns the {@code Authorization} to send preemptively with a request to a location, or {@code null} if no
+     * credentials supplied by the scope are cached for a protection space of the location.
+     *
+     * @param method    the request method
+     * @param location  the location
+     * @param scope     the {@code Authenticator} or {@code ChallengeHandler} that would answer a challenge
+     *
+     * @return the {@code Authorization} to send, or {@code null}
+     */
+    public Authorization getAuthorization(String method, URL location, Object scope) {
+        if (location == null) {
+            throw new NullPointerException("Null location passed in");
+        }
+
+        if (scope == null) {
+            throw new NullPointerException("Null scope passed in");
+        }
+
+        String path = location.getPath();
+        Entry match = null;
+        synchronized (entries) {
+            List<Entry> candidates = entries.get(origin(location));
+            if (candidates != null) {
+                for (Entry candidate : candidates) {
+                    if (candidate.scope == scope && path.startsWith(candidate.directory) &&
+                        (match == null || candidate.directory.length() > match.directory.length() ||
+                         (candidate.directory.length() == match.directory.length() && candidate.sequence > match.sequence))) {
+                        match = candidate;
+                    }
+                }
+            }
+        }
+
+        if (match == null) {
+            return null;
+        }
+
+        return new Authorization(match, match.credentials.authorize(method, location));
+    }
+
+    /**
+     * Caches the {@code Authorization} header value that was accepted for a protection space.
+     *
+     * @param location       the location that was authenticated
+     * @param scope          the {@code Authenticator} or {@code ChallengeHandler} that supplied the credentials
+     * @param scheme         the authentication scheme of the challenge
+     * @param realm          the realm of the challenge, or {@code null} if the challenge has no realm
+     * @param authorization  the accepted {@code Authorization} header value
+     */
+    public void put(URL location, Object scope, String scheme, String realm, String authorization) {
+        if (authorization == null) {
+            throw new NullPointerException("Null authorization passed in");
+        }
+
+        put(location, scope, scheme, realm, new FixedCredentials(authorization));
+    }
+
+    /**
+     * Caches the credentials that were accepted for a protection space, computing the {@code Authorization} header value of
+     * each later request.
+     *
+     * @param location     the location that was authenticated
+     * @param scope        the {@code Authenticator} or {@code ChallengeHandler} that supplied the credentials
+     * @param scheme       the authentication scheme of the challenge
+     * @param realm        the realm of the challenge, or {@code null} if the challenge has no realm
+     * @param credentials  the accepted credentials
+     */
+    public void put(URL location, Object scope, String scheme, String realm, Credentials credentials) {
+        if (location == null) {
+            throw new NullPointerException("Null location passed in");
+        }
+
+        if (scope == null) {
+            throw new NullPointerException("Null scope passed in");
+        }
+
+        if (scheme == null) {
+            throw new NullPointerException("Null scheme passed in");
+        }
+
+        if (credentials == null) {
+            throw new NullPointerException("Null credentials passed in");
+        }
+
+        String origin = origin(location);
+        String directory = directory(location.getPath());
+        synchronized (entries) {
+            List<Entry> candidates = entries.get(origin);
+            if (candidates == null) {
+                candidates = new ArrayList<Entry>(2);
+                entries.put(origin, candidates);
+            }
+
+            for (int i = 0; i < candidates.size(); i++) {
+                Entry candidate = candidates.get(i);
+                if (candidate.scope == scope && candidate.directory.equals(directory) &&
+                    candidate.scheme.equalsIgnoreCase(scheme) && equals(candidate.realm, realm)) {
+                    candidates.remove(i);
+                    size--;
+                    break;
+                }
+            }
+
+            candidates.add(new Entry(origin, directory, scope, scheme, realm, credentials, sequence++));
+            size++;
+        }
+    }
+
+    /**
+     * Removes the cached credentials that were sent preemptively and rejected by the server.
+     *
+     * @param authorization  the rejected {@code Authorization}
+     */
+    public void remove(Authorization authorization) {
+        if (authorization == null) {
+            throw new NullPointerException("Null authorization passed in");
+        }
+
+        Entry entry = authorization.entry;
+        synchronized (entries) {
+            List<Entry> candidates = entries.get(entry.origin);
+            if (candidates != null) {
+                for (int i = 0; i < candidates.size(); i++) {
+                    if (candidates.get(i) == entry) {
+                        candidates.remove(i);
+                        size--;
+                        break;
+                    }
+                }
+
+                if (candidates.isEmpty()) {
+                    entries.remove(entry.origin);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all cached credentials.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            size = 0;
+        }
+    }
+
+    /**
+     * Returns the number of cached protection spaces.
+     *
+     * @return the number of cached protection spaces
+     */
+    public int size() {
+        synchronized (entries) {
+            return size;
+        }
+    }
+
+    private static String origin(URL location) {
+        int port = location.getPort();
+        if (port == -1) {
+            port = location.getDefaultPort();
+        }
+        return location.getProtocol().toLowerCase() + "://" + location.getHost().toLowerCase() + ":" + port;
+    }
+
+    // the protection space covers all paths at or below the directory of the authenticated path
+    private static String directory(String path) {
+        int slashAt = path.lastIndexOf('/');
+        return (slashAt == -1) ? "/" : path.substring(0, slashAt + 1);
+    }
+
+    private static boolean equals(String a, String b) {
+        return (a == null) ? b == null : a.equals(b);
+    }
+
+    /**
+     * {@code Credentials} compute the {@code Authorization} header value of each request sent preemptively to a protection
+     * space.
+     */
+    public abstract static class Credentials {
+
+        /**
+         * Returns the {@code Authorization} header value of a request.
+         *
+         * @param method    the request method
+         * @param location  the request location
+         *
+         * @return the {@code Authorization} header value
+         */
+        protected abstract String authorize(String method, URL location);
+    }
+
+    /**
+     * {@code Authorization} is the {@code Authorization} header value of one request, computed from cached credentials.
+     */
+    public static final class Authorization {
+        private final Entry entry;
+        private final String value;
+
+        private Authorization(Entry entry, String value) {
+            this.entry = entry;
+            this.value = value;
+        }
+
+        /**
+         * Returns the {@code Authorization} header value.
+         *
+         * @return the header value
+         */
+        public String getValue() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return value;
+        }
+    }
+
+    private static final class FixedCredentials extends Credentials {
+        private final String authorization;
+
+        FixedCredentials(String authorization) {
+            this.authorization = authorization;
+        }
+
+        @Override
+        protected String authorize(String method, URL location) {
+            return authorization;
+        }
+    }
+
+    private static final class Entry {
+        private final String origin;
+        private final String directory;
+        private final Object scope;
+        private final String scheme;
+        private final String realm;
+        private final Credentials credentials;
+        private final long sequence;
+
+        Entry(String origin, String directory, Object scope, String scheme, String realm, Credentials credentials,
+                long sequence) {
+            this.origin = origin;
+            this.directory = directory;
+            this.scope = scope;
+            this.scheme = scheme;
+            this.realm = realm;
+            this.credentials = credentials;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,552 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kaazing.netx.http;
+
+import static java.lang.String.format;
+import static java.net.HttpURLConnection.HTTP_OK;
+import static java.net.HttpURLConnection.HTTP_PARTIAL;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.kaazing.netx.URLConnectionHelper;
+
+/**
+ * {@code HttpRangeDownloader} downloads a large resource as several byte ranges fetched concurrently, each over its own
+ * connection from an {@link HttpConnectionPool}, to overcome the throughput limit of a single TCP connection.
+ *
+ * A {@code HEAD} request first probes the {@code Accept-Ranges} and {@code Content-Length} of the resource. When the server
+ * accepts byte ranges, the target file is preallocated to the full length and divided into segments that are fetched with
+ * concurrent {@code Range} requests, each written directly into the file at its own offset. A segment that fails part way
+ * through is retried from the last byte written, up to a configured number of times. Each range request carries the
+ * {@code ETag} or {@code Last-Modified} validator from the probe in an {@code If-Range} header, so that a resource changing
+ * during the download fails the download instead of mixing two versions.
+ *
+ * A resource that does not accept byte ranges, has an unknown length, or is too small to be worth dividing is downloaded
+ * with a single {@code GET} request instead.
+ */
+public final class HttpRangeDownloader {
+
+    /**
+     * Default maximum number of concurrently fetched segments.
+     */
+    public static final int DEFAULT_SEGMENT_COUNT = 4;
+
+    /**
+     * Default minimum segment size, in bytes.
+     */
+    public static final long DEFAULT_MIN_SEGMENT_SIZE = 1L << 20;
+
+    /**
+     * Default maximum number of retries for each segment.
+     */
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private static final String HEADER_ACCEPT_RANGES = "Accept-Ranges";
+    private static final String HEADER_CONTENT_LENGTH = "Content-Length";
+    private static final String HEADER_CONTENT_RANGE = "Content-Range";
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_IF_RANGE = "If-Range";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_RANGE = "Range";
+
+    private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "netx-range-download-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    private final URLConnectionHelper helper;
+    private final HttpConnectionPool connectionPool;
+    private final int segmentCount;
+    private final long minSegmentSize;
+    private final int maxRetries;
+    private final AtomicLong segments;
+    private final AtomicLong retries;
+    private final AtomicLong fallbacks;
+
+    /**
+     * Creates a new {@code HttpRangeDownloader} with the default segment count, minimum segment size and maximum retries.
+     *
+     * @param connectionPool  the connection pool providing the connection for each segment
+     *
+     * @return a new {@code HttpRangeDownloader}
+     */
+    public static HttpRangeDownloader newInstance(HttpConnectionPool connectionPool) {
+        return newInstance(connectionPool, DEFAULT_SEGMENT_COUNT, DEFAULT_MIN_SEGMENT_SIZE, DEFAULT_MAX_RETRIES);
+    }
+
+    /**
+     * Creates a new {@code HttpRangeDownloader}.
+     *
+     * @param connectionPool  the connection pool providing the connection for each segment
+     * @param segmentCount    the maximum number of concurrently fetched segments
+     * @param minSegmentSize  the minimum segment size, in bytes
+     * @param maxRetries      the maximum number of retries for each segment
+     *
+     * @return a new {@code HttpRangeDownloader}
+     */
+    public static HttpRangeDownloader newInstance(
+        HttpConnectionPool connectionPool,
+        int segmentCount,
+        long minSegmentSize,
+        int maxRetries) {
+
+        if (connectionPool == null) {
+            throw new NullPointerException("Null connectionPool passed in");
+        }
+        if (segmentCount <= 0) {
+            throw new IllegalArgumentException("Segment count must be positive");
+        }
+        if (minSegmentSize <= 0L) {
+            throw new IllegalArgumentException("Minimum segment size must be positive");
+        }
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("Maximum retries must not be negative");
+        }
+        return new HttpRangeDownloader(connectionPool, segmentCount, minSegmentSize, maxRetries);
+    }
+
+    private HttpRangeDownloader(HttpConnectionPool connectionPool, int segmentCount, long minSegmentSize, int maxRetries) {
+        this.helper = URLConnectionHelper.newInstance();
+        this.connectionPool = connectionPool;
+        this.segmentCount = segmentCount;
+        this.minSegmentSize = minSegmentSize;
+        this.maxRetries = maxRetries;
+        this.segments = new AtomicLong();
+        this.retries = new AtomicLong();
+        this.fallbacks = new AtomicLong();
+    }
+
+    /**
+     * Downloads a resource into a file channel, writing each byte at its offset in the resource.
+     *
+     * The channel is extended or truncated to the length of the resource. The channel is not closed.
+     *
+     * @param location  the location of the resource
+     * @param channel   the writable file channel
+     *
+     * @return the length of the resource
+     *
+     * @throws IOException if the resource cannot be downloaded
+     */
+    public long download(URI location, FileChannel channel) throws IOException {
+        if (location == null) {
+            throw new NullPointerException("Null location passed in");
+        }
+        if (channel == null) {
+            throw new NullPointerException("Null channel passed in");
+        }
+        return download(location, new Target(channel));
+    }
+
+    /**
+     * Downloads a resource into a file, writing the segments of a ranged download through memory mapped regions of the file.
+     *
+     * The file is created if necessary, and extended or truncated to the length of the resource.
+     *
+     * @param location  the location of the resource
+     * @param file      the file
+     *
+     * @return the length of the resource
+     *
+     * @throws IOException if the resource cannot be downloaded
+     */
+    public long download(URI location, File file) throws IOException {
+        if (location == null) {
+            throw new NullPointerException("Null location passed in");
+        }
+        if (file == null) {
+            throw new NullPointerException("Null file passed in");
+        }
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            return download(location, new MappedTarget(randomAccessFile.getChannel()));
+        }
+        finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Returns the maximum number of concurrently fetched segments.
+     *
+     * @return the maximum number of concurrently fetched segments
+     */
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * Returns the minimum segment size, in bytes.
+     *
+     * @return the minimum segment size
+     */
+    public long getMinSegmentSize() {
+        return minSegmentSize;
+    }
+
+    /**
+     * Returns the maximum number of retries for each segment.
+     *
+     * @return the maximum number of retries for each segment
+     */
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Returns the number of segments fetched by ranged downloads.
+     *
+     * @return the number of fetched segments
+     */
+    public long getFetchedSegmentCount() {
+        return segments.get();
+    }
+
+    /**
+     * Returns the number of times a segment was retried after failing part way through.
+     *
+     * @return the number of retries
+     */
+    public long getRetryCount() {
+        return retries.get();
+    }
+
+    /**
+     * Returns the number of downloads made with a single request because the resource could not be downloaded in ranges.
+     *
+     * @return the number of single request downloads
+     */
+    public long getFallbackCount() {
+        return fallbacks.get();
+    }
+
+    private long download(URI location, Target target) throws IOException {
+        HttpURLConnection probe = openConnection(location);
+        probe.setRequestMethod("HEAD");
+        int responseCode = probe.getResponseCode();
+        long length = parseLength(probe.getHeaderField(HEADER_CONTENT_LENGTH));
+        boolean acceptRanges = "bytes".equalsIgnoreCase(probe.getHeaderField(HEADER_ACCEPT_RANGES));
+        String validator = validator(probe);
+        if (responseCode == HTTP_OK) {
+            probe.getInputStream().close();
+        }
+        else {
+            probe.disconnect();
+        }
+
+        if (responseCode != HTTP_OK || !acceptRanges || length < 2L * minSegmentSize) {
+            fallbacks.incrementAndGet();
+            return downloadWhole(location, target);
+        }
+
+        target.allocate(length);
+
+        // keep each segment within the reach of a single mapped region
+        long count = Math.max(Math.min(segmentCount, length / minSegmentSize), (length - 1L) / Integer.MAX_VALUE + 1L);
+        long size = (length + count - 1L) / count;
+        List<Segment> ranges = new ArrayList<Segment>();
+        for (long start = 0L; start < length; start += size) {
+            ranges.add(new Segment(start, Math.min(start + size, length)));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(ranges.size(), THREAD_FACTORY);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>(ranges.size());
+            for (Segment segment : ranges) {
+                futures.add(executor.submit(new Fetch(location, target, segment, validator)));
+            }
+
+            IOException failure = null;
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                }
+                catch (ExecutionException e) {
+                    if (failure == null) {
+                        Throwable cause = e.getCause();
+                        failure = (cause instanceof IOException) ? (IOException) cause : new IOException(cause);
+                        cancel(ranges);
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+        catch (InterruptedException e) {
+            cancel(ranges);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(format("Interrupted while downloading %s", location));
+        }
+        finally {
+            // segments observe cancellation between reads, interrupting would close the target channel
+            executor.shutdown();
+        }
+
+        return length;
+    }
+
+    private long downloadWhole(URI location, Target target) throws IOException {
+        Segment segment = new Segment(0L, Long.MAX_VALUE);
+        for (int attempts = 0;; attempts++) {
+            segment.position = 0L;
+            HttpURLConnection connection = openConnection(location);
+            int responseCode = connection.getResponseCode();
+            if (responseCode != HTTP_OK) {
+                connection.disconnect();
+                throw new IOException(format("Server returned HTTP response code: %d for URL: %s", responseCode, location));
+            }
+
+            try {
+                transfer(connection.getInputStream(), target, segment);
+                break;
+            }
+            catch (IOException e) {
+                if (attempts >= maxRetries) {
+                    throw e;
+                }
+                retries.incrementAndGet();
+            }
+        }
+        target.truncate(segment.position);
+        return segment.position;
+    }
+
+    private void fetch(URI location, Target target, Segment segment, String validator) throws IOException {
+        target.open(segment);
+        for (int attempts = 0; segment.position < segment.end; attempts++) {
+            HttpURLConnection connection = openConnection(location);
+            connection.setRequestProperty(HEADER_RANGE, format("bytes=%d-%d", segment.position, segment.end - 1L));
+            if (validator != null) {
+                connection.setRequestProperty(HEADER_IF_RANGE, validator);
+            }
+
+            try {
+                int responseCode = connection.getResponseCode();
+                if (responseCode != HTTP_PARTIAL) {
+                    connection.disconnect();
+                    throw new RangeException(responseCode == HTTP_OK
+                            ? format("Resource changed while downloading %s", location)
+                            : format("Server returned HTTP response code: %d for URL: %s", responseCode, location));
+                }
+
+                String contentRange = connection.getHeaderField(HEADER_CONTENT_RANGE);
+                if (contentRange == null || !contentRange.startsWith(format("bytes %d-", segment.position))) {
+                    connection.disconnect();
+                    throw new RangeException(format("Unexpected Content-Range \"%s\" for URL: %s", contentRange, location));
+                }
+
+                transfer(connection.getInputStream(), target, segment);
+            }
+            catch (RangeException e) {
+                throw e;
+            }
+            catch (IOException e) {
+                if (attempts >= maxRetries) {
+                    throw e;
+                }
+                retries.incrementAndGet();
+            }
+        }
+        segments.incrementAndGet();
+    }
+
+    private HttpURLConnection openConnection(URI location) throws IOException {
+        URLConnection connection = helper.openConnection(location);
+        if (!(connection instanceof HttpURLConnection)) {
+            throw new IllegalArgumentException(format("Unsupported location: %s", location));
+        }
+        HttpURLConnection httpConnection = (HttpURLConnection) connection;
+        httpConnection.setConnectionPool(connectionPool);
+        return httpConnection;
+    }
+
+    private static void transfer(InputStream in, Target target, Segment segment) throws IOException {
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (segment.position < segment.end) {
+                if (segment.cancelled) {
+                    throw new RangeException("Download cancelled");
+                }
+                int length = in.read(buffer, 0, (int) Math.min(buffer.length, segment.end - segment.position));
+                if (length == -1) {
+                    if (segment.end != Long.MAX_VALUE) {
+                        throw new IOException(format("Range ended at %d before %d", segment.position, segment.end));
+                    }
+                    break;
+                }
+                target.write(segment, buffer, length);
+                segment.position += length;
+            }
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    private static void cancel(List<Segment> segments) {
+        for (Segment segment : segments) {
+            segment.cancelled = true;
+        }
+    }
+
+    private static long parseLength(String contentLength) {
+        if (contentLength != null) {
+            try {
+                return Long.parseLong(contentLength.trim());
+            }
+            catch (NumberFormatException e) {
+                // unknown length
+            }
+        }
+        return -1L;
+    }
+
+    private static String validator(HttpURLConnection connection) {
+        String etag = connection.getHeaderField(HEADER_ETAG);
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        // weak entity tags cannot be used with If-Range
+        return connection.getHeaderField(HEADER_LAST_MODIFIED);
+    }
+
+    private final class Fetch implements Callable<Void> {
+        private final URI location;
+        private final Target target;
+        private final Segment segment;
+        private final String validator;
+
+        Fetch(URI location, Target target, Segment segment, String validator) {
+            this.location = location;
+            this.target = target;
+            this.segment = segment;
+            this.validator = validator;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            fetch(location, target, segment, validator);
+            return null;
+        }
+    }
+
+    private static final class Segment {
+        final long start;
+        final long end;
+        long position;
+        ByteBuffer mapped;
+        volatile boolean cancelled;
+
+        Segment(long start, long end) {
+            this.start = start;
+            this.end = end;
+            this.position = start;
+        }
+    }
+
+    private static class Target {
+        final FileChannel channel;
+
+        Target(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void allocate(long length) throws IOException {
+            if (channel.size() > length) {
+                channel.truncate(length);
+            }
+            else if (channel.size() < length) {
+                channel.write(ByteBuffer.allocate(1), length - 1L);
+            }
+        }
+
+        void truncate(long length) throws IOException {
+            if (channel.size() > length) {
+                channel.truncate(length);
+            }
+        }
+
+        void open(Segment segment) throws IOException {
+        }
+
+        void write(Segment segment, byte[] buffer, int length) throws IOException {
+            ByteBuffer source = ByteBuffer.wrap(buffer, 0, length);
+            long position = segment.position;
+            while (source.hasRemaining()) {
+                position += channel.write(source, position);
+            }
+        }
+    }
+
+    private static final class MappedTarget extends Target {
+
+        MappedTarget(FileChannel channel) {
+            super(channel);
+        }
+
+        @Override
+        void open(Segment segment) throws IOException {
+            segment.mapped = channel.map(FileChannel.MapMode.READ_WRITE, segment.start, segment.end - segment.start);
+        }
+
+        @Override
+        void write(Segment segment, byte[] buffer, int length) throws IOException {
+            if (segment.mapped == null) {
+                super.write(segment, buffer, length);
+            }
+            else {
+                segment.mapped.position((int) (segment.position - segment.start));
+                segment.mapped.put(buffer, 0, length);
+            }
+        }
+    }
+
+    private static final class RangeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        RangeException(String message) {
+            super(message);
+        }
+    }
+}
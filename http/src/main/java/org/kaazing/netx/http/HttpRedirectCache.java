@@ -0,0 +1,214 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.kaazing.netx.http;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@code HttpRedirectCache} remembers the target of permanent redirects, so that later connections to a permanently
+ * redirected location connect to its target directly instead of first receiving a {@code 301 Moved Permanently} or
+ * {@code 308 Permanent Redirect} response.
+ *
+ * A known target is only used when the {@link HttpRedirectPolicy} of the connection would follow the redirect, and only
+ * while the connection follows redirects. A target is forgotten when a connection to it fails, so that the next connection
+ * asks the original location again. At most a configured number of redirects are remembered, least recently used first
+ * to be forgotten.
+ * <p>
+ * A cache is used by an {@link HttpURLConnection} only when set with {@link HttpURLConnection#setRedirectCache}.
+ */
+public final class HttpRedirectCache {
+
+    /**
+     * Default maximum number of remembered redirects.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+
+    private static final HttpRedirectCache DEFAULT = new HttpRedirectCache(DEFAULT_MAX_ENTRIES);
+
+    private final LinkedHashMap<String, String> targets;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong invalidations;
+
+    /**
+     * Returns the default {@code HttpRedirectCache}, shared by all connections configured to use it.
+     *
+     * @return the default {@code HttpRedirectCache}
+     */
+    public static HttpRedirectCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Creates a new, empty {@code HttpRedirectCache} with the default maximum number of entries.
+     *
+     * @return a new {@code HttpRedirectCache}
+     */
+    public static HttpRedirectCache newInstance() {
+        return new HttpRedirectCache(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Creates a new, empty {@code HttpRedirectCache}.
+     *
+     * @param maxEntries  the maximum number of remembered redirects
+     *
+     * @return a new {@code HttpRedirectCache}
+     */
+    public static HttpRedirectCache newInstance(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Maximum entries must be positive");
+        }
+
+        return new HttpRedirectCache(maxEntries);
+    }
+
+    private HttpRedirectCache(final int maxEntries) {
+        this.targets = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.invalidations = new AtomicLong();
+    }
+
+    /**
+     * Returns the remembered target of a permanently redirected location, and counts a hit or a miss.
+     *
+     * @param location  the location
+     *
+     * @return the redirect target, or {@code null} if the location is not known to be permanently redirected
+     */
+    public URL get(URL location) {
+        if (location == null) {
+            throw new NullPointerException("Null location passed in");
+        }
+
+        String target;
+        synchronized (targets) {
+            target = targets.get(location.toExternalForm());
+        }
+
+        if (target != null) {
+            try {
+                URL targetURL = new URL(location, target);
+                hits.incrementAndGet();
+                return targetURL;
+            }
+            catch (MalformedURLException e) {
+                remove(location);
+            }
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Remembers the target of a permanently redirected location.
+     *
+     * @param location  the redirected location
+     * @param target    the redirect target
+     */
+    public void put(URL location, URL target) {
+        if (location == null) {
+            throw new NullPointerException("Null location passed in");
+        }
+
+        if (target == null) {
+            throw new NullPointerException("Null target passed in");
+        }
+
+        synchronized (targets) {
+            targets.put(location.toExternalForm(), target.toExternalForm());
+        }
+    }
+
+    /**
+     * Forgets the target of a redirected location, such as after a connection to the target failed.
+     *
+     * @param location  the redirected location
+     */
+    public void remove(URL location) {
+        if (location == null) {
+            throw new NullPointerException("Null location passed in");
+        }
+
+        synchronized (targets) {
+            if (targets.remove(location.toExternalForm()) != null) {
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Forgets all redirects.
+     */
+    public void clear() {
+        synchronized (targets) {
+            targets.clear();
+        }
+    }
+
+    /**
+     * Returns the number of remembered redirects.
+     *
+     * @return the number of entries
+     */
+    public int size() {
+        synchronized (targets) {
+            return targets.size();
+        }
+    }
+
+    /**
+     * Returns the number of lookups that found a remembered target.
+     *
+     * @return the number of cache hits
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups that found no remembered target.
+     *
+     * @return the number of cache misses
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of remembered redirects forgotten after a failed connection to their target.
+     *
+     * @return the number of invalidations
+     */
+    public long getInvalidationCount() {
+        return invalidations.get();
+    }
+}
@@ -0,0 +1,590 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kaazing.netx.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@code HttpRequestCoalescer} shares one in-flight response among concurrent identical {@code GET} requests, so that
+ * many threads requesting the same resource at once send a single request to the network.
+ *
+ * Requests are identical when they have the same location and the same request properties. The first request becomes the
+ * leader and is sent as usual, while identical requests made before its response body has been read completely wait for
+ * the response instead of sending their own. The response body is kept in a replayable buffer, so that each request reads
+ * the whole body from its first byte, at its own pace, whichever request happens to read from the network. A request
+ * waiting for a leader that fails to receive a response is sent to the network itself.
+ *
+ * Identical requests may join a flight until its buffered body exceeds a configured size. Beyond that size the buffer only
+ * keeps the bytes not yet read by every joined request.
+ * <p>
+ * A coalescer is used by an {@link HttpURLConnection} only when set with {@link HttpURLConnection#setRequestCoalescer}.
+ */
+public final class HttpRequestCoalescer {
+
+    /**
+     * Default maximum number of buffered response body bytes while identical requests may still join a flight.
+     */
+    public static final int DEFAULT_MAX_BUFFER_SIZE = 1 << 20;
+
+    private static final int CHUNK_SIZE = 8192;
+
+    private static final HttpRequestCoalescer DEFAULT = new HttpRequestCoalescer(DEFAULT_MAX_BUFFER_SIZE);
+
+    private final int maxBufferSize;
+    private final Map<String, SharedResponse> flights;
+    private final AtomicLong requests;
+    private final AtomicLong coalesced;
+
+    /**
+     * Returns the default {@code HttpRequestCoalescer}, shared by all connections configured to use it.
+     *
+     * @return the default {@code HttpRequestCoalescer}
+     */
+    public static HttpRequestCoalescer getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Creates a new {@code HttpRequestCoalescer} with the default maximum buffer size.
+     *
+     * @return a new {@code HttpRequestCoalescer}
+     */
+    public static HttpRequestCoalescer newInstance() {
+        return new HttpRequestCoalescer(DEFAULT_MAX_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a new {@code HttpRequestCoalescer}.
+     *
+     * @param maxBufferSize  the maximum number of buffered response body bytes while identical requests may still join
+     *
+     * @return a new {@code HttpRequestCoalescer}
+     */
+    public static HttpRequestCoalescer newInstance(int maxBufferSize) {
+        if (maxBufferSize <= 0) {
+            throw new IllegalArgumentException("Maximum buffer size must be positive");
+        }
+
+        return new HttpRequestCoalescer(maxBufferSize);
+    }
+
+    private HttpRequestCoalescer(int maxBufferSize) {
+        this.maxBufferSize = maxBufferSize;
+        this.flights = new HashMap<String, SharedResponse>();
+        this.requests = new AtomicLong();
+        this.coalesced = new AtomicLong();
+    }
+
+    /**
+     * Joins the flight of an identical {@code GET} request already in progress, or starts a new flight led by the caller.
+     *
+     * @param location           the requested location
+     * @param requestProperties  the request properties
+     *
+     * @return the caller's part in the flight
+     */
+    public Flight begin(URL location, Map<String, List<String>> requestProperties) {
+        if (location == null) {
+            throw new NullPointerException("Null location passed in");
+        }
+
+        String key = key(location, requestProperties);
+        synchronized (flights) {
+            SharedResponse response = flights.get(key);
+            if (response != null) {
+                Flight flight = response.join(false);
+                if (flight != null) {
+                    coalesced.incrementAndGet();
+                    return flight;
+                }
+            }
+
+            response = new SharedResponse(this, key);
+            flights.put(key, response);
+            requests.incrementAndGet();
+            return response.join(true);
+        }
+    }
+
+    /**
+     * Returns the maximum number of buffered response body bytes while identical requests may still join a flight.
+     *
+     * @return the maximum buffer size
+     */
+    public int getMaxBufferSize() {
+        return maxBufferSize;
+    }
+
+    /**
+     * Returns the number of flights in progress that identical requests may still join.
+     *
+     * @return the number of joinable flights
+     */
+    public int size() {
+        synchronized (flights) {
+            return flights.size();
+        }
+    }
+
+    /**
+     * Returns the number of flights started by a leading request.
+     *
+     * @return the number of flights started
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * Returns the number of requests that joined a flight instead of being sent to the network.
+     *
+     * @return the number of coalesced requests
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    private void detach(SharedResponse response) {
+        synchronized (flights) {
+            if (flights.get(response.key) == response) {
+                flights.remove(response.key);
+            }
+        }
+    }
+
+    private static String key(URL location, Map<String, List<String>> requestProperties) {
+        StringBuilder key = new StringBuilder(location.toExternalForm());
+        if (requestProperties != null) {
+            // header names are case insensitive and their order is not significant
+            Map<String, List<String>> sorted = new TreeMap<String, List<String>>();
+            for (Map.Entry<String, List<String>> entry : requestProperties.entrySet()) {
+                if (entry.getKey() != null) {
+                    sorted.put(entry.getKey().toLowerCase(), entry.getValue());
+                }
+            }
+            for (Map.Entry<String, List<String>> entry : sorted.entrySet()) {
+                key.append('\n').append(entry.getKey()).append(':').append(entry.getValue());
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * A request's part in a flight shared by identical requests, either leading it or waiting for its response.
+     */
+    public static final class Flight {
+
+        private final SharedResponse response;
+        private final boolean leader;
+        private long position;
+        private boolean released;
+        private InputStream input;
+
+        private Flight(SharedResponse response, boolean leader) {
+            this.response = response;
+            this.leader = leader;
+        }
+
+        /**
+         * Returns whether this request leads the flight, and so must send the request and then either {@link #respond} or
+         * {@link #fail}.
+         *
+         * @return {@code true} if this request leads the flight
+         */
+        public boolean isLeader() {
+            return leader;
+        }
+
+        /**
+         * Shares the response received by the leading request with the requests waiting for it.
+         *
+         * @param location         the location of the response, after any redirects
+         * @param responseCode     the response status code
+         * @param responseMessage  the response status message
+         * @param headerFields     the response header fields
+         * @param body             the response body, read by whichever request needs the next bytes first
+         */
+        public void respond(
+            URL location,
+            int responseCode,
+            String responseMessage,
+            Map<String, List<String>> headerFields,
+            InputStream body) {
+
+            if (!leader) {
+                throw new IllegalStateException("Only the leading request responds");
+            }
+            if (body == null) {
+                throw new NullPointerException("Null body passed in");
+            }
+            response.respond(location, responseCode, responseMessage, headerFields, body);
+        }
+
+        /**
+         * Reports that the leading request did not receive a response, so that each waiting request is sent itself.
+         */
+        public void fail() {
+            if (!leader) {
+                throw new IllegalStateException("Only the leading request fails");
+            }
+            response.fail();
+            release();
+        }
+
+        /**
+         * Waits for the leading request to respond or fail.
+         *
+         * @return {@code true} if the response is shared, or {@code false} if the leading request failed
+         *
+         * @throws InterruptedIOException if interrupted while waiting
+         */
+        public boolean await() throws InterruptedIOException {
+            boolean responded = response.await();
+            if (!responded) {
+                release();
+            }
+            return responded;
+        }
+
+        /**
+         * Returns the location of the shared response, after any redirects.
+         *
+         * @return the response location
+         */
+        public URL getLocation() {
+            return response.location;
+        }
+
+        /**
+         * Returns the status code of the shared response.
+         *
+         * @return the response status code
+         */
+        public int getResponseCode() {
+            return response.responseCode;
+        }
+
+        /**
+         * Returns the status message of the shared response.
+         *
+         * @return the response status message
+         */
+        public String getResponseMessage() {
+            return response.responseMessage;
+        }
+
+        /**
+         * Returns the header fields of the shared response.
+         *
+         * @return the response header fields
+         */
+        public Map<String, List<String>> getHeaderFields() {
+            return response.headerFields;
+        }
+
+        /**
+         * Returns the stream reading the shared response body from its first byte. Closing the stream leaves the flight.
+         *
+         * @return the response body input stream
+         */
+        public InputStream getInputStream() {
+            if (input == null) {
+                input = new InputStream() {
+                    @Override
+                    public int read() throws IOException {
+                        byte[] b = new byte[1];
+                        return (read(b, 0, 1) == -1) ? -1 : b[0] & 0xff;
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        if ((off < 0) || (len < 0) || (off + len > b.length)) {
+                            throw new IndexOutOfBoundsException();
+                        }
+                        return (len == 0) ? 0 : response.read(Flight.this, b, off, len);
+                    }
+
+                    @Override
+                    public int available() {
+                        return response.available(Flight.this);
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        release();
+                    }
+                };
+            }
+            return input;
+        }
+
+        /**
+         * Leaves the flight without reading the rest of the shared response body.
+         */
+        public void release() {
+            response.release(this);
+        }
+    }
+
+    private static final class SharedResponse {
+
+        private final HttpRequestCoalescer coalescer;
+        private final String key;
+        private final List<Flight> flights;
+
+        private boolean detached;
+        private boolean responded;
+        private boolean failed;
+        private URL location;
+        private int responseCode;
+        private String responseMessage;
+        private Map<String, List<String>> headerFields;
+        private InputStream body;
+
+        private byte[] buffer;
+        private byte[] chunk;
+        private long base;
+        private long limit;
+        private boolean pulling;
+        private boolean complete;
+        private IOException failure;
+
+        SharedResponse(HttpRequestCoalescer coalescer, String key) {
+            this.coalescer = coalescer;
+            this.key = key;
+            this.flights = new ArrayList<Flight>();
+            this.buffer = new byte[CHUNK_SIZE];
+        }
+
+        synchronized Flight join(boolean leader) {
+            if (detached) {
+                return null;
+            }
+            Flight flight = new Flight(this, leader);
+            flights.add(flight);
+            return flight;
+        }
+
+        synchronized void respond(
+            URL location,
+            int responseCode,
+            String responseMessage,
+            Map<String, List<String>> headerFields,
+            InputStream body) {
+
+            this.location = location;
+            this.responseCode = responseCode;
+            this.responseMessage = responseMessage;
+            this.headerFields = Collections.unmodifiableMap(new LinkedHashMap<String, List<String>>(headerFields));
+            this.body = body;
+            this.responded = true;
+            notifyAll();
+        }
+
+        void fail() {
+            synchronized (this) {
+                failed = true;
+                notifyAll();
+            }
+            detach();
+        }
+
+        synchronized boolean await() throws InterruptedIOException {
+            while (!responded && !failed) {
+                try {
+                    wait();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for coalesced response");
+                }
+            }
+            return responded;
+        }
+
+        synchronized int available(Flight flight) {
+            return (int) Math.min(Integer.MAX_VALUE, limit - flight.position);
+        }
+
+        int read(Flight flight, byte[] b, int off, int len) throws IOException {
+            while (true) {
+                synchronized (this) {
+                    while (true) {
+                        if (flight.released) {
+                            throw new IOException("Stream closed");
+                        }
+                        if (flight.position < limit) {
+                            int length = (int) Math.min(len, limit - flight.position);
+                            System.arraycopy(buffer, (int) (flight.position - base), b, off, length);
+                            flight.position += length;
+                            trim();
+                            return length;
+                        }
+                        if (complete) {
+                            return -1;
+                        }
+                        if (failure != null) {
+                            throw new IOException("Coalesced response failed", failure);
+                        }
+                        if (!pulling) {
+                            break;
+                        }
+                        try {
+                            wait();
+                        }
+                        catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new InterruptedIOException("Interrupted while reading coalesced response");
+                        }
+                    }
+                    pulling = true;
+                }
+
+                // read the network outside the lock, so that others keep reading what is already buffered
+                if (chunk == null || chunk.length < len) {
+                    chunk = new byte[Math.max(len, CHUNK_SIZE)];
+                }
+                int length = -1;
+                IOException exception = null;
+                try {
+                    length = body.read(chunk, 0, chunk.length);
+                }
+                catch (IOException e) {
+                    exception = e;
+                }
+
+                boolean finished;
+                boolean detach;
+                synchronized (this) {
+                    pulling = false;
+                    if (exception != null) {
+                        failure = exception;
+                    }
+                    else if (length == -1) {
+                        complete = true;
+                    }
+                    else {
+                        append(chunk, length);
+                    }
+                    finished = complete || failure != null;
+                    if (finished) {
+                        detached = true;
+                    }
+                    detach = detached;
+                    notifyAll();
+                }
+
+                if (detach) {
+                    coalescer.detach(this);
+                }
+                if (finished) {
+                    close();
+                }
+            }
+        }
+
+        void release(Flight flight) {
+            boolean abandoned;
+            synchronized (this) {
+                if (flight.released) {
+                    return;
+                }
+                flight.released = true;
+                flights.remove(flight);
+                trim();
+                abandoned = flights.isEmpty() && !complete && failure == null;
+                if (abandoned) {
+                    failure = new IOException("Coalesced response abandoned");
+                }
+                notifyAll();
+            }
+
+            if (abandoned) {
+                // nobody is left to read the rest of the body
+                detach();
+                close();
+            }
+        }
+
+        private void close() {
+            InputStream body;
+            synchronized (this) {
+                body = this.body;
+            }
+            if (body != null) {
+                try {
+                    body.close();
+                }
+                catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+
+        private void detach() {
+            synchronized (this) {
+                detached = true;
+            }
+            coalescer.detach(this);
+        }
+
+        private void append(byte[] chunk, int length) {
+            int size = (int) (limit - base);
+            if (size + length > buffer.length) {
+                byte[] grown = new byte[Math.max(buffer.length * 2, size + length)];
+                System.arraycopy(buffer, 0, grown, 0, size);
+                buffer = grown;
+            }
+            System.arraycopy(chunk, 0, buffer, size, length);
+            limit += length;
+
+            if (limit > coalescer.maxBufferSize) {
+                // no longer joinable, so only bytes not yet read by every joined request need to be kept
+                detached = true;
+            }
+            trim();
+        }
+
+        private void trim() {
+            if (!detached) {
+                return;
+            }
+
+            long position = limit;
+            for (Flight flight : flights) {
+                position = Math.min(position, flight.position);
+            }
+
+            int discard = (int) (position - base);
+            if (discard > 0 && discard >= (limit - base) / 2) {
+                System.arraycopy(buffer, discard, buffer, 0, (int) (limit - position));
+                base = position;
+            }
+        }
+    }
+}
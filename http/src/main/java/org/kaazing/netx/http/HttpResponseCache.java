@@ -0,0 +1,925 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.kaazing.netx.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@code HttpResponseCache} keeps {@code GET} responses so that repeated requests for the same resource are answered
+ * without the network, or with a conditional request when the kept response is no longer fresh.
+ *
+ * Responses are kept in memory, up to a maximum total body size, in least recently used order. When a disk directory is
+ * configured, responses evicted from memory move to files in that directory, up to a maximum total size, and are read back
+ * through memory mapped buffers rather than copied onto the heap.
+ * <p>
+ * Freshness follows the {@code Cache-Control}, {@code Expires}, {@code Date} and {@code Age} response headers, with a
+ * heuristic lifetime of one tenth of the time since {@code Last-Modified} otherwise. A stale response is revalidated with
+ * {@code If-None-Match} or {@code If-Modified-Since}, and a {@code 304 Not Modified} response is answered from the cache.
+ * Responses carrying {@code Cache-Control: no-store}, {@code Cache-Control: private} or a {@code Vary} header are not kept.
+ * Since responses are kept by location only, a response to a request carrying {@code Authorization} is only kept, and a kept
+ * response is only used for such a request, when the response allows sharing with {@code Cache-Control: public},
+ * {@code s-maxage} or {@code must-revalidate}.
+ * <p>
+ * A cache is used by an {@link HttpURLConnection} only when set with {@link HttpURLConnection#setResponseCache} and
+ * {@link HttpURLConnection#getUseCaches()} is {@code true}.
+ */
+public final class HttpResponseCache {
+
+    /**
+     * Default maximum total size in bytes of the response bodies kept in memory.
+     */
+    public static final long DEFAULT_MAX_MEMORY_SIZE = 4L * 1024L * 1024L;
+
+    private static final HttpResponseCache DEFAULT = new HttpResponseCache(DEFAULT_MAX_MEMORY_SIZE, null, 0L);
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final String ENTRY_SUFFIX = ".entry";
+    private static final int ENTRY_MAGIC = 0x6e657478;
+    private static final long MAX_HEURISTIC_LIFETIME = 24L * 60L * 60L * 1000L;
+
+    private static final ThreadLocal<DateFormat> HTTP_DATE = new ThreadLocal<DateFormat>() {
+        @Override
+        protected DateFormat initialValue() {
+            DateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            return format;
+        }
+    };
+
+    private final MemoryTier memory;
+    private final DiskTier disk;
+    private final long maxEntrySize;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong revalidations;
+
+    /**
+     * Returns the default {@code HttpResponseCache}, kept in memory only and shared by all connections configured to use it.
+     *
+     * @return the default {@code HttpResponseCache}
+     */
+    public static HttpResponseCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Creates a new {@code HttpResponseCache} kept in memory only, with the default maximum size.
+     *
+     * @return a new {@code HttpResponseCache}
+     */
+    public static HttpResponseCache newInstance() {
+        return newInstance(DEFAULT_MAX_MEMORY_SIZE);
+    }
+
+    /**
+     * Creates a new {@code HttpResponseCache} kept in memory only.
+     *
+     * @param maxMemorySize  the maximum total size in bytes of the response bodies kept in memory
+     *
+     * @return a new {@code HttpResponseCache}
+     */
+    public static HttpResponseCache newInstance(long maxMemorySize) {
+        if (maxMemorySize <= 0L) {
+            throw new IllegalArgumentException("Maximum memory size must be positive");
+        }
+
+        return new HttpResponseCache(maxMemorySize, null, 0L);
+    }
+
+    /**
+     * Creates a new {@code HttpResponseCache} kept in memory, and on disk once evicted from memory. Responses already kept
+     * in the directory by a previous cache are used as well.
+     *
+     * @param maxMemorySize  the maximum total size in bytes of the response bodies kept in memory
+     * @param directory      the directory keeping responses on disk, created if needed
+     * @param maxDiskSize    the maximum total size in bytes of the files kept in the directory
+     *
+     * @return a new {@code HttpResponseCache}
+     *
+     * @throws IOException if the directory cannot be created
+     */
+    public static HttpResponseCache newInstance(long maxMemorySize, File directory, long maxDiskSize) throws IOException {
+        if (maxMemorySize <= 0L) {
+            throw new IllegalArgumentException("Maximum memory size must be positive");
+        }
+
+        if (directory == null) {
+            throw new NullPointerException("Null directory passed in");
+        }
+
+        if (maxDiskSize <= 0L) {
+            throw new IllegalArgumentException("Maximum disk size must be positive");
+        }
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create cache directory: " + directory);
+        }
+
+        return new HttpResponseCache(maxMemorySize, directory, maxDiskSize);
+    }
+
+    private HttpResponseCache(long maxMemorySize, File directory, long maxDiskSize) {
+        this.memory = new MemoryTier(maxMemorySize);
+        this.disk = (directory != null) ? new DiskTier(directory, maxDiskSize) : null;
+        this.maxEntrySize = Math.max(maxMemorySize, maxDiskSize) / 2L;
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.revalidations = new AtomicLong();
+    }
+
+    /**
+     * Returns the maximum body size of a response kept by this cache.
+     *
+     * @return the maximum response body size in bytes
+     */
+    public long getMaxEntrySize() {
+        return maxEntrySize;
+    }
+
+    /**
+     * Returns the response kept for a location, if any, regardless of its freshness.
+     *
+     * @param url  the request location
+     *
+     * @return the kept response, or {@code null} if none
+     */
+    public Response get(URL url) {
+        if (url == null) {
+            throw new NullPointerException("Null url passed in");
+        }
+
+        String key = url.toExternalForm();
+        Response response = memory.get(key);
+        if (response == null && disk != null) {
+            response = disk.get(key);
+        }
+        return response;
+    }
+
+    /**
+     * Returns the fresh response kept for a request, taking the {@code Cache-Control} and {@code Pragma} request headers
+     * into account, and counts a hit or a miss. After a miss, a stale response still returned by {@link #get(URL)} can be
+     * used once revalidated with the conditional request headers returned by {@link Response#getValidators()}.
+     *
+     * @param url                the request location
+     * @param requestProperties  the request headers, or {@code null}
+     *
+     * @return the fresh kept response, or {@code null} if none
+     */
+    public Response match(URL url, Map<String, List<String>> requestProperties) {
+        Response response = get(url);
+        if (response != null) {
+            long maxAge = Long.MAX_VALUE;
+            if (requestProperties != null) {
+                String cacheControl = headerValue(requestProperties, "Cache-Control");
+                String pragma = headerValue(requestProperties, "Pragma");
+                if (directive(cacheControl, "no-cache") != null || directive(pragma, "no-cache") != null) {
+                    maxAge = -1L;
+                }
+                else {
+                    maxAge = seconds(directive(cacheControl, "max-age"), Long.MAX_VALUE);
+                }
+            }
+
+            long now = System.currentTimeMillis();
+            if (response.isFresh(now) && response.getAge(now) <= maxAge) {
+                hits.incrementAndGet();
+                return response;
+            }
+
+            if (response.getValidators().isEmpty()) {
+                // a stale response that cannot be revalidated is of no further use
+                remove(url);
+            }
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Keeps a response for a location if it is cacheable and no larger than {@link #getMaxEntrySize()}.
+     *
+     * @param url       the request location
+     * @param response  the response
+     *
+     * @return {@code true} if the response is kept
+     */
+    public boolean put(URL url, Response response) {
+        if (url == null) {
+            throw new NullPointerException("Null url passed in");
+        }
+
+        if (response == null) {
+            throw new NullPointerException("Null response passed in");
+        }
+
+        String key = url.toExternalForm();
+        boolean cacheable = isCacheable(response.getResponseCode(), response.getHeaderFields());
+        if (!cacheable || response.body.remaining() > maxEntrySize) {
+            remove(url);
+            return false;
+        }
+
+        if (disk != null) {
+            disk.remove(key);
+        }
+
+        List<Map.Entry<String, Response>> evicted = memory.put(key, response);
+        if (disk != null) {
+            for (Map.Entry<String, Response> entry : evicted) {
+                disk.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Keeps a stale response again after the origin server answered its revalidation with {@code 304 Not Modified}, with
+     * its headers updated from the {@code 304} response.
+     *
+     * @param url               the request location
+     * @param response          the stale response
+     * @param notModifiedFields the header fields of the {@code 304} response
+     * @param requestTime       the time in milliseconds at which the conditional request was sent
+     * @param responseTime      the time in milliseconds at which the {@code 304} response was received
+     *
+     * @return the updated response
+     */
+    public Response revalidate(
+            URL url,
+            Response response,
+            Map<String, List<String>> notModifiedFields,
+            long requestTime,
+            long responseTime) {
+
+        if (response == null) {
+            throw new NullPointerException("Null response passed in");
+        }
+
+        Map<String, List<String>> headerFields = new LinkedHashMap<String, List<String>>(response.getHeaderFields());
+        for (Map.Entry<String, List<String>> entry : notModifiedFields.entrySet()) {
+            String name = entry.getKey();
+            if (name != null && !"Content-Length".equalsIgnoreCase(name) && !"Content-Encoding".equalsIgnoreCase(name)) {
+                for (Iterator<String> names = headerFields.keySet().iterator(); names.hasNext(); ) {
+                    String existing = names.next();
+                    if (existing != null && existing.equalsIgnoreCase(name)) {
+                        names.remove();
+                    }
+                }
+                headerFields.put(name, entry.getValue());
+            }
+        }
+
+        Response updated = new Response(response.getResponseCode(), response.getResponseMessage(), headerFields,
+                response.getBody(), requestTime, responseTime);
+        put(url, updated);
+        revalidations.incrementAndGet();
+        return updated;
+    }
+
+    /**
+     * Removes any response kept for a location, such as after a request that modifies the resource.
+     *
+     * @param url  the request location
+     */
+    public void remove(URL url) {
+        if (url == null) {
+            throw new NullPointerException("Null url passed in");
+        }
+
+        String key = url.toExternalForm();
+        memory.remove(key);
+        if (disk != null) {
+            disk.remove(key);
+        }
+    }
+
+    /**
+     * Removes all kept responses, from memory and disk.
+     */
+    public void clear() {
+        memory.clear();
+        if (disk != null) {
+            disk.clear();
+        }
+    }
+
+    /**
+     * Returns the number of responses kept in memory and on disk.
+     *
+     * @return the number of kept responses
+     */
+    public int size() {
+        return memory.size() + ((disk != null) ? disk.size() : 0);
+    }
+
+    /**
+     * Returns the number of requests answered by a fresh kept response.
+     *
+     * @return the number of cache hits
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of requests sent to the network, with or without a stale kept response to revalidate.
+     *
+     * @return the number of cache misses
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of stale kept responses revalidated by a {@code 304 Not Modified} response.
+     *
+     * @return the number of revalidations
+     */
+    public long getRevalidationCount() {
+        return revalidations.get();
+    }
+
+    /**
+     * Returns whether a response may be kept, namely a {@code 200 OK} response without {@code Cache-Control: no-store},
+     * {@code Cache-Control: private} or a {@code Vary} header, that is either fresh for some time or can be revalidated.
+     *
+     * @param responseCode  the response status code
+     * @param headerFields  the response header fields
+     *
+     * @return {@code true} if the response may be kept
+     */
+    public static boolean isCacheable(int responseCode, Map<String, List<String>> headerFields) {
+        return isCacheable(responseCode, headerFields, false);
+    }
+
+    /**
+     * Returns whether a response may be kept, as for {@link #isCacheable(int, Map)}, and, when the request carried
+     * {@code Authorization}, whether the response also allows sharing with {@code Cache-Control: public}, {@code s-maxage}
+     * or {@code must-revalidate}. The same test decides whether a kept response may be used for an authorized request.
+     *
+     * @param responseCode  the response status code
+     * @param headerFields  the response header fields
+     * @param authorized    whether the request carried {@code Authorization}
+     *
+     * @return {@code true} if the response may be kept
+     */
+    public static boolean isCacheable(int responseCode, Map<String, List<String>> headerFields, boolean authorized) {
+        if (responseCode != java.net.HttpURLConnection.HTTP_OK) {
+            return false;
+        }
+
+        String cacheControl = headerValue(headerFields, "Cache-Control");
+        if (directive(cacheControl, "no-store") != null ||
+                directive(cacheControl, "private") != null ||
+                headerValue(headerFields, "Vary") != null) {
+            return false;
+        }
+
+        if (authorized &&
+                directive(cacheControl, "public") == null &&
+                directive(cacheControl, "s-maxage") == null &&
+                directive(cacheControl, "must-revalidate") == null) {
+            return false;
+        }
+
+        return directive(cacheControl, "max-age") != null ||
+               headerValue(headerFields, "Expires") != null ||
+               headerValue(headerFields, "ETag") != null ||
+               headerValue(headerFields, "Last-Modified") != null;
+    }
+
+    /**
+     * A response kept by an {@code HttpResponseCache}, with its status, header fields and body.
+     */
+    public static final class Response {
+
+        private final int responseCode;
+        private final String responseMessage;
+        private final Map<String, List<String>> headerFields;
+        private final ByteBuffer body;
+        private final long requestTime;
+        private final long responseTime;
+
+        /**
+         * Creates a new {@code Response}.
+         *
+         * @param responseCode     the response status code
+         * @param responseMessage  the response reason phrase
+         * @param headerFields     the response header fields, including the status line with a {@code null} name
+         * @param body             the response body, as received
+         * @param requestTime      the time in milliseconds at which the request was sent
+         * @param responseTime     the time in milliseconds at which the response was received
+         */
+        public Response(
+                int responseCode,
+                String responseMessage,
+                Map<String, List<String>> headerFields,
+                ByteBuffer body,
+                long requestTime,
+                long responseTime) {
+
+            if (headerFields == null) {
+                throw new NullPointerException("Null headerFields passed in");
+            }
+
+            if (body == null) {
+                throw new NullPointerException("Null body passed in");
+            }
+
+            Map<String, List<String>> fields = new LinkedHashMap<String, List<String>>();
+            for (Map.Entry<String, List<String>> entry : headerFields.entrySet()) {
+                fields.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<String>(entry.getValue())));
+            }
+
+            this.responseCode = responseCode;
+            this.responseMessage = responseMessage;
+            this.headerFields = Collections.unmodifiableMap(fields);
+            this.body = body.slice().asReadOnlyBuffer();
+            this.requestTime = requestTime;
+            this.responseTime = responseTime;
+        }
+
+        /**
+         * Returns the response status code.
+         *
+         * @return the status code
+         */
+        public int getResponseCode() {
+            return responseCode;
+        }
+
+        /**
+         * Returns the response reason phrase.
+         *
+         * @return the reason phrase
+         */
+        public String getResponseMessage() {
+            return responseMessage;
+        }
+
+        /**
+         * Returns the response header fields, including the status line with a {@code null} name.
+         *
+         * @return the unmodifiable header fields
+         */
+        public Map<String, List<String>> getHeaderFields() {
+            return headerFields;
+        }
+
+        /**
+         * Returns a read-only view of the response body, as received. Bodies kept on disk are memory mapped.
+         *
+         * @return the response body
+         */
+        public ByteBuffer getBody() {
+            return body.duplicate();
+        }
+
+        /**
+         * Returns the time in milliseconds for which this response is fresh after being generated by the origin server.
+         *
+         * @return the freshness lifetime
+         */
+        public long getFreshnessLifetime() {
+            String cacheControl = headerValue(headerFields, "Cache-Control");
+            if (directive(cacheControl, "no-cache") != null) {
+                return 0L;
+            }
+
+            long maxAge = seconds(directive(cacheControl, "max-age"), -1L);
+            if (maxAge != -1L) {
+                return maxAge;
+            }
+
+            long date = date(headerValue(headerFields, "Date"), responseTime);
+            String expires = headerValue(headerFields, "Expires");
+            if (expires != null) {
+                // an invalid date, such as 0, means already expired
+                return Math.max(0L, date(expires, 0L) - date);
+            }
+
+            long lastModified = date(headerValue(headerFields, "Last-Modified"), -1L);
+            if (lastModified != -1L && lastModified < date) {
+                return Math.min((date - lastModified) / 10L, MAX_HEURISTIC_LIFETIME);
+            }
+
+            return 0L;
+        }
+
+        /**
+         * Returns the age in milliseconds of this response at the specified time, since generated by the origin server.
+         *
+         * @param now  the current time in milliseconds
+         *
+         * @return the current age
+         */
+        public long getAge(long now) {
+            long date = date(headerValue(headerFields, "Date"), responseTime);
+            long apparentAge = Math.max(0L, responseTime - date);
+            long correctedAge = Math.max(apparentAge, seconds(headerValue(headerFields, "Age"), 0L));
+            return correctedAge + (responseTime - requestTime) + (now - responseTime);
+        }
+
+        /**
+         * Returns whether this response can be used without revalidation at the specified time.
+         *
+         * @param now  the current time in milliseconds
+         *
+         * @return {@code true} if fresh
+         */
+        public boolean isFresh(long now) {
+            return getAge(now) < getFreshnessLifetime();
+        }
+
+        /**
+         * Returns the conditional request headers revalidating this response, from its {@code ETag} and
+         * {@code Last-Modified} headers.
+         *
+         * @return the conditional request headers, empty if this response cannot be revalidated
+         */
+        public Map<String, String> getValidators() {
+            Map<String, String> validators = new LinkedHashMap<String, String>();
+            String etag = headerValue(headerFields, "ETag");
+            if (etag != null) {
+                validators.put("If-None-Match", etag);
+            }
+            String lastModified = headerValue(headerFields, "Last-Modified");
+            if (lastModified != null) {
+                validators.put("If-Modified-Since", lastModified);
+            }
+            return validators;
+        }
+    }
+
+    private static String headerValue(Map<String, List<String>> headerFields, String name) {
+        for (Map.Entry<String, List<String>> entry : headerFields.entrySet()) {
+            String key = entry.getKey();
+            if (key != null && key.equalsIgnoreCase(name)) {
+                List<String> values = entry.getValue();
+                if (values.isEmpty()) {
+                    return null;
+                }
+                if (values.size() == 1) {
+                    return values.get(0);
+                }
+                StringBuilder value = new StringBuilder(values.get(0));
+                for (int i = 1; i < values.size(); i++) {
+                    value.append(", ").append(values.get(i));
+                }
+                return value.toString();
+            }
+        }
+        return null;
+    }
+
+    private static String directive(String value, String name) {
+        if (value == null) {
+            return null;
+        }
+
+        for (String directive : value.split(",")) {
+            directive = directive.trim();
+            int equalsAt = directive.indexOf('=');
+            String directiveName = (equalsAt != -1) ? directive.substring(0, equalsAt).trim() : directive;
+            if (directiveName.equalsIgnoreCase(name)) {
+                if (equalsAt == -1) {
+                    return "";
+                }
+                String directiveValue = directive.substring(equalsAt + 1).trim();
+                if (directiveValue.length() > 1 && directiveValue.startsWith("\"") && directiveValue.endsWith("\"")) {
+                    directiveValue = directiveValue.substring(1, directiveValue.length() - 1);
+                }
+                return directiveValue;
+            }
+        }
+        return null;
+    }
+
+    private static long seconds(String value, long defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            long seconds = Long.parseLong(value.trim());
+            return (seconds < 0L) ? defaultValue : Math.min(seconds, Long.MAX_VALUE / 1000L) * 1000L;
+        }
+        catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static long date(String value, long defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            Date date = HTTP_DATE.get().parse(value.trim());
+            return date.getTime();
+        }
+        catch (ParseException e) {
+            return defaultValue;
+        }
+    }
+
+    private static final class MemoryTier {
+
+        private final long maxSize;
+        private final LinkedHashMap<String, Response> responses;
+        private long size;
+
+        MemoryTier(long maxSize) {
+            this.maxSize = maxSize;
+            this.responses = new LinkedHashMap<String, Response>(16, 0.75f, true);
+        }
+
+        synchronized Response get(String key) {
+            return responses.get(key);
+        }
+
+        synchronized List<Map.Entry<String, Response>> put(String key, Response response) {
+            Response previous = responses.put(key, response);
+            if (previous != null) {
+                size -= previous.body.remaining();
+            }
+            size += response.body.remaining();
+
+            List<Map.Entry<String, Response>> evicted = Collections.emptyList();
+            for (Iterator<Map.Entry<String, Response>> entries = responses.entrySet().iterator();
+                    size > maxSize && entries.hasNext(); ) {
+                Map.Entry<String, Response> eldest = entries.next();
+                if (evicted.isEmpty()) {
+                    evicted = new ArrayList<Map.Entry<String, Response>>();
+                }
+                evicted.add(new AbstractMap.SimpleImmutableEntry<String, Response>(eldest));
+                size -= eldest.getValue().body.remaining();
+                entries.remove();
+            }
+            return evicted;
+        }
+
+        synchronized void remove(String key) {
+            Response previous = responses.remove(key);
+            if (previous != null) {
+                size -= previous.body.remaining();
+            }
+        }
+
+        synchronized void clear() {
+            responses.clear();
+            size = 0L;
+        }
+
+        synchronized int size() {
+            return responses.size();
+        }
+    }
+
+    private static final class DiskTier {
+
+        private final File directory;
+        private final long maxSize;
+        private final LinkedHashMap<String, Long> files;
+        private long size;
+
+        DiskTier(File directory, long maxSize) {
+            this.directory = directory;
+            this.maxSize = maxSize;
+            this.files = new LinkedHashMap<String, Long>(16, 0.75f, true);
+
+            // index the responses kept by a previous cache, least recently written first
+            File[] existing = directory.listFiles();
+            if (existing != null) {
+                Arrays.sort(existing, new Comparator<File>() {
+                    @Override
+                    public int compare(File f1, File f2) {
+                        long m1 = f1.lastModified();
+                        long m2 = f2.lastModified();
+                        return (m1 < m2) ? -1 : ((m1 == m2) ? 0 : 1);
+                    }
+                });
+                for (File file : existing) {
+                    String name = file.getName();
+                    if (file.isFile() && name.endsWith(ENTRY_SUFFIX)) {
+                        files.put(name, file.length());
+                        size += file.length();
+                    }
+                }
+            }
+            evict();
+        }
+
+        Response get(String key) {
+            String name = fileName(key);
+            synchronized (this) {
+                if (files.get(name) == null) {
+                    return null;
+                }
+            }
+
+            try {
+                RandomAccessFile file = new RandomAccessFile(new File(directory, name), "r");
+                try {
+                    FileChannel channel = file.getChannel();
+                    MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+                    if (mapped.getInt() != ENTRY_MAGIC) {
+                        throw new IOException("Corrupt cache entry");
+                    }
+
+                    byte[] metadata = new byte[mapped.getInt()];
+                    mapped.get(metadata);
+                    DataInputStream in = new DataInputStream(new ByteArrayInputStream(metadata));
+                    if (!key.equals(in.readUTF())) {
+                        // a hash collision, the file keeps another response
+                        return null;
+                    }
+
+                    int responseCode = in.readInt();
+                    String responseMessage = in.readBoolean() ? in.readUTF() : null;
+                    long requestTime = in.readLong();
+                    long responseTime = in.readLong();
+                    Map<String, List<String>> headerFields = new LinkedHashMap<String, List<String>>();
+                    for (int count = in.readInt(); count > 0; count--) {
+                        String fieldName = in.readBoolean() ? in.readUTF() : null;
+                        List<String> values = new ArrayList<String>();
+                        for (int valueCount = in.readInt(); valueCount > 0; valueCount--) {
+                            values.add(in.readUTF());
+                        }
+                        headerFields.put(fieldName, values);
+                    }
+
+                    // the body stays mapped after the channel is closed
+                    return new Response(responseCode, responseMessage, headerFields, mapped.slice(), requestTime, responseTime);
+                }
+                finally {
+                    file.close();
+                }
+            }
+            catch (IOException e) {
+                remove(key);
+                return null;
+            }
+        }
+
+        void put(String key, Response response) {
+            String name = fileName(key);
+            File file = new File(directory, name);
+            File temporary = new File(directory, name + ".tmp");
+            long length;
+
+            try {
+                ByteArrayOutputStream metadata = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(metadata);
+                out.writeUTF(key);
+                out.writeInt(response.responseCode);
+                out.writeBoolean(response.responseMessage != null);
+                if (response.responseMessage != null) {
+                    out.writeUTF(response.responseMessage);
+                }
+                out.writeLong(response.requestTime);
+                out.writeLong(response.responseTime);
+                out.writeInt(response.headerFields.size());
+                for (Map.Entry<String, List<String>> entry : response.headerFields.entrySet()) {
+                    out.writeBoolean(entry.getKey() != null);
+                    if (entry.getKey() != null) {
+                        out.writeUTF(entry.getKey());
+                    }
+                    out.writeInt(entry.getValue().size());
+                    for (String value : entry.getValue()) {
+                        out.writeUTF(value);
+                    }
+                }
+                out.close();
+
+                FileOutputStream stream = new FileOutputStream(temporary);
+                try {
+                    ByteBuffer head = ByteBuffer.allocate(8 + metadata.size());
+                    head.putInt(ENTRY_MAGIC).putInt(metadata.size()).put(metadata.toByteArray()).flip();
+                    FileChannel channel = stream.getChannel();
+                    ByteBuffer body = response.getBody();
+                    while (head.hasRemaining() || body.hasRemaining()) {
+                        channel.write(new ByteBuffer[] { head, body });
+                    }
+                }
+                finally {
+                    stream.close();
+                }
+
+                if (!temporary.renameTo(file)) {
+                    file.delete();
+                    if (!temporary.renameTo(file)) {
+                        throw new IOException("Unable to write cache entry: " + file);
+                    }
+                }
+                length = file.length();
+            }
+            catch (IOException e) {
+                temporary.delete();
+                return;
+            }
+
+            synchronized (this) {
+                Long previous = files.put(name, length);
+                if (previous != null) {
+                    size -= previous;
+                }
+                size += length;
+                evict();
+            }
+        }
+
+        synchronized void remove(String key) {
+            String name = fileName(key);
+            Long previous = files.remove(name);
+            if (previous != null) {
+                size -= previous;
+                new File(directory, name).delete();
+            }
+        }
+
+        synchronized void clear() {
+            for (String name : files.keySet()) {
+                new File(directory, name).delete();
+            }
+            files.clear();
+            size = 0L;
+        }
+
+        synchronized int size() {
+            return files.size();
+        }
+
+        private void evict() {
+            for (Iterator<Map.Entry<String, Long>> entries = files.entrySet().iterator(); size > maxSize && entries.hasNext(); ) {
+                Map.Entry<String, Long> eldest = entries.next();
+                size -= eldest.getValue();
+                new File(directory, eldest.getKey()).delete();
+                entries.remove();
+            }
+        }
+
+        private static String fileName(String key) {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(UTF_8));
+                char[] name = new char[digest.length * 2];
+                for (int i = 0; i < digest.length; i++) {
+                    name[i * 2] = HEX[(digest[i] >> 4) & 0x0f];
+                    name[i * 2 + 1] = HEX[digest[i] & 0x0f];
+                }
+                return new String(name) + ENTRY_SUFFIX;
+            }
+            catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
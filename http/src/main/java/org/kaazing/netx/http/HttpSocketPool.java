@@ -0,0 +1,509 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kaazing.netx.http;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLContext;
+
+import org.kaazing.netx.TransportOptions;
+import org.kaazing.netx.http.internal.HttpOriginSecuritySpi;
+
+/**
+ * {@code HttpSocketPool} keeps pre-connected sockets ready for frequently used HTTP endpoints.
+ *
+ * A warm endpoint is kept at a configured number of idle sockets, connected and, for {@code https}, with the TLS handshake
+ * completed. A connection that takes a pooled socket only needs to send its request, such as an HTTP upgrade. Each socket
+ * taken is replaced in the background.
+ * <p>
+ * Idle sockets are health-checked periodically. Sockets closed by the server, sockets that received unexpected data, and
+ * sockets idle for longer than the idle timeout are closed and replaced.
+ */
+public final class HttpSocketPool {
+
+    /**
+     * Default time in milliseconds after which an idle socket is closed and replaced.
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT = 30000L;
+
+    /**
+     * Default interval in milliseconds between health checks of idle sockets.
+     */
+    public static final long DEFAULT_HEALTH_CHECK_INTERVAL = 5000L;
+
+    private static final int HEALTH_CHECK_TIMEOUT = 1;
+
+    private static final Executor CONNECTS = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "netx-socket-pool-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final long idleTimeout;
+    private final long healthCheckInterval;
+    private final HttpOriginSecuritySpi security;
+    private final Map<String, Endpoint> endpoints;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong evictions;
+
+    private ScheduledExecutorService healthCheck;
+
+    /**
+     * Creates a new {@code HttpSocketPool} with the default idle timeout and health check interval.
+     *
+     * @return a new {@code HttpSocketPool}
+     */
+    public static HttpSocketPool newInstance() {
+        return new HttpSocketPool(DEFAULT_IDLE_TIMEOUT, DEFAULT_HEALTH_CHECK_INTERVAL);
+    }
+
+    /**
+     * Creates a new {@code HttpSocketPool}.
+     *
+     * @param idleTimeout          the time in milliseconds after which an idle socket is closed and replaced
+     * @param healthCheckInterval  the interval in milliseconds between health checks of idle sockets
+     *
+     * @return a new {@code HttpSocketPool}
+     */
+    public static HttpSocketPool newInstance(long idleTimeout, long healthCheckInterval) {
+        if (idleTimeout <= 0L) {
+            throw new IllegalArgumentException("Idle timeout must be positive");
+        }
+
+        if (healthCheckInterval <= 0L) {
+            throw new IllegalArgumentException("Health check interval must be positive");
+        }
+
+        return new HttpSocketPool(idleTimeout, healthCheckInterval);
+    }
+
+    private HttpSocketPool(long idleTimeout, long healthCheckInterval) {
+        this.idleTimeout = idleTimeout;
+        this.healthCheckInterval = healthCheckInterval;
+        this.security = HttpOriginSecuritySpi.newInstance();
+        this.endpoints = new HashMap<String, Endpoint>();
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.evictions = new AtomicLong();
+    }
+
+    /**
+     * Keeps the specified number of idle sockets connected to an {@code http} or {@code https} endpoint. A count of zero
+     * closes the idle sockets of the endpoint and stops keeping it warm.
+     *
+     * @param url               the endpoint; only the protocol, host and port are used
+     * @param sslContext        the SSL context for {@code https}, or {@code null} for the default SSL context
+     * @param transportOptions  the socket options, or {@code null} for platform defaults
+     * @param connectTimeout    the connect timeout in milliseconds, or zero for no timeout
+     * @param count             the number of idle sockets to keep
+     */
+    public void setWarmSocketCount(
+            URL url,
+            SSLContext sslContext,
+            TransportOptions transportOptions,
+            int connectTimeout,
+            int count) {
+        if (url == null) {
+            throw new NullPointerException("Null url passed in");
+        }
+
+        if (count < 0) {
+            throw new IllegalArgumentException("Warm socket count must not be negative");
+        }
+
+        if (connectTimeout < 0) {
+            throw new IllegalArgumentException("Connect timeout must not be negative");
+        }
+
+        String key = key(url, sslContext, transportOptions);
+        Endpoint endpoint;
+
+        synchronized (endpoints) {
+            endpoint = endpoints.get(key);
+            if (endpoint == null) {
+                if (count == 0) {
+                    return;
+                }
+                endpoint = new Endpoint(url, sslContext, transportOptions);
+                endpoints.put(key, endpoint);
+            }
+            else if (count == 0) {
+                endpoints.remove(key);
+            }
+
+            if (count != 0 && healthCheck == null) {
+                healthCheck = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "netx-socket-pool-health");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+                healthCheck.scheduleWithFixedDelay(new Runnable() {
+                    @Override
+                    public void run() {
+                        checkHealth();
+                    }
+                }, healthCheckInterval, healthCheckInterval, MILLISECONDS);
+            }
+        }
+
+        endpoint.configure(count, connectTimeout);
+    }
+
+    /**
+     * Returns the number of idle sockets kept for an endpoint.
+     *
+     * @param url               the endpoint
+     * @param sslContext        the SSL context for {@code https}, or {@code null} for the default SSL context
+     * @param transportOptions  the socket options, or {@code null} for platform defaults
+     *
+     * @return the number of idle sockets
+     */
+    public int getIdleSocketCount(URL url, SSLContext sslContext, TransportOptions transportOptions) {
+        Endpoint endpoint;
+        synchronized (endpoints) {
+            endpoint = endpoints.get(key(url, sslContext, transportOptions));
+        }
+        return (endpoint != null) ? endpoint.idleCount() : 0;
+    }
+
+    /**
+     * Takes an idle socket connected to an endpoint, to be used for a single connection. The socket is replaced in the
+     * background.
+     *
+     * @param url               the endpoint
+     * @param sslContext        the SSL context for {@code https}, or {@code null} for the default SSL context
+     * @param transportOptions  the socket options, or {@code null} for platform defaults
+     *
+     * @return a connected socket, or {@code null} if the endpoint has no idle socket
+     */
+    public Socket take(URL url, SSLContext sslContext, TransportOptions transportOptions) {
+        Endpoint endpoint;
+        synchronized (endpoints) {
+            endpoint = endpoints.get(key(url, sslContext, transportOptions));
+        }
+
+        if (endpoint == null) {
+            return null;
+        }
+
+        Socket socket = endpoint.take();
+        if (socket != null) {
+            hits.incrementAndGet();
+        }
+        else {
+            misses.incrementAndGet();
+        }
+        return socket;
+    }
+
+    /**
+     * Returns the number of connections to a warm endpoint that used a pooled socket.
+     *
+     * @return the number of pool hits
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of connections to a warm endpoint that found no idle socket and connected a new socket.
+     *
+     * @return the number of pool misses
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of idle sockets closed because they were unhealthy or idle for longer than the idle timeout.
+     *
+     * @return the number of evicted sockets
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Closes all idle sockets and stops keeping endpoints warm.
+     */
+    public void clear() {
+        List<Endpoint> removed;
+        synchronized (endpoints) {
+            removed = new ArrayList<Endpoint>(endpoints.values());
+            endpoints.clear();
+
+            if (healthCheck != null) {
+                healthCheck.shutdown();
+                healthCheck = null;
+            }
+        }
+
+        for (Endpoint endpoint : removed) {
+            endpoint.configure(0, 0);
+        }
+    }
+
+    private void checkHealth() {
+        List<Endpoint> warm;
+        synchronized (endpoints) {
+            warm = new ArrayList<Endpoint>(endpoints.values());
+        }
+
+        for (Endpoint endpoint : warm) {
+            endpoint.checkHealth();
+        }
+    }
+
+    private static String key(URL url, SSLContext sslContext, TransportOptions transportOptions) {
+        int port = url.getPort();
+        if (port == -1) {
+            port = url.getDefaultPort();
+        }
+
+        StringBuilder key = new StringBuilder();
+        key.append(url.getProtocol().toLowerCase()).append("://").append(url.getHost().toLowerCase()).append(':').append(port);
+        if (sslContext != null) {
+            key.append('#').append(System.identityHashCode(sslContext));
+        }
+        if (transportOptions != null) {
+            key.append(transportOptions);
+        }
+        return key.toString();
+    }
+
+    private static boolean isHealthy(Socket socket) {
+        if (socket.isClosed() || socket.isInputShutdown() || socket.isOutputShutdown()) {
+            return false;
+        }
+
+        try {
+            // an idle socket must not be readable, a read returns either end of stream or unexpected data
+            socket.setSoTimeout(HEALTH_CHECK_TIMEOUT);
+            InputStream input = socket.getInputStream();
+            input.read();
+            return false;
+        }
+        catch (SocketTimeoutException e) {
+            try {
+                socket.setSoTimeout(0);
+                return true;
+            }
+            catch (IOException e0) {
+                return false;
+            }
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        }
+        catch (IOException e) {
+            // ignore
+        }
+    }
+
+    private static final class IdleSocket {
+        final Socket socket;
+        final long idleSince;
+
+        IdleSocket(Socket socket) {
+            this.socket = socket;
+            this.idleSince = System.currentTimeMillis();
+        }
+    }
+
+    private final class Endpoint {
+        private final URL url;
+        private final SSLContext sslContext;
+        private final TransportOptions transportOptions;
+        private final LinkedList<IdleSocket> idle;
+
+        private int count;
+        private int connectTimeout;
+        private int pending;
+        private int probing;
+
+        Endpoint(URL url, SSLContext sslContext, TransportOptions transportOptions) {
+            this.url = url;
+            this.sslContext = sslContext;
+            this.transportOptions = transportOptions;
+            this.idle = new LinkedList<IdleSocket>();
+        }
+
+        void configure(int count, int connectTimeout) {
+            List<IdleSocket> surplus = new LinkedList<IdleSocket>();
+            synchronized (this) {
+                this.count = count;
+                this.connectTimeout = connectTimeout;
+                while (idle.size() > count) {
+                    surplus.add(idle.removeLast());
+                }
+            }
+
+            for (IdleSocket idleSocket : surplus) {
+                close(idleSocket.socket);
+            }
+
+            fill();
+        }
+
+        Socket take() {
+            Socket socket = null;
+            List<IdleSocket> expired = new LinkedList<IdleSocket>();
+            long now = System.currentTimeMillis();
+
+            synchronized (this) {
+                while (socket == null && !idle.isEmpty()) {
+                    IdleSocket idleSocket = idle.removeFirst();
+                    if (now - idleSocket.idleSince < idleTimeout && !idleSocket.socket.isClosed()) {
+                        socket = idleSocket.socket;
+                    }
+                    else {
+                        expired.add(idleSocket);
+                    }
+                }
+            }
+
+            for (IdleSocket idleSocket : expired) {
+                evictions.incrementAndGet();
+                close(idleSocket.socket);
+            }
+
+            fill();
+            return socket;
+        }
+
+        synchronized int idleCount() {
+            return idle.size();
+        }
+
+        void checkHealth() {
+            List<IdleSocket> candidates;
+            synchronized (this) {
+                candidates = new ArrayList<IdleSocket>(idle);
+            }
+
+            for (IdleSocket idleSocket : candidates) {
+                // probed while out of the idle list, so that it cannot be taken while its read timeout is changed
+                synchronized (this) {
+                    if (!idle.remove(idleSocket)) {
+                        continue;
+                    }
+                    probing++;
+                }
+
+                long now = System.currentTimeMillis();
+                boolean healthy = now - idleSocket.idleSince < idleTimeout && isHealthy(idleSocket.socket);
+
+                boolean surplus;
+                synchronized (this) {
+                    probing--;
+                    surplus = idle.size() + probing >= count;
+                    if (healthy && !surplus) {
+                        idle.addLast(idleSocket);
+                    }
+                }
+
+                if (!healthy) {
+                    evictions.incrementAndGet();
+                    close(idleSocket.socket);
+                }
+                else if (surplus) {
+                    close(idleSocket.socket);
+                }
+            }
+
+            fill();
+        }
+
+        private void fill() {
+            int connects;
+            synchronized (this) {
+                connects = count - idle.size() - pending - probing;
+                if (connects <= 0) {
+                    return;
+                }
+                pending += connects;
+            }
+
+            for (int i = 0; i < connects; i++) {
+                CONNECTS.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        connect();
+                    }
+                });
+            }
+        }
+
+        private void connect() {
+            Socket socket = null;
+            try {
+                socket = security.createSocket(url, sslContext, connectTimeout, transportOptions);
+            }
+            catch (IOException e) {
+                // endpoint unavailable, retry at the next health check
+            }
+            catch (RuntimeException e) {
+                // endpoint unavailable, retry at the next health check
+            }
+
+            synchronized (this) {
+                pending--;
+                if (socket != null && idle.size() + probing < count) {
+                    idle.addLast(new IdleSocket(socket));
+                    socket = null;
+                }
+            }
+
+            if (socket != null) {
+                close(socket);
+            }
+        }
+    }
+}
@@ -16,16 +16,26 @@
 
 package org.kaazing.netx.http;
 
+import static java.lang.String.format;
 import static org.kaazing.netx.http.HttpRedirectPolicy.ORIGIN;
 
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
+import javax.net.ssl.SSLContext;
+
+import org.kaazing.netx.TransportOptions;
 import org.kaazing.netx.http.auth.ChallengeHandler;
 
 /**
  * {@code HttpURLConnection} enhances the built-in HTTP-based {@code URLConnection}.
  *
- * Support is added for HTTP upgrade, an origin-aware HTTP redirect policy, and an application-level security challenge handler.
+ * Support is added for HTTP upgrade, an origin-aware HTTP redirect policy, an application-level security challenge handler,
+ * a configurable {@code SSLContext} for secure connections, configurable socket options, pre-connected sockets, early data
+ * sent before the upgrade response is received, credentials sent preemptively from a credential cache, persistent
+ * connections kept in a connection pool, transparent decoding of compressed responses, responses kept in a response
+ * cache, and permanent redirects remembered in a redirect cache.
  */
 public abstract class HttpURLConnection extends java.net.HttpURLConnection {
 
@@ -34,8 +44,30 @@ public abstract class HttpURLConnection extends java.net.HttpURLConnection {
      */
     public static final int HTTP_SWITCHING_PROTOCOLS = 101;
 
+    /**
+     * HTTP Status-Code 307: Temporary Redirect.
+     */
+    public static final int HTTP_TEMPORARY_REDIRECT = 307;
+
+    /**
+     * HTTP Status-Code 308: Permanent Redirect.
+     */
+    public static final int HTTP_PERMANENT_REDIRECT = 308;
+
     private ChallengeHandler challengeHandler;
     private HttpRedirectPolicy redirectPolicy;
+    private SSLContext sslContext;
+    private TransportOptions transportOptions;
+    private HttpSocketPool socketPool;
+    private boolean earlyDataEnabled;
+    private HttpCredentialCache credentialCache;
+    private HttpConnectionPool connectionPool;
+    private boolean http2Enabled;
+    private boolean contentDecodingEnabled;
+    private HttpResponseCache responseCache;
+    private HttpRedirectCache redirectCache;
+    private HttpRequestCoalescer requestCoalescer;
+    private HttpCookieStore cookieStore;
 
     /**
      * Creates a new {@code HttpURLConnection}.
@@ -83,4 +115,297 @@ public abstract class HttpURLConnection extends java.net.HttpURLConnection {
     public ChallengeHandler getChallengeHandler() {
         return challengeHandler;
     }
+
+    /**
+     * Sets the {@code SSLContext} used for secure connections, or {@code null} for the default {@code SSLContext}.
+     * TLS sessions are resumed per host and port as configured by the {@link SSLSessionCache} of the context.
+     *
+     * @param sslContext  the new SSL context
+     */
+    public void setSSLContext(SSLContext sslContext) {
+        this.sslContext = sslContext;
+    }
+
+    /**
+     * Returns the {@code SSLContext} used for secure connections, or {@code null} for the default {@code SSLContext}.
+     *
+     * @return the current SSL context
+     */
+    public SSLContext getSSLContext() {
+        return sslContext;
+    }
+
+    /**
+     * Sets the socket options applied to the connection, or {@code null} for platform defaults. Options can also be
+     * overridden by {@code netx.*} URL query parameters, as described by {@link TransportOptions}.
+     *
+     * @param transportOptions  the new socket options
+     */
+    public void setTransportOptions(TransportOptions transportOptions) {
+        this.transportOptions = transportOptions;
+    }
+
+    /**
+     * Returns the socket options applied to the connection, or {@code null} for platform defaults.
+     *
+     * @return the current socket options
+     */
+    public TransportOptions getTransportOptions() {
+        return transportOptions;
+    }
+
+    /**
+     * Sets the pool of pre-connected sockets used for an HTTP upgrade, or {@code null} to always connect a new socket.
+     *
+     * @param socketPool  the new socket pool
+     */
+    public void setSocketPool(HttpSocketPool socketPool) {
+        this.socketPool = socketPool;
+    }
+
+    /**
+     * Returns the pool of pre-connected sockets used for an HTTP upgrade, or {@code null} if a new socket is always connected.
+     *
+     * @return the current socket pool
+     */
+    public HttpSocketPool getSocketPool() {
+        return socketPool;
+    }
+
+    /**
+     * Sets whether data may be written to an HTTP upgrade connection before the upgrade response is received. When enabled,
+     * the upgrade request is held back and sent together with the first data written to {@link #getOutputStream()}, which
+     * is then available as soon as the request is ready instead of after the response. The request is also sent when the
+     * response is first read. Redirects and authentication challenges are not followed for such a connection, because the
+     * early data cannot be replayed on a subsequent request.
+     *
+     * @param earlyDataEnabled  {@code true} to allow data before the upgrade response
+     */
+    public void setEarlyDataEnabled(boolean earlyDataEnabled) {
+        this.earlyDataEnabled = earlyDataEnabled;
+    }
+
+    /**
+     * Returns whether data may be written to an HTTP upgrade connection before the upgrade response is received.
+     *
+     * @return {@code true} if data is allowed before the upgrade response
+     */
+    public boolean isEarlyDataEnabled() {
+        return earlyDataEnabled;
+    }
+
+    /**
+     * Sets the cache of credentials sent preemptively on an HTTP upgrade, or {@code null} to only send credentials in
+     * response to an authentication challenge, which is the default.
+     *
+     * @param credentialCache  the new credential cache
+     */
+    public void setCredentialCache(HttpCredentialCache credentialCache) {
+        this.credentialCache = credentialCache;
+    }
+
+    /**
+     * Returns the cache of credentials sent preemptively on an HTTP upgrade, or {@code null} if credentials are only sent in
+     * response to an authentication challenge.
+     *
+     * @return the current credential cache
+     */
+    public HttpCredentialCache getCredentialCache() {
+        return credentialCache;
+    }
+
+    /**
+     * Sets the pool of persistent connections used for requests other than HTTP upgrade, or {@code null} to send such
+     * requests with the JDK {@code java.net.HttpURLConnection}, which is the default. When a pool is set, requests are sent
+     * by the netx HTTP/1.1 implementation on connections kept alive in the pool, and may be pipelined when the pool allows.
+     * Authentication challenges other than application challenges are not answered on such connections.
+     *
+     * @param connectionPool  the new connection pool
+     */
+    public void setConnectionPool(HttpConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+    }
+
+    /**
+     * Returns the pool of persistent connections used for requests other than HTTP upgrade, or {@code null} if such requests
+     * are sent with the JDK {@code java.net.HttpURLConnection}.
+     *
+     * @return the current connection pool
+     */
+    public HttpConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    /**
+     * Sets whether new connections in the connection pool use HTTP/2. When enabled, {@code http} connections speak HTTP/2
+     * with prior knowledge, and {@code https} connections offer {@code h2} with ALPN, falling back to HTTP/1.1 when the server
+     * does not select it or the platform does not support ALPN. Concurrent requests to the same origin then share a single
+     * multiplexed connection. Only used when a connection pool is set, and disabled by default.
+     *
+     * @param http2Enabled  {@code true} to connect with HTTP/2
+     */
+    public void setHttp2Enabled(boolean http2Enabled) {
+        this.http2Enabled = http2Enabled;
+    }
+
+    /**
+     * Returns whether new connections in the connection pool use HTTP/2.
+     *
+     * @return {@code true} if new connections use HTTP/2
+     */
+    public boolean isHttp2Enabled() {
+        return http2Enabled;
+    }
+
+    /**
+     * Sets whether compressed responses are requested and transparently decoded. When enabled, and no
+     * {@code Accept-Encoding} request property has been set, the request advertises {@code Accept-Encoding: gzip, deflate}
+     * and a response body with a matching {@code Content-Encoding} is decoded as it is read from {@link #getInputStream()}.
+     * The response headers, including {@code Content-Length}, describe the body as received. The error stream is not decoded.
+     *
+     * @param contentDecodingEnabled  {@code true} to request and decode compressed responses
+     */
+    public void setContentDecodingEnabled(boolean contentDecodingEnabled) {
+        this.contentDecodingEnabled = contentDecodingEnabled;
+    }
+
+    /**
+     * Returns whether compressed responses are requested and transparently decoded.
+     *
+     * @return {@code true} if compressed responses are requested and decoded
+     */
+    public boolean isContentDecodingEnabled() {
+        return contentDecodingEnabled;
+    }
+
+    /**
+     * Sets the cache answering {@code GET} requests, or {@code null} to send every request to the network, which is the
+     * default. The cache is only used while {@link #getUseCaches()} is {@code true}. Requests that modify a resource remove
+     * the response kept for its location.
+     *
+     * @param responseCache  the new response cache
+     */
+    public void setResponseCache(HttpResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    /**
+     * Returns the cache answering {@code GET} requests, or {@code null} if every request is sent to the network.
+     *
+     * @return the current response cache
+     */
+    public HttpResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * Sets the cache of permanent redirects, or {@code null} to always connect to the requested location, which is the
+     * default. A remembered redirect is followed before connecting, subject to the redirect policy, instead of after a
+     * {@code 301 Moved Permanently} or {@code 308 Permanent Redirect} response.
+     *
+     * @param redirectCache  the new redirect cache
+     */
+    public void setRedirectCache(HttpRedirectCache redirectCache) {
+        this.redirectCache = redirectCache;
+    }
+
+    /**
+     * Returns the cache of permanent redirects, or {@code null} if the requested location is always connected.
+     *
+     * @return the current redirect cache
+     */
+    public HttpRedirectCache getRedirectCache() {
+        return redirectCache;
+    }
+
+    /**
+     * Sets the coalescer sharing one in-flight response among concurrent identical {@code GET} requests, or {@code null} to
+     * send every request to the network, which is the default. A request joining a flight already in progress waits for the
+     * response of the leading request and reads the shared response body from its first byte.
+     *
+     * @param requestCoalescer  the new request coalescer
+     */
+    public void setRequestCoalescer(HttpRequestCoalescer requestCoalescer) {
+        this.requestCoalescer = requestCoalescer;
+    }
+
+    /**
+     * Returns the coalescer sharing one in-flight response among concurrent identical {@code GET} requests, or {@code null}
+     * if every request is sent to the network.
+     *
+     * @return the current request coalescer
+     */
+    public HttpRequestCoalescer getRequestCoalescer() {
+        return requestCoalescer;
+    }
+
+    /**
+     * Sets the store supplying the {@code Cookie} request header and keeping the cookies of the response, or {@code null}
+     * to use the system-wide {@link java.net.CookieHandler#getDefault()}, which is the default.
+     *
+     * @param cookieStore  the new cookie store
+     */
+    public void setCookieStore(HttpCookieStore cookieStore) {
+        this.cookieStore = cookieStore;
+    }
+
+    /**
+     * Returns the store supplying the {@code Cookie} request header, or {@code null} if the system-wide
+     * {@link java.net.CookieHandler#getDefault()} is used.
+     *
+     * @return the current cookie store
+     */
+    public HttpCookieStore getCookieStore() {
+        return cookieStore;
+    }
+
+    /**
+     * Sets a region of a file as the request body, and enables output. The body is sent once the response is requested,
+     * with a {@code Content-Length} unless chunked streaming mode is set. When the connection is pooled over a socket with a
+     * channel, the region is copied by the kernel directly from the file to the socket, without passing through the heap.
+     * The position of the channel is not changed, and the channel is not closed.
+     *
+     * @param channel   the file channel
+     * @param position  the position of the region in the file
+     * @param count     the number of bytes in the region
+     *
+     * @throws UnsupportedOperationException if not overridden by the implementation
+     */
+    public void setRequestBody(FileChannel channel, long position, long count) {
+        throw new UnsupportedOperationException(format("%s does not support a file request body", getClass().getName()));
+    }
+
+    /**
+     * Sets the remaining bytes of one or more buffers as the request body, and enables output. The body is sent once the
+     * response is requested, with a {@code Content-Length} unless chunked streaming mode is set. When the connection is
+     * pooled over a socket with a channel, the buffers are sent together with the request head in gathering writes. The
+     * buffers are not modified, and must not be changed until the response is received.
+     *
+     * @param buffers  the buffers
+     *
+     * @throws UnsupportedOperationException if not overridden by the implementation
+     */
+    public void setRequestBody(ByteBuffer... buffers) {
+        throw new UnsupportedOperationException(format("%s does not support a buffer request body", getClass().getName()));
+    }
+
+    /**
+     * Returns the number of compressed response body bytes received so far, or {@code 0} if the response is not being
+     * decoded. Returns {@code 0} unless overridden by the implementation.
+     *
+     * @return the number of encoded bytes read
+     */
+    public long getEncodedByteCount() {
+        return 0L;
+    }
+
+    /**
+     * Returns the number of decoded response body bytes returned so far by the input stream, or {@code 0} if the response is
+     * not being decoded. Returns {@code 0} unless overridden by the implementation.
+     *
+     * @return the number of decoded bytes read
+     */
+    public long getDecodedByteCount() {
+        return 0L;
+    }
 }
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kaazing.netx.http;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.Socket;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+
+/**
+ * {@code SSLSessionCache} manages TLS session resumption for the client sockets created from an {@link SSLContext}.
+ *
+ * Sessions are cached by the {@code SSLContext} per host and port, so a reconnect to the same host and port resumes the
+ * previous session with an abbreviated handshake instead of a full handshake. The size and timeout of the session cache
+ * are configured here, and completed handshakes are counted as either full or resumed. Under TLS 1.3 the session tickets
+ * for resumption arrive after the handshake, so they are only cached once the connection has read from the server.
+ *
+ * All {@code SSLSessionCache} instances for an {@code SSLContext} share its sessions and handshake counts, so they are
+ * shared by all netx connections using that context.
+ */
+public final class SSLSessionCache {
+
+    // the values must not reference the contexts, otherwise the contexts are never collected
+    private static final Map<SSLContext, Handshakes> HANDSHAKES = new WeakHashMap<SSLContext, Handshakes>();
+
+    // ALPN is available from Java 9, and later Java 8 updates
+    private static final Method SET_APPLICATION_PROTOCOLS = applicationProtocolsMethod();
+
+    private final SSLContext sslContext;
+    private final Handshakes handshakes;
+
+    private SSLSessionCache(SSLContext sslContext, Handshakes handshakes) {
+        this.sslContext = sslContext;
+        this.handshakes = handshakes;
+    }
+
+    /**
+     * Returns the {@code SSLSessionCache} for the specified {@code SSLContext}.
+     *
+     * @param sslContext  the SSL context
+     *
+     * @return the session cache for the SSL context
+     */
+    public static SSLSessionCache getInstance(SSLContext sslContext) {
+        if (sslContext == null) {
+            throw new NullPointerException("Null sslContext passed in");
+        }
+
+        synchronized (HANDSHAKES) {
+            Handshakes handshakes = HANDSHAKES.get(sslContext);
+            if (handshakes == null) {
+                handshakes = new Handshakes();
+                HANDSHAKES.put(sslContext, handshakes);
+            }
+            return new SSLSessionCache(sslContext, handshakes);
+        }
+    }
+
+    /**
+     * Returns the {@code SSLSessionCache} for the default {@code SSLContext}.
+     *
+     * @return the session cache for the default SSL context
+     *
+     * @throws IOException if the default SSL context is not available
+     */
+    public static SSLSessionCache getDefault() throws IOException {
+        try {
+            return getInstance(SSLContext.getDefault());
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw (IOException) new IOException(e.getMessage()).initCause(e);
+        }
+    }
+
+    /**
+     * Returns the {@code SSLContext} of this session cache.
+     *
+     * @return the SSL context
+     */
+    public SSLContext getSSLContext() {
+        return sslContext;
+    }
+
+    /**
+     * Sets the maximum number of cached client sessions. A size of zero indicates no limit.
+     *
+     * @param size  the maximum number of cached sessions
+     */
+    public void setSessionCacheSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Session cache size must not be negative");
+        }
+
+        clientSessionContext().setSessionCacheSize(size);
+    }
+
+    /**
+     * Returns the maximum number of cached client sessions. A size of zero indicates no limit.
+     *
+     * @return the maximum number of cached sessions
+     */
+    public int getSessionCacheSize() {
+        return clientSessionContext().getSessionCacheSize();
+    }
+
+    /**
+     * Sets the timeout in seconds after which cached client sessions can no longer be resumed. A timeout of zero indicates
+     * no limit.
+     *
+     * @param seconds  the session timeout in seconds
+     */
+    public void setSessionTimeout(int seconds) {
+        if (seconds < 0) {
+            throw new IllegalArgumentException("Session timeout must not be negative");
+        }
+
+        clientSessionContext().setSessionTimeout(seconds);
+    }
+
+    /**
+     * Returns the timeout in seconds after which cached client sessions can no longer be resumed.
+     *
+     * @return the session timeout in seconds
+     */
+    public int getSessionTimeout() {
+        return clientSessionContext().getSessionTimeout();
+    }
+
+    /**
+     * Returns the number of completed handshakes that negotiated a new session.
+     *
+     * @return the number of full handshakes
+     */
+    public long getFullHandshakeCount() {
+        return handshakes.full.get();
+    }
+
+    /**
+     * Returns the number of completed handshakes that resumed a cached session.
+     *
+     * @return the number of resumed handshakes
+     */
+    public long getResumedHandshakeCount() {
+        return handshakes.resumed.get();
+    }
+
+    /**
+     * Layers TLS over a connected socket and completes the handshake, resuming any cached session for the host and port.
+     *
+     * @param socket  the connected socket
+     * @param host    the server host name, used for session lookup and server identification
+     * @param port    the server port
+     *
+     * @return the TLS socket, with the handshake completed
+     *
+     * @throws IOException if the handshake fails
+     */
+    public SSLSocket createSocket(Socket socket, String host, int port) throws IOException {
+        return createSocket(socket, host, port, null);
+    }
+
+    /**
+     * Layers TLS over a connected socket and completes the handshake, resuming any cached session for the host and port, and
+     * offering application protocols with ALPN. The protocols are not offered when the platform does not support ALPN.
+     *
+     * @param socket                the connected socket
+     * @param host                  the server host name, used for session lookup and server identification
+     * @param port                  the server port
+     * @param applicationProtocols  the application protocols, in order of preference, or {@code null} to offer none
+     *
+     * @return the TLS socket, with the handshake completed
+     *
+     * @throws IOException if the handshake fails
+     */
+    public SSLSocket createSocket(Socket socket, String host, int port, String[] applicationProtocols) throws IOException {
+        SSLSocket sslSocket = (SSLSocket) sslContext.getSocketFactory().createSocket(socket, host, port, true);
+        try {
+            if (applicationProtocols != null && SET_APPLICATION_PROTOCOLS != null) {
+                SSLParameters parameters = sslSocket.getSSLParameters();
+                try {
+                    SET_APPLICATION_PROTOCOLS.invoke(parameters, (Object) applicationProtocols);
+                    sslSocket.setSSLParameters(parameters);
+                }
+                catch (Exception e) {
+                    // ignore, handshake without ALPN
+                }
+            }
+
+            long handshakeStartedAt = System.currentTimeMillis();
+            sslSocket.startHandshake();
+
+            if (handshakes.established(sslSocket.getSession(), handshakeStartedAt)) {
+                handshakes.resumed.incrementAndGet();
+            }
+            else {
+                handshakes.full.incrementAndGet();
+            }
+        }
+        catch (IOException e) {
+            sslSocket.close();
+            throw e;
+        }
+        return sslSocket;
+    }
+
+    private SSLSessionContext clientSessionContext() {
+        SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+        if (sessionContext == null) {
+            throw new IllegalStateException("Client session caching is not supported by this SSLContext");
+        }
+        return sessionContext;
+    }
+
+    private static Method applicationProtocolsMethod() {
+        try {
+            return SSLParameters.class.getMethod("setApplicationProtocols", String[].class);
+        }
+        catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static final class Handshakes {
+
+        private final AtomicLong full;
+        private final AtomicLong resumed;
+
+        // sessions established by earlier handshakes, weakly held until evicted from the session context
+        private final Map<SSLSession, Boolean> sessions;
+
+        Handshakes() {
+            this.full = new AtomicLong();
+            this.resumed = new AtomicLong();
+            this.sessions = new WeakHashMap<SSLSession, Boolean>();
+        }
+
+        synchronized boolean established(SSLSession session, long handshakeStartedAt) {
+            byte[] sessionId = session.getId();
+            if (sessionId == null || sessionId.length == 0) {
+                // not cached, so neither resumed nor resumable
+                return false;
+            }
+
+            // a resumed TLS 1.2 handshake returns the cached session, sessions are equal by identity or by session ID
+            boolean established = sessions.put(session, Boolean.TRUE) != null;
+
+            // a resumed TLS 1.3 handshake returns a new session derived from a ticket, created with the creation time of
+            // the session it resumes, whereas a full handshake creates its session after the handshake started
+            return established || session.getCreationTime() < handshakeStartedAt;
+        }
+    }
+}
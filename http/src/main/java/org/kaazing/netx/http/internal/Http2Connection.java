@@ -0,0 +1,715 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kaazing.netx.http.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.net.ssl.SSLSocket;
+
+import org.kaazing.netx.http.HttpConnectionPool;
+
+/**
+ * An HTTP/2 connection, RFC 7540, carrying concurrent requests as multiplexed streams.
+ *
+ * Frames are read by a dedicated daemon thread, which hands response headers and data to their streams and answers
+ * {@code SETTINGS} and {@code PING} frames. Frames are written by the requesting threads, one frame at a time, and header
+ * blocks are encoded and sent under the same lock so that the peer decodes them in the order the shared dynamic table was
+ * updated.
+ * <p>
+ * Request bodies respect the send windows of both the stream and the connection, blocking until the server opens them with
+ * {@code WINDOW_UPDATE}. Response bodies are received in windows larger than the protocol default, a stream window being
+ * replenished as the response is read and the connection window as data arrives, since the stream windows already bound
+ * the data buffered for unread responses.
+ */
+final class Http2Connection extends HttpConnectionPool.Connection {
+
+    static final Charset US_ASCII = Charset.forName("US-ASCII");
+    static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(US_ASCII);
+    static final String[] APPLICATION_PROTOCOLS = new String[] { "h2", "http/1.1" };
+
+    static final int FRAME_HEADER_LENGTH = 9;
+
+    static final int TYPE_DATA = 0x0;
+    static final int TYPE_HEADERS = 0x1;
+    static final int TYPE_RST_STREAM = 0x3;
+    static final int TYPE_SETTINGS = 0x4;
+    static final int TYPE_PUSH_PROMISE = 0x5;
+    static final int TYPE_PING = 0x6;
+    static final int TYPE_GOAWAY = 0x7;
+    static final int TYPE_WINDOW_UPDATE = 0x8;
+    static final int TYPE_CONTINUATION = 0x9;
+
+    static final int FLAG_END_STREAM = 0x1;
+    static final int FLAG_ACK = 0x1;
+    static final int FLAG_END_HEADERS = 0x4;
+    static final int FLAG_PADDED = 0x8;
+    static final int FLAG_PRIORITY = 0x20;
+
+    static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    static final int SETTINGS_ENABLE_PUSH = 0x2;
+    static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+
+    static final int NO_ERROR = 0x0;
+    static final int PROTOCOL_ERROR = 0x1;
+    static final int CANCEL = 0x8;
+
+    static final int DEFAULT_WINDOW_SIZE = 65535;
+    static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+
+    static final int STREAM_WINDOW_SIZE = 1 << 20;
+    static final int CONNECTION_WINDOW_SIZE = 1 << 24;
+
+    // ALPN is available from Java 9, and later Java 8 updates
+    private static final Method GET_APPLICATION_PROTOCOL = applicationProtocolMethod();
+
+    private final Socket socket;
+    private final DataInputStream input;
+    private final OutputStream output;
+    private final Http2HeaderEncoder encoder;
+    private final Http2HeaderDecoder decoder;
+    private final Map<Integer, Http2Stream> streams;
+
+    private int nextStreamId;
+    private int reserved;
+    private int maxConcurrentStreams;
+    private int initialWindowSize;
+    private int sendWindow;
+    private int received;
+    private boolean goAway;
+    private boolean closed;
+    private IOException failure;
+    private volatile int maxFrameSize;
+
+    Http2Connection(Socket socket) throws IOException {
+        this.socket = socket;
+        this.input = new DataInputStream(new BufferedInputStream(socket.getInputStream(), DEFAULT_MAX_FRAME_SIZE));
+        this.output = new BufferedOutputStream(socket.getOutputStream(), DEFAULT_MAX_FRAME_SIZE + FRAME_HEADER_LENGTH);
+        this.encoder = new Http2HeaderEncoder();
+        this.decoder = new Http2HeaderDecoder();
+        this.streams = new HashMap<Integer, Http2Stream>();
+        this.nextStreamId = 1;
+        this.reserved = 1;
+        this.maxConcurrentStreams = Integer.MAX_VALUE;
+        this.initialWindowSize = DEFAULT_WINDOW_SIZE;
+        this.sendWindow = DEFAULT_WINDOW_SIZE;
+        this.maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+
+        // responses are awaited by each stream with its own read timeout
+        socket.setSoTimeout(0);
+
+        ByteArrayOutputStream settings = new ByteArrayOutputStream();
+        writeSetting(settings, SETTINGS_ENABLE_PUSH, 0);
+        writeSetting(settings, SETTINGS_INITIAL_WINDOW_SIZE, STREAM_WINDOW_SIZE);
+
+        synchronized (output) {
+            output.write(PREFACE);
+            writeFrame(output, TYPE_SETTINGS, 0, 0, settings.toByteArray(), 0, settings.size());
+            writeFrame(output, TYPE_WINDOW_UPDATE, 0, 0, toBytes(CONNECTION_WINDOW_SIZE - DEFAULT_WINDOW_SIZE), 0, 4);
+            output.flush();
+        }
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readFrames();
+            }
+        }, "netx-http2-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Returns whether the server selected HTTP/2 with ALPN during the handshake of a TLS socket.
+     */
+    static boolean isSelected(SSLSocket socket) {
+        if (GET_APPLICATION_PROTOCOL == null) {
+            return false;
+        }
+
+        try {
+            return "h2".equals(GET_APPLICATION_PROTOCOL.invoke(socket));
+        }
+        catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Creates a stream for a request, using the reservation made when the connection was taken or created. The stream is
+     * assigned its identifier when its headers are sent.
+     */
+    synchronized Http2Stream newStream(int readTimeout) throws IOException {
+        if (closed) {
+            throw (failure != null) ? failure : new IOException("Connection closed");
+        }
+        return new Http2Stream(this, readTimeout, initialWindowSize);
+    }
+
+    /**
+     * Gives up a reservation for a request that was never sent.
+     */
+    synchronized void cancel() {
+        reserved--;
+    }
+
+    /**
+     * Sends the headers of a stream, opening it, in one {@code HEADERS} frame followed by any {@code CONTINUATION} frames.
+     */
+    void writeHeaders(Http2Stream stream, List<String[]> headers, boolean endStream) throws IOException {
+        synchronized (output) {
+            // identifiers must increase in the order streams are opened on the wire
+            int streamId;
+            synchronized (this) {
+                if (closed || goAway || nextStreamId < 0) {
+                    throw new IOException("Connection closed");
+                }
+                streamId = nextStreamId;
+                nextStreamId += 2;
+                reserved--;
+                stream.setId(streamId);
+                streams.put(streamId, stream);
+            }
+
+            ByteArrayOutputStream block = new ByteArrayOutputStream();
+            encoder.encode(headers, block);
+            byte[] bytes = block.toByteArray();
+
+            int frameSize = maxFrameSize;
+            int offset = 0;
+            int type = TYPE_HEADERS;
+            do {
+                int length = Math.min(bytes.length - offset, frameSize);
+                int flags = (offset + length == bytes.length) ? FLAG_END_HEADERS : 0;
+                if (type == TYPE_HEADERS && endStream) {
+                    flags |= FLAG_END_STREAM;
+                }
+                writeFrame(output, type, flags, streamId, bytes, offset, length);
+                offset += length;
+                type = TYPE_CONTINUATION;
+            } while (offset < bytes.length);
+            output.flush();
+        }
+    }
+
+    /**
+     * Sends request body data in {@code DATA} frames, each waiting until both the stream and connection windows are open.
+     */
+    void writeData(Http2Stream stream, byte[] buffer, int offset, int length, boolean endStream) throws IOException {
+        if (length == 0) {
+            if (endStream) {
+                synchronized (output) {
+                    ensureOpen();
+                    writeFrame(output, TYPE_DATA, FLAG_END_STREAM, stream.getId(), buffer, offset, 0);
+                    output.flush();
+                }
+            }
+            return;
+        }
+
+        while (length > 0) {
+            int available = acquireWindow(stream, length);
+            int flags = (endStream && available == length) ? FLAG_END_STREAM : 0;
+            synchronized (output) {
+                ensureOpen();
+                writeFrame(output, TYPE_DATA, flags, stream.getId(), buffer, offset, available);
+                if (available == length) {
+                    output.flush();
+                }
+            }
+            offset += available;
+            length -= available;
+        }
+    }
+
+    /**
+     * Reopens the receive window of a stream, or of the connection for stream {@code 0}.
+     */
+    void writeWindowUpdate(int streamId, int increment) throws IOException {
+        synchronized (output) {
+            ensureOpen();
+            writeFrame(output, TYPE_WINDOW_UPDATE, 0, streamId, toBytes(increment), 0, 4);
+            output.flush();
+        }
+    }
+
+    /**
+     * Resets a stream, telling the server that its response is no longer wanted.
+     */
+    void writeReset(int streamId, int errorCode) {
+        try {
+            synchronized (output) {
+                ensureOpen();
+                writeFrame(output, TYPE_RST_STREAM, 0, streamId, toBytes(errorCode), 0, 4);
+                output.flush();
+            }
+        }
+        catch (IOException e) {
+            // ignore, the connection is failing
+        }
+    }
+
+    /**
+     * Forgets a stream that has been completely read or reset.
+     */
+    void remove(Http2Stream stream) {
+        boolean close;
+        synchronized (this) {
+            streams.remove(stream.getId());
+            close = goAway && streams.isEmpty() && reserved == 0;
+
+            // wakes a request body waiting for the window of the stream
+            notifyAll();
+        }
+
+        if (close) {
+            close();
+        }
+    }
+
+    @Override
+    protected boolean isMultiplexed() {
+        return true;
+    }
+
+    @Override
+    protected synchronized boolean reserve(int maxPending) {
+        // streams, rather than pipelined requests, are limited by the server
+        if (closed || goAway || nextStreamId < 0 || streams.size() + reserved >= maxConcurrentStreams) {
+            return false;
+        }
+        reserved++;
+        return true;
+    }
+
+    @Override
+    protected synchronized boolean isIdle() {
+        return !closed && !goAway && streams.isEmpty() && reserved == 0;
+    }
+
+    @Override
+    protected synchronized boolean isOpen() {
+        // after GOAWAY, streams already accepted by the server still complete, the connection closes after the last one
+        return !closed && !socket.isClosed();
+    }
+
+    @Override
+    protected void close() {
+        boolean idle;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            idle = streams.isEmpty();
+        }
+
+        if (idle) {
+            writeGoAway(NO_ERROR);
+        }
+        fail(new IOException("Connection closed"));
+    }
+
+    /**
+     * Writes a frame. The caller holds the lock of the output stream.
+     */
+    static void writeFrame(
+            OutputStream out,
+            int type,
+            int flags,
+            int streamId,
+            byte[] payload,
+            int offset,
+            int length) throws IOException {
+        byte[] header = new byte[FRAME_HEADER_LENGTH];
+        header[0] = (byte) (length >>> 16);
+        header[1] = (byte) (length >>> 8);
+        header[2] = (byte) length;
+        header[3] = (byte) type;
+        header[4] = (byte) flags;
+        header[5] = (byte) (streamId >>> 24);
+        header[6] = (byte) (streamId >>> 16);
+        header[7] = (byte) (streamId >>> 8);
+        header[8] = (byte) streamId;
+        out.write(header);
+        out.write(payload, offset, length);
+    }
+
+    static void writeSetting(ByteArrayOutputStream out, int identifier, int value) {
+        out.write(identifier >>> 8);
+        out.write(identifier);
+        out.write(toBytes(value), 0, 4);
+    }
+
+    static byte[] toBytes(int value) {
+        return new byte[] { (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value };
+    }
+
+    static int toInt(byte[] buffer, int offset) {
+        return ((buffer[offset] & 0xff) << 24) | ((buffer[offset + 1] & 0xff) << 16) |
+                ((buffer[offset + 2] & 0xff) << 8) | (buffer[offset + 3] & 0xff);
+    }
+
+    private synchronized int acquireWindow(Http2Stream stream, int length) throws IOException {
+        while (!closed && !stream.isFailed() && (sendWindow <= 0 || stream.sendWindow <= 0)) {
+            try {
+                wait();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for flow control window");
+            }
+        }
+
+        ensureOpen();
+        stream.ensureWritable();
+
+        int available = Math.min(Math.min(length, maxFrameSize), Math.min(sendWindow, stream.sendWindow));
+        sendWindow -= available;
+        stream.sendWindow -= available;
+        return available;
+    }
+
+    private synchronized void ensureOpen() throws IOException {
+        if (closed) {
+            throw (failure != null) ? failure : new IOException("Connection closed");
+        }
+    }
+
+    private synchronized Http2Stream stream(int streamId) {
+        return streams.get(streamId);
+    }
+
+    private void readFrames() {
+        try {
+            byte[] header = new byte[FRAME_HEADER_LENGTH];
+            for (;;) {
+                input.readFully(header);
+                int length = ((header[0] & 0xff) << 16) | ((header[1] & 0xff) << 8) | (header[2] & 0xff);
+                int type = header[3] & 0xff;
+                int flags = header[4] & 0xff;
+                int streamId = toInt(header, 5) & 0x7fffffff;
+
+                if (length > DEFAULT_MAX_FRAME_SIZE) {
+                    throw new IOException(String.format("HTTP/2 frame of %d octets exceeds maximum frame size", length));
+                }
+
+                byte[] payload = new byte[length];
+                input.readFully(payload);
+
+                switch (type) {
+                case TYPE_DATA:
+                    readData(streamId, flags, payload);
+                    break;
+                case TYPE_HEADERS:
+                    readHeaders(streamId, flags, payload);
+                    break;
+                case TYPE_RST_STREAM:
+                    readReset(streamId, payload);
+                    break;
+                case TYPE_SETTINGS:
+                    readSettings(flags, payload);
+                    break;
+                case TYPE_PING:
+                    if ((flags & FLAG_ACK) == 0) {
+                        synchronized (output) {
+                            writeFrame(output, TYPE_PING, FLAG_ACK, 0, payload, 0, payload.length);
+                            output.flush();
+                        }
+                    }
+                    break;
+                case TYPE_GOAWAY:
+                    readGoAway(payload);
+                    break;
+                case TYPE_WINDOW_UPDATE:
+                    readWindowUpdate(streamId, payload);
+                    break;
+                case TYPE_PUSH_PROMISE:
+                    throw new IOException("HTTP/2 server push received when disabled");
+                case TYPE_CONTINUATION:
+                    throw new IOException("HTTP/2 CONTINUATION frame without HEADERS");
+                default:
+                    // PRIORITY, and unknown frame types, are ignored
+                    break;
+                }
+            }
+        }
+        catch (IOException e) {
+            boolean closing;
+            synchronized (this) {
+                closing = closed;
+            }
+
+            if (!closing) {
+                writeGoAway(PROTOCOL_ERROR);
+                fail(e);
+            }
+        }
+    }
+
+    private void readData(int streamId, int flags, byte[] payload) throws IOException {
+        int padding = ((flags & FLAG_PADDED) != 0) ? padding(payload, 1) : 0;
+        int offset = ((flags & FLAG_PADDED) != 0) ? 1 : 0;
+
+        // padding counts against flow control too
+        received += payload.length;
+        if (received >= CONNECTION_WINDOW_SIZE / 2) {
+            writeWindowUpdate(0, received);
+            received = 0;
+        }
+
+        Http2Stream stream = stream(streamId);
+        if (stream != null) {
+            stream.receiveData(payload, offset, payload.length - offset - padding, padding + offset,
+                    (flags & FLAG_END_STREAM) != 0);
+        }
+    }
+
+    private void readHeaders(int streamId, int flags, byte[] payload) throws IOException {
+        int offset = 0;
+        int padding = 0;
+        if ((flags & FLAG_PADDED) != 0) {
+            padding = padding(payload, 1 + (((flags & FLAG_PRIORITY) != 0) ? 5 : 0));
+            offset++;
+        }
+        if ((flags & FLAG_PRIORITY) != 0) {
+            offset += 5;
+        }
+
+        byte[] block = payload;
+        int length = payload.length - offset - padding;
+        if ((flags & FLAG_END_HEADERS) == 0) {
+            ByteArrayOutputStream fragments = new ByteArrayOutputStream();
+            fragments.write(payload, offset, length);
+            byte[] header = new byte[FRAME_HEADER_LENGTH];
+            boolean endHeaders = false;
+            while (!endHeaders) {
+                input.readFully(header);
+                int fragmentLength = ((header[0] & 0xff) << 16) | ((header[1] & 0xff) << 8) | (header[2] & 0xff);
+                if ((header[3] & 0xff) != TYPE_CONTINUATION || (toInt(header, 5) & 0x7fffffff) != streamId ||
+                        fragmentLength > DEFAULT_MAX_FRAME_SIZE) {
+                    throw new IOException("HTTP/2 header block interrupted");
+                }
+                byte[] fragment = new byte[fragmentLength];
+                input.readFully(fragment);
+                fragments.write(fragment, 0, fragmentLength);
+                endHeaders = (header[4] & FLAG_END_HEADERS) != 0;
+            }
+            block = fragments.toByteArray();
+            offset = 0;
+            length = block.length;
+        }
+
+        // decoded even when the stream is gone, keeping the dynamic table in step with the server
+        List<String[]> headers = decoder.decode(block, offset, length);
+
+        Http2Stream stream = stream(streamId);
+        if (stream != null) {
+            stream.receiveHeaders(headers, (flags & FLAG_END_STREAM) != 0);
+        }
+    }
+
+    private void readReset(int streamId, byte[] payload) throws IOException {
+        if (payload.length != 4) {
+            throw new IOException("Invalid HTTP/2 RST_STREAM frame");
+        }
+
+        Http2Stream stream = stream(streamId);
+        if (stream != null) {
+            int errorCode = toInt(payload, 0);
+            stream.reset(new IOException(String.format("HTTP/2 stream reset by server, error code %d", errorCode)));
+        }
+    }
+
+    private void readSettings(int flags, byte[] payload) throws IOException {
+        if ((flags & FLAG_ACK) != 0) {
+            return;
+        }
+
+        if (payload.length % 6 != 0) {
+            throw new IOException("Invalid HTTP/2 SETTINGS frame");
+        }
+
+        int headerTableSize = -1;
+        synchronized (this) {
+            for (int offset = 0; offset < payload.length; offset += 6) {
+                int identifier = ((payload[offset] & 0xff) << 8) | (payload[offset + 1] & 0xff);
+                int value = toInt(payload, offset + 2);
+                switch (identifier) {
+                case SETTINGS_HEADER_TABLE_SIZE:
+                    headerTableSize = value;
+                    break;
+                case SETTINGS_MAX_CONCURRENT_STREAMS:
+                    maxConcurrentStreams = value;
+                    break;
+                case SETTINGS_INITIAL_WINDOW_SIZE:
+                    if (value < 0) {
+                        throw new IOException("Invalid HTTP/2 initial window size");
+                    }
+                    // applies to the send windows of open streams too
+                    int delta = value - initialWindowSize;
+                    initialWindowSize = value;
+                    for (Http2Stream stream : streams.values()) {
+                        stream.sendWindow += delta;
+                    }
+                    notifyAll();
+                    break;
+                case SETTINGS_MAX_FRAME_SIZE:
+                    if (value < DEFAULT_MAX_FRAME_SIZE || value > 0xffffff) {
+                        throw new IOException("Invalid HTTP/2 maximum frame size");
+                    }
+                    maxFrameSize = value;
+                    break;
+                default:
+                    // others do not constrain a client
+                    break;
+                }
+            }
+        }
+
+        synchronized (output) {
+            if (headerTableSize != -1) {
+                encoder.setMaxTableSize(headerTableSize);
+            }
+            writeFrame(output, TYPE_SETTINGS, FLAG_ACK, 0, payload, 0, 0);
+            output.flush();
+        }
+    }
+
+    private void readGoAway(byte[] payload) throws IOException {
+        if (payload.length < 8) {
+            throw new IOException("Invalid HTTP/2 GOAWAY frame");
+        }
+
+        // streams after the last one processed by the server were not processed, and never will be
+        int lastStreamId = toInt(payload, 0) & 0x7fffffff;
+        List<Http2Stream> refused = new ArrayList<Http2Stream>();
+        boolean close;
+        synchronized (this) {
+            goAway = true;
+            for (Http2Stream stream : streams.values()) {
+                if (stream.getId() > lastStreamId) {
+                    refused.add(stream);
+                }
+            }
+            close = streams.size() == refused.size() && reserved == 0;
+        }
+
+        for (Http2Stream stream : refused) {
+            stream.reset(new IOException("HTTP/2 stream refused by server shutdown"));
+        }
+
+        if (close) {
+            close();
+        }
+    }
+
+    private void readWindowUpdate(int streamId, byte[] payload) throws IOException {
+        if (payload.length != 4) {
+            throw new IOException("Invalid HTTP/2 WINDOW_UPDATE frame");
+        }
+
+        int increment = toInt(payload, 0) & 0x7fffffff;
+        synchronized (this) {
+            if (streamId == 0) {
+                sendWindow += increment;
+                if (sendWindow < 0) {
+                    throw new IOException("HTTP/2 connection window overflow");
+                }
+            }
+            else {
+                Http2Stream stream = streams.get(streamId);
+                if (stream != null) {
+                    stream.sendWindow += increment;
+                }
+            }
+            notifyAll();
+        }
+    }
+
+    private void writeGoAway(int errorCode) {
+        int lastStreamId = 0;
+        byte[] payload = new byte[8];
+        System.arraycopy(toBytes(lastStreamId), 0, payload, 0, 4);
+        System.arraycopy(toBytes(errorCode), 0, payload, 4, 4);
+        try {
+            synchronized (output) {
+                writeFrame(output, TYPE_GOAWAY, 0, 0, payload, 0, payload.length);
+                output.flush();
+            }
+        }
+        catch (IOException e) {
+            // ignore, closing anyway
+        }
+    }
+
+    private void fail(IOException cause) {
+        List<Http2Stream> failed;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            failure = cause;
+            failed = new ArrayList<Http2Stream>(streams.values());
+            notifyAll();
+        }
+
+        try {
+            socket.close();
+        }
+        catch (IOException e) {
+            // ignore
+        }
+
+        for (Http2Stream stream : failed) {
+            stream.reset(cause);
+        }
+    }
+
+    private static int padding(byte[] payload, int length) throws IOException {
+        if (payload.length < length) {
+            throw new IOException("Invalid HTTP/2 padding");
+        }
+        int padding = payload[0] & 0xff;
+        if (padding > payload.length - length) {
+            throw new IOException("Invalid HTTP/2 padding");
+        }
+        return padding;
+    }
+
+    private static Method applicationProtocolMethod() {
+        try {
+            return SSLSocket.class.getMethod("getApplicationProtocol");
+        }
+        catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kaazing.netx.http.internal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes HPACK header blocks, RFC 7541, for one connection.
+ *
+ * Every header block received on the connection must be decoded, in order, even for streams no longer of interest, so that
+ * the dynamic table stays in step with the encoder of the peer.
+ */
+final class Http2HeaderDecoder {
+
+    private final Http2HeaderTable table;
+    private final int maxTableSize;
+
+    Http2HeaderDecoder() {
+        this.table = new Http2HeaderTable();
+        this.maxTableSize = Http2HeaderTable.DEFAULT_MAX_SIZE;
+    }
+
+    /**
+     * Decodes a header block into a list of name and value pairs.
+     *
+     * @throws IOException if the header block is malformed, a compression error for the whole connection
+     */
+    List<String[]> decode(byte[] block, int offset, int length) throws IOException {
+        List<String[]> headers = new ArrayList<String[]>();
+        int[] position = new int[] { offset };
+        int limit = offset + length;
+        boolean fieldDecoded = false;
+
+        while (position[0] < limit) {
+            int first = block[position[0]] & 0xff;
+            if ((first & 0x80) != 0) {
+                // indexed header field
+                int index = decodeInteger(block, position, limit, 7);
+                if (index == 0) {
+                    throw new IOException("Invalid HPACK index: 0");
+                }
+                headers.add(table.get(index));
+                fieldDecoded = true;
+            }
+            else if ((first & 0x40) != 0) {
+                // literal header field with incremental indexing
+                String[] header = decodeLiteral(block, position, limit, 6);
+                table.add(header[0], header[1]);
+                headers.add(header);
+                fieldDecoded = true;
+            }
+            else if ((first & 0x20) != 0) {
+                // dynamic table size update, only allowed at the start of a header block
+                if (fieldDecoded) {
+                    throw new IOException("HPACK dynamic table size update after header field");
+                }
+                int maxSize = decodeInteger(block, position, limit, 5);
+                if (maxSize > maxTableSize) {
+                    throw new IOException(String.format("HPACK dynamic table size %d exceeds %d", maxSize, maxTableSize));
+                }
+                table.setMaxSize(maxSize);
+            }
+            else {
+                // literal header field without indexing, or never indexed
+                headers.add(decodeLiteral(block, position, limit, 4));
+                fieldDecoded = true;
+            }
+        }
+
+        return headers;
+    }
+
+    int tableLength() {
+        return table.length();
+    }
+
+    private String[] decodeLiteral(byte[] block, int[] position, int limit, int prefixBits) throws IOException {
+        int nameIndex = decodeInteger(block, position, limit, prefixBits);
+        String name = (nameIndex != 0) ? table.get(nameIndex)[0] : decodeString(block, position, limit);
+        String value = decodeString(block, position, limit);
+        return new String[] { name, value };
+    }
+
+    static int decodeInteger(byte[] block, int[] position, int limit, int prefixBits) throws IOException {
+        int maxPrefix = (1 << prefixBits) - 1;
+        int value = block[position[0]++] & maxPrefix;
+        if (value < maxPrefix) {
+            return value;
+        }
+
+        for (int shift = 0; ; shift += 7) {
+            if (position[0] == limit) {
+                throw new IOException("Truncated HPACK integer");
+            }
+            if (shift > 28) {
+                throw new IOException("HPACK integer overflow");
+            }
+            int octet = block[position[0]++] & 0xff;
+            value += (octet & 0x7f) << shift;
+            if (value < 0) {
+                throw new IOException("HPACK integer overflow");
+            }
+            if ((octet & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    static String decodeString(byte[] block, int[] position, int limit) throws IOException {
+        if (position[0] == limit) {
+            throw new IOException("Truncated HPACK string");
+        }
+
+        boolean huffman = (block[position[0]] & 0x80) != 0;
+        int length = decodeInteger(block, position, limit, 7);
+        if (length > limit - position[0]) {
+            throw new IOException("Truncated HPACK string");
+        }
+
+        int offset = position[0];
+        position[0] += length;
+        if (huffman) {
+            return Http2Huffman.decode(block, offset, length);
+        }
+
+        char[] value = new char[length];
+        for (int i = 0; i < length; i++) {
+            value[i] = (char) (block[offset + i] & 0xff);
+        }
+        return new String(value);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kaazing.netx.http.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+/**
+ * Encodes header lists into HPACK header blocks, RFC 7541, for one connection.
+ *
+ * Fields found in the header table are sent as a single index. Other fields are added to the dynamic table, so that a later
+ * request repeating them, as successive requests on a connection mostly do, sends only their index. Credentials are never
+ * indexed, and fields too large for half the dynamic table are sent without indexing so that they do not flush it. Strings
+ * are Huffman encoded whenever that makes them shorter.
+ * <p>
+ * Header blocks must be sent in the order they are encoded, since each one may change the dynamic table.
+ */
+final class Http2HeaderEncoder {
+
+    private final Http2HeaderTable table;
+
+    private int maxTableSize;
+    private int minTableSize;
+    private boolean tableSizeChanged;
+
+    Http2HeaderEncoder() {
+        this.table = new Http2HeaderTable();
+        this.maxTableSize = Http2HeaderTable.DEFAULT_MAX_SIZE;
+        this.minTableSize = maxTableSize;
+    }
+
+    /**
+     * Applies the header table size setting of the peer, signalled to the peer at the start of the next header block.
+     */
+    void setMaxTableSize(int maxSize) {
+        // never larger than the default, the dynamic table of the peer's decoder need not grow beyond it
+        int newSize = Math.min(maxSize, Http2HeaderTable.DEFAULT_MAX_SIZE);
+        if (newSize != maxTableSize) {
+            minTableSize = Math.min(minTableSize, newSize);
+            maxTableSize = newSize;
+            tableSizeChanged = true;
+        }
+    }
+
+    /**
+     * Encodes a header list of name and value pairs, with lower case names.
+     */
+    void encode(List<String[]> headers, ByteArrayOutputStream out) {
+        if (tableSizeChanged) {
+            // the smallest size since the last header block first, so that the peer evicts the same entries
+            if (minTableSize < maxTableSize) {
+                encodeInteger(out, 0x20, 5, minTableSize);
+                table.setMaxSize(minTableSize);
+            }
+            encodeInteger(out, 0x20, 5, maxTableSize);
+            table.setMaxSize(maxTableSize);
+            minTableSize = maxTableSize;
+            tableSizeChanged = false;
+        }
+
+        for (String[] header : headers) {
+            encode(header[0], header[1], out);
+        }
+    }
+
+    int tableLength() {
+        return table.length();
+    }
+
+    private void encode(String name, String value, ByteArrayOutputStream out) {
+        boolean sensitive = "authorization".equals(name) || "proxy-authorization".equals(name);
+
+        int index = sensitive ? 0 : table.indexOf(name, value);
+        if (index != 0) {
+            encodeInteger(out, 0x80, 7, index);
+            return;
+        }
+
+        int nameIndex = table.indexOfName(name);
+        if (sensitive) {
+            encodeInteger(out, 0x10, 4, nameIndex);
+        }
+        else if (Http2HeaderTable.entrySize(name, value) <= table.maxSize() / 2) {
+            encodeInteger(out, 0x40, 6, nameIndex);
+            table.add(name, value);
+        }
+        else {
+            encodeInteger(out, 0x00, 4, nameIndex);
+        }
+
+        if (nameIndex == 0) {
+            encodeString(out, name);
+        }
+        encodeString(out, value);
+    }
+
+    static void encodeInteger(ByteArrayOutputStream out, int flags, int prefixBits, int value) {
+        int maxPrefix = (1 << prefixBits) - 1;
+        if (value < maxPrefix) {
+            out.write(flags | value);
+            return;
+        }
+
+        out.write(flags | maxPrefix);
+        value -= maxPrefix;
+        while (value >= 0x80) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    static void encodeString(ByteArrayOutputStream out, String value) {
+        int huffmanLength = Http2Huffman.encodedLength(value);
+        if (huffmanLength < value.length()) {
+            encodeInteger(out, 0x80, 7, huffmanLength);
+            Http2Huffman.encode(value, out);
+        }
+        else {
+            encodeInteger(out, 0x00, 7, value.length());
+            for (int i = 0; i < value.length(); i++) {
+                out.write(value.charAt(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kaazing.netx.http.internal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The HPACK header table, RFC 7541 Section 2.3, combining the static table with the dynamic table of one direction of a
+ * connection.
+ *
+ * Index {@code 1} to {@code 61} address the static table, higher indexes the dynamic table, most recently added first. The
+ * dynamic table evicts its oldest entries to stay within its maximum size, where an entry counts the octets of its name and
+ * value plus {@code 32}.
+ */
+final class Http2HeaderTable {
+
+    static final int DEFAULT_MAX_SIZE = 4096;
+
+    private static final int ENTRY_OVERHEAD = 32;
+
+    private static final String[][] STATIC_TABLE = new String[][] {
+        { ":authority", "" },
+        { ":method", "GET" },
+        { ":method", "POST" },
+        { ":path", "/" },
+        { ":path", "/index.html" },
+        { ":scheme", "http" },
+        { ":scheme", "https" },
+        { ":status", "200" },
+        { ":status", "204" },
+        { ":status", "206" },
+        { ":status", "304" },
+        { ":status", "400" },
+        { ":status", "404" },
+        { ":status", "500" },
+        { "accept-charset", "" },
+        { "accept-encoding", "gzip, deflate" },
+        { "accept-language", "" },
+        { "accept-ranges", "" },
+        { "accept", "" },
+        { "access-control-allow-origin", "" },
+        { "age", "" },
+        { "allow", "" },
+        { "authorization", "" },
+        { "cache-control", "" },
+        { "content-disposition", "" },
+        { "content-encoding", "" },
+        { "content-language", "" },
+        { "content-length", "" },
+        { "content-location", "" },
+        { "content-range", "" },
+        { "content-type", "" },
+        { "cookie", "" },
+        { "date", "" },
+        { "etag", "" },
+        { "expect", "" },
+        { "expires", "" },
+        { "from", "" },
+        { "host", "" },
+        { "if-match", "" },
+        { "if-modified-since", "" },
+        { "if-none-match", "" },
+        { "if-range", "" },
+        { "if-unmodified-since", "" },
+        { "last-modified", "" },
+        { "link", "" },
+        { "location", "" },
+        { "max-forwards", "" },
+        { "proxy-authenticate", "" },
+        { "proxy-authorization", "" },
+        { "range", "" },
+        { "referer", "" },
+        { "refresh", "" },
+        { "retry-after", "" },
+        { "server", "" },
+        { "set-cookie", "" },
+        { "strict-transport-security", "" },
+        { "transfer-encoding", "" },
+        { "user-agent", "" },
+        { "vary", "" },
+        { "via", "" },
+        { "www-authenticate", "" }
+    };
+
+    private static final Map<String, Integer> STATIC_NAMES = new HashMap<String, Integer>();
+    private static final Map<String, Integer> STATIC_FIELDS = new HashMap<String, Integer>();
+
+    static {
+        for (int i = STATIC_TABLE.length - 1; i >= 0; i--) {
+            STATIC_NAMES.put(STATIC_TABLE[i][0], i + 1);
+            if (!STATIC_TABLE[i][1].isEmpty()) {
+                STATIC_FIELDS.put(key(STATIC_TABLE[i][0], STATIC_TABLE[i][1]), i + 1);
+            }
+        }
+    }
+
+    // most recently added last
+    private final List<String[]> entries;
+
+    private int size;
+    private int maxSize;
+
+    Http2HeaderTable() {
+        this.entries = new ArrayList<String[]>();
+        this.maxSize = DEFAULT_MAX_SIZE;
+    }
+
+    /**
+     * Returns the name and value at an index.
+     *
+     * @throws IOException if the index is not in the table
+     */
+    String[] get(int index) throws IOException {
+        if (index >= 1 && index <= STATIC_TABLE.length) {
+            return STATIC_TABLE[index - 1];
+        }
+
+        int dynamicIndex = index - STATIC_TABLE.length - 1;
+        if (dynamicIndex < 0 || dynamicIndex >= entries.size()) {
+            throw new IOException(String.format("Invalid HPACK index: %d", index));
+        }
+        return entries.get(entries.size() - 1 - dynamicIndex);
+    }
+
+    /**
+     * Returns the index of an entry with the name and value, or {@code 0} if there is none.
+     */
+    int indexOf(String name, String value) {
+        Integer staticIndex = STATIC_FIELDS.get(key(name, value));
+        if (staticIndex != null) {
+            return staticIndex;
+        }
+
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            String[] entry = entries.get(i);
+            if (entry[0].equals(name) && entry[1].equals(value)) {
+                return STATIC_TABLE.length + entries.size() - i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the index of an entry with the name, or {@code 0} if there is none.
+     */
+    int indexOfName(String name) {
+        Integer staticIndex = STATIC_NAMES.get(name);
+        if (staticIndex != null) {
+            return staticIndex;
+        }
+
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            if (entries.get(i)[0].equals(name)) {
+                return STATIC_TABLE.length + entries.size() - i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Adds an entry to the dynamic table, evicting the oldest entries as needed. An entry larger than the maximum size
+     * empties the table and is not added.
+     */
+    void add(String name, String value) {
+        int entrySize = entrySize(name, value);
+        while (!entries.isEmpty() && size + entrySize > maxSize) {
+            evict();
+        }
+
+        if (entrySize <= maxSize) {
+            entries.add(new String[] { name, value });
+            size += entrySize;
+        }
+    }
+
+    /**
+     * Changes the maximum size of the dynamic table, evicting the oldest entries as needed.
+     */
+    void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        while (size > maxSize) {
+            evict();
+        }
+    }
+
+    int maxSize() {
+        return maxSize;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int length() {
+        return entries.size();
+    }
+
+    static int entrySize(String name, String value) {
+        return name.length() + value.length() + ENTRY_OVERHEAD;
+    }
+
+    private void evict() {
+        String[] evicted = entries.remove(0);
+        size -= entrySize(evicted[0], evicted[1]);
+    }
+
+    private static String key(String name, String value) {
+        return name + '\n' + value;
+    }
+}
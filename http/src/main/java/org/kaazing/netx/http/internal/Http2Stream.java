@@ -0,0 +1,322 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kaazing.netx.http.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A request and its response, exchanged as one stream of an {@link Http2Connection}.
+ *
+ * Response data is queued by the connection reader as it arrives, in the frames it arrived in, and copied out only as it is
+ * read.
+ * Each time half of the stream window has been read, a {@code WINDOW_UPDATE} lets the server send that much more.
+ */
+final class Http2Stream {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final Http2Connection connection;
+    private final int readTimeout;
+    private final LinkedList<ByteBuffer> frames;
+    private final InputStream input;
+    private final OutputStream output;
+
+    // guarded by the connection
+    int sendWindow;
+
+    private volatile int id;
+    private int available;
+    private int consumed;
+    private int status;
+    private List<String[]> headers;
+    private boolean remoteClosed;
+    private boolean localClosed;
+    private IOException failure;
+
+    Http2Stream(Http2Connection connection, int readTimeout, int sendWindow) {
+        this.connection = connection;
+        this.readTimeout = readTimeout;
+        this.sendWindow = sendWindow;
+        this.frames = new LinkedList<ByteBuffer>();
+        this.input = new StreamInputStream();
+        this.output = new StreamOutputStream();
+    }
+
+    int getId() {
+        return id;
+    }
+
+    void setId(int id) {
+        this.id = id;
+    }
+
+    /**
+     * Sends the request headers, ending the request when it has no body.
+     */
+    void sendHeaders(List<String[]> headers, boolean endStream) throws IOException {
+        connection.writeHeaders(this, headers, endStream);
+        if (endStream) {
+            synchronized (this) {
+                localClosed = true;
+            }
+        }
+    }
+
+    /**
+     * Waits for the final response headers.
+     *
+     * @return the response status code
+     */
+    synchronized int awaitResponse() throws IOException {
+        long deadline = (readTimeout > 0) ? System.currentTimeMillis() + readTimeout : 0L;
+        while (headers == null) {
+            awaitFrame(deadline);
+        }
+        return status;
+    }
+
+    /**
+     * Returns the response headers, without pseudo-headers.
+     */
+    synchronized List<String[]> getHeaders() {
+        return headers;
+    }
+
+    InputStream getInputStream() {
+        return input;
+    }
+
+    OutputStream getOutputStream() {
+        return output;
+    }
+
+    /**
+     * Gives up the stream, resetting it unless both the request and the response are complete.
+     */
+    void close() {
+        boolean cancel;
+        synchronized (this) {
+            cancel = id != 0 && failure == null && !(remoteClosed && localClosed);
+            failure = new IOException("Stream closed");
+            frames.clear();
+            notifyAll();
+        }
+
+        if (cancel) {
+            connection.writeReset(id, Http2Connection.CANCEL);
+        }
+        connection.remove(this);
+    }
+
+    synchronized boolean isFailed() {
+        return failure != null;
+    }
+
+    synchronized void ensureWritable() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (localClosed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    synchronized void receiveHeaders(List<String[]> fields, boolean endStream) throws IOException {
+        if (headers == null) {
+            int code = -1;
+            List<String[]> regular = new LinkedList<String[]>();
+            for (String[] field : fields) {
+                if (":status".equals(field[0])) {
+                    try {
+                        code = Integer.parseInt(field[1]);
+                    }
+                    catch (NumberFormatException e) {
+                        throw new IOException(String.format("Invalid HTTP/2 status: %s", field[1]));
+                    }
+                }
+                else if (!field[0].startsWith(":")) {
+                    regular.add(field);
+                }
+            }
+
+            if (code == -1) {
+                throw new IOException("HTTP/2 response without status");
+            }
+
+            // interim responses, such as 100 Continue, are skipped
+            if (code >= 200 || endStream) {
+                status = code;
+                headers = regular;
+            }
+        }
+        // trailers are ignored
+
+        if (endStream) {
+            remoteClosed = true;
+        }
+        notifyAll();
+    }
+
+    void receiveData(byte[] payload, int offset, int length, int discarded, boolean endStream) throws IOException {
+        synchronized (this) {
+            if (length > 0 && failure == null) {
+                frames.addLast(ByteBuffer.wrap(payload, offset, length));
+                available += length;
+            }
+            if (endStream) {
+                remoteClosed = true;
+            }
+            notifyAll();
+        }
+
+        if (discarded > 0) {
+            consume(discarded);
+        }
+    }
+
+    void reset(IOException cause) {
+        synchronized (this) {
+            if (failure == null) {
+                failure = cause;
+            }
+            notifyAll();
+        }
+        connection.remove(this);
+    }
+
+    private void awaitFrame(long deadline) throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+
+        try {
+            if (deadline == 0L) {
+                wait();
+            }
+            else {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0L) {
+                    throw new SocketTimeoutException("Read timed out");
+                }
+                wait(remaining);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for HTTP/2 response");
+        }
+    }
+
+    private void consume(int length) throws IOException {
+        int increment = 0;
+        synchronized (this) {
+            consumed += length;
+            if (consumed >= Http2Connection.STREAM_WINDOW_SIZE / 2 && !remoteClosed) {
+                increment = consumed;
+                consumed = 0;
+            }
+        }
+
+        if (increment != 0) {
+            connection.writeWindowUpdate(id, increment);
+        }
+    }
+
+    private final class StreamInputStream extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int length = read(b, 0, 1);
+            return (length == -1) ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+
+            int length = 0;
+            synchronized (Http2Stream.this) {
+                long deadline = (readTimeout > 0) ? System.currentTimeMillis() + readTimeout : 0L;
+                while (frames.isEmpty() && !remoteClosed) {
+                    awaitFrame(deadline);
+                }
+
+                if (frames.isEmpty()) {
+                    if (failure != null) {
+                        throw failure;
+                    }
+                    return -1;
+                }
+
+                while (length < len && !frames.isEmpty()) {
+                    ByteBuffer frame = frames.getFirst();
+                    int copied = Math.min(len - length, frame.remaining());
+                    frame.get(b, off + length, copied);
+                    length += copied;
+                    if (!frame.hasRemaining()) {
+                        frames.removeFirst();
+                    }
+                }
+                available -= length;
+            }
+
+            consume(length);
+            return length;
+        }
+
+        @Override
+        public int available() throws IOException {
+            synchronized (Http2Stream.this) {
+                return available;
+            }
+        }
+    }
+
+    private final class StreamOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ensureWritable();
+            connection.writeData(Http2Stream.this, b, off, len, false);
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (Http2Stream.this) {
+                if (localClosed) {
+                    return;
+                }
+                localClosed = true;
+            }
+            connection.writeData(Http2Stream.this, EMPTY, 0, 0, true);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.kaazing.netx.http.internal;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads a response body kept by an {@code HttpResponseCache}, directly from its heap or memory mapped buffer.
+ */
+final class HttpCachedInputStream extends InputStream {
+
+    private final ByteBuffer body;
+
+    HttpCachedInputStream(ByteBuffer body) {
+        this.body = body;
+    }
+
+    @Override
+    public int read() {
+        return body.hasRemaining() ? body.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if ((off < 0) || (len < 0) || (off + len > b.length)) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        if (len == 0) {
+            return 0;
+        }
+
+        if (!body.hasRemaining()) {
+            return -1;
+        }
+
+        int length = Math.min(len, body.remaining());
+        body.get(b, off, length);
+        return length;
+    }
+
+    @Override
+    public long skip(long n) {
+        int skipped = (int) Math.max(0L, Math.min(n, body.remaining()));
+        body.position(body.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return body.remaining();
+    }
+}
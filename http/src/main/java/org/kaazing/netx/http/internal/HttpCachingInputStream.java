@@ -0,0 +1,120 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.kaazing.netx.http.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+import org.kaazing.netx.http.HttpResponseCache;
+
+/**
+ * Copies a response body as it is read, and keeps the response in an {@code HttpResponseCache} once the body has been
+ * read completely. Nothing is kept if the body is closed early or exceeds the maximum size kept by the cache.
+ */
+final class HttpCachingInputStream extends InputStream {
+
+    private final InputStream in;
+    private final HttpResponseCache cache;
+    private final URL url;
+    private final int responseCode;
+    private final String responseMessage;
+    private final Map<String, List<String>> headerFields;
+    private final long requestTime;
+    private final long responseTime;
+    private final long maxLength;
+
+    private ByteArrayOutputStream body;
+
+    HttpCachingInputStream(
+            InputStream in,
+            HttpResponseCache cache,
+            URL url,
+            int responseCode,
+            String responseMessage,
+            Map<String, List<String>> headerFields,
+            long requestTime,
+            long responseTime) {
+        this.in = in;
+        this.cache = cache;
+        this.url = url;
+        this.responseCode = responseCode;
+        this.responseMessage = responseMessage;
+        this.headerFields = headerFields;
+        this.requestTime = requestTime;
+        this.responseTime = responseTime;
+        this.maxLength = cache.getMaxEntrySize();
+        this.body = new ByteArrayOutputStream();
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b == -1) {
+            complete();
+        }
+        else if (body != null) {
+            body.write(b);
+            limit();
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int length = in.read(b, off, len);
+        if (length == -1) {
+            complete();
+        }
+        else if (body != null) {
+            body.write(b, off, length);
+            limit();
+        }
+        return length;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return in.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        body = null;
+        in.close();
+    }
+
+    private void limit() {
+        if (body.size() > maxLength) {
+            body = null;
+        }
+    }
+
+    private void complete() {
+        if (body != null) {
+            ByteBuffer bytes = ByteBuffer.wrap(body.toByteArray());
+            body = null;
+            cache.put(url, new HttpResponseCache.Response(
+                    responseCode, responseMessage, headerFields, bytes, requestTime, responseTime));
+        }
+    }
+}
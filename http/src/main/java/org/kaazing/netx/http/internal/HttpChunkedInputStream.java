@@ -0,0 +1,156 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.kaazing.netx.http.internal;
+
+import static java.lang.String.format;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes a {@code Transfer-Encoding: chunked} response body, ending at the last chunk after any trailer fields.
+ *
+ * Besides the {@code InputStream} methods, chunk data can be consumed with {@link #readSlice()} as views of the response
+ * buffer, avoiding a copy into a caller supplied array.
+ */
+final class HttpChunkedInputStream extends InputStream {
+
+    private final HttpResponseInputStream in;
+
+    private long remaining;
+    private boolean chunkRead;
+    private boolean finished;
+
+    HttpChunkedInputStream(HttpResponseInputStream in) {
+        this.in = in;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureChunk()) {
+            return -1;
+        }
+
+        int b = in.read();
+        if (b == -1) {
+            throw new EOFException("Unexpected end of chunked body");
+        }
+        remaining--;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if ((off < 0) || (len < 0) || (off + len > b.length)) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        if (len == 0) {
+            return 0;
+        }
+
+        if (!ensureChunk()) {
+            return -1;
+        }
+
+        int length = in.read(b, off, (int) Math.min(len, remaining));
+        if (length == -1) {
+            throw new EOFException("Unexpected end of chunked body");
+        }
+        remaining -= length;
+        return length;
+    }
+
+    /**
+     * Returns the next bytes of chunk data as a read-only view of the response buffer.
+     *
+     * The returned buffer is only valid until the next read from this stream.
+     *
+     * @return the next chunk data, or {@code null} after the last chunk
+     *
+     * @throws IOException if an I/O error occurs or the chunked encoding is invalid
+     */
+    ByteBuffer readSlice() throws IOException {
+        if (!ensureChunk()) {
+            return null;
+        }
+
+        ByteBuffer slice = in.slice((int) Math.min(remaining, Integer.MAX_VALUE));
+        if (slice == null) {
+            throw new EOFException("Unexpected end of chunked body");
+        }
+        remaining -= slice.remaining();
+        return slice;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return finished ? 0 : (int) Math.min(remaining, in.buffered());
+    }
+
+    private boolean ensureChunk() throws IOException {
+        if (remaining > 0L) {
+            return true;
+        }
+
+        if (finished) {
+            return false;
+        }
+
+        if (chunkRead) {
+            // chunk-data is followed by CRLF
+            String end = in.readLine();
+            if (end == null || !end.isEmpty()) {
+                throw new IOException("Bad chunked encoding");
+            }
+        }
+
+        String line = in.readLine();
+        if (line == null) {
+            throw new EOFException("Unexpected end of chunked body");
+        }
+
+        int extensionAt = line.indexOf(';');
+        String size = (extensionAt != -1) ? line.substring(0, extensionAt) : line;
+        try {
+            remaining = Long.parseLong(size.trim(), 16);
+        }
+        catch (NumberFormatException e) {
+            throw new IOException(format("Bad chunk size: %s", line));
+        }
+
+        if (remaining < 0L) {
+            throw new IOException(format("Bad chunk size: %s", line));
+        }
+
+        chunkRead = true;
+
+        if (remaining == 0L) {
+            // last-chunk, skip any trailer fields
+            for (String trailer = in.readLine(); trailer != null && !trailer.isEmpty(); trailer = in.readLine()) {
+                // ignore
+            }
+            finished = true;
+            return false;
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.kaazing.netx.http.internal;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes a {@code Transfer-Encoding: chunked} request body.
+ *
+ * Small writes are gathered in a buffer that keeps room for the chunk header in front of the data, so that a buffered chunk
+ * is written with a single call. Writes at least as large as the buffer are framed in place, writing only the chunk header
+ * before the caller's bytes, without copying them. The buffer starts at the requested chunk size and doubles, up to
+ * {@link #MAX_CHUNK_SIZE}, each time it fills, adapting to writers that produce more data than one chunk holds.
+ * <p>
+ * The CRLF ending each chunk is sent ahead of the following chunk header, or the last chunk.
+ */
+final class HttpChunkedOutputStream extends OutputStream {
+
+    static final int DEFAULT_CHUNK_SIZE = 4096;
+    static final int MAX_CHUNK_SIZE = 65536;
+
+    // CRLF ending the previous chunk, up to 8 hex digits, CRLF
+    private static final int MAX_HEADER_LENGTH = 12;
+    private static final byte[] LAST_CHUNK = new byte[] { '0', '\r', '\n', '\r', '\n' };
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    private final OutputStream out;
+    private final byte[] header;
+
+    private byte[] buffer;
+    private int count;
+    private int chunkSize;
+    private boolean chunkWritten;
+    private boolean closed;
+
+    HttpChunkedOutputStream(OutputStream out, int chunkSize) {
+        this.out = out;
+        this.header = new byte[MAX_HEADER_LENGTH];
+        this.chunkSize = (chunkSize > 0) ? Math.min(chunkSize, MAX_CHUNK_SIZE) : DEFAULT_CHUNK_SIZE;
+    }
+
+    /**
+     * Returns the size of the next buffered chunk.
+     *
+     * @return the chunk size in bytes
+     */
+    int chunkSize() {
+        return chunkSize;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        ensureBuffer();
+        buffer[MAX_HEADER_LENGTH + count++] = (byte) b;
+        if (count == chunkSize) {
+            writeBufferedChunk();
+            grow();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if ((off < 0) || (len < 0) || (off + len > b.length)) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        ensureOpen();
+
+        while (len > 0) {
+            if (count == 0 && len >= chunkSize) {
+                // large enough to be a chunk of its own, frame the caller's bytes in place
+                writeChunkHeader(len);
+                out.write(b, off, len);
+                grow();
+                return;
+            }
+
+            ensureBuffer();
+            int length = Math.min(len, chunkSize - count);
+            System.arraycopy(b, off, buffer, MAX_HEADER_LENGTH + count, length);
+            count += length;
+            off += length;
+            len -= length;
+
+            if (count == chunkSize) {
+                writeBufferedChunk();
+                grow();
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        if (count > 0) {
+            writeBufferedChunk();
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes any buffered data and the last chunk, leaving the underlying stream open for the response.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            if (count > 0) {
+                writeBufferedChunk();
+            }
+
+            if (chunkWritten) {
+                header[0] = '\r';
+                header[1] = '\n';
+                out.write(header, 0, 2);
+            }
+            out.write(LAST_CHUNK);
+            out.flush();
+            closed = true;
+        }
+    }
+
+    private void writeBufferedChunk() throws IOException {
+        int headerLength = encodeHeader(count);
+        int offset = MAX_HEADER_LENGTH - headerLength;
+        System.arraycopy(header, 0, buffer, offset, headerLength);
+        out.write(buffer, offset, headerLength + count);
+        count = 0;
+    }
+
+    private void writeChunkHeader(int length) throws IOException {
+        out.write(header, 0, encodeHeader(length));
+    }
+
+    private int encodeHeader(int length) {
+        int digits = 1;
+        while (digits < 8 && (length >>> (digits * 4)) != 0) {
+            digits++;
+        }
+
+        int position = 0;
+        if (chunkWritten) {
+            header[position++] = '\r';
+            header[position++] = '\n';
+        }
+        for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+            header[position++] = HEX[(length >>> shift) & 0x0f];
+        }
+        header[position++] = '\r';
+        header[position++] = '\n';
+
+        chunkWritten = true;
+        return position;
+    }
+
+    private void ensureBuffer() {
+        if (buffer == null || buffer.length < MAX_HEADER_LENGTH + chunkSize) {
+            byte[] newBuffer = new byte[MAX_HEADER_LENGTH + chunkSize];
+            if (buffer != null) {
+                System.arraycopy(buffer, MAX_HEADER_LENGTH, newBuffer, MAX_HEADER_LENGTH, count);
+            }
+            buffer = newBuffer;
+        }
+    }
+
+    private void grow() {
+        chunkSize = Math.min(chunkSize << 1, MAX_CHUNK_SIZE);
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.kaazing.netx.http.internal;
+
+import static java.lang.String.format;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decodes a {@code gzip} or {@code deflate} content coded response body as it is read.
+ *
+ * {@code Inflater} instances are kept in a bounded pool, so that the native inflater state is reused across responses instead
+ * of being allocated and freed for each one. A {@code deflate} body is accepted both with and without the zlib wrapper,
+ * since both are found in practice.
+ */
+final class HttpContentDecodingInputStream extends InputStream {
+
+    static final String GZIP = "gzip";
+    static final String DEFLATE = "deflate";
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_POOLED_INFLATERS = 16;
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int GZIP_METHOD_DEFLATE = 8;
+    private static final int FHCRC = 0x02;
+    private static final int FEXTRA = 0x04;
+    private static final int FNAME = 0x08;
+    private static final int FCOMMENT = 0x10;
+
+    private static final InflaterPool WRAPPED = new InflaterPool(false);
+    private static final InflaterPool UNWRAPPED = new InflaterPool(true);
+
+    private final InputStream in;
+    private final boolean gzip;
+    private final byte[] buffer;
+    private final CRC32 crc;
+    private final byte[] single;
+
+    private Inflater inflater;
+    private InflaterPool pool;
+    private int bufferLength;
+    private int position;
+    private long encodedCount;
+    private long decodedCount;
+    private boolean started;
+    private boolean finished;
+
+    private HttpContentDecodingInputStream(InputStream in, boolean gzip) {
+        this.in = in;
+        this.gzip = gzip;
+        this.buffer = new byte[BUFFER_SIZE];
+        this.crc = gzip ? new CRC32() : null;
+        this.single = new byte[1];
+    }
+
+    /**
+     * Returns a stream decoding the specified content coding, or {@code null} if the content coding is not supported.
+     *
+     * @param in              the content coded response body
+     * @param contentEncoding the value of the {@code Content-Encoding} response header
+     *
+     * @return the decoding stream, or {@code null} if not supported
+     */
+    static HttpContentDecodingInputStream newInstance(InputStream in, String contentEncoding) {
+        String coding = contentEncoding.trim();
+        if (GZIP.equalsIgnoreCase(coding) || "x-gzip".equalsIgnoreCase(coding)) {
+            return new HttpContentDecodingInputStream(in, true);
+        }
+        else if (DEFLATE.equalsIgnoreCase(coding)) {
+            return new HttpContentDecodingInputStream(in, false);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of content coded bytes read so far.
+     *
+     * @return the encoded byte count
+     */
+    long getEncodedCount() {
+        return encodedCount;
+    }
+
+    /**
+     * Returns the number of decoded bytes returned so far.
+     *
+     * @return the decoded byte count
+     */
+    long getDecodedCount() {
+        return decodedCount;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return (read(single, 0, 1) == -1) ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if ((off < 0) || (len < 0) || (off + len > b.length)) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        if (len == 0) {
+            return 0;
+        }
+
+        if (finished || !start()) {
+            return -1;
+        }
+
+        try {
+            while (true) {
+                int length = inflater.inflate(b, off, len);
+                if (length > 0) {
+                    decodedCount += length;
+                    if (crc != null) {
+                        crc.update(b, off, length);
+                    }
+                    return length;
+                }
+
+                if (inflater.finished()) {
+                    finish();
+                    return -1;
+                }
+
+                if (inflater.needsDictionary()) {
+                    throw new IOException("Unsupported deflate preset dictionary");
+                }
+
+                if (inflater.needsInput()) {
+                    if (!fill()) {
+                        throw new EOFException("Unexpected end of content coded body");
+                    }
+                    inflater.setInput(buffer, 0, bufferLength);
+                }
+            }
+        }
+        catch (DataFormatException e) {
+            throw new IOException(format("Bad %s content: %s", gzip ? GZIP : DEFLATE, e.getMessage()));
+        }
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (finished || inflater == null || inflater.finished()) ? 0 : 1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        release();
+        finished = true;
+        in.close();
+    }
+
+    private boolean start() throws IOException {
+        if (started) {
+            return true;
+        }
+
+        if (!fill()) {
+            // an empty body, such as the response to a HEAD request, is not content coded
+            finished = true;
+            return false;
+        }
+
+        boolean nowrap = true;
+        if (gzip) {
+            readGzipHeader();
+        }
+        else {
+            // a zlib wrapper starts with a deflate compression method and a header checksum, which may be read separately
+            while (bufferLength < 2 && append()) {
+                // until both header bytes are buffered
+            }
+            int cmf = buffer[0] & 0xff;
+            int flg = (bufferLength > 1) ? buffer[1] & 0xff : -1;
+            nowrap = (cmf & 0x0f) != 8 || flg == -1 || ((cmf << 8) | flg) % 31 != 0;
+        }
+
+        pool = nowrap ? UNWRAPPED : WRAPPED;
+        inflater = pool.acquire();
+        inflater.setInput(buffer, position, bufferLength - position);
+        started = true;
+        return true;
+    }
+
+    private void readGzipHeader() throws IOException {
+        int magic = readUnsignedShort();
+        if (magic != GZIP_MAGIC) {
+            throw new IOException("Not in gzip format");
+        }
+        if (readUnsignedByte() != GZIP_METHOD_DEFLATE) {
+            throw new IOException("Unsupported gzip compression method");
+        }
+        int flags = readUnsignedByte();
+        skipBytes(6);
+        if ((flags & FEXTRA) != 0) {
+            skipBytes(readUnsignedShort());
+        }
+        if ((flags & FNAME) != 0) {
+            while (readUnsignedByte() != 0) {
+                // skip file name
+            }
+        }
+        if ((flags & FCOMMENT) != 0) {
+            while (readUnsignedByte() != 0) {
+                // skip comment
+            }
+        }
+        if ((flags & FHCRC) != 0) {
+            skipBytes(2);
+        }
+    }
+
+    private void finish() throws IOException {
+        if (gzip) {
+            // the trailer follows the deflate data, partly in the input already given to the inflater
+            position = bufferLength - inflater.getRemaining();
+            long expectedCrc = readUnsignedInt();
+            long expectedSize = readUnsignedInt();
+            if (expectedCrc != crc.getValue()) {
+                throw new IOException("Corrupt gzip trailer: CRC mismatch");
+            }
+            if (expectedSize != (decodedCount & 0xffffffffL)) {
+                throw new IOException("Corrupt gzip trailer: size mismatch");
+            }
+        }
+        release();
+        finished = true;
+    }
+
+    private void release() {
+        if (inflater != null) {
+            pool.release(inflater);
+            inflater = null;
+        }
+    }
+
+    private int readUnsignedByte() throws IOException {
+        if (position == bufferLength) {
+            if (!fill()) {
+                throw new EOFException("Unexpected end of gzip content");
+            }
+            position = 0;
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    private int readUnsignedShort() throws IOException {
+        return readUnsignedByte() | (readUnsignedByte() << 8);
+    }
+
+    private long readUnsignedInt() throws IOException {
+        return (readUnsignedShort() | ((long) readUnsignedShort() << 16)) & 0xffffffffL;
+    }
+
+    private void skipBytes(int n) throws IOException {
+        for (int i = 0; i < n; i++) {
+            readUnsignedByte();
+        }
+    }
+
+    private boolean fill() throws IOException {
+        int length = in.read(buffer, 0, buffer.length);
+        if (length == -1) {
+            return false;
+        }
+        encodedCount += length;
+        bufferLength = length;
+        position = 0;
+        return true;
+    }
+
+    private boolean append() throws IOException {
+        int length = in.read(buffer, bufferLength, buffer.length - bufferLength);
+        if (length == -1) {
+            return false;
+        }
+        encodedCount += length;
+        bufferLength += length;
+        return true;
+    }
+
+    private static final class InflaterPool {
+
+        private final boolean nowrap;
+        private final Queue<Inflater> inflaters;
+        private final AtomicInteger size;
+
+        InflaterPool(boolean nowrap) {
+            this.nowrap = nowrap;
+            this.inflaters = new ConcurrentLinkedQueue<Inflater>();
+            this.size = new AtomicInteger();
+        }
+
+        Inflater acquire() {
+            Inflater inflater = inflaters.poll();
+            if (inflater == null) {
+                return new Inflater(nowrap);
+            }
+            size.decrementAndGet();
+            return inflater;
+        }
+
+        void release(Inflater inflater) {
+            if (size.incrementAndGet() <= MAX_POOLED_INFLATERS) {
+                inflater.reset();
+                inflaters.offer(inflater);
+            }
+            else {
+                size.decrementAndGet();
+                inflater.end();
+            }
+        }
+    }
+}
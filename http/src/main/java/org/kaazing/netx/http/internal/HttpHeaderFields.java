@@ -14,29 +14,67 @@
  * limitations under the License.
  */
 
+
 package org.kaazing.netx.http.internal;
 
-import static java.util.Collections.unmodifiableMap;
+import static java.util.Collections.unmodifiableList;
 
-import java.util.Comparator;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
+/**
+ * Header fields kept in arrival order, indexed by an open-addressed table of case-insensitive names.
+ * <p>
+ * Each field is stored once in parallel name and value arrays, so positional access is constant time.
+ * Fields sharing a name are chained through {@code nexts}, starting from the first field with that name,
+ * which is the only one referenced from the table.
+ */
 final class HttpHeaderFields  {
 
-    private final List<String> keys;
-    private final List<String> values;
-    private final Map<String, List<String>> valuesByKey;
-    private final Map<String, List<String>> valuesByKeyRO;
+    static final String CONNECTION = "Connection";
+    static final String LOCATION = "Location";
+    static final String SEC_WEBSOCKET_ACCEPT = "Sec-WebSocket-Accept";
+    static final String SEC_WEBSOCKET_EXTENSIONS = "Sec-WebSocket-Extensions";
+    static final String SEC_WEBSOCKET_KEY = "Sec-WebSocket-Key";
+    static final String SEC_WEBSOCKET_PROTOCOL = "Sec-WebSocket-Protocol";
+    static final String SEC_WEBSOCKET_VERSION = "Sec-WebSocket-Version";
+    static final String UPGRADE = "Upgrade";
+    static final String WWW_AUTHENTICATE = "WWW-Authenticate";
+
+    private static final String[] WELL_KNOWN_NAMES = new String[] {
+        CONNECTION, LOCATION, SEC_WEBSOCKET_ACCEPT, SEC_WEBSOCKET_EXTENSIONS, SEC_WEBSOCKET_KEY,
+        SEC_WEBSOCKET_PROTOCOL, SEC_WEBSOCKET_VERSION, UPGRADE, WWW_AUTHENTICATE
+    };
+    private static final int[] WELL_KNOWN_HASHES = new int[WELL_KNOWN_NAMES.length];
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private String[] names;
+    private String[] values;
+    private int[] hashes;
+    private int[] nexts;
+    private int size;
+
+    // index + 1 of the first field with a given name, 0 for an empty slot
+    private int[] slots;
+    private int distinctNames;
+
+    private final Map<String, List<String>> map;
 
     public HttpHeaderFields() {
-        keys = new LinkedList<String>();
-        values = new LinkedList<String>();
-        valuesByKey = new TreeMap<String, List<String>>(CASE_INSENSITIVE_ORDER_WITH_NULLS);
-        valuesByKeyRO = unmodifiableMap(valuesByKey);
+        names = new String[INITIAL_CAPACITY];
+        values = new String[INITIAL_CAPACITY];
+        hashes = new int[INITIAL_CAPACITY];
+        nexts = new int[INITIAL_CAPACITY];
+        slots = new int[INITIAL_CAPACITY * 2];
+        map = new HeaderFieldsMap();
     }
 
     public void addAll(Map<String, List<String>> headerFields) {
@@ -49,89 +87,229 @@ final class HttpHeaderFields  {
     }
 
     public void add(String key, String value) {
-        keys.add(key);
-        values.add(value);
-        List<String> keyValues = valuesByKey.get(key);
-        if (keyValues == null) {
-            keyValues = new LinkedList<String>();
-            valuesByKey.put(key, keyValues);
+        if (size == names.length) {
+            grow();
+        }
+
+        int hash = hash(key);
+        int index = size++;
+        names[index] = key;
+        values[index] = value;
+        hashes[index] = hash;
+        nexts[index] = -1;
+
+        int slot = findSlot(key, hash);
+        int first = slots[slot] - 1;
+        if (first == -1) {
+            slots[slot] = index + 1;
+            distinctNames++;
+        }
+        else {
+            int last = first;
+            while (nexts[last] != -1) {
+                last = nexts[last];
+            }
+            nexts[last] = index;
         }
-        keyValues.add(value);
     }
 
     public void set(String key, String value) {
-        for (Iterator<String> k$ = keys.iterator(), v$ = values.iterator(); k$.hasNext() && v$.hasNext();) {
-            String k = k$.next();
-            v$.next();
-            if (k.equals(key)) {
-                k$.remove();
-                v$.remove();
+        remove(key);
+        add(key, value);
+    }
+
+    public void remove(String key) {
+        int hash = hash(key);
+        if (slots[findSlot(key, hash)] != 0) {
+            int retained = 0;
+            for (int i = 0; i < size; i++) {
+                if (hashes[i] != hash || !equalsIgnoreCase(names[i], key)) {
+                    names[retained] = names[i];
+                    values[retained] = values[i];
+                    hashes[retained] = hashes[i];
+                    retained++;
+                }
             }
+            Arrays.fill(names, retained, size, null);
+            Arrays.fill(values, retained, size, null);
+            size = retained;
+            reindex();
         }
-        keys.add(key);
-        values.add(value);
-        List<String> keyValues = valuesByKey.get(key);
-        if (keyValues == null) {
-            keyValues = new LinkedList<String>();
-        }
-        else {
-            valuesByKey.clear();
-        }
-        valuesByKey.put(key, keyValues);
-        keyValues.add(value);
     }
 
     public String key(int index) {
-        if (index < 0 || index >= keys.size()) {
+        if (index < 0 || index >= size) {
             return null;
         }
 
-        return keys.get(index);
+        return names[index];
     }
 
     public String value(int index) {
-        if (index < 0 || index >= values.size()) {
+        if (index < 0 || index >= size) {
             return null;
         }
 
-        return values.get(index);
+        return values[index];
     }
 
     public String value(String key) {
-        List<String> keyValues = valuesByKey.get(key);
-        return (keyValues != null && !keyValues.isEmpty()) ? keyValues.get(0) : null;
+        int first = slots[findSlot(key, hash(key))] - 1;
+        return (first != -1) ? values[first] : null;
     }
 
     public Map<String, List<String>> map() {
-        return valuesByKeyRO;
+        return map;
     }
 
     public void clear() {
-        keys.clear();
-        values.clear();
-        valuesByKey.clear();
+        Arrays.fill(names, 0, size, null);
+        Arrays.fill(values, 0, size, null);
+        Arrays.fill(slots, 0);
+        size = 0;
+        distinctNames = 0;
     }
 
-    private static final Comparator<String> CASE_INSENSITIVE_ORDER_WITH_NULLS = new CaseInsensitiveComparatorWithNulls();
+    private List<String> valuesOf(int first) {
+        List<String> keyValues = new ArrayList<String>(1);
+        for (int i = first; i != -1; i = nexts[i]) {
+            keyValues.add(values[i]);
+        }
+        return unmodifiableList(keyValues);
+    }
 
-    private static final class CaseInsensitiveComparatorWithNulls implements Comparator<String> {
+    private int findSlot(String key, int hash) {
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (true) {
+            int first = slots[slot] - 1;
+            if (first == -1 || (hashes[first] == hash && equalsIgnoreCase(names[first], key))) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
 
-        @Override
-        public int compare(String o1, String o2) {
-            if (o1 == null && o2 == null) {
-                return 0;
+    private void grow() {
+        int capacity = names.length * 2;
+        names = Arrays.copyOf(names, capacity);
+        values = Arrays.copyOf(values, capacity);
+        hashes = Arrays.copyOf(hashes, capacity);
+        nexts = Arrays.copyOf(nexts, capacity);
+        slots = new int[capacity * 2];
+        reindex();
+    }
+
+    private void reindex() {
+        int count = size;
+        Arrays.fill(slots, 0);
+        size = 0;
+        distinctNames = 0;
+        for (int i = 0; i < count; i++) {
+            add(names[i], values[i]);
+        }
+    }
+
+    private static boolean equalsIgnoreCase(String name, String key) {
+        return (name == key) || (name != null && name.equalsIgnoreCase(key));
+    }
+
+    private static int hash(String name) {
+        if (name == null) {
+            return 0;
+        }
+
+        // header names are usually the interned literals above
+        for (int i = 0; i < WELL_KNOWN_NAMES.length; i++) {
+            if (WELL_KNOWN_NAMES[i] == name) {
+                return WELL_KNOWN_HASHES[i];
+            }
+        }
+
+        return hash0(name);
+    }
+
+    private static int hash0(String name) {
+        int hash = 0;
+        for (int i = 0; i < name.length(); i++) {
+            // folded the same way as String.equalsIgnoreCase
+            hash = 31 * hash + Character.toLowerCase(Character.toUpperCase(name.charAt(i)));
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private final class HeaderFieldsMap extends AbstractMap<String, List<String>> {
+
+        private final Set<Map.Entry<String, List<String>>> entrySet = new AbstractSet<Map.Entry<String, List<String>>>() {
+
+            @Override
+            public Iterator<Map.Entry<String, List<String>>> iterator() {
+                return new Iterator<Map.Entry<String, List<String>>>() {
+                    private int index = nextFirst(0);
+
+                    @Override
+                    public boolean hasNext() {
+                        return index < size;
+                    }
+
+                    @Override
+                    public Map.Entry<String, List<String>> next() {
+                        if (index >= size) {
+                            throw new NoSuchElementException();
+                        }
+                        int first = index;
+                        index = nextFirst(index + 1);
+                        return new SimpleImmutableEntry<String, List<String>>(names[first], valuesOf(first));
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
             }
 
-            if (o2 == null) {
-                return -1 - o1.length();
+            @Override
+            public int size() {
+                return distinctNames;
             }
+        };
+
+        @Override
+        public Set<Map.Entry<String, List<String>>> entrySet() {
+            return entrySet;
+        }
 
-            if (o1 == null) {
-                return o2.length() + 1;
+        @Override
+        public int size() {
+            return distinctNames;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return (key == null || key instanceof String) && slots[findSlot((String) key, hash((String) key))] != 0;
+        }
+
+        @Override
+        public List<String> get(Object key) {
+            if (key != null && !(key instanceof String)) {
+                return null;
             }
+            int first = slots[findSlot((String) key, hash((String) key))] - 1;
+            return (first != -1) ? valuesOf(first) : null;
+        }
 
-            return String.CASE_INSENSITIVE_ORDER.compare(o1, o2);
+        private int nextFirst(int index) {
+            while (index < size && slots[findSlot(names[index], hashes[index])] - 1 != index) {
+                index++;
+            }
+            return index;
         }
+    }
 
+    static {
+        for (int i = 0; i < WELL_KNOWN_NAMES.length; i++) {
+            WELL_KNOWN_HASHES[i] = hash0(WELL_KNOWN_NAMES[i]);
+        }
     }
 }
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.kaazing.netx.http.internal;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.kaazing.netx.http.HttpConnectionPool;
+
+/**
+ * A persistent HTTP/1.1 connection shared by successive, and possibly pipelined, requests.
+ *
+ * Requests are numbered in the order they are sent, and each response is read only after the responses to all earlier
+ * requests have been read. Response heads are parsed from a buffer borrowed from a shared pool for the lifetime of the
+ * connection.
+ */
+final class HttpKeepAliveConnection extends HttpConnectionPool.Connection {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_POOLED_BUFFERS = 64;
+
+    private static final Queue<byte[]> BUFFERS = new ConcurrentLinkedQueue<byte[]>();
+    private static final AtomicInteger POOLED_BUFFERS = new AtomicInteger();
+
+    private final Socket socket;
+    private final OutputStream output;
+    private final HttpResponseInputStream input;
+
+    private byte[] buffer;
+    private int pending;
+    private int sent;
+    private int completed;
+    private boolean closed;
+
+    HttpKeepAliveConnection(Socket socket) throws IOException {
+        this.socket = socket;
+        this.output = socket.getOutputStream();
+        this.buffer = acquireBuffer();
+        this.input = new HttpResponseInputStream(socket.getInputStream(), buffer);
+        this.pending = 1;
+    }
+
+    HttpResponseInputStream getInputStream() {
+        return input;
+    }
+
+    OutputStream getOutputStream() {
+        return output;
+    }
+
+    /**
+     * Sends a request head, followed by any buffered request body, as the next request on this connection.
+     *
+     * @return the request sequence number, used to wait for the matching response
+     */
+    synchronized int send(HttpRequestWriter writer, byte[] body, int length) throws IOException {
+        if (closed) {
+            throw new IOException("Connection closed");
+        }
+
+        SocketChannel channel = socket.getChannel();
+        if (body != null && channel != null) {
+            // the head and body leave in one gathering write, rather than as two separate segments
+            ByteBuffer[] buffers = new ByteBuffer[] { writer.end(), ByteBuffer.wrap(body, 0, length) };
+            while (buffers[0].hasRemaining() || buffers[1].hasRemaining()) {
+                channel.write(buffers);
+            }
+        }
+        else if (body != null) {
+            writer.appendTo(output);
+            output.write(body, 0, length);
+            output.flush();
+        }
+        else {
+            writer.writeTo(output);
+        }
+        return sent++;
+    }
+
+    /**
+     * Sends a request head, followed by a request body sent from its buffers or file region, as the next request on this
+     * connection.
+     *
+     * @return the request sequence number, used to wait for the matching response
+     */
+    synchronized int send(HttpRequestWriter writer, HttpRequestBody body, int chunkLength) throws IOException {
+        if (closed) {
+            throw new IOException("Connection closed");
+        }
+
+        body.send(writer.end(), socket, output, chunkLength);
+        return sent++;
+    }
+
+    /**
+     * Waits until the responses to all requests sent before the specified request have been read, then applies the
+     * read timeout of the specified request to the socket.
+     */
+    synchronized void awaitResponse(int sequence, int timeout) throws IOException {
+        long deadline = (timeout > 0) ? System.currentTimeMillis() + timeout : 0L;
+        while (completed != sequence && !closed) {
+            try {
+                if (deadline == 0L) {
+                    wait();
+                }
+                else {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0L) {
+                        throw new SocketTimeoutException("Read timed out waiting for pipelined responses");
+                    }
+                    wait(remaining);
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for pipelined responses");
+            }
+        }
+
+        if (closed) {
+            throw new IOException("Connection closed");
+        }
+
+        // the socket may have been opened for a request with another read timeout
+        socket.setSoTimeout(timeout);
+    }
+
+    /**
+     * Marks the current response as read, allowing the next pipelined response to be read.
+     *
+     * @param reusable  {@code false} if the connection cannot carry further responses
+     */
+    void complete(boolean reusable) {
+        synchronized (this) {
+            completed++;
+            pending--;
+            notifyAll();
+        }
+
+        if (!reusable) {
+            close();
+        }
+    }
+
+    /**
+     * Gives up a reservation for a request that was never sent.
+     */
+    synchronized void cancel() {
+        pending--;
+    }
+
+    @Override
+    protected synchronized boolean reserve(int maxPending) {
+        // channel socket streams share one lock until JDK 13, a pipelined write would wait for the pending read
+        if (socket.getChannel() != null) {
+            maxPending = 1;
+        }
+
+        if (closed || pending >= maxPending) {
+            return false;
+        }
+        pending++;
+        return true;
+    }
+
+    @Override
+    protected synchronized boolean isIdle() {
+        return !closed && pending == 0;
+    }
+
+    @Override
+    protected synchronized boolean isOpen() {
+        return !closed && !socket.isClosed();
+    }
+
+    @Override
+    protected void close() {
+        byte[] released = null;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+
+            // a buffer may still be read by a response in progress
+            if (pending == 0) {
+                released = buffer;
+                buffer = null;
+            }
+        }
+
+        try {
+            socket.close();
+        }
+        catch (IOException e) {
+            // ignore
+        }
+
+        if (released != null) {
+            releaseBuffer(released);
+        }
+    }
+
+    private static byte[] acquireBuffer() {
+        byte[] buffer = BUFFERS.poll();
+        if (buffer == null) {
+            return new byte[BUFFER_SIZE];
+        }
+        POOLED_BUFFERS.decrementAndGet();
+        return buffer;
+    }
+
+    private static void releaseBuffer(byte[] buffer) {
+        if (POOLED_BUFFERS.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+            BUFFERS.offer(buffer);
+        }
+        else {
+            POOLED_BUFFERS.decrementAndGet();
+        }
+    }
+}
@@ -18,20 +18,31 @@ package org.kaazing.netx.http.internal;
 
 import static java.lang.String.format;
 import static java.util.ServiceLoader.load;
+import static org.kaazing.netx.http.SSLSessionCache.getInstance;
 
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.channels.SocketChannel;
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.net.SocketFactory;
-import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.SSLContext;
 
 import org.codehaus.mojo.animal_sniffer.IgnoreJRERequirement;
+import org.kaazing.netx.SocketConnector;
+import org.kaazing.netx.TransportOptions;
+import org.kaazing.netx.http.SSLSessionCache;
 
 public abstract class HttpOriginSecuritySpi {
 
@@ -39,6 +50,56 @@ public abstract class HttpOriginSecuritySpi {
     private static final String BRIDGE_RESOURCE_VERSION = "2.0";
     private static final String BRIDGE_RESOURCE_PATH = format("/;resource/%s/%s", BRIDGE_RESOURCE_NAME, BRIDGE_RESOURCE_VERSION);
 
+    // bridge resources are per origin, so the loaded bridge is reused by every later connection to that origin
+    private static final ConcurrentMap<String, HttpOriginSecuritySpi> BRIDGES =
+            new ConcurrentHashMap<String, HttpOriginSecuritySpi>();
+
+    // plain sockets backed by a channel, so that request bodies can be sent with gathering writes and transferTo
+    // the stream adaptors of such sockets share one lock until JDK 13, so they must not be read and written concurrently
+    private static final SocketFactory CHANNEL_SOCKET_FACTORY = new SocketFactory() {
+        @Override
+        public Socket createSocket() throws IOException {
+            return SocketChannel.open().socket();
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return connect(createSocket(), new InetSocketAddress(host, port), null);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port) throws IOException {
+            return connect(createSocket(), new InetSocketAddress(address, port), null);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localAddress, int localPort) throws IOException {
+            SocketAddress local = new InetSocketAddress(localAddress, localPort);
+            return connect(createSocket(), new InetSocketAddress(host, port), local);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+                throws IOException {
+            SocketAddress local = new InetSocketAddress(localAddress, localPort);
+            return connect(createSocket(), new InetSocketAddress(address, port), local);
+        }
+
+        private Socket connect(Socket socket, SocketAddress remote, SocketAddress local) throws IOException {
+            try {
+                if (local != null) {
+                    socket.bind(local);
+                }
+                socket.connect(remote);
+                return socket;
+            }
+            catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+    };
+
     public static HttpOriginSecuritySpi newInstance() {
         return new DefaultOriginSecurity();
     }
@@ -51,9 +112,8 @@ public abstract class HttpOriginSecuritySpi {
         catch (SecurityException e) {
             try {
                 URL bridge = new URL(url, BRIDGE_RESOURCE_PATH);
-                ClassLoader parent = getClass().getClassLoader();
-                URLClassLoader loader = URLClassLoader.newInstance(new URL[] { bridge }, parent);
-                for (HttpOriginSecuritySpi security : load(HttpOriginSecuritySpi.class, loader)) {
+                HttpOriginSecuritySpi security = loadBridge(bridge);
+                if (security != null) {
                     return security.openConnection(url);
                 }
                 String message = format("%s not found: %s", BRIDGE_RESOURCE_NAME, bridge);
@@ -69,17 +129,29 @@ public abstract class HttpOriginSecuritySpi {
         }
     }
 
-    public final Socket createSocket(URL url) throws IOException {
+    public final Socket createSocket(
+            URL url,
+            SSLContext sslContext,
+            int connectTimeout,
+            TransportOptions transportOptions) throws IOException {
+        return createSocket(url, sslContext, connectTimeout, transportOptions, null);
+    }
+
+    public final Socket createSocket(
+            URL url,
+            SSLContext sslContext,
+            int connectTimeout,
+            TransportOptions transportOptions,
+            String[] applicationProtocols) throws IOException {
         try {
-            return createSocket0(url);
+            return createSocket0(url, sslContext, connectTimeout, transportOptions, applicationProtocols);
         }
         catch (SecurityException e) {
             try {
                 URL bridge = new URL(url, BRIDGE_RESOURCE_PATH);
-                ClassLoader parent = HttpOriginSecuritySpi.class.getClassLoader();
-                URLClassLoader loader = URLClassLoader.newInstance(new URL[] { bridge }, parent);
-                for (HttpOriginSecuritySpi security : load(HttpOriginSecuritySpi.class, loader)) {
-                    return security.createSocket(url);
+                HttpOriginSecuritySpi security = loadBridge(bridge);
+                if (security != null) {
+                    return security.createSocket(url, sslContext, connectTimeout, transportOptions, applicationProtocols);
                 }
                 String message = format("%s not found: %s", BRIDGE_RESOURCE_NAME, bridge);
                 e.initCause(new IllegalStateException(message).fillInStackTrace());
@@ -92,34 +164,77 @@ public abstract class HttpOriginSecuritySpi {
         }
     }
 
+    /**
+     * Creates a plain socket backed by a {@link SocketChannel}, for a connection that is never read and written
+     * concurrently. Other protocols, and origins only reachable through the bridge, get a socket without a channel.
+     */
+    public final Socket createChannelSocket(
+            URL url,
+            SSLContext sslContext,
+            int connectTimeout,
+            TransportOptions transportOptions) throws IOException {
+        if ("http".equalsIgnoreCase(url.getProtocol())) {
+            int port = url.getPort();
+            if (port == -1) {
+                port = url.getDefaultPort();
+            }
+
+            try {
+                SocketConnector connector = SocketConnector.getDefault();
+                return connector.connect(CHANNEL_SOCKET_FACTORY, url.getHost(), port, connectTimeout, transportOptions);
+            }
+            catch (SecurityException e) {
+                // connect through the bridge instead
+            }
+        }
+        return createSocket(url, sslContext, connectTimeout, transportOptions);
+    }
+
     public static final String getOrigin() {
+        return OriginHolder.ORIGIN;
+    }
 
-        if (ORIGIN == null) {
-            Class<HttpOriginSecuritySpi> clazz = HttpOriginSecuritySpi.class;
-            ClassLoader cl = clazz.getClassLoader();
-            String origin = null;
-
-            if (cl instanceof URLClassLoader) {
-                @SuppressWarnings("resource")
-                URLClassLoader ucl = (URLClassLoader) cl;
-
-                URL[] urls = ucl.getURLs();
-                for (URL url : urls) {
-                    URLClassLoader candidate = new URLClassLoader(new URL[] { url });
-
-                    try {
-                        Class<?> candidateClass = candidate.loadClass(clazz.getName());
-                        assert candidateClass != null;
-                        if (Arrays.equals(clazz.getSigners(), candidateClass.getSigners())) {
-                            origin = asOrigin(url);
-                            break;
-                        }
-                    }
-                    catch (ClassNotFoundException e) {
-                        // ignore, try next candidate
-                    }
+    private static HttpOriginSecuritySpi loadBridge(URL bridge) {
+        String key = bridge.toExternalForm();
+        HttpOriginSecuritySpi security = BRIDGES.get(key);
+        if (security == null) {
+            ClassLoader parent = HttpOriginSecuritySpi.class.getClassLoader();
+            URLClassLoader loader = URLClassLoader.newInstance(new URL[] { bridge }, parent);
+            for (HttpOriginSecuritySpi candidate : load(HttpOriginSecuritySpi.class, loader)) {
+                HttpOriginSecuritySpi existing = BRIDGES.putIfAbsent(key, candidate);
+                security = (existing != null) ? existing : candidate;
+                break;
+            }
+        }
+        return security;
+    }
 
-                    // clean up in Java7+
+    private static String computeOrigin() {
+        Class<HttpOriginSecuritySpi> clazz = HttpOriginSecuritySpi.class;
+        ClassLoader cl = clazz.getClassLoader();
+        String origin = null;
+
+        if (cl instanceof URLClassLoader) {
+            @SuppressWarnings("resource")
+            URLClassLoader ucl = (URLClassLoader) cl;
+
+            URL[] urls = ucl.getURLs();
+            for (URL url : urls) {
+                URLClassLoader candidate = new URLClassLoader(new URL[] { url });
+
+                try {
+                    Class<?> candidateClass = candidate.loadClass(clazz.getName());
+                    assert candidateClass != null;
+                    if (Arrays.equals(clazz.getSigners(), candidateClass.getSigners())) {
+                        origin = asOrigin(url);
+                        break;
+                    }
+                }
+                catch (ClassNotFoundException e) {
+                    // ignore, try next candidate
+                }
+                finally {
+                    // clean up in Java7+, including the matching candidate
                     if (CLOSE_URL_CLASS_LOADER != null) {
                         try {
                             CLOSE_URL_CLASS_LOADER.invoke(candidate);
@@ -130,18 +245,19 @@ public abstract class HttpOriginSecuritySpi {
                     }
                 }
             }
+        }
 
-            if (origin == null) {
-                origin = "null";
-            }
-
-            ORIGIN = origin;
+        if (origin == null) {
+            origin = "null";
         }
 
-        return ORIGIN;
+        return origin;
     }
 
-    private static String ORIGIN;
+    // computed once, on first use, by the class initializer
+    private static final class OriginHolder {
+        private static final String ORIGIN = computeOrigin();
+    }
 
     private static final Method CLOSE_URL_CLASS_LOADER;
 
@@ -171,13 +287,26 @@ public abstract class HttpOriginSecuritySpi {
 
     protected abstract HttpURLConnection openConnection0(URL url) throws IOException;
 
-    protected abstract Socket createSocket0(URL url) throws IOException;
+    protected abstract Socket createSocket0(
+            URL url,
+            SSLContext sslContext,
+            int connectTimeout,
+            TransportOptions transportOptions) throws IOException;
+
+    // bridges predating ALPN do not offer application protocols
+    protected Socket createSocket0(
+            URL url,
+            SSLContext sslContext,
+            int connectTimeout,
+            TransportOptions transportOptions,
+            String[] applicationProtocols) throws IOException {
+        return createSocket0(url, sslContext, connectTimeout, transportOptions);
+    }
 
     private static final class DefaultOriginSecurity extends HttpOriginSecuritySpi {
 
         @Override
         protected HttpURLConnection openConnection0(URL url) throws IOException {
-
             URL connectionURL = new URL(url.toString());
 
             final String connectionHost = connectionURL.getHost();
@@ -195,7 +324,24 @@ public abstract class HttpOriginSecuritySpi {
         }
 
         @Override
-        protected Socket createSocket0(URL url) throws IOException {
+        protected Socket createSocket0(
+                URL url,
+                SSLContext sslContext,
+                int connectTimeout,
+                TransportOptions transportOptions) throws IOException {
+            return createSocket0(url, sslContext, connectTimeout, transportOptions, null);
+        }
+
+        @Override
+        protected Socket createSocket0(
+                URL url,
+                SSLContext sslContext,
+                int connectTimeout,
+                TransportOptions transportOptions,
+                String[] applicationProtocols) throws IOException {
+            SocketConnector connector = SocketConnector.getDefault();
+            SocketFactory socketFactory = SocketFactory.getDefault();
+
             String protocol = url.getProtocol();
             String host = url.getHost();
             int port = url.getPort();
@@ -204,12 +350,26 @@ public abstract class HttpOriginSecuritySpi {
             }
 
             if ("http".equalsIgnoreCase(protocol)) {
-                SocketFactory socketFactory = SocketFactory.getDefault();
-                return socketFactory.createSocket(host, port);
+                return connector.connect(socketFactory, host, port, connectTimeout, transportOptions);
             }
             else if ("https".equalsIgnoreCase(protocol)) {
-                SocketFactory socketFactory = SSLSocketFactory.getDefault();
-                return socketFactory.createSocket(host, port);
+                long connectStartedAt = System.currentTimeMillis();
+                Socket socket = connector.connect(socketFactory, host, port, connectTimeout, transportOptions);
+
+                // the TLS handshake completes within the same connect timeout
+                if (connectTimeout != 0) {
+                    long remaining = connectTimeout - (System.currentTimeMillis() - connectStartedAt);
+                    if (remaining <= 0) {
+                        socket.close();
+                        throw new SocketTimeoutException("connect timed out");
+                    }
+                    socket.setSoTimeout((int) remaining);
+                }
+
+                SSLSessionCache sessionCache = (sslContext != null) ? getInstance(sslContext) : SSLSessionCache.getDefault();
+                Socket sslSocket = sessionCache.createSocket(socket, host, port, applicationProtocols);
+                sslSocket.setSoTimeout(0);
+                return sslSocket;
             }
             else {
                 throw new IllegalStateException(format("Unexpected protocol: %s", protocol));
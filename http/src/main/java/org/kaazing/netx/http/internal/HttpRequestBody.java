@@ -0,0 +1,296 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kaazing.netx.http.internal;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A request body sent from a file region or from byte buffers, without first copying it into a heap byte array.
+ *
+ * Over a socket with a channel, buffers are sent with gathering writes together with the request head and any chunk
+ * framing, and a file region is sent with {@link FileChannel#transferTo}, so that the kernel copies the file directly to
+ * the socket. Otherwise the body is written to the socket output stream, directly from the backing array of heap buffers.
+ * The buffers and the file position are never modified, so the body can be sent again.
+ */
+final class HttpRequestBody {
+
+    private static final byte[] CRLF = { '\r', '\n' };
+    private static final byte[] LAST_CHUNK = { '0', '\r', '\n', '\r', '\n' };
+
+    private static final int COPY_BUFFER_SIZE = 8192;
+
+    private final FileChannel file;
+    private final long position;
+    private final ByteBuffer[] buffers;
+    private final long length;
+
+    private HttpRequestBody(FileChannel file, long position, ByteBuffer[] buffers, long length) {
+        this.file = file;
+        this.position = position;
+        this.buffers = buffers;
+        this.length = length;
+    }
+
+    static HttpRequestBody newInstance(FileChannel file, long position, long count) {
+        if (file == null) {
+            throw new NullPointerException("Null channel passed in");
+        }
+        if (position < 0L) {
+            throw new IllegalArgumentException("Position must not be negative");
+        }
+        if (count < 0L) {
+            throw new IllegalArgumentException("Count must not be negative");
+        }
+        return new HttpRequestBody(file, position, null, count);
+    }
+
+    static HttpRequestBody newInstance(ByteBuffer... buffers) {
+        if (buffers == null) {
+            throw new NullPointerException("Null buffers passed in");
+        }
+
+        ByteBuffer[] duplicates = new ByteBuffer[buffers.length];
+        long length = 0L;
+        for (int i = 0; i < buffers.length; i++) {
+            if (buffers[i] == null) {
+                throw new NullPointerException("Null buffer passed in");
+            }
+            duplicates[i] = buffers[i].duplicate();
+            length += duplicates[i].remaining();
+        }
+        return new HttpRequestBody(null, 0L, duplicates, length);
+    }
+
+    long length() {
+        return length;
+    }
+
+    /**
+     * Sends a request head followed by this body, with chunked framing unless the chunk length is {@code -1}.
+     */
+    void send(ByteBuffer head, Socket socket, OutputStream output, int chunkLength) throws IOException {
+        SocketChannel channel = socket.getChannel();
+        Sink sink = (channel != null) ? new ChannelSink(channel) : new StreamSink(output);
+
+        List<ByteBuffer> pending = new ArrayList<ByteBuffer>();
+        pending.add(head);
+
+        ByteBuffer[] remaining = duplicates();
+        int index = 0;
+        long chunk = (chunkLength != -1) ? Math.max(chunkLength, 1) : length;
+        for (long offset = 0L; offset < length; offset += chunk) {
+            long size = Math.min(chunk, length - offset);
+            if (chunkLength != -1) {
+                pending.add(ascii(Long.toHexString(size) + "\r\n"));
+            }
+
+            if (remaining != null) {
+                // the next bytes of the buffers, as views sent in the same gathering write as the framing
+                for (long needed = size; needed > 0L; index++) {
+                    ByteBuffer buffer = remaining[index];
+                    int take = (int) Math.min(buffer.remaining(), needed);
+                    ByteBuffer slice = buffer.duplicate();
+                    slice.limit(slice.position() + take);
+                    buffer.position(buffer.position() + take);
+                    pending.add(slice);
+                    needed -= take;
+                    if (buffer.hasRemaining()) {
+                        break;
+                    }
+                }
+            }
+            else {
+                sink.write(pending);
+                pending.clear();
+                sink.transfer(file, position + offset, size);
+            }
+
+            if (chunkLength != -1) {
+                pending.add(ByteBuffer.wrap(CRLF));
+                if (remaining != null) {
+                    sink.write(pending);
+                    pending.clear();
+                }
+            }
+        }
+
+        if (chunkLength != -1) {
+            pending.add(ByteBuffer.wrap(LAST_CHUNK));
+        }
+        sink.write(pending);
+        sink.flush();
+    }
+
+    /**
+     * Writes this body to an output stream, without framing.
+     */
+    void writeTo(OutputStream output) throws IOException {
+        Sink sink = new StreamSink(output);
+        ByteBuffer[] remaining = duplicates();
+        if (remaining != null) {
+            List<ByteBuffer> pending = new ArrayList<ByteBuffer>(remaining.length);
+            for (ByteBuffer buffer : remaining) {
+                pending.add(buffer);
+            }
+            sink.write(pending);
+        }
+        else {
+            sink.transfer(file, position, length);
+        }
+        sink.flush();
+    }
+
+    private ByteBuffer[] duplicates() {
+        if (buffers == null) {
+            return null;
+        }
+
+        ByteBuffer[] duplicates = new ByteBuffer[buffers.length];
+        for (int i = 0; i < buffers.length; i++) {
+            duplicates[i] = buffers[i].duplicate();
+        }
+        return duplicates;
+    }
+
+    private static ByteBuffer ascii(String value) {
+        byte[] bytes = new byte[value.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) value.charAt(i);
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private abstract static class Sink {
+
+        abstract void write(List<ByteBuffer> buffers) throws IOException;
+
+        abstract void transfer(FileChannel file, long position, long count) throws IOException;
+
+        abstract void flush() throws IOException;
+    }
+
+    private static final class ChannelSink extends Sink {
+
+        private final SocketChannel channel;
+
+        ChannelSink(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        void write(List<ByteBuffer> buffers) throws IOException {
+            ByteBuffer[] sources = buffers.toArray(new ByteBuffer[buffers.size()]);
+            long remaining = 0L;
+            for (ByteBuffer source : sources) {
+                remaining += source.remaining();
+            }
+
+            // a blocking channel may still write fewer bytes than requested
+            int offset = 0;
+            while (remaining > 0L) {
+                remaining -= channel.write(sources, offset, sources.length - offset);
+                while (offset < sources.length && !sources[offset].hasRemaining()) {
+                    offset++;
+                }
+            }
+        }
+
+        @Override
+        void transfer(FileChannel file, long position, long count) throws IOException {
+            while (count > 0L) {
+                long transferred = file.transferTo(position, count, channel);
+                if (transferred <= 0L) {
+                    if (position >= file.size()) {
+                        throw new EOFException("File ended before the end of the request body");
+                    }
+                    continue;
+                }
+                position += transferred;
+                count -= transferred;
+            }
+        }
+
+        @Override
+        void flush() {
+        }
+    }
+
+    private static final class StreamSink extends Sink {
+
+        private final OutputStream output;
+        private byte[] copy;
+
+        StreamSink(OutputStream output) {
+            this.output = output;
+        }
+
+        @Override
+        void write(List<ByteBuffer> buffers) throws IOException {
+            for (ByteBuffer buffer : buffers) {
+                if (buffer.hasArray()) {
+                    output.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                    buffer.position(buffer.limit());
+                }
+                else {
+                    byte[] copy = copyBuffer();
+                    while (buffer.hasRemaining()) {
+                        int size = Math.min(copy.length, buffer.remaining());
+                        buffer.get(copy, 0, size);
+                        output.write(copy, 0, size);
+                    }
+                }
+            }
+        }
+
+        @Override
+        void transfer(FileChannel file, long position, long count) throws IOException {
+            byte[] copy = copyBuffer();
+            ByteBuffer buffer = ByteBuffer.wrap(copy);
+            while (count > 0L) {
+                buffer.clear();
+                buffer.limit((int) Math.min(copy.length, count));
+                int read = file.read(buffer, position);
+                if (read == -1) {
+                    throw new EOFException("File ended before the end of the request body");
+                }
+                output.write(copy, 0, read);
+                position += read;
+                count -= read;
+            }
+        }
+
+        @Override
+        void flush() throws IOException {
+            output.flush();
+        }
+
+        private byte[] copyBuffer() {
+            if (copy == null) {
+                copy = new byte[COPY_BUFFER_SIZE];
+            }
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kaazing.netx.http.internal;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Serializes an HTTP/1.1 request head directly to US-ASCII bytes.
+ *
+ * The fixed parts of the request syntax are pre-encoded, so the whole request head is assembled in a single byte array
+ * and written to the network with one call. A writer is created for each request head and is not shared.
+ */
+final class HttpRequestWriter {
+
+    private static final byte[] SP = ascii(" ");
+    private static final byte[] HTTP_1_1_CRLF = ascii(" HTTP/1.1\r\n");
+    private static final byte[] HOST_COLON_SP = ascii("Host: ");
+    private static final byte[] COLON_SP = ascii(": ");
+    private static final byte[] COLON = ascii(":");
+    private static final byte[] CRLF = ascii("\r\n");
+
+    private static final int DEFAULT_CAPACITY = 512;
+
+    private byte[] buffer;
+    private int length;
+
+    HttpRequestWriter() {
+        this.buffer = new byte[DEFAULT_CAPACITY];
+    }
+
+    HttpRequestWriter requestLine(String method, String file) {
+        putAscii(method);
+        put(SP);
+        putAscii(file.isEmpty() ? "/" : file);
+        put(HTTP_1_1_CRLF);
+        return this;
+    }
+
+    HttpRequestWriter host(String host, int port) {
+        put(HOST_COLON_SP);
+        putAscii(host);
+        put(COLON);
+        putAscii(Integer.toString(port));
+        put(CRLF);
+        return this;
+    }
+
+    HttpRequestWriter header(String name, String value) {
+        putAscii(name);
+        put(COLON_SP);
+        putAscii(value);
+        put(CRLF);
+        return this;
+    }
+
+    HttpRequestWriter header(String name, ByteBuffer value) {
+        putAscii(name);
+        put(COLON_SP);
+        put(value);
+        put(CRLF);
+        return this;
+    }
+
+    void writeTo(OutputStream output) throws IOException {
+        appendTo(output);
+        output.flush();
+    }
+
+    void appendTo(OutputStream output) throws IOException {
+        put(CRLF);
+        output.write(buffer, 0, length);
+        length = 0;
+    }
+
+    ByteBuffer end() {
+        put(CRLF);
+        ByteBuffer head = ByteBuffer.wrap(buffer, 0, length);
+        buffer = new byte[DEFAULT_CAPACITY];
+        length = 0;
+        return head;
+    }
+
+    private void put(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void put(ByteBuffer bytes) {
+        int remaining = bytes.remaining();
+        ensureCapacity(remaining);
+        bytes.duplicate().get(buffer, length, remaining);
+        length += remaining;
+    }
+
+    private void putAscii(String value) {
+        int valueLength = value.length();
+        ensureCapacity(valueLength);
+        for (int i = 0; i < valueLength; i++) {
+            char ch = value.charAt(i);
+            buffer[length++] = (ch < 0x80) ? (byte) ch : (byte) '?';
+        }
+    }
+
+    private void ensureCapacity(int required) {
+        if (length + required > buffer.length) {
+            int newCapacity = Math.max(buffer.length << 1, length + required);
+            byte[] newBuffer = new byte[newCapacity];
+            System.arraycopy(buffer, 0, newBuffer, 0, length);
+            buffer = newBuffer;
+        }
+    }
+
+    private static byte[] ascii(String value) {
+        byte[] bytes = new byte[value.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) value.charAt(i);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kaazing.netx.http.internal;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Buffered {@code InputStream} used to parse an HTTP/1.1 response head.
+ *
+ * Response lines are scanned from an internal buffer filled with bulk reads, rather than one read per byte. Any bytes
+ * received after the end of the response head remain buffered and are returned by subsequent reads, so that data sent
+ * immediately after an upgrade response is not lost.
+ */
+final class HttpResponseInputStream extends InputStream {
+
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+
+    private final InputStream in;
+    private final byte[] buffer;
+
+    private int readOffset;
+    private int writeOffset;
+
+    HttpResponseInputStream(InputStream in) {
+        this(in, DEFAULT_BUFFER_SIZE);
+    }
+
+    HttpResponseInputStream(InputStream in, int bufferSize) {
+        this(in, new byte[bufferSize]);
+    }
+
+    HttpResponseInputStream(InputStream in, byte[] buffer) {
+        this.in = in;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Reads a single US-ASCII line terminated by LF, with any trailing CR removed.
+     *
+     * @return the line, or {@code null} if end of stream is reached before any bytes were read
+     *
+     * @throws IOException if an I/O error occurs, the line is not US-ASCII, or the line exceeds the buffer size
+     */
+    String readLine() throws IOException {
+        int scanOffset = readOffset;
+
+        while (true) {
+            for (; scanOffset < writeOffset; scanOffset++) {
+                byte b = buffer[scanOffset];
+                if (b == LF) {
+                    int lineEnd = scanOffset;
+                    if (lineEnd > readOffset && buffer[lineEnd - 1] == CR) {
+                        lineEnd--;
+                    }
+                    String line = ascii(buffer, readOffset, lineEnd);
+                    readOffset = scanOffset + 1;
+                    return line;
+                }
+                if ((b & 0x80) != 0) {
+                    throw new IOException(format("Invalid ASCII character: '%c'", b & 0xff));
+                }
+            }
+
+            int scanned = scanOffset - readOffset;
+            if (!fill()) {
+                if (writeOffset == readOffset) {
+                    return null;
+                }
+                String line = ascii(buffer, readOffset, writeOffset);
+                readOffset = writeOffset;
+                return line;
+            }
+            scanOffset = readOffset + scanned;
+        }
+    }
+
+    /**
+     * Returns the number of bytes already received beyond the last line read.
+     *
+     * @return the number of buffered bytes
+     */
+    int buffered() {
+        return writeOffset - readOffset;
+    }
+
+    /**
+     * Returns up to {@code maxLength} bytes as a read-only view of the internal buffer, without copying them.
+     *
+     * The returned buffer is only valid until the next read from this stream.
+     *
+     * @param maxLength  the maximum number of bytes to return
+     *
+     * @return the buffered bytes, or {@code null} if end of stream is reached
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    ByteBuffer slice(int maxLength) throws IOException {
+        if (readOffset == writeOffset) {
+            readOffset = 0;
+            writeOffset = 0;
+            if (!fill()) {
+                return null;
+            }
+        }
+
+        int length = Math.min(writeOffset - readOffset, maxLength);
+        ByteBuffer slice = ByteBuffer.wrap(buffer, readOffset, length).slice().asReadOnlyBuffer();
+        readOffset += length;
+        return slice;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (readOffset == writeOffset) {
+            return in.read();
+        }
+        return buffer[readOffset++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if ((off < 0) || (len < 0) || (off + len > b.length)) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        if (len == 0) {
+            return 0;
+        }
+
+        int available = writeOffset - readOffset;
+        if (available == 0) {
+            return in.read(b, off, len);
+        }
+
+        int length = Math.min(available, len);
+        System.arraycopy(buffer, readOffset, b, off, length);
+        readOffset += length;
+        return length;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+
+        int available = writeOffset - readOffset;
+        if (available == 0) {
+            return in.skip(n);
+        }
+
+        int skipped = (int) Math.min(available, n);
+        readOffset += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (writeOffset - readOffset) + in.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private boolean fill() throws IOException {
+        if (readOffset > 0) {
+            int remaining = writeOffset - readOffset;
+            System.arraycopy(buffer, readOffset, buffer, 0, remaining);
+            readOffset = 0;
+            writeOffset = remaining;
+        }
+
+        if (writeOffset == buffer.length) {
+            throw new IOException(format("HTTP/1.1 line exceeds %d bytes", buffer.length));
+        }
+
+        int bytesRead = in.read(buffer, writeOffset, buffer.length - writeOffset);
+        if (bytesRead == -1) {
+            return false;
+        }
+
+        writeOffset += bytesRead;
+        return true;
+    }
+
+    private static String ascii(byte[] bytes, int start, int end) {
+        char[] chars = new char[end - start];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) bytes[start + i];
+        }
+        return new String(chars);
+    }
+}
@@ -23,21 +23,29 @@ import static java.net.HttpURLConnection.HTTP_MOVED_TEMP;
 import static java.net.HttpURLConnection.HTTP_SEE_OTHER;
 import static java.net.HttpURLConnection.HTTP_UNAUTHORIZED;
 import static java.util.Arrays.fill;
+import static org.kaazing.netx.http.HttpURLConnection.HTTP_PERMANENT_REDIRECT;
 import static org.kaazing.netx.http.HttpURLConnection.HTTP_SWITCHING_PROTOCOLS;
+import static org.kaazing.netx.http.HttpURLConnection.HTTP_TEMPORARY_REDIRECT;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
+import java.lang.reflect.Field;
 import java.net.Authenticator;
 import java.net.CookieHandler;
 import java.net.HttpURLConnection;
 import java.net.PasswordAuthentication;
+import java.net.ProtocolException;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -45,9 +53,24 @@ import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+
+import org.kaazing.netx.TransportOptions;
+import org.kaazing.netx.http.HttpConnectionPool;
+import org.kaazing.netx.http.HttpCookieStore;
+import org.kaazing.netx.http.HttpCredentialCache;
+import org.kaazing.netx.http.HttpSocketPool;
+import org.kaazing.netx.http.auth.ChallengeHandler;
+import org.kaazing.netx.http.internal.auth.DigestCredentials;
+
 abstract class HttpURLConnectionHandler {
 
     private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    private static final int DISCARD_BUFFER_SIZE = 1024;
+    private static final int MAX_DRAIN_LENGTH = 65536;
+    private static final String HEADER_COOKIE = "Cookie";
 
     protected final HttpURLConnectionImpl connection;
 
@@ -65,12 +88,56 @@ abstract class HttpURLConnectionHandler {
 
     public abstract InputStream getErrorStream();
 
+    public Socket releaseSocket() throws IOException {
+        return null;
+    }
+
+    protected final void writeCookies(HttpRequestWriter writer, URL url, Map<String, List<String>> headers)
+            throws IOException {
+        HttpCookieStore cookieStore = connection.getCookieStore();
+        if (cookieStore != null) {
+            // encoded once per origin and path by the store
+            ByteBuffer cookie = cookieStore.getEncodedCookieHeader(url);
+            if (cookie != null) {
+                writer.header(HEADER_COOKIE, cookie);
+            }
+            return;
+        }
+
+        CookieHandler handler = CookieHandler.getDefault();
+        if (handler != null) {
+            Map<String, List<String>> cookieHeaders = handler.get(URI.create(url.toString()), headers);
+            for (Map.Entry<String, List<String>> entry : cookieHeaders.entrySet()) {
+                String headerName = entry.getKey();
+                for (String headerValue : entry.getValue()) {
+                    writer.header(headerName, headerValue);
+                }
+            }
+        }
+    }
+
+    static String getRequestFile(URL url) {
+        String path = url.getPath();
+        String query = TransportOptions.stripQuery(url.getQuery());
+        if (path.isEmpty()) {
+            path = "/";
+        }
+        return (query != null) ? path + "?" + query : path;
+    }
+
+    static boolean isChunked(String transferEncoding) {
+        // the chunked coding must be applied last, RFC 7230 section 3.3.1
+        int lastCodingAt = transferEncoding.lastIndexOf(',') + 1;
+        return "chunked".equalsIgnoreCase(transferEncoding.substring(lastCodingAt).trim());
+    }
+
     static class Default extends HttpURLConnectionHandler {
 
         private final HttpOriginSecuritySpi security;
 
         private HttpURLConnection delegate;
         private InputStream input;
+        private boolean requestBodySent;
 
         public Default(HttpURLConnectionImpl connection) {
             super(connection);
@@ -85,6 +152,7 @@ abstract class HttpURLConnectionHandler {
         @Override
         public void disconnect() {
             input = null;
+            requestBodySent = false;
             if (delegate != null) {
                 delegate.disconnect();
                 delegate = null;
@@ -95,12 +163,23 @@ abstract class HttpURLConnectionHandler {
         public InputStream getInputStream() throws IOException {
             if (input == null) {
                 HttpURLConnection delegate = delegate();
+                HttpRequestBody requestBody = connection.getRequestBody();
+                if (requestBody != null && !requestBodySent) {
+                    requestBodySent = true;
+                    OutputStream output = delegate.getOutputStream();
+                    requestBody.writeTo(output);
+                    output.close();
+                }
+
                 try {
                     input = delegate.getInputStream();
                 }
                 finally {
                     connection.setHeaderFields(delegate.getHeaderFields());
                     connection.setResponse(delegate.getResponseCode(), delegate.getResponseMessage());
+                    if (connection.getCookieStore() != null) {
+                        connection.storeCookies(delegate.getHeaderFields());
+                    }
                 }
             }
             return input;
@@ -118,7 +197,13 @@ abstract class HttpURLConnectionHandler {
 
         private HttpURLConnection delegate() throws IOException {
             if (this.delegate == null) {
-                HttpURLConnection delegate = security.openConnection(connection.getURL());
+                // socket options are managed by the JDK, only the netx.* query parameters are removed
+                URL url = connection.getURL();
+                if (url.getQuery() != null) {
+                    url = new URL(url, getRequestFile(url));
+                }
+
+                HttpURLConnection delegate = security.openConnection(url);
                 delegate.setAllowUserInteraction(connection.getAllowUserInteraction());
                 delegate.setConnectTimeout(connection.getConnectTimeout());
                 delegate.setDoInput(connection.getDoInput());
@@ -129,9 +214,19 @@ abstract class HttpURLConnectionHandler {
 
                 int chunkLength = connection.getChunkStreamingMode();
                 int fixedContentLength = connection.getFixedLengthStreamingMode();
+                HttpRequestBody requestBody = connection.getRequestBody();
                 if (chunkLength != -1) {
                     delegate.setChunkedStreamingMode(chunkLength);
                 }
+                else if (requestBody != null) {
+                    // streamed rather than buffered again by the JDK
+                    if (requestBody.length() <= Integer.MAX_VALUE) {
+                        delegate.setFixedLengthStreamingMode((int) requestBody.length());
+                    }
+                    else {
+                        delegate.setChunkedStreamingMode(0);
+                    }
+                }
                 else if (fixedContentLength != -1) {
                     delegate.setFixedLengthStreamingMode(fixedContentLength);
                 }
@@ -145,8 +240,20 @@ abstract class HttpURLConnectionHandler {
                     }
                 }
 
+                // the JDK only consults the system-wide cookie handler
+                HttpCookieStore cookieStore = connection.getCookieStore();
+                String cookie = (cookieStore != null) ? cookieStore.getCookieHeader(url) : null;
+                if (cookie != null) {
+                    delegate.addRequestProperty(HEADER_COOKIE, cookie);
+                }
+
                 delegate.setUseCaches(connection.getUseCaches());
 
+                SSLContext sslContext = connection.getSSLContext();
+                if (sslContext != null && delegate instanceof HttpsURLConnection) {
+                    ((HttpsURLConnection) delegate).setSSLSocketFactory(sslContext.getSocketFactory());
+                }
+
                 // auto-redirect disabled to apply redirect policy
                 delegate.setInstanceFollowRedirects(false);
 
@@ -156,11 +263,678 @@ abstract class HttpURLConnectionHandler {
         }
     }
 
+    static class Native extends HttpURLConnectionHandler {
+
+        private static final String HEADER_CONTENT_LENGTH = "Content-Length";
+        private static final String HEADER_TRANSFER_ENCODING = "Transfer-Encoding";
+        private static final String HTTP_1_0 = "HTTP/1.0";
+        private static final String HTTP_1_1 = "HTTP/1.1";
+
+        private final HttpOriginSecuritySpi security;
+        private final HttpConnectionPool pool;
+
+        private URL url;
+        private SSLContext sslContext;
+        private TransportOptions transportOptions;
+        private HttpKeepAliveConnection keepAlive;
+        private Http2Connection multiplexed;
+        private Http2Stream stream;
+        private boolean pooled;
+        private boolean stale;
+        private int sequence;
+        private ByteArrayOutputStream body;
+        private OutputStream output;
+        private ResponseInputStream input;
+        private InputStream error;
+
+        public Native(HttpURLConnectionImpl connection) {
+            super(connection);
+            security = HttpOriginSecuritySpi.newInstance();
+            pool = connection.getConnectionPool();
+            sequence = -1;
+        }
+
+        @Override
+        public void connect() throws IOException {
+            if (keepAlive == null && multiplexed == null) {
+                url = connection.getURL();
+                sslContext = connection.getSSLContext();
+                transportOptions = TransportOptions.fromQuery(url.getQuery(), connection.getTransportOptions());
+
+                // only requests without a body are pipelined, their responses are read in order
+                boolean pipeline = !connection.getDoOutput() && isIdempotent(connection.getRequestMethod());
+                HttpConnectionPool.Connection pooledConnection = pool.take(url, sslContext, transportOptions, pipeline);
+                pooled = pooledConnection != null;
+                if (pooledConnection == null) {
+                    pooledConnection = newConnection();
+                    if (pipeline || pooledConnection instanceof Http2Connection) {
+                        pool.share(url, sslContext, transportOptions, pooledConnection);
+                    }
+                }
+
+                attach(pooledConnection);
+
+                if (!connection.getDoOutput()) {
+                    sendRequest(null, 0);
+                }
+            }
+        }
+
+        @Override
+        public void disconnect() {
+            if (input != null) {
+                try {
+                    input.close();
+                }
+                catch (IOException e) {
+                    // ignore
+                }
+            }
+            else if (stream != null) {
+                if (sequence == -1) {
+                    multiplexed.cancel();
+                }
+                stream.close();
+                pool.release(url, sslContext, transportOptions, multiplexed);
+            }
+            else if (keepAlive != null) {
+                if (sequence == -1) {
+                    keepAlive.cancel();
+                    pool.release(url, sslContext, transportOptions, keepAlive);
+                }
+                else {
+                    // the unread response cannot be skipped without reading it
+                    keepAlive.close();
+                    keepAlive.complete(false);
+                    pool.release(url, sslContext, transportOptions, keepAlive);
+                }
+            }
+            keepAlive = null;
+            multiplexed = null;
+            stream = null;
+            body = null;
+            output = null;
+            input = null;
+            error = null;
+            sequence = -1;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            if (input == null) {
+                connect();
+
+                if (output != null) {
+                    output.close();
+                    if (stream != null) {
+                        // the request body ends with the stream
+                        stream.getOutputStream().close();
+                    }
+                }
+                else if (sequence == -1) {
+                    sendBody();
+                }
+
+                try {
+                    readResponse();
+                }
+                catch (IOException e) {
+                    // only a reused connection that failed before any response byte can be retried, and only
+                    // when resending cannot repeat a side effect
+                    boolean repeatable = !connection.getDoOutput() || isRepeatable(connection.getRequestMethod());
+                    if (!pooled || !stale || !repeatable || output != null || input != null || keepAlive == null) {
+                        throw e;
+                    }
+
+                    // the server closed the kept alive connection before receiving the request, retry once
+                    keepAlive.close();
+                    keepAlive.complete(false);
+                    keepAlive = null;
+                    HttpConnectionPool.Connection retryConnection = newConnection();
+                    if (retryConnection instanceof Http2Connection) {
+                        pool.share(url, sslContext, transportOptions, retryConnection);
+                    }
+                    attach(retryConnection);
+                    pooled = false;
+                    sequence = -1;
+                    connection.resetResponse();
+                    sendBody();
+                    readResponse();
+                }
+
+                int responseCode = connection.getResponseCode();
+                if (responseCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                    error = input;
+                    if (responseCode == HttpURLConnection.HTTP_NOT_FOUND || responseCode == HttpURLConnection.HTTP_GONE) {
+                        throw new FileNotFoundException(url.toString());
+                    }
+                    throw new IOException(format("Server returned HTTP response code: %d for URL: %s", responseCode, url));
+                }
+            }
+            return input;
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            if (!connection.getDoOutput()) {
+                throw new ProtocolException("Cannot write output when doOutput is false");
+            }
+
+            if (input != null) {
+                throw new ProtocolException("Cannot write output after reading input");
+            }
+
+            connect();
+
+            int fixedContentLength = connection.getFixedLengthStreamingMode();
+            if (stream != null) {
+                // streamed in DATA frames whatever the streaming mode, the end of the stream delimits the body
+                if (output == null) {
+                    sendRequest(null, fixedContentLength);
+                    OutputStream streamOutput = stream.getOutputStream();
+                    output = (fixedContentLength != -1) ?
+                            new FixedLengthOutputStream(streamOutput, fixedContentLength) : streamOutput;
+                }
+                return output;
+            }
+
+            if (fixedContentLength != -1) {
+                if (output == null) {
+                    sendRequest(null, fixedContentLength);
+                    output = new FixedLengthOutputStream(keepAlive.getOutputStream(), fixedContentLength);
+                }
+                return output;
+            }
+
+            int chunkLength = connection.getChunkStreamingMode();
+            if (chunkLength != -1) {
+                if (output == null) {
+                    sendRequest(null, -1);
+                    output = new HttpChunkedOutputStream(keepAlive.getOutputStream(), chunkLength);
+                }
+                return output;
+            }
+
+            // the body is sent with the request head once complete, so that its length is known
+            if (body == null) {
+                body = new ByteArrayOutputStream();
+            }
+            return body;
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return error;
+        }
+
+        private void attach(HttpConnectionPool.Connection pooledConnection) throws IOException {
+            if (pooledConnection instanceof Http2Connection) {
+                multiplexed = (Http2Connection) pooledConnection;
+                stream = multiplexed.newStream(connection.getReadTimeout());
+            }
+            else {
+                keepAlive = (HttpKeepAliveConnection) pooledConnection;
+            }
+        }
+
+        private HttpConnectionPool.Connection newConnection() throws IOException {
+            boolean http2 = connection.isHttp2Enabled();
+            Socket socket = null;
+            HttpSocketPool socketPool = connection.getSocketPool();
+            if (socketPool != null) {
+                socket = socketPool.take(url, sslContext, transportOptions);
+            }
+            if (socket == null) {
+                String[] applicationProtocols = http2 ? Http2Connection.APPLICATION_PROTOCOLS : null;
+                int connectTimeout = connection.getConnectTimeout();
+                if (!http2 && connection.getRequestBody() != null) {
+                    // sends the body with gathering writes or transferTo, the connection is then never pipelined
+                    socket = security.createChannelSocket(url, sslContext, connectTimeout, transportOptions);
+                }
+                else {
+                    socket = security.createSocket(url, sslContext, connectTimeout, transportOptions, applicationProtocols);
+                }
+            }
+            socket.setSoTimeout(connection.getReadTimeout());
+
+            // prior knowledge without TLS, otherwise only when selected by the server with ALPN
+            if (http2 && (!(socket instanceof SSLSocket) || Http2Connection.isSelected((SSLSocket) socket))) {
+                return new Http2Connection(socket);
+            }
+            return new HttpKeepAliveConnection(socket);
+        }
+
+        private void sendBody() throws IOException {
+            HttpRequestBody requestBody = connection.getRequestBody();
+            if (requestBody != null) {
+                sendRequest(requestBody);
+            }
+            else {
+                sendRequest((body != null) ? body.toByteArray() : new byte[0], (body != null) ? body.size() : 0);
+            }
+        }
+
+        private void sendRequest(byte[] content, int contentLength) throws IOException {
+            String method = getMethod();
+            if (stream != null) {
+                sendStreamRequest(method, content, contentLength);
+                return;
+            }
+
+            sequence = keepAlive.send(writeHead(method, contentLength), content, contentLength);
+        }
+
+        private void sendRequest(HttpRequestBody requestBody) throws IOException {
+            // the body length is known up front, so it is chunked only when asked to
+            int chunkLength = connection.getChunkStreamingMode();
+            long contentLength = (chunkLength != -1) ? -1L : requestBody.length();
+
+            String method = getMethod();
+            if (stream != null) {
+                sendStreamRequest(method, null, contentLength);
+                OutputStream streamOutput = stream.getOutputStream();
+                requestBody.writeTo(streamOutput);
+                streamOutput.close();
+                return;
+            }
+
+            sequence = keepAlive.send(writeHead(method, contentLength), requestBody, chunkLength);
+        }
+
+        private String getMethod() {
+            String method = connection.getRequestMethod();
+            if (connection.getDoOutput() && "GET".equals(method)) {
+                method = "POST";
+            }
+            return method;
+        }
+
+        private HttpRequestWriter writeHead(String method, long contentLength) throws IOException {
+            int port = url.getPort();
+            if (port == -1) {
+                port = url.getDefaultPort();
+            }
+
+            Map<String, List<String>> headers = connection.getCachedRequestProperties();
+
+            HttpRequestWriter writer = new HttpRequestWriter();
+            writer.requestLine(method, getRequestFile(url));
+            writer.host(url.getHost(), port);
+            for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+                String headerName = entry.getKey();
+                if (!HEADER_CONTENT_LENGTH.equalsIgnoreCase(headerName) &&
+                    !HEADER_TRANSFER_ENCODING.equalsIgnoreCase(headerName)) {
+                    for (String headerValue : entry.getValue()) {
+                        writer.header(headerName, headerValue);
+                    }
+                }
+            }
+
+            writeCookies(writer, url, headers);
+
+            if (connection.getDoOutput()) {
+                if (contentLength != -1) {
+                    writer.header(HEADER_CONTENT_LENGTH, Long.toString(contentLength));
+                }
+                else {
+                    writer.header(HEADER_TRANSFER_ENCODING, "chunked");
+                }
+            }
+            return writer;
+        }
+
+        private void sendStreamRequest(String method, byte[] content, long contentLength) throws IOException {
+            int port = url.getPort();
+            if (port == -1) {
+                port = url.getDefaultPort();
+            }
+
+            Map<String, List<String>> headers = connection.getCachedRequestProperties();
+
+            List<String[]> fields = new ArrayList<String[]>();
+            fields.add(new String[] { ":method", method });
+            fields.add(new String[] { ":scheme", url.getProtocol().toLowerCase() });
+            fields.add(new String[] { ":authority", url.getHost() + ':' + port });
+            fields.add(new String[] { ":path", getRequestFile(url) });
+            for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+                String headerName = entry.getKey();
+                if (headerName != null && !isConnectionSpecific(headerName)) {
+                    for (String headerValue : entry.getValue()) {
+                        fields.add(new String[] { headerName.toLowerCase(), headerValue });
+                    }
+                }
+            }
+
+            HttpCookieStore cookieStore = connection.getCookieStore();
+            if (cookieStore != null) {
+                String cookie = cookieStore.getCookieHeader(url);
+                if (cookie != null) {
+                    fields.add(new String[] { "cookie", cookie });
+                }
+            }
+            else {
+                CookieHandler handler = CookieHandler.getDefault();
+                if (handler != null) {
+                    Map<String, List<String>> cookieHeaders = handler.get(URI.create(url.toString()), headers);
+                    for (Map.Entry<String, List<String>> entry : cookieHeaders.entrySet()) {
+                        String headerName = entry.getKey().toLowerCase();
+                        for (String headerValue : entry.getValue()) {
+                            fields.add(new String[] { headerName, headerValue });
+                        }
+                    }
+                }
+            }
+
+            if (connection.getDoOutput() && contentLength != -1) {
+                fields.add(new String[] { "content-length", Long.toString(contentLength) });
+            }
+
+            // without content, the body is streamed once the headers are sent
+            boolean endStream = (content != null) ? contentLength == 0 : !connection.getDoOutput();
+            stream.sendHeaders(fields, endStream);
+            sequence = stream.getId();
+
+            if (content != null && contentLength != 0) {
+                OutputStream streamOutput = stream.getOutputStream();
+                streamOutput.write(content, 0, (int) contentLength);
+                streamOutput.close();
+            }
+        }
+
+        private void readResponse() throws IOException {
+            if (stream != null) {
+                readStreamResponse();
+                return;
+            }
+
+            keepAlive.awaitResponse(sequence, connection.getReadTimeout());
+            HttpResponseInputStream response = keepAlive.getInputStream();
+
+            String start = readStatusLine(response);
+            int responseCode;
+            do {
+                if (start == null || start.isEmpty()) {
+                    throw new IOException("Connection closed before response");
+                }
+                responseCode = parseStatusCode(start);
+
+                // skip interim responses, such as 100 Continue
+                if (responseCode >= 100 && responseCode < 200) {
+                    for (String header = response.readLine(); header != null && !header.isEmpty(); ) {
+                        header = response.readLine();
+                    }
+                    start = response.readLine();
+                }
+            } while (responseCode >= 100 && responseCode < 200);
+
+            connection.addHeaderField(null, start);
+            connection.setResponse(responseCode, Upgradeable.parseResponseMessage(start));
+
+            // HTTP/1.0 connections close after the response unless the server asks otherwise
+            boolean http10 = start.startsWith(HTTP_1_0);
+            boolean connectionClose = false;
+            boolean connectionKeepAlive = false;
+            boolean transferCoded = false;
+            boolean chunked = false;
+            boolean cookies = false;
+            long contentLength = -1L;
+
+            for (String header = response.readLine(); header != null && !header.isEmpty(); header = response.readLine()) {
+                int colonAt = header.indexOf(':');
+                if (colonAt == -1) {
+                    throw new IOException("Bad HTTP/1.1 syntax");
+                }
+                String name = header.substring(0, colonAt).trim();
+                String value = header.substring(colonAt + 1).trim();
+                if ("Connection".equalsIgnoreCase(name)) {
+                    for (String token : value.split(",")) {
+                        connectionClose |= "close".equalsIgnoreCase(token.trim());
+                        connectionKeepAlive |= "keep-alive".equalsIgnoreCase(token.trim());
+                    }
+                }
+                else if (HEADER_CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                    contentLength = Upgradeable.parseContentLength(value);
+                }
+                else if ("Transfer-Encoding".equalsIgnoreCase(name)) {
+                    transferCoded = true;
+                    chunked = isChunked(value);
+                }
+                else if ("Set-Cookie".equalsIgnoreCase(name) || "Set-Cookie2".equalsIgnoreCase(name)) {
+                    cookies = true;
+                }
+                connection.addHeaderField(name, value);
+            }
+
+            if (cookies) {
+                connection.storeCookies();
+            }
+
+            boolean keepAliveHeader = !connectionClose && (!http10 || connectionKeepAlive);
+            boolean bodyless = "HEAD".equals(connection.getRequestMethod()) ||
+                    responseCode == HttpURLConnection.HTTP_NO_CONTENT || responseCode == HttpURLConnection.HTTP_NOT_MODIFIED;
+
+            if (bodyless) {
+                input = new ResponseInputStream(response, 0L, keepAliveHeader);
+            }
+            else if (chunked) {
+                input = new ResponseInputStream(new HttpChunkedInputStream(response), -1L, keepAliveHeader);
+            }
+            else if (contentLength != -1L && !transferCoded) {
+                input = new ResponseInputStream(response, contentLength, keepAliveHeader);
+            }
+            else {
+                // delimited by the end of stream, the connection cannot be reused
+                input = new ResponseInputStream(response, -1L, false);
+            }
+        }
+
+        private void readStreamResponse() throws IOException {
+            int responseCode = stream.awaitResponse();
+
+            // HTTP/2 has no reason phrase
+            connection.addHeaderField(null, "HTTP/2 " + responseCode);
+            connection.setResponse(responseCode, null);
+
+            boolean cookies = false;
+            for (String[] header : stream.getHeaders()) {
+                cookies |= "set-cookie".equals(header[0]) || "set-cookie2".equals(header[0]);
+                connection.addHeaderField(header[0], header[1]);
+            }
+
+            if (cookies) {
+                connection.storeCookies();
+            }
+
+            boolean bodyless = "HEAD".equals(connection.getRequestMethod()) ||
+                    responseCode == HttpURLConnection.HTTP_NO_CONTENT || responseCode == HttpURLConnection.HTTP_NOT_MODIFIED;
+
+            // delimited by the end of the stream, which leaves the connection open for other streams
+            input = new ResponseInputStream(stream.getInputStream(), bodyless ? 0L : -1L, true);
+        }
+
+        private void release(boolean reusable) {
+            if (stream != null) {
+                // a stream given up before its end is reset, the connection still carries other streams
+                stream.close();
+                pool.release(url, sslContext, transportOptions, multiplexed);
+                return;
+            }
+
+            keepAlive.complete(reusable);
+            pool.release(url, sslContext, transportOptions, keepAlive);
+        }
+
+        private static boolean isIdempotent(String method) {
+            return "GET".equals(method) || "HEAD".equals(method);
+        }
+
+        private static boolean isRepeatable(String method) {
+            return isIdempotent(method) || "PUT".equals(method) || "DELETE".equals(method) ||
+                    "OPTIONS".equals(method) || "TRACE".equals(method);
+        }
+
+        private String readStatusLine(HttpResponseInputStream response) throws IOException {
+            // a reused connection is stale when it fails before the first response byte, never on a timeout
+            stale = false;
+            try {
+                String start = response.readLine();
+                stale = start == null;
+                return start;
+            }
+            catch (SocketTimeoutException e) {
+                throw e;
+            }
+            catch (IOException e) {
+                stale = response.buffered() == 0;
+                throw e;
+            }
+        }
+
+        private static int parseStatusCode(String start) throws IOException {
+            boolean http10 = start.startsWith(HTTP_1_0);
+            if (!http10 && !start.startsWith(HTTP_1_1) ||
+                    start.length() < HTTP_1_1.length() + 4 || start.charAt(HTTP_1_1.length()) != ' ') {
+                throw new IOException(format("Bad HTTP status line: %s", start));
+            }
+
+            int codeAt = HTTP_1_1.length() + 1;
+            char c0 = start.charAt(codeAt);
+            char c1 = start.charAt(codeAt + 1);
+            char c2 = start.charAt(codeAt + 2);
+            if (c0 < '1' || c0 > '5' || c1 < '0' || c1 > '9' || c2 < '0' || c2 > '9' ||
+                    codeAt + 3 < start.length() && start.charAt(codeAt + 3) != ' ') {
+                throw new IOException(format("Bad HTTP status line: %s", start));
+            }
+
+            return (c0 - '0') * 100 + (c1 - '0') * 10 + (c2 - '0');
+        }
+
+        private static boolean isConnectionSpecific(String headerName) {
+            return HEADER_CONTENT_LENGTH.equalsIgnoreCase(headerName) ||
+                    HEADER_TRANSFER_ENCODING.equalsIgnoreCase(headerName) ||
+                    "Connection".equalsIgnoreCase(headerName) ||
+                    "Keep-Alive".equalsIgnoreCase(headerName) ||
+                    "Proxy-Connection".equalsIgnoreCase(headerName) ||
+                    "Upgrade".equalsIgnoreCase(headerName) ||
+                    "Host".equalsIgnoreCase(headerName);
+        }
+
+        private final class ResponseInputStream extends InputStream {
+
+            private final InputStream in;
+            private final boolean reusable;
+
+            private long remaining;
+            private boolean finished;
+
+            ResponseInputStream(InputStream in, long length, boolean reusable) {
+                this.in = in;
+                this.remaining = length;
+                this.reusable = reusable;
+
+                if (length == 0L) {
+                    finish(reusable);
+                }
+            }
+
+            @Override
+            public int read() throws IOException {
+                if (finished) {
+                    return -1;
+                }
+
+                int b = in.read();
+                if (b == -1) {
+                    finish(reusable && remaining == -1L);
+                    return -1;
+                }
+
+                if (remaining != -1L && --remaining == 0L) {
+                    finish(reusable);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (finished) {
+                    return -1;
+                }
+
+                if (len == 0) {
+                    return 0;
+                }
+
+                int maxLength = (remaining != -1L) ? (int) Math.min(len, remaining) : len;
+                int length;
+                try {
+                    length = in.read(b, off, maxLength);
+                }
+                catch (IOException e) {
+                    finish(false);
+                    throw e;
+                }
+
+                if (length == -1) {
+                    finish(reusable && remaining == -1L);
+                    return -1;
+                }
+
+                if (remaining != -1L) {
+                    remaining -= length;
+                    if (remaining == 0L) {
+                        finish(reusable);
+                    }
+                }
+                return length;
+            }
+
+            @Override
+            public int available() throws IOException {
+                if (finished) {
+                    return 0;
+                }
+                int available = in.available();
+                return (remaining != -1L) ? (int) Math.min(available, remaining) : available;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (finished) {
+                    return;
+                }
+
+                // read small remainders so that the connection can be reused, otherwise give it up
+                if (reusable && remaining != -1L && remaining <= MAX_DRAIN_LENGTH) {
+                    byte[] discard = new byte[DISCARD_BUFFER_SIZE];
+                    while (!finished && read(discard, 0, discard.length) != -1) {
+                        // discard
+                    }
+                }
+                else {
+                    finish(false);
+                }
+            }
+
+            private void finish(boolean reuse) {
+                if (!finished) {
+                    finished = true;
+                    release(reuse);
+                }
+            }
+        }
+    }
+
     static class Upgradeable extends HttpURLConnectionHandler {
 
-        private static final Pattern PATTERN_START = Pattern.compile("HTTP\\/1\\.1\\s+([1-5]\\d\\d)\\s+(.*)");
+        private static final String HTTP_1_0 = "HTTP/1.0";
+        private static final String HTTP_1_1 = "HTTP/1.1";
+        private static final int STATUS_LINE_MIN_LENGTH = HTTP_1_1.length() + 4;
         private static final Pattern PATTERN_BASIC_CHALLENGE = Pattern.compile("Basic(?: realm=\"([^\"]+)\")?");
         private static final Pattern PATTERN_APPLICATION_CHALLENGE = Pattern.compile("Application ([a-zA-Z_]*)\\s?(.*)");
+        private static final Pattern PATTERN_DIGEST_CHALLENGE = Pattern.compile("Digest\\s+(.*)");
+        private static final int EARLY_DATA_BUFFER_SIZE = 8192;
+        private static final String HEADER_AUTHORIZATION = "Authorization";
 
         private static enum State { INITIAL, HANDSHAKE_SENT, HANDSHAKE_RECEIVED }
 
@@ -171,11 +945,21 @@ abstract class HttpURLConnectionHandler {
         private InputStream input;
         private OutputStream output;
         private InputStream error;
+        private long keepAliveLength;
+        private boolean keepAliveChunked;
+        private String authorization;
+        private HttpCredentialCache.Authorization preemptiveAuthorization;
 
         public Upgradeable(HttpURLConnectionImpl connection) {
+            this(connection, null);
+        }
+
+        public Upgradeable(HttpURLConnectionImpl connection, Socket socket) {
             super(connection);
             security = HttpOriginSecuritySpi.newInstance();
             state = State.INITIAL;
+            keepAliveLength = -1L;
+            this.socket = socket;
         }
 
         @Override
@@ -191,37 +975,70 @@ abstract class HttpURLConnectionHandler {
                     port = url.getDefaultPort();
                 }
 
-                socket = security.createSocket(url);
+                SSLContext sslContext = connection.getSSLContext();
+                int connectTimeout = connection.getConnectTimeout();
+                TransportOptions transportOptions = TransportOptions.fromQuery(url.getQuery(), connection.getTransportOptions());
+
+                // a socket kept alive by a previous challenge or redirect response is reused as is
+                if (socket == null) {
+                    HttpSocketPool socketPool = connection.getSocketPool();
+                    socket = (socketPool != null) ? socketPool.take(url, sslContext, transportOptions) : null;
+                }
+                if (socket == null) {
+                    socket = security.createSocket(url, sslContext, connectTimeout, transportOptions);
+                }
+                socket.setSoTimeout(connection.getReadTimeout());
                 output = new TcpOutputStream(socket);
 
+                if (connection.isEarlyDataEnabled()) {
+                    // hold back the request head so that it leaves together with the first early data
+                    output = new BufferedOutputStream(output, EARLY_DATA_BUFFER_SIZE);
+                }
+
                 String method = connection.getRequestMethod();
                 Map<String, List<String>> headers = connection.getCachedRequestProperties();
 
-                Writer writer = new OutputStreamWriter(output, US_ASCII);
-                writer.write(format("%s %s HTTP/1.1\r\n", method, url.getFile()));
-                writer.write(format("Host: %s:%s\r\n", host, port));
+                HttpRequestWriter writer = new HttpRequestWriter();
+                writer.requestLine(method, getRequestFile(url));
+                writer.host(host, port);
+                authorization = null;
                 for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
                     String headerName = entry.getKey();
                     List<String> headerValues = entry.getValue();
                     for (String headerValue: headerValues) {
-                        writer.write(format("%s: %s\r\n", headerName, headerValue));
+                        writer.header(headerName, headerValue);
+                    }
+                    if (HEADER_AUTHORIZATION.equalsIgnoreCase(headerName) && !headerValues.isEmpty()) {
+                        authorization = headerValues.get(0);
                     }
                 }
 
-                CookieHandler handler = CookieHandler.getDefault();
-                if (handler != null) {
-                    Map<String, List<String>> cookieHeaders = handler.get(URI.create(url.toString()), headers);
-                    for (Map.Entry<String, List<String>> entry : cookieHeaders.entrySet()) {
-                        String headerName = entry.getKey();
-                        List<String> headerValues = entry.getValue();
-                        for (String headerValue: headerValues) {
-                            writer.write(format("%s: %s\r\n", headerName, headerValue));
-                        }
+                // skip the challenge round trip when the origin has already been authenticated
+                HttpCredentialCache credentialCache = connection.getCredentialCache();
+                preemptiveAuthorization = null;
+                if (authorization == null && credentialCache != null) {
+                    // only credentials supplied by whoever would answer the challenge of this connection
+                    ChallengeHandler challengeHandler = connection.getChallengeHandler();
+                    if (challengeHandler != null) {
+                        preemptiveAuthorization = credentialCache.getAuthorization(method, url, challengeHandler);
+                    }
+                    Object authenticator = getDefaultAuthenticator();
+                    if (preemptiveAuthorization == null && authenticator != null) {
+                        preemptiveAuthorization = credentialCache.getAuthorization(method, url, authenticator);
+                    }
+                    if (preemptiveAuthorization != null) {
+                        writer.header(HEADER_AUTHORIZATION, preemptiveAuthorization.getValue());
                     }
                 }
 
-                writer.write("\r\n");
-                writer.flush();
+                writeCookies(writer, url, headers);
+
+                if (connection.isEarlyDataEnabled()) {
+                    writer.appendTo(output);
+                }
+                else {
+                    writer.writeTo(output);
+                }
 
                 state = State.HANDSHAKE_SENT;
                 break;
@@ -246,9 +1063,57 @@ abstract class HttpURLConnectionHandler {
             catch (IOException e) {
                 // ignore
             }
+            socket = null;
+            input = null;
+            output = null;
+            keepAliveLength = -1L;
+            keepAliveChunked = false;
             state = State.INITIAL;
         }
 
+        @Override
+        public Socket releaseSocket() throws IOException {
+            if (keepAliveLength < 0L || keepAliveLength > MAX_DRAIN_LENGTH) {
+                // a long body is not worth draining, the socket is closed instead
+                return null;
+            }
+
+            // discard the response body so that the next response starts at the head of the stream
+            byte[] discard = new byte[DISCARD_BUFFER_SIZE];
+            for (long remaining = keepAliveLength; remaining > 0L; ) {
+                int length = input.read(discard, 0, (int) Math.min(discard.length, remaining));
+                if (length == -1) {
+                    return null;
+                }
+                remaining -= length;
+            }
+
+            if (keepAliveChunked) {
+                HttpChunkedInputStream chunked = new HttpChunkedInputStream((HttpResponseInputStream) input);
+                long drained = 0L;
+                for (ByteBuffer slice = chunked.readSlice(); slice != null; slice = chunked.readSlice()) {
+                    drained += slice.remaining();
+                    if (drained > MAX_DRAIN_LENGTH) {
+                        return null;
+                    }
+                }
+            }
+
+            if (input.available() != 0) {
+                // unexpected bytes after the response body
+                return null;
+            }
+
+            Socket released = socket;
+            socket = null;
+            input = null;
+            output = null;
+            keepAliveLength = -1L;
+            keepAliveChunked = false;
+            state = State.INITIAL;
+            return released;
+        }
+
         @Override
         public InputStream getInputStream() throws IOException {
             // ensure connected
@@ -256,35 +1121,54 @@ abstract class HttpURLConnectionHandler {
 
             switch (state) {
             case HANDSHAKE_SENT:
-                input = new TcpInputStream(socket);
+                // send any held back request head before waiting for the response
+                output.flush();
 
-                @SuppressWarnings("resource")
-                LineReader reader = new LineReader(input);
-
-                String start = reader.readLine();
-                connection.addHeaderField(null, start);
+                // bytes received after the response head (such as early frames) stay buffered in input
+                HttpResponseInputStream response = new HttpResponseInputStream(new TcpInputStream(socket));
+                input = response;
 
+                String start = response.readLine();
                 if ((start == null) || start.isEmpty()) {
                     throw new IllegalStateException("Bad HTTP/1.1 syntax");
                 }
-                Matcher startMatcher = PATTERN_START.matcher(start);
-                if (!startMatcher.matches()) {
-                    throw new IllegalStateException("Bad HTTP/1.1 syntax");
-                }
-                int responseCode = parseInt(startMatcher.group(1));
-                String responseMessage = startMatcher.group(2);
+                connection.addHeaderField(null, start);
+
+                int responseCode = parseResponseCode(start);
+                String responseMessage = parseResponseMessage(start);
                 connection.setResponse(responseCode, responseMessage);
 
                 Map<String, List<String>> cookies = null;
                 List<String> challenges = null;
-
-                for (String header = reader.readLine(); !header.isEmpty() && header != null; header = reader.readLine()) {
+                // HTTP/1.0 connections close after the response unless the server asks otherwise
+                boolean http10 = start.startsWith(HTTP_1_0);
+                boolean keepAlive = true;
+                boolean keepAliveRequested = false;
+                boolean chunked = false;
+                long contentLength = -1L;
+
+                for (String header = response.readLine(); header != null && !header.isEmpty(); header = response.readLine()) {
                     int colonAt = header.indexOf(':');
                     if (colonAt == -1) {
                         throw new IllegalStateException("Bad HTTP/1.1 syntax");
                     }
                     String name = header.substring(0, colonAt).trim();
                     String value = header.substring(colonAt + 1).trim();
+                    // detect whether the connection survives the response
+                    if ("Connection".equalsIgnoreCase(name)) {
+                        for (String token : value.split(",")) {
+                            keepAlive &= !"close".equalsIgnoreCase(token.trim());
+                            keepAliveRequested |= "keep-alive".equalsIgnoreCase(token.trim());
+                        }
+                    }
+                    else if ("Content-Length".equalsIgnoreCase(name)) {
+                        contentLength = parseContentLength(value);
+                    }
+                    else if ("Transfer-Encoding".equalsIgnoreCase(name)) {
+                        // only the chunked coding can be skipped without closing the connection
+                        chunked = isChunked(value);
+                        keepAlive &= chunked;
+                    }
                     // detect cookies
                     if ("Set-Cookie".equalsIgnoreCase(name) || "Set-Cookie2".equalsIgnoreCase(name)) {
                         if (cookies == null) {
@@ -309,23 +1193,35 @@ abstract class HttpURLConnectionHandler {
                 }
 
                 if (cookies != null && !cookies.isEmpty()) {
-                    CookieHandler handler = CookieHandler.getDefault();
-                    if (handler != null) {
-                        connection.storeCookies(handler);
-                    }
+                    connection.storeCookies(cookies);
                 }
 
                 state = State.HANDSHAKE_RECEIVED;
+                keepAlive &= responseCode != HTTP_SWITCHING_PROTOCOLS && (!http10 || keepAliveRequested);
+                keepAliveLength = keepAlive ? (chunked ? 0L : contentLength) : -1L;
+                keepAliveChunked = keepAlive && chunked;
 
                 switch (responseCode) {
                 case HTTP_SWITCHING_PROTOCOLS:
+                    cacheAuthorization();
+                    break;
                 case HTTP_MOVED_PERM:
                 case HTTP_MOVED_TEMP:
                 case HTTP_SEE_OTHER:
+                case HTTP_TEMPORARY_REDIRECT:
+                case HTTP_PERMANENT_REDIRECT:
                     break;
                 case HTTP_UNAUTHORIZED:
+                    if (preemptiveAuthorization != null) {
+                        // the cached credentials are stale, answer the challenge instead
+                        connection.getCredentialCache().remove(preemptiveAuthorization);
+                        preemptiveAuthorization = null;
+                    }
+
                     // Note: check maximum attempts
-                    processChallenges(challenges);
+                    if (!connection.isEarlyDataEnabled()) {
+                        processChallenges(challenges);
+                    }
                     break;
                 default:
                     throw new IllegalStateException(format("Upgrade failed (%d)", responseCode));
@@ -342,6 +1238,15 @@ abstract class HttpURLConnectionHandler {
         @Override
         public OutputStream getOutputStream() throws IOException {
 
+            if (connection.isEarlyDataEnabled()) {
+                // ensure write connected, the response is read later
+                connect();
+
+                if (state == State.HANDSHAKE_SENT) {
+                    return output;
+                }
+            }
+
             // ensure read/write connected
             getInputStream();
 
@@ -362,8 +1267,9 @@ abstract class HttpURLConnectionHandler {
         private void processChallenges(List<String> challenges) throws IOException {
             if (challenges != null) {
                 for (String challenge : challenges) {
-                    // TODO: digest, negotiate (!)
+                    // TODO: negotiate (!)
                     Matcher matcher = PATTERN_BASIC_CHALLENGE.matcher(challenge);
+                    Matcher digestMatcher = PATTERN_DIGEST_CHALLENGE.matcher(challenge);
                     if (matcher.matches()) {
                         String realm = matcher.group(1);
                         URL url = connection.getURL();
@@ -375,16 +1281,52 @@ abstract class HttpURLConnectionHandler {
                         }
 
                         assert authentication != null;
-                        state = State.INITIAL;
+                        Socket reusable = releaseSocket();
+                        disconnect();
+                        socket = reusable;
+                        connection.resetResponse();
                         String username = authentication.getUserName();
                         char[] password = authentication.getPassword();
+                        byte[] credentials = format("%s:%s", username, new String(password)).getBytes(US_ASCII);
                         fill(password, '0');
-                        byte[] credentials = format("%s:%s", username, password).getBytes(US_ASCII);
-                        String authorization = new String(Base64.encode(credentials), US_ASCII);
-                        connection.setRequestProperty("Authorization", format("Basic %s", authorization));
+                        String encoded = new String(Base64.encode(credentials), US_ASCII);
+                        connection.setRequestProperty(HEADER_AUTHORIZATION, format("Basic %s", encoded));
+                        connection.setAuthenticationSpace("Basic", realm, null, getDefaultAuthenticator());
 
                         // Trigger next request with "Authorization" header set.
                         getInputStream();
+                        return;
+                    }
+                    else if (digestMatcher.matches()) {
+                        Map<String, String> parameters = DigestCredentials.parseParameters(digestMatcher.group(1));
+                        if (!DigestCredentials.isSupported(parameters)) {
+                            // unsupported algorithm or quality of protection, try the next challenge
+                            continue;
+                        }
+
+                        String realm = parameters.get("realm");
+                        URL url = connection.getURL();
+                        PasswordAuthentication authentication = requestPasswordAuthentication(url, realm, "Digest");
+                        if (authentication == null) {
+                            throw new IllegalStateException("Digest Challenge Failed");
+                        }
+
+                        String username = authentication.getUserName();
+                        char[] password = authentication.getPassword();
+                        DigestCredentials credentials = DigestCredentials.newInstance(parameters, username, password);
+                        fill(password, '0');
+
+                        Socket reusable = releaseSocket();
+                        disconnect();
+                        socket = reusable;
+                        connection.resetResponse();
+                        String method = connection.getRequestMethod();
+                        connection.setRequestProperty(HEADER_AUTHORIZATION, credentials.authorize(method, url));
+                        connection.setAuthenticationSpace("Digest", realm, credentials, getDefaultAuthenticator());
+
+                        // Trigger next request with "Authorization" header set.
+                        getInputStream();
+                        return;
                     }
                     else if (PATTERN_APPLICATION_CHALLENGE.matcher(challenge).matches()) {
                         state = State.INITIAL;
@@ -393,11 +1335,98 @@ abstract class HttpURLConnectionHandler {
                         // trigger the next request after setting the
                         // "Authorization" header.
                         connection.processApplicationChallenge(challenge);
+                        return;
                     }
                 }
             }
         }
 
+        // status-line = HTTP-version SP status-code SP reason-phrase
+        private static int parseResponseCode(String start) {
+            if (start.length() < STATUS_LINE_MIN_LENGTH || !(start.startsWith(HTTP_1_1) || start.startsWith(HTTP_1_0)) ||
+                    start.charAt(HTTP_1_1.length()) != ' ') {
+                throw new IllegalStateException("Bad HTTP/1.1 syntax");
+            }
+
+            int codeAt = HTTP_1_1.length() + 1;
+            while (codeAt < start.length() && start.charAt(codeAt) == ' ') {
+                codeAt++;
+            }
+
+            if (codeAt + 3 > start.length()) {
+                throw new IllegalStateException("Bad HTTP/1.1 syntax");
+            }
+
+            char c0 = start.charAt(codeAt);
+            char c1 = start.charAt(codeAt + 1);
+            char c2 = start.charAt(codeAt + 2);
+            if (c0 < '1' || c0 > '5' || c1 < '0' || c1 > '9' || c2 < '0' || c2 > '9') {
+                throw new IllegalStateException("Bad HTTP/1.1 syntax");
+            }
+
+            if (codeAt + 3 < start.length() && start.charAt(codeAt + 3) != ' ') {
+                throw new IllegalStateException("Bad HTTP/1.1 syntax");
+            }
+
+            return (c0 - '0') * 100 + (c1 - '0') * 10 + (c2 - '0');
+        }
+
+        private static String parseResponseMessage(String start) {
+            int codeAt = start.indexOf(' ') + 1;
+            while (start.charAt(codeAt) == ' ') {
+                codeAt++;
+            }
+            int messageAt = codeAt + 3;
+            while (messageAt < start.length() && start.charAt(messageAt) == ' ') {
+                messageAt++;
+            }
+            return start.substring(messageAt);
+        }
+
+        private void cacheAuthorization() {
+            HttpCredentialCache credentialCache = connection.getCredentialCache();
+            String scheme = connection.getAuthenticationScheme();
+            Object scope = connection.getAuthenticationScope();
+            if (credentialCache != null && authorization != null && scheme != null && scope != null) {
+                URL url = connection.getURL();
+                String realm = connection.getAuthenticationRealm();
+                HttpCredentialCache.Credentials credentials = connection.getAuthenticationCredentials();
+                if (credentials != null) {
+                    credentialCache.put(url, scope, scheme, realm, credentials);
+                }
+                else {
+                    credentialCache.put(url, scope, scheme, realm, authorization);
+                }
+            }
+        }
+
+        private static long parseContentLength(String value) {
+            try {
+                return Long.parseLong(value);
+            }
+            catch (NumberFormatException e) {
+                return -1L;
+            }
+        }
+
+        // Authenticator.getDefault() is only public since Java 9
+        private static Object getDefaultAuthenticator() {
+            try {
+                try {
+                    return Authenticator.class.getMethod("getDefault").invoke(null);
+                }
+                catch (NoSuchMethodException e) {
+                    Field field = Authenticator.class.getDeclaredField("theAuthenticator");
+                    field.setAccessible(true);
+                    return field.get(null);
+                }
+            }
+            catch (Exception e) {
+                // unknown authenticator, its credentials are not cached
+                return null;
+            }
+        }
+
         private static PasswordAuthentication requestPasswordAuthentication(URL url, String realm, String scheme) {
             String host = url.getHost();
             int port = url.getPort();
@@ -510,4 +1539,57 @@ abstract class HttpURLConnectionHandler {
         }
 
     }
+
+    private static final class FixedLengthOutputStream extends OutputStream {
+
+        private final OutputStream output;
+
+        private long remaining;
+        private boolean closed;
+
+        public FixedLengthOutputStream(OutputStream output, long length) {
+            this.output = output;
+            this.remaining = length;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            ensureWritable(1);
+            output.write(b);
+            remaining--;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ensureWritable(len);
+            output.write(b, off, len);
+            remaining -= len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            output.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                if (remaining != 0L) {
+                    throw new IOException(format("Insufficient data written, %d byte(s) remaining", remaining));
+                }
+                // the connection stays open for the response
+                output.flush();
+            }
+        }
+
+        private void ensureWritable(int length) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (length > remaining) {
+                throw new IOException("Too many bytes written for fixed length streaming mode");
+            }
+        }
+    }
 }
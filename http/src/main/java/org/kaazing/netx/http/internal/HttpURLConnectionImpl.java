@@ -17,25 +17,38 @@
 package org.kaazing.netx.http.internal;
 
 import static java.lang.String.format;
+import static org.kaazing.netx.http.HttpRedirectPolicy.ORIGIN;
 import static org.kaazing.netx.http.internal.HttpRedirectPolicyUtils.shouldFollowRedirect;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.CookieHandler;
+import java.net.ProtocolException;
+import java.net.Socket;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLStreamHandler;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.kaazing.netx.http.HttpConnectionPool;
+import org.kaazing.netx.http.HttpCookieStore;
+import org.kaazing.netx.http.HttpCredentialCache;
+import org.kaazing.netx.http.HttpRedirectCache;
+import org.kaazing.netx.http.HttpRequestCoalescer;
+import org.kaazing.netx.http.HttpResponseCache;
 import org.kaazing.netx.http.HttpURLConnection;
 import org.kaazing.netx.http.auth.ChallengeHandler;
 import org.kaazing.netx.http.auth.ChallengeRequest;
 import org.kaazing.netx.http.auth.ChallengeResponse;
+import org.kaazing.netx.http.internal.auth.RealmUtils;
 
 final class HttpURLConnectionImpl extends HttpURLConnection {
     private static final Pattern PATTERN_APPLICATION_CHALLENGE = Pattern.compile("Application ([a-zA-Z_]*)\\s?(.*)");
@@ -44,6 +57,15 @@ final class HttpURLConnectionImpl extends HttpURLConnection {
     private static final String HEADER_UPGRADE = "Upgrade";
     private static final String HEADER_AUTHENTICATION = "WWW-Authenticate";
     private static final String HEADER_AUTHORIZATION = "Authorization";
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    private static final String HEADER_CONTENT_LENGTH = "Content-Length";
+    private static final String ACCEPT_ENCODING_GZIP_DEFLATE = "gzip, deflate";
+    private static final String HEADER_CACHE_CONTROL = "Cache-Control";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+    private static final String HEADER_RANGE = "Range";
+    private static final int MAX_CACHED_REDIRECTS = 8;
 
     private final HttpHeaderFields cachedRequestProperties;
     private final HttpHeaderFields headerFields;
@@ -52,12 +74,32 @@ final class HttpURLConnectionImpl extends HttpURLConnection {
 
     private int connectTimeout;
     private int readTimeout;
+    private String authenticationScheme;
+    private String authenticationRealm;
+    private HttpCredentialCache.Credentials authenticationCredentials;
+    private Object authenticationScope;
+    private boolean acceptEncodingAdded;
+    private InputStream encodedInput;
+    private HttpContentDecodingInputStream decodedInput;
+    private boolean cacheLookedUp;
+    private String cacheLocation;
+    private HttpResponseCache.Response staleResponse;
+    private long requestTime;
+    private InputStream cachedInput;
+    private InputStream networkInput;
+    private InputStream cachingInput;
+    private boolean redirectResolved;
+    private URL redirectedFrom;
+    private boolean flightLookedUp;
+    private HttpRequestCoalescer.Flight flight;
+    private boolean flightResponded;
+    private HttpRequestBody requestBody;
 
     public HttpURLConnectionImpl(URL url) {
         super(url);
         this.cachedRequestProperties = new HttpHeaderFields();
         this.headerFields = new HttpHeaderFields();
-        this.handler = new HttpURLConnectionHandler.Default(this);
+        this.handler = newHandler();
     }
 
     @Override
@@ -65,15 +107,34 @@ final class HttpURLConnectionImpl extends HttpURLConnection {
         super.addRequestProperty(key, value);
         cachedRequestProperties.add(key, value);
         detectHttpUpgrade(key);
+        if (HEADER_ACCEPT_ENCODING.equalsIgnoreCase(key)) {
+            acceptEncodingAdded = false;
+        }
     }
 
     @Override
     public void connect() throws IOException {
-        handler.connect();
+        resolveRedirect();
+
+        // a coalesced request connects only once it knows whether an identical request is already in flight
+        if (!lookupCache() && !isCoalescableRequest()) {
+            try {
+                handler.connect();
+            }
+            catch (IOException e) {
+                invalidateRedirect();
+                throw e;
+            }
+        }
     }
 
     @Override
     public void disconnect() {
+        if (flightResponded) {
+            // the shared response body is closed once no joined request still reads it
+            flight.release();
+            return;
+        }
         handler.disconnect();
     }
 
@@ -92,6 +153,14 @@ final class HttpURLConnectionImpl extends HttpURLConnection {
         return headerFields.value(n);
     }
 
+    @Override
+    public int getResponseCode() throws IOException {
+        int code = super.getResponseCode();
+
+        // java.net.HttpURLConnection parses only HTTP/1.x status lines, the HTTP/2 status is already known
+        return (code == -1) ? responseCode : code;
+    }
+
     @Override
     public String getHeaderFieldKey(int n) {
         return headerFields.key(n);
@@ -109,55 +178,66 @@ final class HttpURLConnectionImpl extends HttpURLConnection {
 
     @Override
     public InputStream getInputStream() throws IOException {
-        InputStream input = null;
-        IOException exc = null;
+        resolveRedirect();
+        if (lookupCache()) {
+            return decode(cachedInput);
+        }
 
-        try {
-            input = handler.getInputStream();
+        if (joinFlight()) {
+            return decode(flight.getInputStream());
         }
-        catch (IOException ex) {
-            exc = ex;
+
+        if (flight == null) {
+            return decode(receive());
         }
 
-        switch (responseCode) {
-        case HTTP_MOVED_PERM:
-        case HTTP_MOVED_TEMP:
-        case HTTP_SEE_OTHER:
-            // TODO: check maximum number of redirects
-            if (getInstanceFollowRedirects()) {
-                input = processRedirect(input);
+        try {
+            InputStream input = receive();
+            if (input != null) {
+                flight.respond(url, responseCode, responseMessage, headerFields.map(), input);
+                flightResponded = true;
+                input = flight.getInputStream();
             }
-            break;
-        case HTTP_UNAUTHORIZED:
-            // Note: check maximum attempts
-            String challenge = getHeaderField(HEADER_AUTHENTICATION);
-            if (challenge == null) {
-                throw exc;
+            return decode(input);
+        }
+        finally {
+            if (!flightResponded) {
+                // each waiting request is sent itself
+                flight.fail();
+                flight = null;
             }
+        }
+    }
 
-            // We are only dealing with "Application *" authentication schemes
-            // here. For the Default HTTP, authentication schemes such as
-            // "Basic", "Digest", and "Negotiate" will be handled implicitly
-            // using the system-wide Authenticator, if registered. For the
-            // Upgradeable HTTP, we will handle "Basic", "Digest", and "Negotiate"
-            // schemes in the corresponding handler itself.
-            if (!challenge.startsWith(APPLICATION_PREFIX)) {
-                throw new IOException("Invalid authentication scheme: " + challenge);
-            }
-            processApplicationChallenge(challenge);
-            break;
+    @Override
+    public long getEncodedByteCount() {
+        return (decodedInput != null) ? decodedInput.getEncodedCount() : 0L;
+    }
 
-        default:
-            break;
-        }
-        return input;
+    @Override
+    public long getDecodedByteCount() {
+        return (decodedInput != null) ? decodedInput.getDecodedCount() : 0L;
     }
 
     @Override
     public OutputStream getOutputStream() throws IOException {
+        if (requestBody != null) {
+            throw new ProtocolException("Cannot write output when a request body is set");
+        }
+        resolveRedirect();
         return handler.getOutputStream();
     }
 
+    @Override
+    public void setRequestBody(FileChannel channel, long position, long count) {
+        setRequestBody(HttpRequestBody.newInstance(channel, position, count));
+    }
+
+    @Override
+    public void setRequestBody(ByteBuffer... buffers) {
+        setRequestBody(HttpRequestBody.newInstance(buffers));
+    }
+
     @Override
     public int getReadTimeout() {
         return readTimeout;
@@ -168,6 +248,16 @@ final class HttpURLConnectionImpl extends HttpURLConnection {
         this.connectTimeout = timeout;
     }
 
+    @Override
+    public void setConnectionPool(HttpConnectionPool connectionPool) {
+        super.setConnectionPool(connectionPool);
+
+        // requests are sent by the engine matching the pool, unless upgrading
+        if (!(handler instanceof HttpURLConnectionHandler.Upgradeable)) {
+            this.handler = newHandler();
+        }
+    }
+
     @Override
     public void setReadTimeout(int timeout) {
         this.readTimeout = timeout;
@@ -178,6 +268,9 @@ final class HttpURLConnectionImpl extends HttpURLConnection {
         super.setRequestProperty(key, value);
         cachedRequestProperties.set(key, value);
         detectHttpUpgrade(key);
+        if (HEADER_ACCEPT_ENCODING.equalsIgnoreCase(key)) {
+            acceptEncodingAdded = false;
+        }
     }
 
     @Override
@@ -186,9 +279,18 @@ final class HttpURLConnectionImpl extends HttpURLConnection {
     }
 
     Map<String, List<String>> getCachedRequestProperties() {
+        // compressed responses are only decoded when requested here, rather than by the application
+        if (isContentDecodingEnabled() && !acceptEncodingAdded && cachedRequestProperties.value(HEADER_ACCEPT_ENCODING) == null) {
+            cachedRequestProperties.add(HEADER_ACCEPT_ENCODING, ACCEPT_ENCODING_GZIP_DEFLATE);
+            acceptEncodingAdded = true;
+        }
         return cachedRequestProperties.map();
     }
 
+    HttpRequestBody getRequestBody() {
+        return requestBody;
+    }
+
     int getChunkStreamingMode() {
         return chunkLength;
     }
@@ -210,20 +312,70 @@ final class HttpURLConnectionImpl extends HttpURLConnection {
         this.headerFields.addAll(headerFields);
     }
 
-    void storeCookies(CookieHandler handler) throws IOException {
-        URI locationURI = URI.create(url.toString());
-        handler.put(locationURI, headerFields.map());
+    void storeCookies() throws IOException {
+        storeCookies(headerFields.map());
     }
 
-    void reset(URL url) {
-        this.url = url;
+    void storeCookies(Map<String, List<String>> responseHeaders) throws IOException {
+        HttpCookieStore cookieStore = getCookieStore();
+        if (cookieStore != null) {
+            cookieStore.put(url, responseHeaders);
+        }
+        else {
+            CookieHandler handler = CookieHandler.getDefault();
+            if (handler != null) {
+                handler.put(URI.create(url.toString()), responseHeaders);
+            }
+        }
+    }
+
+    void setAuthenticationSpace(String scheme, String realm, HttpCredentialCache.Credentials credentials, Object scope) {
+        this.authenticationScheme = scheme;
+        this.authenticationRealm = realm;
+        this.authenticationCredentials = credentials;
+        this.authenticationScope = scope;
+    }
+
+    String getAuthenticationScheme() {
+        return authenticationScheme;
+    }
+
+    String getAuthenticationRealm() {
+        return authenticationRealm;
+    }
+
+    HttpCredentialCache.Credentials getAuthenticationCredentials() {
+        return authenticationCredentials;
+    }
+
+    Object getAuthenticationScope() {
+        return authenticationScope;
+    }
+
+    void resetResponse() {
         this.responseCode = -1;
         this.responseMessage = null;
         this.headerFields.clear();
-        this.handler = new HttpURLConnectionHandler.Default(this);
+    }
+
+    void reset(URL url) throws IOException {
+        // the next request reuses a kept alive connection to the same origin
+        Socket socket = handler.releaseSocket();
+        handler.disconnect();
+        if (socket != null && !shouldFollowRedirect(ORIGIN, this.url, url)) {
+            socket.close();
+            socket = null;
+        }
+
+        this.url = url;
+        resetResponse();
+        this.handler = newHandler();
 
         if (cachedRequestProperties.value(HEADER_UPGRADE) != null) {
-            this.handler = new HttpURLConnectionHandler.Upgradeable(this);
+            this.handler = new HttpURLConnectionHandler.Upgradeable(this, socket);
+        }
+        else if (socket != null) {
+            socket.close();
         }
     }
 
@@ -256,6 +408,7 @@ final class HttpURLConnectionImpl extends HttpURLConnection {
         assert challengeResponse != null;
         String credentials = new String(challengeResponse.getCredentials());
         this.setRequestProperty(HEADER_AUTHORIZATION, credentials);
+        setAuthenticationSpace(authScheme, RealmUtils.getRealm(challengeRequest), null, challengeHandler);
 
         reset(getURL());
 
@@ -263,6 +416,279 @@ final class HttpURLConnectionImpl extends HttpURLConnection {
          handler.getInputStream();
     }
 
+    private InputStream receive() throws IOException {
+        InputStream input = null;
+        IOException exc = null;
+
+        try {
+            input = handler.getInputStream();
+        }
+        catch (IOException ex) {
+            exc = ex;
+        }
+        catch (RuntimeException ex) {
+            invalidateRedirect();
+            throw ex;
+        }
+
+        boolean challenged = responseCode == HTTP_UNAUTHORIZED || responseCode == HTTP_PROXY_AUTH;
+        if (!challenged && (exc != null || responseCode >= HTTP_BAD_REQUEST)) {
+            // a remembered redirect target that fails is asked again from the original location next time
+            invalidateRedirect();
+        }
+
+        if (exc != null && responseCode == -1) {
+            // failed before any response arrived, there is nothing to follow or answer
+            throw exc;
+        }
+
+        if (isEarlyDataEnabled()) {
+            // early data already sent cannot be replayed on a redirected or authenticated request
+            if (exc != null) {
+                throw exc;
+            }
+            return input;
+        }
+
+        switch (responseCode) {
+        case HTTP_MOVED_PERM:
+        case HTTP_MOVED_TEMP:
+        case HTTP_SEE_OTHER:
+        case HTTP_TEMPORARY_REDIRECT:
+        case HTTP_PERMANENT_REDIRECT:
+            // TODO: check maximum number of redirects
+            if (getInstanceFollowRedirects()) {
+                input = processRedirect(input);
+            }
+            break;
+        case HTTP_UNAUTHORIZED:
+            // Note: check maximum attempts
+            String challenge = getHeaderField(HEADER_AUTHENTICATION);
+            if (challenge == null) {
+                throw exc;
+            }
+
+            // We are only dealing with "Application *" authentication schemes
+            // here. For the Default HTTP, authentication schemes such as
+            // "Basic", "Digest", and "Negotiate" will be handled implicitly
+            // using the system-wide Authenticator, if registered. For the
+            // Upgradeable HTTP, we will handle "Basic", "Digest", and "Negotiate"
+            // schemes in the corresponding handler itself.
+            if (!challenge.startsWith(APPLICATION_PREFIX)) {
+                throw new IOException("Invalid authentication scheme: " + challenge);
+            }
+            processApplicationChallenge(challenge);
+            break;
+
+        default:
+            break;
+        }
+        return cache(input);
+    }
+
+    private void setRequestBody(HttpRequestBody requestBody) {
+        setDoOutput(true);
+        this.requestBody = requestBody;
+    }
+
+    private HttpURLConnectionHandler newHandler() {
+        if (getConnectionPool() != null) {
+            return new HttpURLConnectionHandler.Native(this);
+        }
+        return new HttpURLConnectionHandler.Default(this);
+    }
+
+    private void resolveRedirect() {
+        if (!redirectResolved) {
+            redirectResolved = true;
+
+            HttpRedirectCache redirectCache = getRedirectCache();
+            if (redirectCache != null && getInstanceFollowRedirects()) {
+                URL location = url;
+                for (int i = 0; i < MAX_CACHED_REDIRECTS; i++) {
+                    URL target = redirectCache.get(location);
+                    if (target == null || !shouldFollowRedirect(getRedirectPolicy(), location, target)) {
+                        break;
+                    }
+                    location = target;
+                }
+
+                if (location != url) {
+                    redirectedFrom = url;
+                    url = location;
+                }
+            }
+        }
+    }
+
+    private void invalidateRedirect() {
+        if (redirectedFrom != null) {
+            getRedirectCache().remove(redirectedFrom);
+            redirectedFrom = null;
+        }
+    }
+
+    private boolean lookupCache() {
+        if (!cacheLookedUp) {
+            cacheLookedUp = true;
+
+            HttpResponseCache cache = getResponseCache();
+            if (cache != null && isCacheableRequest()) {
+                cacheLocation = url.toExternalForm();
+                HttpResponseCache.Response response = cache.match(url, getCachedRequestProperties());
+                if (response != null && isAcceptable(response)) {
+                    serve(response);
+                    return true;
+                }
+
+                // revalidate a stale response, unless the application sent its own conditional request
+                HttpResponseCache.Response stale = (response == null) ? cache.get(url) : null;
+                if (stale != null && isAcceptable(stale) &&
+                        cachedRequestProperties.value(HEADER_IF_NONE_MATCH) == null &&
+                        cachedRequestProperties.value(HEADER_IF_MODIFIED_SINCE) == null) {
+                    for (Map.Entry<String, String> validator : stale.getValidators().entrySet()) {
+                        cachedRequestProperties.set(validator.getKey(), validator.getValue());
+                    }
+                    staleResponse = stale;
+                }
+                requestTime = System.currentTimeMillis();
+            }
+        }
+        return cachedInput != null;
+    }
+
+    private boolean isCacheableRequest() {
+        String cacheControl = cachedRequestProperties.value(HEADER_CACHE_CONTROL);
+        return getUseCaches() &&
+               "GET".equals(getRequestMethod()) &&
+               !getDoOutput() &&
+               cachedRequestProperties.value(HEADER_UPGRADE) == null &&
+               cachedRequestProperties.value(HEADER_RANGE) == null &&
+               (cacheControl == null || !cacheControl.toLowerCase().contains("no-store"));
+    }
+
+    private boolean isAcceptable(HttpResponseCache.Response response) {
+        // the response is kept by location only, so an authorized request only uses a response that allows sharing
+        if (isAuthorizedRequest() &&
+                !HttpResponseCache.isCacheable(response.getResponseCode(), response.getHeaderFields(), true)) {
+            return false;
+        }
+
+        // a content coded response is only used by a request accepting content codings
+        Map<String, List<String>> responseFields = response.getHeaderFields();
+        for (String name : responseFields.keySet()) {
+            if (HEADER_CONTENT_ENCODING.equalsIgnoreCase(name)) {
+                return getCachedRequestProperties().containsKey(HEADER_ACCEPT_ENCODING);
+            }
+        }
+        return true;
+    }
+
+    private boolean isAuthorizedRequest() {
+        return cachedRequestProperties.value(HEADER_AUTHORIZATION) != null;
+    }
+
+    private void serve(HttpResponseCache.Response response) {
+        resetResponse();
+        setResponse(response.getResponseCode(), response.getResponseMessage());
+        setHeaderFields(response.getHeaderFields());
+        cachedInput = new HttpCachedInputStream(response.getBody());
+    }
+
+    private boolean joinFlight() throws IOException {
+        if (!flightLookedUp) {
+            flightLookedUp = true;
+
+            if (isCoalescableRequest()) {
+                flight = getRequestCoalescer().begin(url, getCachedRequestProperties());
+                if (!flight.isLeader()) {
+                    if (flight.await()) {
+                        this.url = flight.getLocation();
+                        resetResponse();
+                        setResponse(flight.getResponseCode(), flight.getResponseMessage());
+                        setHeaderFields(flight.getHeaderFields());
+                        flightResponded = true;
+                    }
+                    else {
+                        flight = null;
+                    }
+                }
+            }
+        }
+        return flightResponded;
+    }
+
+    private boolean isCoalescableRequest() {
+        return getRequestCoalescer() != null &&
+               "GET".equals(getRequestMethod()) &&
+               !getDoOutput() &&
+               cachedRequestProperties.value(HEADER_UPGRADE) == null;
+    }
+
+    private InputStream cache(InputStream input) throws IOException {
+        HttpResponseCache cache = getResponseCache();
+        if (cache == null || input == null) {
+            return input;
+        }
+
+        if (cacheLocation == null) {
+            String method = getRequestMethod();
+            if (!"GET".equals(method) && !"HEAD".equals(method) && responseCode < HTTP_BAD_REQUEST) {
+                // the response kept for a modified resource is no longer valid
+                cache.remove(url);
+            }
+            return input;
+        }
+
+        if (input == networkInput) {
+            return cachingInput;
+        }
+        networkInput = input;
+        cachingInput = input;
+
+        long responseTime = System.currentTimeMillis();
+        boolean sameLocation = cacheLocation.equals(url.toExternalForm());
+        if (responseCode == HTTP_NOT_MODIFIED && staleResponse != null && sameLocation) {
+            input.close();
+            HttpResponseCache.Response updated =
+                    cache.revalidate(url, staleResponse, headerFields.map(), requestTime, responseTime);
+            staleResponse = null;
+            serve(updated);
+            return cachedInput;
+        }
+
+        if (HttpResponseCache.isCacheable(responseCode, headerFields.map(), isAuthorizedRequest())) {
+            Map<String, List<String>> responseFields = new LinkedHashMap<String, List<String>>(headerFields.map());
+            cachingInput = new HttpCachingInputStream(
+                    input, cache, url, responseCode, responseMessage, responseFields, requestTime, responseTime);
+            return cachingInput;
+        }
+
+        if (sameLocation && !isAuthorizedRequest()) {
+            // an authorized response that cannot be shared says nothing about the response kept for other requests
+            cache.remove(url);
+        }
+        return input;
+    }
+
+    private InputStream decode(InputStream input) {
+        if (input == null || !acceptEncodingAdded) {
+            return input;
+        }
+
+        if (input != encodedInput) {
+            String contentEncoding = headerFields.value(HEADER_CONTENT_ENCODING);
+            encodedInput = input;
+            decodedInput = (contentEncoding != null) ? HttpContentDecodingInputStream.newInstance(input, contentEncoding) : null;
+            if (decodedInput != null) {
+                // the header fields describe the decoded body returned to the caller
+                headerFields.remove(HEADER_CONTENT_ENCODING);
+                headerFields.remove(HEADER_CONTENT_LENGTH);
+            }
+        }
+        return (decodedInput != null) ? decodedInput : input;
+    }
+
     private void detectHttpUpgrade(String key) {
         if (HEADER_UPGRADE.equalsIgnoreCase(key)) {
             this.handler = new HttpURLConnectionHandler.Upgradeable(this);
@@ -271,11 +697,17 @@ final class HttpURLConnectionImpl extends HttpURLConnection {
 
     private InputStream processRedirect(InputStream input) throws IOException {
 
-        String location = headerFields.value("Location");
+        String location = headerFields.value(HttpHeaderFields.LOCATION);
         if (location == null) {
             throw new IllegalStateException(format("Redirect missing Location header (%d)", responseCode));
         }
 
+        // 307 and 308 repeat the request with its body, which is only kept when set with setRequestBody
+        boolean repeatsBody = responseCode == HTTP_TEMPORARY_REDIRECT || responseCode == HTTP_PERMANENT_REDIRECT;
+        if (repeatsBody && getDoOutput() && requestBody == null) {
+            return input;
+        }
+
         URL currentURL = getURL();
         URL redirectURL = new URL(currentURL, location, new URLStreamHandler() {
             @Override
@@ -288,7 +720,13 @@ final class HttpURLConnectionImpl extends HttpURLConnection {
             return input;
         }
 
-        handler.disconnect();
+        HttpRedirectCache redirectCache = getRedirectCache();
+        if (redirectCache != null && (responseCode == HTTP_MOVED_PERM || responseCode == HTTP_PERMANENT_REDIRECT)) {
+            String cacheControl = headerFields.value(HEADER_CACHE_CONTROL);
+            if (cacheControl == null || !cacheControl.toLowerCase().contains("no-store")) {
+                redirectCache.put(currentURL, redirectURL);
+            }
+        }
 
         reset(redirectURL);
         return handler.getInputStream();
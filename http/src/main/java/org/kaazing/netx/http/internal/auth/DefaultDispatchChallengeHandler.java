@@ -24,6 +24,8 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Pattern;
 
 import org.kaazing.netx.http.auth.ChallengeHandler;
@@ -43,6 +45,11 @@ public class DefaultDispatchChallengeHandler extends DispatchChallengeHandler {
     static final String SCHEME_URI = "^(.*)://(.*)";
     static final Pattern SCHEME_URI_PATTERN = Pattern.compile(SCHEME_URI);
 
+    /**
+     * The maximum number of locations whose resolved challenge handlers are remembered per snapshot.
+     */
+    static final int LOOKUP_CACHE_CAPACITY = 256;
+
     enum UriElement {
         HOST,
         USERINFO,
@@ -51,8 +58,14 @@ public class DefaultDispatchChallengeHandler extends DispatchChallengeHandler {
     }
     private Node<ChallengeHandler, UriElement> rootNode;
 
-    public void clear() {
+    /**
+     * Immutable copy of {@link #rootNode} used by lookups, replaced whenever the registrations change.
+     */
+    private volatile Snapshot snapshot;
+
+    public synchronized void clear() {
         rootNode = new Node<ChallengeHandler, UriElement>();
+        snapshot = new Snapshot(rootNode.copy());
     }
 
     @Override
@@ -76,10 +89,11 @@ public class DefaultDispatchChallengeHandler extends DispatchChallengeHandler {
 
     public DefaultDispatchChallengeHandler() {
         rootNode = new Node<ChallengeHandler, UriElement>();
+        snapshot = new Snapshot(rootNode.copy());
     }
 
     @Override
-    public DispatchChallengeHandler register(String locationDescription, ChallengeHandler challengeHandler) {
+    public synchronized DispatchChallengeHandler register(String locationDescription, ChallengeHandler challengeHandler) {
         if (locationDescription == null || locationDescription.length() == 0) {
             throw new IllegalArgumentException("Must specify a location to handle challenges upon.");
         }
@@ -89,11 +103,12 @@ public class DefaultDispatchChallengeHandler extends DispatchChallengeHandler {
         }
 
         addChallengeHandlerAtLocation(locationDescription, challengeHandler);
+        snapshot = new Snapshot(rootNode.copy());
         return this;
     }
 
     @Override
-    public DispatchChallengeHandler unregister(String locationDescription, ChallengeHandler challengeHandler) {
+    public synchronized DispatchChallengeHandler unregister(String locationDescription, ChallengeHandler challengeHandler) {
         if (locationDescription == null || locationDescription.length() == 0) {
             throw new IllegalArgumentException("Must specify a location to un-register challenge handlers upon.");
         }
@@ -103,6 +118,7 @@ public class DefaultDispatchChallengeHandler extends DispatchChallengeHandler {
         }
 
         delChallengeHandlerAtLocation(locationDescription, challengeHandler);
+        snapshot = new Snapshot(rootNode.copy());
 
         return this;
     }
@@ -146,10 +162,7 @@ public class DefaultDispatchChallengeHandler extends DispatchChallengeHandler {
     public List<ChallengeHandler> lookup(String location) {
         List<ChallengeHandler> result = Collections.emptyList();
         if (location != null) {
-            Node<ChallengeHandler, UriElement> resultNode = findBestMatchingNode(location);
-            if (resultNode != null) {
-                return resultNode.getValues();
-            }
+            return snapshot.lookup(location);
         }
         return result;
     }
@@ -166,21 +179,16 @@ public class DefaultDispatchChallengeHandler extends DispatchChallengeHandler {
         ChallengeHandler result = null;
         String location = challengeRequest.getLocation();
         if (location != null) {
-            Node<ChallengeHandler, UriElement> resultNode = findBestMatchingNode(location);
-
             //
             // If we found an exact or wildcard match, try to find a handler
             // for the requested challenge.
             //
-            if (resultNode != null) {
-                List<ChallengeHandler> handlers = resultNode.getValues();
-                if (handlers != null) {
-                    for (ChallengeHandler challengeHandler : handlers) {
-                        if (challengeHandler.canHandle(challengeRequest)) {
-                            result = challengeHandler;
-                            break;
-                        }
-                    }
+            List<ChallengeHandler> handlers = snapshot.lookup(location);
+            for (int i = 0; i < handlers.size(); i++) {
+                ChallengeHandler challengeHandler = handlers.get(i);
+                if (challengeHandler.canHandle(challengeRequest)) {
+                    result = challengeHandler;
+                    break;
                 }
             }
         }
@@ -188,16 +196,36 @@ public class DefaultDispatchChallengeHandler extends DispatchChallengeHandler {
     }
 
     /**
-     * Return the Node corresponding to ("matching") a location, or <code>null</code> if none can be found.
-     *
-     * @param location the location at which to find a Node
-     * @return the Node corresponding to ("matching") a location, or <code>null</code> if none can be found.
+     * An immutable view of the registered challenge handlers, remembering the handlers resolved for recent locations
+     * so that repeated lookups skip tokenizing the location and walking the tree.
      */
-    private Node<ChallengeHandler, UriElement> findBestMatchingNode(String location) {
-        List<Token<UriElement>> tokens = tokenize(location);
-        int tokenIdx = 0;
+    private final class Snapshot {
+
+        private final Node<ChallengeHandler, UriElement> root;
+        private final ConcurrentMap<String, List<ChallengeHandler>> cache;
+
+        Snapshot(Node<ChallengeHandler, UriElement> root) {
+            this.root = root;
+            this.cache = new ConcurrentHashMap<String, List<ChallengeHandler>>();
+        }
 
-        return rootNode.findBestMatchingNode(tokens, tokenIdx);
+        List<ChallengeHandler> lookup(String location) {
+            List<ChallengeHandler> handlers = cache.get(location);
+            if (handlers == null) {
+                handlers = Collections.emptyList();
+                Node<ChallengeHandler, UriElement> resultNode = root.findBestMatchingNode(tokenize(location), 0);
+                if (resultNode != null) {
+                    handlers = Collections.unmodifiableList(resultNode.getValues());
+                }
+
+                // forget every location at once rather than track recency on the lookup path
+                if (cache.size() >= LOOKUP_CACHE_CAPACITY) {
+                    cache.clear();
+                }
+                cache.put(location, handlers);
+            }
+            return handlers;
+        }
     }
 
     /**
@@ -622,6 +650,23 @@ public class DefaultDispatchChallengeHandler extends DispatchChallengeHandler {
             return b.toString();
         }
 
+        /**
+         * Create a deep copy of the sub-tree rooted at this node, detached from this node's parent.
+         * @return a deep copy of the sub-tree rooted at this node.
+         */
+        Node<T, E> copy() {
+            return copy(null);
+        }
+
+        private Node<T, E> copy(Node<T, E> parent) {
+            Node<T, E> result = new Node<T, E>(name, parent, kind);
+            result.values.addAll(values);
+            for (Node<T, E> child : children.values()) {
+                result.children.put(child.name, child.copy(result));
+            }
+            return result;
+        }
+
         public List<Node<T, E>> getChildrenAsList() {
             return new ArrayList<Node<T, E>>(children.values());
         }
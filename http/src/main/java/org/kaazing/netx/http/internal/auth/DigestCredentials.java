@@ -0,0 +1,246 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kaazing.netx.http.internal.auth;
+
+import static java.lang.String.format;
+
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.kaazing.netx.TransportOptions;
+import org.kaazing.netx.http.HttpCredentialCache;
+
+/**
+ * Credentials for Digest authentication. See RFC 7616.
+ *
+ * The MD5 and SHA-256 algorithms are supported, with or without the {@code auth} quality of protection. The server nonce is
+ * kept, and the nonce count is incremented for each request, so that later requests authenticate without a new challenge
+ * until the server declares the nonce stale.
+ */
+public final class DigestCredentials extends HttpCredentialCache.Credentials {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Pattern PATTERN_PARAMETER =
+            Pattern.compile("\\s*([a-zA-Z0-9_-]+)\\s*=\\s*(?:\"((?:[^\"\\\\]|\\\\.)*)\"|([^,\\s]*))\\s*,?");
+    private static final String QOP_AUTH = "auth";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final String username;
+    private final String realm;
+    private final String nonce;
+    private final String opaque;
+    private final String algorithm;
+    private final String qop;
+    private final String ha1;
+    private final AtomicInteger nonceCount;
+
+    private DigestCredentials(String username, String realm, String nonce, String opaque, String algorithm, String qop,
+            String ha1) {
+        this.username = username;
+        this.realm = realm;
+        this.nonce = nonce;
+        this.opaque = opaque;
+        this.algorithm = algorithm;
+        this.qop = qop;
+        this.ha1 = ha1;
+        this.nonceCount = new AtomicInteger();
+    }
+
+    /**
+     * Returns whether a Digest challenge can be answered, checking the algorithm and quality of protection before the
+     * password is requested.
+     *
+     * @param parameters  the authentication parameters of the Digest challenge
+     *
+     * @return {@code true} if the challenge is supported, otherwise {@code false}
+     */
+    public static boolean isSupported(Map<String, String> parameters) {
+        if (parameters.get("realm") == null || parameters.get("nonce") == null) {
+            return false;
+        }
+
+        if (toMessageDigestAlgorithm(getAlgorithm(parameters)) == null) {
+            return false;
+        }
+
+        // auth-int only is not supported
+        return parameters.get("qop") == null || getQop(parameters) != null;
+    }
+
+    /**
+     * Creates Digest credentials answering a challenge.
+     *
+     * @param parameters  the authentication parameters of the Digest challenge
+     * @param username    the user name
+     * @param password    the password
+     *
+     * @return the Digest credentials, or {@code null} if the algorithm or quality of protection is not supported
+     */
+    public static DigestCredentials newInstance(Map<String, String> parameters, String username, char[] password) {
+        if (!isSupported(parameters)) {
+            return null;
+        }
+
+        String realm = parameters.get("realm");
+        String algorithm = getAlgorithm(parameters);
+        String ha1 = digest(toMessageDigestAlgorithm(algorithm), format("%s:%s:%s", username, realm, new String(password)));
+        return new DigestCredentials(username, realm, parameters.get("nonce"), parameters.get("opaque"), algorithm,
+                getQop(parameters), ha1);
+    }
+
+    /**
+     * Parses the authentication parameters of a challenge, such as {@code realm="example", nonce="abc", qop="auth"}.
+     *
+     * @param authenticationParameters  the authentication parameters
+     *
+     * @return the authentication parameters by lower case name
+     */
+    public static Map<String, String> parseParameters(String authenticationParameters) {
+        Map<String, String> parameters = new HashMap<String, String>();
+        Matcher matcher = PATTERN_PARAMETER.matcher(authenticationParameters);
+        while (matcher.lookingAt()) {
+            String name = matcher.group(1).toLowerCase();
+            String value = (matcher.group(2) != null) ? matcher.group(2).replaceAll("\\\\(.)", "$1") : matcher.group(3);
+            parameters.put(name, value);
+            matcher.region(matcher.end(), authenticationParameters.length());
+        }
+        return parameters;
+    }
+
+    /**
+     * Returns the realm of the challenge answered by these credentials.
+     *
+     * @return the realm
+     */
+    public String getRealm() {
+        return realm;
+    }
+
+    /**
+     * Computes the {@code Authorization} header value for the next request, advancing the nonce count.
+     *
+     * @param method  the request method
+     * @param location  the request location
+     * @return the {@code Authorization} header value
+     */
+    @Override
+    public String authorize(String method, URL location) {
+        byte[] bytes = new byte[16];
+        RANDOM.nextBytes(bytes);
+        return authorize(method, location, toHex(bytes));
+    }
+
+    String authorize(String method, URL location, String cnonce) {
+        String messageDigest = toMessageDigestAlgorithm(algorithm);
+        String uri = getRequestUri(location);
+        String ha2 = digest(messageDigest, format("%s:%s", method, uri));
+
+        StringBuilder authorization = new StringBuilder("Digest ");
+        authorization.append("username=\"").append(quote(username)).append('"');
+        authorization.append(", realm=\"").append(quote(realm)).append('"');
+        authorization.append(", nonce=\"").append(quote(nonce)).append('"');
+        authorization.append(", uri=\"").append(quote(uri)).append('"');
+        authorization.append(", algorithm=").append(algorithm);
+
+        if (qop != null) {
+            String nc = format("%08x", nonceCount.incrementAndGet());
+            String response = digest(messageDigest, format("%s:%s:%s:%s:%s:%s", ha1, nonce, nc, cnonce, qop, ha2));
+            authorization.append(", response=\"").append(response).append('"');
+            authorization.append(", qop=").append(qop);
+            authorization.append(", nc=").append(nc);
+            authorization.append(", cnonce=\"").append(cnonce).append('"');
+        }
+        else {
+            String response = digest(messageDigest, format("%s:%s:%s", ha1, nonce, ha2));
+            authorization.append(", response=\"").append(response).append('"');
+        }
+
+        if (opaque != null) {
+            authorization.append(", opaque=\"").append(quote(opaque)).append('"');
+        }
+
+        return authorization.toString();
+    }
+
+    private static String getRequestUri(URL location) {
+        String path = location.getPath();
+        String query = TransportOptions.stripQuery(location.getQuery());
+        if (path.isEmpty()) {
+            path = "/";
+        }
+        return (query != null) ? path + "?" + query : path;
+    }
+
+    private static String getAlgorithm(Map<String, String> parameters) {
+        String algorithm = parameters.get("algorithm");
+        return (algorithm != null) ? algorithm : "MD5";
+    }
+
+    private static String getQop(Map<String, String> parameters) {
+        String qopOptions = parameters.get("qop");
+        if (qopOptions != null) {
+            for (String option : qopOptions.split(",")) {
+                if (QOP_AUTH.equals(option.trim())) {
+                    return QOP_AUTH;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String toMessageDigestAlgorithm(String algorithm) {
+        if ("MD5".equalsIgnoreCase(algorithm)) {
+            return "MD5";
+        }
+        else if ("SHA-256".equalsIgnoreCase(algorithm)) {
+            return "SHA-256";
+        }
+        return null;
+    }
+
+    private static String digest(String algorithm, String value) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance(algorithm);
+            return toHex(messageDigest.digest(value.getBytes(UTF_8)));
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String quote(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX[(bytes[i] >> 4) & 0x0f];
+            hex[i * 2 + 1] = HEX[bytes[i] & 0x0f];
+        }
+        return new String(hex);
+    }
+}
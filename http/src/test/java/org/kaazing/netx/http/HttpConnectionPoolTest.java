@@ -0,0 +1,130 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.kaazing.netx.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URL;
+
+import org.junit.Test;
+
+public class HttpConnectionPoolTest {
+
+    @Test
+    public void shouldTakeReleasedConnection() throws Exception {
+        HttpConnectionPool pool = HttpConnectionPool.newInstance();
+        URL url = new URL("http://localhost:8080/path");
+        TestConnection connection = new TestConnection();
+
+        assertNull(pool.take(url, null, null, false));
+        connection.pending = 0;
+        pool.release(url, null, null, connection);
+
+        assertEquals(1, pool.getIdleConnectionCount(new URL("http://LOCALHOST:8080/other"), null, null));
+        assertSame(connection, pool.take(new URL("http://localhost:8080/other"), null, null, false));
+        assertEquals(1, connection.pending);
+        assertEquals(1L, pool.getHitCount());
+        assertEquals(1L, pool.getMissCount());
+    }
+
+    @Test
+    public void shouldCloseConnectionsBeyondMaximumIdle() throws Exception {
+        HttpConnectionPool pool = HttpConnectionPool.newInstance(1, 15000L, 1);
+        URL url = new URL("http://localhost:8080/");
+        TestConnection first = new TestConnection();
+        TestConnection second = new TestConnection();
+        first.pending = 0;
+        second.pending = 0;
+
+        pool.release(url, null, null, first);
+        pool.release(url, null, null, second);
+
+        assertFalse(first.closed);
+        assertTrue(second.closed);
+        assertEquals(1, pool.getIdleConnectionCount(url, null, null));
+    }
+
+    @Test
+    public void shouldEvictIdleConnections() throws Exception {
+        HttpConnectionPool pool = HttpConnectionPool.newInstance(8, 50L, 1);
+        URL url = new URL("http://localhost:8080/");
+        TestConnection connection = new TestConnection();
+        connection.pending = 0;
+        pool.release(url, null, null, connection);
+
+        for (int i = 0; i < 100 && !connection.closed; i++) {
+            Thread.sleep(10L);
+        }
+
+        assertTrue(connection.closed);
+        assertEquals(0, pool.getIdleConnectionCount(url, null, null));
+        assertEquals(1L, pool.getEvictionCount());
+    }
+
+    @Test
+    public void shouldPipelineOnSharedConnection() throws Exception {
+        HttpConnectionPool pool = HttpConnectionPool.newInstance(8, 15000L, 2);
+        URL url = new URL("http://localhost:8080/");
+        TestConnection connection = new TestConnection();
+        pool.share(url, null, null, connection);
+
+        assertNull(pool.take(url, null, null, false));
+        assertSame(connection, pool.take(url, null, null, true));
+        assertNull(pool.take(url, null, null, true));
+        assertEquals(2, connection.pending);
+        assertEquals(1L, pool.getPipelinedCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectZeroPipelinedRequests() throws Exception {
+        HttpConnectionPool.newInstance(8, 15000L, 0);
+    }
+
+    private static final class TestConnection extends HttpConnectionPool.Connection {
+        int pending = 1;
+        volatile boolean closed;
+
+        @Override
+        protected boolean reserve(int maxPending) {
+            if (closed || pending >= maxPending) {
+                return false;
+            }
+            pending++;
+            return true;
+        }
+
+        @Override
+        protected boolean isIdle() {
+            return !closed && pending == 0;
+        }
+
+        @Override
+        protected boolean isOpen() {
+            return !closed;
+        }
+
+        @Override
+        protected void close() {
+            closed = true;
+        }
+    }
+}
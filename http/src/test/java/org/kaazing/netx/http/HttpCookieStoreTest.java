@@ -0,0 +1,213 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.kaazing.netx.http;
+
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class HttpCookieStoreTest {
+
+    @Test
+    public void shouldSendHostOnlyCookieToSameHostOnly() throws Exception {
+        HttpCookieStore store = HttpCookieStore.newInstance();
+        store.add(new URL("http://www.example.com/"), "session=abc");
+
+        assertEquals("session=abc", store.getCookieHeader(new URL("http://www.example.com/path")));
+        assertNull(store.getCookieHeader(new URL("http://api.example.com/path")));
+        assertNull(store.getCookieHeader(new URL("http://www.example.org/path")));
+    }
+
+    @Test
+    public void shouldShareDomainCookieWithSubdomains() throws Exception {
+        HttpCookieStore store = HttpCookieStore.newInstance();
+        store.add(new URL("http://www.example.com/"), "session=abc; Domain=.example.com");
+
+        assertEquals("session=abc", store.getCookieHeader(new URL("http://api.example.com/")));
+        assertEquals("session=abc", store.getCookieHeader(new URL("http://example.com/")));
+        assertNull(store.getCookieHeader(new URL("http://badexample.com/")));
+    }
+
+    @Test
+    public void shouldShareDomainCookieUnderShortCountryCodeName() throws Exception {
+        HttpCookieStore store = HttpCookieStore.newInstance();
+        store.add(new URL("http://www.sap.de/"), "session=abc; Domain=sap.de");
+        store.add(new URL("http://www.bbc.co.uk/"), "theme=dark; Domain=.bbc.co.uk");
+        store.add(new URL("http://api.ibm.fr/"), "lang=fr; Domain=ibm.fr");
+
+        assertEquals(3, store.size());
+        assertEquals("session=abc", store.getCookieHeader(new URL("http://shop.sap.de/")));
+        assertEquals("session=abc", store.getCookieHeader(new URL("http://sap.de/")));
+        assertEquals("theme=dark", store.getCookieHeader(new URL("http://news.bbc.co.uk/")));
+        assertEquals("lang=fr", store.getCookieHeader(new URL("http://www.ibm.fr/")));
+        assertNull(store.getCookieHeader(new URL("http://www.sap.com/")));
+        assertNull(store.getCookieHeader(new URL("http://www.ibm.de/")));
+    }
+
+    @Test
+    public void shouldIgnoreCookieForWiderThanRegistrableDomain() throws Exception {
+        HttpCookieStore store = HttpCookieStore.newInstance();
+        store.add(new URL("http://www.example.co.uk/"), "session=abc; Domain=co.uk");
+        store.add(new URL("http://www.example.com.au/"), "session=abc; Domain=com.au");
+        store.add(new URL("http://www.sap.de/"), "session=abc; Domain=de");
+        store.add(new URL("http://www.example.com/"), "theme=dark; Domain=com");
+        store.add(new URL("http://www.example.com/"), "other=1; Domain=example.org");
+
+        assertEquals(0, store.size());
+        assertNull(store.getCookieHeader(new URL("http://other.co.uk/")));
+    }
+
+    @Test
+    public void shouldSendLongerPathsFirst() throws Exception {
+        HttpCookieStore store = HttpCookieStore.newInstance();
+        URL location = new URL("http://localhost/");
+        store.add(location, "a=1; Path=/");
+        store.add(location, "b=2; Path=/app/admin");
+        store.add(location, "c=3; Path=/app");
+
+        assertEquals("b=2; c=3; a=1", store.getCookieHeader(new URL("http://localhost/app/admin/users")));
+        assertEquals("c=3; a=1", store.getCookieHeader(new URL("http://localhost/app")));
+        assertEquals("a=1", store.getCookieHeader(new URL("http://localhost/application")));
+    }
+
+    @Test
+    public void shouldDefaultPathToDirectoryOfLocation() throws Exception {
+        HttpCookieStore store = HttpCookieStore.newInstance();
+        store.add(new URL("http://localhost/app/login"), "session=abc");
+
+        assertEquals("session=abc", store.getCookieHeader(new URL("http://localhost/app/home")));
+        assertNull(store.getCookieHeader(new URL("http://localhost/")));
+    }
+
+    @Test
+    public void shouldNotSendSecureCookieOverHttp() throws Exception {
+        HttpCookieStore store = HttpCookieStore.newInstance();
+        store.add(new URL("https://localhost/"), "session=abc; Secure");
+
+        assertEquals("session=abc", store.getCookieHeader(new URL("https://localhost/")));
+        assertNull(store.getCookieHeader(new URL("http://localhost/")));
+    }
+
+    @Test
+    public void shouldReplaceAndRemoveCookies() throws Exception {
+        HttpCookieStore store = HttpCookieStore.newInstance();
+        URL location = new URL("http://localhost/");
+        store.add(location, "session=abc");
+        store.add(location, "session=def");
+
+        assertEquals(1, store.size());
+        assertEquals("session=def", store.getCookieHeader(location));
+
+        store.add(location, "session=def; Max-Age=0");
+
+        assertEquals(0, store.size());
+        assertNull(store.getCookieHeader(location));
+    }
+
+    @Test
+    public void shouldReuseEncodedHeaderUntilCookiesChange() throws Exception {
+        HttpCookieStore store = HttpCookieStore.newInstance();
+        URL location = new URL("http://localhost/");
+        store.add(location, "session=abc");
+
+        ByteBuffer encoded = store.getEncodedCookieHeader(location);
+        store.getEncodedCookieHeader(new URL("http://localhost/other"));
+        assertEquals(1L, store.getMissCount());
+        assertEquals(1L, store.getHitCount());
+        assertTrue(encoded.isReadOnly());
+        assertEquals(ByteBuffer.wrap("session=abc".getBytes("US-ASCII")), encoded);
+
+        store.add(location, "theme=dark");
+
+        assertEquals("session=abc; theme=dark", store.getCookieHeader(location));
+        assertEquals(2L, store.getMissCount());
+    }
+
+    @Test
+    public void shouldExpireCookies() throws Exception {
+        HttpCookieStore store = HttpCookieStore.newInstance();
+        URL location = new URL("http://localhost/");
+        store.add(location, "session=abc; Max-Age=1");
+        store.add(location, "theme=dark");
+
+        assertEquals("session=abc; theme=dark", store.getCookieHeader(location));
+
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (store.size() != 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50L);
+        }
+
+        assertEquals(1, store.size());
+        assertEquals(1L, store.getExpiredCount());
+        assertEquals("theme=dark", store.getCookieHeader(location));
+    }
+
+    @Test
+    public void shouldRemoveOldestCookieBeyondMaximumPerDomain() throws Exception {
+        HttpCookieStore store = HttpCookieStore.newInstance(2);
+        store.add(new URL("http://www.example.com/"), "a=1");
+        store.add(new URL("http://www.example.com/"), "b=2");
+        store.add(new URL("http://api.example.com/"), "c=3");
+        store.add(new URL("http://www.example.org/"), "d=4");
+
+        assertEquals(3, store.size());
+        assertEquals("b=2", store.getCookieHeader(new URL("http://www.example.com/")));
+        assertEquals("d=4", store.getCookieHeader(new URL("http://www.example.org/")));
+    }
+
+    @Test
+    public void shouldHandleCookiesAsCookieHandler() throws Exception {
+        HttpCookieStore store = HttpCookieStore.newInstance();
+        URI location = URI.create("http://localhost/path");
+        Map<String, List<String>> noHeaders = Collections.emptyMap();
+
+        assertTrue(store.get(location, noHeaders).isEmpty());
+
+        store.put(location, singletonMap("set-cookie", singletonList("session=abc; Path=/")));
+
+        assertEquals(singletonMap("Cookie", singletonList("session=abc")), store.get(location, noHeaders));
+    }
+
+    @Test
+    public void shouldApproximateRegistrableDomain() throws Exception {
+        assertEquals("example.com", HttpCookieStore.registrableDomain("www.api.example.com"));
+        assertEquals("example.co.uk", HttpCookieStore.registrableDomain("www.example.co.uk"));
+        assertEquals("example.de", HttpCookieStore.registrableDomain("www.example.de"));
+        assertEquals("sap.de", HttpCookieStore.registrableDomain("www.sap.de"));
+        assertEquals("bbc.co.uk", HttpCookieStore.registrableDomain("www.bbc.co.uk"));
+        assertEquals("abc.com.au", HttpCookieStore.registrableDomain("www.abc.com.au"));
+        assertEquals("localhost", HttpCookieStore.registrableDomain("localhost"));
+        assertEquals("127.0.0.1", HttpCookieStore.registrableDomain("127.0.0.1"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectNonPositiveMaximumCookiesPerDomain() throws Exception {
+        HttpCookieStore.newInstance(0);
+    }
+}
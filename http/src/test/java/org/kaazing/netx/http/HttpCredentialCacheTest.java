@@ -0,0 +1,106 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kaazing.netx.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.net.URL;
+
+import org.junit.Test;
+
+public class HttpCredentialCacheTest {
+
+    private final Object scope = new Object();
+
+    @Test
+    public void shouldReturnCredentialsForSameProtectionSpace() throws Exception {
+        HttpCredentialCache cache = HttpCredentialCache.newInstance();
+        cache.put(new URL("http://Example.com/docs/index.html"), scope, "Basic", "realm", "Basic abc");
+
+        assertEquals("Basic abc", authorization(cache, "http://example.com:80/docs/other"));
+        assertEquals("Basic abc", authorization(cache, "http://example.com/docs/deeper/path"));
+        assertNull(cache.getAuthorization("GET", new URL("http://example.com/other"), scope));
+        assertNull(cache.getAuthorization("GET", new URL("https://example.com/docs/other"), scope));
+        assertNull(cache.getAuthorization("GET", new URL("http://example.com:8080/docs/other"), scope));
+    }
+
+    @Test
+    public void shouldNotReturnCredentialsOfAnotherScope() throws Exception {
+        HttpCredentialCache cache = HttpCredentialCache.newInstance();
+        URL location = new URL("http://example.com/");
+        cache.put(location, scope, "Basic", "realm", "Basic abc");
+
+        assertNull(cache.getAuthorization("GET", location, new Object()));
+    }
+
+    @Test
+    public void shouldReturnDeepestThenMostRecentProtectionSpace() throws Exception {
+        HttpCredentialCache cache = HttpCredentialCache.newInstance();
+        URL location = new URL("http://example.com/");
+        cache.put(new URL("http://example.com/docs/"), scope, "Basic", "docs", "Basic docs");
+        cache.put(location, scope, "Basic", "one", "Basic one");
+        cache.put(location, scope, "Basic", "two", "Basic two");
+
+        assertEquals(3, cache.size());
+        assertEquals("Basic two", authorization(cache, "http://example.com/"));
+        assertEquals("Basic docs", authorization(cache, "http://example.com/docs/index.html"));
+    }
+
+    @Test
+    public void shouldFallBackAfterRemovingRejectedCredentials() throws Exception {
+        HttpCredentialCache cache = HttpCredentialCache.newInstance();
+        URL location = new URL("http://example.com/");
+        cache.put(location, scope, "Basic", "one", "Basic one");
+        cache.put(location, scope, "Basic", "two", "Basic two");
+
+        cache.remove(cache.getAuthorization("GET", location, scope));
+        assertEquals(1, cache.size());
+        assertEquals("Basic one", authorization(cache, "http://example.com/"));
+
+        cache.remove(cache.getAuthorization("GET", location, scope));
+        assertEquals(0, cache.size());
+        assertNull(cache.getAuthorization("GET", location, scope));
+    }
+
+    @Test
+    public void shouldRemoveRejectedEntryAfterLaterLookups() throws Exception {
+        HttpCredentialCache cache = HttpCredentialCache.newInstance();
+        URL location = new URL("http://example.com/");
+        cache.put(location, scope, "Digest", "realm", new CountingCredentials());
+
+        HttpCredentialCache.Authorization rejected = cache.getAuthorization("GET", location, scope);
+        assertEquals("Digest nc=1", rejected.getValue());
+        assertEquals("Digest nc=2", authorization(cache, "http://example.com/"));
+
+        cache.remove(rejected);
+        assertEquals(0, cache.size());
+    }
+
+    private String authorization(HttpCredentialCache cache, String location) throws Exception {
+        return cache.getAuthorization("GET", new URL(location), scope).getValue();
+    }
+
+    private static final class CountingCredentials extends HttpCredentialCache.Credentials {
+        private int count;
+
+        @Override
+        protected String authorize(String method, URL location) {
+            return "Digest nc=" + (++count);
+        }
+    }
+}
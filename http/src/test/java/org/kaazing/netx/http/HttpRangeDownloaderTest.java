@@ -0,0 +1,271 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kaazing.netx.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class HttpRangeDownloaderTest {
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final Pattern RANGE = Pattern.compile("Range: bytes=(\\d+)-(\\d+)\r\n");
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private ServerSocket server;
+    private List<String> requests;
+    private byte[] content;
+    private volatile boolean acceptRanges;
+    private volatile String etag;
+    private volatile long truncateAt;
+    private volatile boolean changeAfterProbe;
+    private URI location;
+    private HttpConnectionPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new ServerSocket(0);
+        requests = new CopyOnWriteArrayList<String>();
+        content = new byte[1 << 20];
+        new Random(0L).nextBytes(content);
+        acceptRanges = true;
+        etag = "\"v1\"";
+        truncateAt = -1L;
+        location = new URI("http://localhost:" + server.getLocalPort() + "/artifact");
+        pool = HttpConnectionPool.newInstance();
+
+        Thread acceptor = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        final Socket socket = server.accept();
+                        Thread handler = new Thread() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        };
+                        handler.setDaemon(true);
+                        handler.start();
+                    }
+                }
+                catch (IOException e) {
+                    // server closed
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.clear();
+        server.close();
+    }
+
+    @Test
+    public void shouldDownloadRangesIntoFileChannel() throws Exception {
+        HttpRangeDownloader downloader = HttpRangeDownloader.newInstance(pool, 4, 65536L, 3);
+        File file = folder.newFile("artifact");
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            assertEquals(content.length, downloader.download(location, channel));
+            assertEquals(content.length, channel.size());
+        }
+        finally {
+            randomAccessFile.close();
+        }
+
+        assertArrayEquals(content, read(file));
+        assertEquals(4L, downloader.getFetchedSegmentCount());
+        assertEquals(0L, downloader.getFallbackCount());
+        assertTrue(requests.get(0).startsWith("HEAD "));
+        assertEquals(5, requests.size());
+        for (String request : requests.subList(1, requests.size())) {
+            assertTrue(request.contains("Range: bytes="));
+            assertTrue(request.contains("If-Range: \"v1\""));
+        }
+    }
+
+    @Test
+    public void shouldDownloadRangesIntoMappedFile() throws Exception {
+        HttpRangeDownloader downloader = HttpRangeDownloader.newInstance(pool, 3, 65536L, 3);
+        File file = folder.newFile("artifact");
+        new RandomAccessFile(file, "rw").close();
+
+        assertEquals(content.length, downloader.download(location, file));
+
+        assertArrayEquals(content, read(file));
+        assertEquals(3L, downloader.getFetchedSegmentCount());
+    }
+
+    @Test
+    public void shouldRetryRangeFromLastByteWritten() throws Exception {
+        HttpRangeDownloader downloader = HttpRangeDownloader.newInstance(pool, 4, 65536L, 3);
+        File file = folder.newFile("artifact");
+        truncateAt = 300000L;
+
+        assertEquals(content.length, downloader.download(location, file));
+
+        assertArrayEquals(content, read(file));
+        assertEquals(1L, downloader.getRetryCount());
+        assertEquals(4L, downloader.getFetchedSegmentCount());
+        boolean resumed = false;
+        for (String request : requests) {
+            resumed |= request.contains("Range: bytes=300000-");
+        }
+        assertTrue(resumed);
+    }
+
+    @Test
+    public void shouldDownloadWholeResourceWithoutRangeSupport() throws Exception {
+        HttpRangeDownloader downloader = HttpRangeDownloader.newInstance(pool, 4, 65536L, 3);
+        File file = folder.newFile("artifact");
+        acceptRanges = false;
+
+        assertEquals(content.length, downloader.download(location, file));
+
+        assertArrayEquals(content, read(file));
+        assertEquals(1L, downloader.getFallbackCount());
+        assertEquals(0L, downloader.getFetchedSegmentCount());
+        assertEquals(2, requests.size());
+        assertTrue(!requests.get(1).contains("Range:"));
+    }
+
+    @Test
+    public void shouldFailWhenResourceChanges() throws Exception {
+        HttpRangeDownloader downloader = HttpRangeDownloader.newInstance(pool, 4, 65536L, 3);
+        File file = folder.newFile("artifact");
+        changeAfterProbe = true;
+
+        try {
+            downloader.download(location, file);
+            fail("Expected IOException");
+        }
+        catch (IOException e) {
+            assertTrue(e.getMessage().contains("Resource changed"));
+        }
+        assertEquals(0L, downloader.getRetryCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectZeroSegments() throws Exception {
+        HttpRangeDownloader.newInstance(pool, 0, 65536L, 3);
+    }
+
+    private static byte[] read(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) randomAccessFile.length()];
+            randomAccessFile.readFully(bytes);
+            return bytes;
+        }
+        finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            for (String request = readHead(in); request != null; request = readHead(in)) {
+                requests.add(request);
+                String tag = etag;
+                String head;
+                int start = 0;
+                int end = content.length;
+                Matcher range = RANGE.matcher(request);
+                if (acceptRanges && range.find() && request.contains("If-Range: " + tag + "\r\n")) {
+                    start = Integer.parseInt(range.group(1));
+                    end = Integer.parseInt(range.group(2)) + 1;
+                    head = String.format("HTTP/1.1 206 Partial Content\r\nContent-Range: bytes %d-%d/%d\r\n",
+                            start, end - 1, content.length);
+                }
+                else {
+                    head = "HTTP/1.1 200 OK\r\n";
+                }
+                head += String.format("Content-Length: %d\r\nETag: %s\r\n", end - start, tag);
+                if (acceptRanges) {
+                    head += "Accept-Ranges: bytes\r\n";
+                }
+                out.write((head + "\r\n").getBytes(ISO_8859_1));
+                if (request.startsWith("HEAD ")) {
+                    if (changeAfterProbe) {
+                        etag = "\"v2\"";
+                    }
+                    out.flush();
+                    continue;
+                }
+
+                long truncate = truncateAt;
+                if (truncate > start && truncate < end) {
+                    truncateAt = -1L;
+                    out.write(content, start, (int) truncate - start);
+                    out.flush();
+                    break;
+                }
+                out.write(content, start, end - start);
+                out.flush();
+            }
+            socket.close();
+        }
+        catch (IOException e) {
+            // client gone
+        }
+    }
+
+    private static String readHead(InputStream in) throws IOException {
+        StringBuilder head = new StringBuilder();
+        for (int ch = in.read(); ch != -1; ch = in.read()) {
+            head.append((char) ch);
+            if (head.length() >= 4 && head.lastIndexOf("\r\n\r\n") == head.length() - 4) {
+                return head.toString();
+            }
+        }
+        return null;
+    }
+}
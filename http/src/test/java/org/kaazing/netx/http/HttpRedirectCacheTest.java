@@ -0,0 +1,78 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.kaazing.netx.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.net.URL;
+
+import org.junit.Test;
+
+public class HttpRedirectCacheTest {
+
+    @Test
+    public void shouldReturnRememberedTarget() throws Exception {
+        HttpRedirectCache cache = HttpRedirectCache.newInstance();
+        URL location = new URL("http://localhost:8080/old?query");
+
+        assertNull(cache.get(location));
+        cache.put(location, new URL("https://localhost:9090/new"));
+
+        assertEquals(new URL("https://localhost:9090/new").toExternalForm(), cache.get(location).toExternalForm());
+        assertNull(cache.get(new URL("http://localhost:8080/old")));
+        assertEquals(1L, cache.getHitCount());
+        assertEquals(2L, cache.getMissCount());
+    }
+
+    @Test
+    public void shouldForgetLeastRecentlyUsedBeyondMaximumEntries() throws Exception {
+        HttpRedirectCache cache = HttpRedirectCache.newInstance(2);
+        URL first = new URL("http://localhost:8080/first");
+        URL second = new URL("http://localhost:8080/second");
+        URL third = new URL("http://localhost:8080/third");
+        URL target = new URL("http://localhost:8080/target");
+
+        cache.put(first, target);
+        cache.put(second, target);
+        cache.get(first);
+        cache.put(third, target);
+
+        assertEquals(2, cache.size());
+        assertNull(cache.get(second));
+        assertEquals(target.toExternalForm(), cache.get(first).toExternalForm());
+    }
+
+    @Test
+    public void shouldCountInvalidations() throws Exception {
+        HttpRedirectCache cache = HttpRedirectCache.newInstance();
+        URL location = new URL("http://localhost:8080/old");
+        cache.put(location, new URL("http://localhost:8080/new"));
+
+        cache.remove(location);
+        cache.remove(location);
+
+        assertNull(cache.get(location));
+        assertEquals(1L, cache.getInvalidationCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectNonPositiveMaximumEntries() throws Exception {
+        HttpRedirectCache.newInstance(0);
+    }
+}
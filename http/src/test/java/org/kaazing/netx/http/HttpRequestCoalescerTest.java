@@ -0,0 +1,202 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kaazing.netx.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class HttpRequestCoalescerTest {
+
+    @Test
+    public void shouldReplayBodyToJoinedRequest() throws Exception {
+        HttpRequestCoalescer coalescer = HttpRequestCoalescer.newInstance();
+        URL url = new URL("http://localhost:8080/config");
+        byte[] body = body(20000);
+
+        HttpRequestCoalescer.Flight leader = coalescer.begin(url, null);
+        HttpRequestCoalescer.Flight follower = coalescer.begin(url, null);
+        assertTrue(leader.isLeader());
+        assertFalse(follower.isLeader());
+
+        leader.respond(url, 200, "OK", headers("Content-Length", "20000"), new ByteArrayInputStream(body));
+        assertTrue(follower.await());
+        assertEquals(200, follower.getResponseCode());
+        assertEquals(Arrays.asList("20000"), follower.getHeaderFields().get("Content-Length"));
+
+        assertArrayEquals(body, read(follower.getInputStream()));
+        assertArrayEquals(body, read(leader.getInputStream()));
+        assertEquals(0, coalescer.size());
+        assertEquals(1L, coalescer.getRequestCount());
+        assertEquals(1L, coalescer.getCoalescedCount());
+    }
+
+    @Test
+    public void shouldWaitForLeaderToRespond() throws Exception {
+        HttpRequestCoalescer coalescer = HttpRequestCoalescer.newInstance();
+        final URL url = new URL("http://localhost:8080/config");
+        final HttpRequestCoalescer.Flight leader = coalescer.begin(url, null);
+        HttpRequestCoalescer.Flight follower = coalescer.begin(url, null);
+
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        Thread responder = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50L);
+                    leader.respond(url, 200, "OK", headers(), new ByteArrayInputStream("hello".getBytes("UTF-8")));
+                }
+                catch (Exception e) {
+                    failure.set(e);
+                }
+            }
+        };
+        responder.start();
+
+        assertTrue(follower.await());
+        assertEquals("hello", new String(read(follower.getInputStream()), "UTF-8"));
+        responder.join();
+        assertEquals(null, failure.get());
+    }
+
+    @Test
+    public void shouldSendWaitingRequestWhenLeaderFails() throws Exception {
+        HttpRequestCoalescer coalescer = HttpRequestCoalescer.newInstance();
+        URL url = new URL("http://localhost:8080/config");
+
+        HttpRequestCoalescer.Flight leader = coalescer.begin(url, null);
+        HttpRequestCoalescer.Flight follower = coalescer.begin(url, null);
+        leader.fail();
+
+        assertFalse(follower.await());
+        assertEquals(0, coalescer.size());
+        assertTrue(coalescer.begin(url, null).isLeader());
+    }
+
+    @Test
+    public void shouldCoalesceOnlyIdenticalRequestProperties() throws Exception {
+        HttpRequestCoalescer coalescer = HttpRequestCoalescer.newInstance();
+        URL url = new URL("http://localhost:8080/config");
+
+        HttpRequestCoalescer.Flight leader = coalescer.begin(url, headers("Accept", "text/plain", "X-Trace", "1"));
+        HttpRequestCoalescer.Flight same = coalescer.begin(url, headers("x-trace", "1", "accept", "text/plain"));
+        HttpRequestCoalescer.Flight other = coalescer.begin(url, headers("Accept", "text/html", "X-Trace", "1"));
+
+        assertTrue(leader.isLeader());
+        assertFalse(same.isLeader());
+        assertTrue(other.isLeader());
+        assertTrue(coalescer.begin(new URL("http://localhost:8080/other"), null).isLeader());
+        assertEquals(3, coalescer.size());
+    }
+
+    @Test
+    public void shouldStopJoiningBeyondMaxBufferSize() throws Exception {
+        HttpRequestCoalescer coalescer = HttpRequestCoalescer.newInstance(1024);
+        URL url = new URL("http://localhost:8080/artifact");
+        byte[] body = body(65536);
+
+        HttpRequestCoalescer.Flight leader = coalescer.begin(url, null);
+        HttpRequestCoalescer.Flight follower = coalescer.begin(url, null);
+        leader.respond(url, 200, "OK", headers(), new ByteArrayInputStream(body));
+        assertTrue(follower.await());
+
+        InputStream leaderInput = leader.getInputStream();
+        byte[] start = new byte[4096];
+        assertEquals(4096, leaderInput.read(start));
+        assertEquals(0, coalescer.size());
+
+        HttpRequestCoalescer.Flight late = coalescer.begin(url, null);
+        assertTrue(late.isLeader());
+
+        assertArrayEquals(body, read(follower.getInputStream()));
+        ByteArrayOutputStream rest = new ByteArrayOutputStream();
+        rest.write(start);
+        rest.write(read(leaderInput));
+        assertArrayEquals(body, rest.toByteArray());
+    }
+
+    @Test
+    public void shouldCloseBodyWhenAbandoned() throws Exception {
+        HttpRequestCoalescer coalescer = HttpRequestCoalescer.newInstance();
+        URL url = new URL("http://localhost:8080/config");
+        final boolean[] closed = new boolean[1];
+        InputStream body = new ByteArrayInputStream(body(100)) {
+            @Override
+            public void close() throws IOException {
+                closed[0] = true;
+            }
+        };
+
+        HttpRequestCoalescer.Flight leader = coalescer.begin(url, null);
+        HttpRequestCoalescer.Flight follower = coalescer.begin(url, null);
+        leader.respond(url, 200, "OK", headers(), body);
+        assertTrue(follower.await());
+
+        leader.getInputStream().close();
+        assertFalse(closed[0]);
+        assertSame(follower.getInputStream(), follower.getInputStream());
+        follower.release();
+        assertTrue(closed[0]);
+        assertEquals(0, coalescer.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectNonPositiveMaxBufferSize() throws Exception {
+        HttpRequestCoalescer.newInstance(0);
+    }
+
+    private static byte[] body(int length) {
+        byte[] body = new byte[length];
+        new Random(length).nextBytes(body);
+        return body;
+    }
+
+    private static byte[] read(InputStream input) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1000];
+        for (int length = input.read(buffer); length != -1; length = input.read(buffer)) {
+            bytes.write(buffer, 0, length);
+        }
+        input.close();
+        return bytes.toByteArray();
+    }
+
+    private static Map<String, List<String>> headers(String... namesAndValues) {
+        Map<String, List<String>> headers = new LinkedHashMap<String, List<String>>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            headers.put(namesAndValues[i], Collections.singletonList(namesAndValues[i + 1]));
+        }
+        return headers;
+    }
+}
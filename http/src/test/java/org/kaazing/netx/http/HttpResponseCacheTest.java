@@ -0,0 +1,242 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.kaazing.netx.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class HttpResponseCacheTest {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldMatchFreshResponse() throws Exception {
+        HttpResponseCache cache = HttpResponseCache.newInstance();
+        URL url = new URL("http://localhost:8080/fresh");
+
+        assertNull(cache.match(url, null));
+        assertTrue(cache.put(url, response("hello", "Cache-Control", "max-age=60")));
+
+        HttpResponseCache.Response response = cache.match(url, null);
+        assertNotNull(response);
+        assertEquals("hello", body(response));
+        assertEquals(1L, cache.getHitCount());
+        assertEquals(1L, cache.getMissCount());
+    }
+
+    @Test
+    public void shouldHonorRequestNoCache() throws Exception {
+        HttpResponseCache cache = HttpResponseCache.newInstance();
+        URL url = new URL("http://localhost:8080/fresh");
+        cache.put(url, response("hello", "Cache-Control", "max-age=60", "ETag", "\"v1\""));
+
+        assertNull(cache.match(url, headers("Cache-Control", "no-cache")));
+        assertNull(cache.match(url, headers("Pragma", "no-cache")));
+        assertNotNull(cache.get(url));
+    }
+
+    @Test
+    public void shouldComputeFreshnessFromExpires() throws Exception {
+        long now = System.currentTimeMillis();
+        HttpResponseCache.Response fresh = response("a", "Date", date(now), "Expires", date(now + 60000L));
+        HttpResponseCache.Response expired = response("a", "Date", date(now), "Expires", "0");
+
+        assertTrue(fresh.isFresh(now));
+        assertFalse(expired.isFresh(now));
+    }
+
+    @Test
+    public void shouldComputeHeuristicFreshnessFromLastModified() throws Exception {
+        long now = System.currentTimeMillis();
+        HttpResponseCache.Response response =
+                response("a", "Date", date(now), "Last-Modified", date(now - 100L * 60000L));
+
+        assertEquals(10L * 60000L, response.getFreshnessLifetime(), 1000L);
+        assertTrue(response.isFresh(now));
+    }
+
+    @Test
+    public void shouldIncludeAgeHeader() throws Exception {
+        HttpResponseCache.Response response = response("a", "Cache-Control", "max-age=60", "Age", "120");
+        assertFalse(response.isFresh(System.currentTimeMillis()));
+        assertEquals("\"v1\"", response("a", "ETag", "\"v1\"").getValidators().get("If-None-Match"));
+    }
+
+    @Test
+    public void shouldNotKeepUncacheableResponses() throws Exception {
+        HttpResponseCache cache = HttpResponseCache.newInstance();
+        URL url = new URL("http://localhost:8080/private");
+
+        assertFalse(cache.put(url, response("a", "Cache-Control", "no-store, max-age=60")));
+        assertFalse(cache.put(url, response("a", "Cache-Control", "max-age=60", "Vary", "Cookie")));
+        assertFalse(cache.put(url, response("a", "Cache-Control", "private, max-age=60")));
+        assertFalse(cache.put(url, response("a")));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void shouldOnlyKeepSharedResponsesForAuthorizedRequests() throws Exception {
+        assertTrue(HttpResponseCache.isCacheable(200, headers("Cache-Control", "max-age=60"), false));
+        assertFalse(HttpResponseCache.isCacheable(200, headers("Cache-Control", "max-age=60"), true));
+        assertTrue(HttpResponseCache.isCacheable(200, headers("Cache-Control", "public, max-age=60"), true));
+        assertTrue(HttpResponseCache.isCacheable(200, headers("Cache-Control", "s-maxage=60, max-age=60"), true));
+        assertTrue(HttpResponseCache.isCacheable(200, headers("Cache-Control", "must-revalidate", "ETag", "\"v1\""), true));
+        assertFalse(HttpResponseCache.isCacheable(200, headers("Cache-Control", "private, public, max-age=60"), true));
+    }
+
+    @Test
+    public void shouldDropStaleResponseWithoutValidators() throws Exception {
+        HttpResponseCache cache = HttpResponseCache.newInstance();
+        URL url = new URL("http://localhost:8080/stale");
+        cache.put(url, response("a", "Cache-Control", "max-age=60", "Age", "120"));
+
+        assertNull(cache.match(url, null));
+        assertNull(cache.get(url));
+    }
+
+    @Test
+    public void shouldRevalidateStaleResponse() throws Exception {
+        HttpResponseCache cache = HttpResponseCache.newInstance();
+        URL url = new URL("http://localhost:8080/stale");
+        cache.put(url, response("hello", "Cache-Control", "no-cache", "ETag", "\"v1\""));
+        assertNull(cache.match(url, null));
+
+        HttpResponseCache.Response stale = cache.get(url);
+        long now = System.currentTimeMillis();
+        HttpResponseCache.Response updated = cache.revalidate(url, stale, headers("Cache-Control", "max-age=60"), now, now);
+
+        assertEquals("hello", body(updated));
+        assertEquals(Arrays.asList("max-age=60"), updated.getHeaderFields().get("Cache-Control"));
+        assertNotNull(cache.match(url, null));
+        assertEquals(1L, cache.getRevalidationCount());
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedFromMemory() throws Exception {
+        HttpResponseCache cache = HttpResponseCache.newInstance(25L);
+        URL first = new URL("http://localhost:8080/first");
+        URL second = new URL("http://localhost:8080/second");
+        URL third = new URL("http://localhost:8080/third");
+
+        cache.put(first, response("0123456789", "Cache-Control", "max-age=60"));
+        cache.put(second, response("0123456789", "Cache-Control", "max-age=60"));
+        cache.get(first);
+        cache.put(third, response("0123456789", "Cache-Control", "max-age=60"));
+
+        assertNotNull(cache.get(first));
+        assertNull(cache.get(second));
+        assertNotNull(cache.get(third));
+    }
+
+    @Test
+    public void shouldMoveEvictedResponsesToMappedFiles() throws Exception {
+        File directory = folder.newFolder("cache");
+        HttpResponseCache cache = HttpResponseCache.newInstance(15L, directory, 1024L);
+        URL first = new URL("http://localhost:8080/first");
+        URL second = new URL("http://localhost:8080/second");
+
+        cache.put(first, response("0123456789", "Cache-Control", "max-age=60", "ETag", "\"v1\""));
+        cache.put(second, response("abcdefghij", "Cache-Control", "max-age=60"));
+        assertEquals(1, directory.list().length);
+
+        HttpResponseCache.Response response = cache.get(first);
+        assertTrue(response.getBody() instanceof MappedByteBuffer);
+        assertEquals("0123456789", body(response));
+        assertEquals(Arrays.asList("\"v1\""), response.getHeaderFields().get("ETag"));
+        assertEquals(Arrays.asList("HTTP/1.1 200 OK"), response.getHeaderFields().get(null));
+
+        HttpResponseCache reopened = HttpResponseCache.newInstance(15L, directory, 1024L);
+        assertEquals("0123456789", body(reopened.get(first)));
+        assertNull(reopened.get(second));
+
+        reopened.clear();
+        assertEquals(0, directory.list().length);
+    }
+
+    @Test
+    public void shouldLimitDiskSize() throws Exception {
+        File directory = folder.newFolder("cache");
+        HttpResponseCache cache = HttpResponseCache.newInstance(16L, directory, 300L);
+
+        for (int i = 0; i < 10; i++) {
+            cache.put(new URL("http://localhost:8080/" + i), response("0123456789", "Cache-Control", "max-age=60"));
+        }
+
+        long size = 0L;
+        for (File file : directory.listFiles()) {
+            size += file.length();
+        }
+        assertTrue(size <= 300L);
+        assertNotNull(cache.get(new URL("http://localhost:8080/8")));
+        assertNull(cache.get(new URL("http://localhost:8080/0")));
+    }
+
+    private static HttpResponseCache.Response response(String body, String... headers) {
+        Map<String, List<String>> headerFields = new LinkedHashMap<String, List<String>>();
+        headerFields.put(null, Collections.singletonList("HTTP/1.1 200 OK"));
+        headerFields.putAll(headers(headers));
+        long now = System.currentTimeMillis();
+        return new HttpResponseCache.Response(200, "OK", headerFields, ByteBuffer.wrap(body.getBytes(US_ASCII)), now, now);
+    }
+
+    private static Map<String, List<String>> headers(String... headers) {
+        Map<String, List<String>> headerFields = new LinkedHashMap<String, List<String>>();
+        for (int i = 0; i < headers.length; i += 2) {
+            headerFields.put(headers[i], Collections.singletonList(headers[i + 1]));
+        }
+        return headerFields;
+    }
+
+    private static String body(HttpResponseCache.Response response) {
+        ByteBuffer body = response.getBody();
+        byte[] bytes = new byte[body.remaining()];
+        body.get(bytes);
+        return new String(bytes, US_ASCII);
+    }
+
+    private static String date(long time) {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(new Date(time));
+    }
+}
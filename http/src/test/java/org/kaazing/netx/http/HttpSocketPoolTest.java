@@ -0,0 +1,183 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kaazing.netx.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HttpSocketPoolTest {
+
+    private ServerSocket server;
+    private List<Socket> accepted;
+    private URL url;
+    private HttpSocketPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new ServerSocket(0);
+        accepted = new CopyOnWriteArrayList<Socket>();
+        url = new URL("http", "localhost", server.getLocalPort(), "/");
+        pool = HttpSocketPool.newInstance(30000L, 50L);
+
+        Thread acceptor = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        accepted.add(server.accept());
+                    }
+                }
+                catch (IOException e) {
+                    // server closed
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.clear();
+        server.close();
+        for (Socket socket : accepted) {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void shouldKeepWarmSocketsConnected() throws Exception {
+        pool.setWarmSocketCount(url, null, null, 1000, 2);
+
+        awaitIdleSockets(2);
+
+        Socket socket = pool.take(url, null, null);
+        assertNotNull(socket);
+        assertTrue(socket.isConnected());
+        assertEquals(1L, pool.getHitCount());
+
+        awaitIdleSockets(2);
+        socket.close();
+    }
+
+    @Test
+    public void shouldNotTakeSocketForColdEndpoint() throws Exception {
+        assertNull(pool.take(url, null, null));
+        assertEquals(0L, pool.getMissCount());
+    }
+
+    @Test
+    public void shouldEvictSocketsClosedByServer() throws Exception {
+        pool.setWarmSocketCount(url, null, null, 1000, 1);
+
+        awaitIdleSockets(1);
+
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (accepted.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        accepted.get(0).close();
+
+        while (pool.getEvictionCount() == 0L && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+
+        assertEquals(1L, pool.getEvictionCount());
+        awaitIdleSockets(1);
+    }
+
+    @Test
+    public void shouldNotTakeSocketWhileHealthCheckReadsIt() throws Exception {
+        final ServerSocket echo = new ServerSocket(0);
+        Thread acceptor = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        final Socket socket = echo.accept();
+                        accepted.add(socket);
+                        Thread echoer = new Thread() {
+                            @Override
+                            public void run() {
+                                try {
+                                    for (int ch = socket.getInputStream().read(); ch != -1; ch = socket.getInputStream().read()) {
+                                        socket.getOutputStream().write(ch);
+                                    }
+                                }
+                                catch (IOException e) {
+                                    // closed
+                                }
+                            }
+                        };
+                        echoer.setDaemon(true);
+                        echoer.start();
+                    }
+                }
+                catch (IOException e) {
+                    // server closed
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        HttpSocketPool checkedPool = HttpSocketPool.newInstance(30000L, 1L);
+        URL echoURL = new URL("http", "localhost", echo.getLocalPort(), "/");
+        try {
+            checkedPool.setWarmSocketCount(echoURL, null, null, 1000, 4);
+            for (int i = 0; i < 100; i++) {
+                Socket socket = checkedPool.take(echoURL, null, null);
+                if (socket == null) {
+                    Thread.sleep(1L);
+                    continue;
+                }
+
+                // a concurrent probe would leave a 1 ms read timeout or consume the echoed byte
+                assertEquals(0, socket.getSoTimeout());
+                socket.getOutputStream().write('x');
+                socket.setSoTimeout(5000);
+                assertEquals('x', socket.getInputStream().read());
+                socket.close();
+            }
+        }
+        finally {
+            checkedPool.clear();
+            echo.close();
+        }
+    }
+
+    private void awaitIdleSockets(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (pool.getIdleSocketCount(url, null, null) < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertEquals(count, pool.getIdleSocketCount(url, null, null));
+    }
+}
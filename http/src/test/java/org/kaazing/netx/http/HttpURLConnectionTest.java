@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.kaazing.netx.http;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.junit.Test;
+
+public class HttpURLConnectionTest {
+
+    @Test
+    public void shouldDefaultByteCountsToZero() throws Exception {
+        HttpURLConnection connection = new MinimalURLConnection(new URL("http://localhost/"));
+
+        assertEquals(0L, connection.getEncodedByteCount());
+        assertEquals(0L, connection.getDecodedByteCount());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void shouldNotSupportBufferRequestBodyByDefault() throws Exception {
+        HttpURLConnection connection = new MinimalURLConnection(new URL("http://localhost/"));
+
+        connection.setRequestBody(ByteBuffer.allocate(1));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void shouldNotSupportFileRequestBodyByDefault() throws Exception {
+        HttpURLConnection connection = new MinimalURLConnection(new URL("http://localhost/"));
+
+        connection.setRequestBody((FileChannel) null, 0L, 0L);
+    }
+
+    // implements only the abstract methods of java.net.HttpURLConnection, as subclasses written before the extensions do
+    private static final class MinimalURLConnection extends HttpURLConnection {
+
+        MinimalURLConnection(URL url) {
+            super(url);
+        }
+
+        @Override
+        public void connect() {
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.kaazing.netx.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.net.Socket;
+import java.security.KeyStore;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SSLSessionCacheTest {
+
+    private static final char[] PASSWORD = "changeit".toCharArray();
+
+    private KeyStore keyStore;
+    private SSLServerSocket server;
+
+    @Before
+    public void setUp() throws Exception {
+        keyStore = KeyStore.getInstance("JKS");
+        InputStream in = getClass().getResourceAsStream("keystore.jks");
+        try {
+            keyStore.load(in, PASSWORD);
+        }
+        finally {
+            in.close();
+        }
+
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keyStore, PASSWORD);
+        SSLContext serverContext = SSLContext.getInstance("TLS");
+        serverContext.init(keyManagers.getKeyManagers(), null, null);
+        server = (SSLServerSocket) serverContext.getServerSocketFactory().createServerSocket(0);
+
+        Thread acceptor = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        final Socket socket = server.accept();
+                        Thread handler = new Thread() {
+                            @Override
+                            public void run() {
+                                try {
+                                    // completes the handshake, sending any session tickets ahead of the byte read by the
+                                    // client, then waits for the client to close
+                                    socket.getOutputStream().write(0);
+                                    socket.getOutputStream().flush();
+                                    socket.getInputStream().read();
+                                    socket.close();
+                                }
+                                catch (IOException e) {
+                                    // client gone
+                                }
+                            }
+                        };
+                        handler.setDaemon(true);
+                        handler.start();
+                    }
+                }
+                catch (IOException e) {
+                    // server closed
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Test
+    public void shouldResumeSessionAfterFullHandshake() throws Exception {
+        SSLSessionCache cache = SSLSessionCache.getInstance(newClientContext());
+
+        connect(cache).close();
+        assertEquals(1L, cache.getFullHandshakeCount());
+        assertEquals(0L, cache.getResumedHandshakeCount());
+
+        connect(cache).close();
+        connect(cache).close();
+        assertEquals(1L, cache.getFullHandshakeCount());
+        assertEquals(2L, cache.getResumedHandshakeCount());
+    }
+
+    @Test
+    public void shouldResumeTLSv12SessionAfterFullHandshake() throws Exception {
+        SSLSessionCache cache = SSLSessionCache.getInstance(newClientContext("TLSv1.2"));
+
+        connect(cache).close();
+        connect(cache).close();
+        connect(cache).close();
+        assertEquals(1L, cache.getFullHandshakeCount());
+        assertEquals(2L, cache.getResumedHandshakeCount());
+    }
+
+    @Test
+    public void shouldNegotiateNewSessionAfterInvalidation() throws Exception {
+        SSLSessionCache cache = SSLSessionCache.getInstance(newClientContext());
+
+        SSLSocket socket = connect(cache);
+        socket.getSession().invalidate();
+        socket.close();
+        connect(cache).close();
+
+        assertEquals(2L, cache.getFullHandshakeCount());
+        assertEquals(0L, cache.getResumedHandshakeCount());
+    }
+
+    @Test
+    public void shouldShareHandshakeCountsPerContext() throws Exception {
+        SSLContext sslContext = newClientContext();
+
+        connect(SSLSessionCache.getInstance(sslContext)).close();
+        connect(SSLSessionCache.getInstance(sslContext)).close();
+
+        SSLSessionCache cache = SSLSessionCache.getInstance(sslContext);
+        assertSame(sslContext, cache.getSSLContext());
+        assertEquals(1L, cache.getFullHandshakeCount());
+        assertEquals(1L, cache.getResumedHandshakeCount());
+        assertEquals(0L, SSLSessionCache.getInstance(newClientContext()).getFullHandshakeCount());
+    }
+
+    @Test(timeout = 10000)
+    public void shouldNotRetainContext() throws Exception {
+        SSLContext sslContext = newClientContext();
+        connect(SSLSessionCache.getInstance(sslContext)).close();
+
+        WeakReference<SSLContext> reference = new WeakReference<SSLContext>(sslContext);
+        sslContext = null;
+        while (reference.get() != null) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(reference.get());
+    }
+
+    private SSLContext newClientContext() throws Exception {
+        // the default protocols, TLS 1.3 where supported, resume from a ticket-derived session
+        return newClientContext("TLS");
+    }
+
+    private SSLContext newClientContext(String protocol) throws Exception {
+        TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(keyStore);
+
+        SSLContext sslContext = SSLContext.getInstance(protocol);
+        sslContext.init(null, trustManagers.getTrustManagers(), null);
+        return sslContext;
+    }
+
+    private SSLSocket connect(SSLSessionCache cache) throws IOException {
+        Socket socket = new Socket("localhost", server.getLocalPort());
+        SSLSocket sslSocket = cache.createSocket(socket, "localhost", server.getLocalPort());
+
+        // reading processes the session tickets sent after a TLS 1.3 handshake
+        sslSocket.getInputStream().read();
+        return sslSocket;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kaazing.netx.http.internal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.kaazing.netx.http.HttpConnectionPool;
+
+public class Http2ConnectionTest {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private Http2StandInServer server;
+    private HttpConnectionPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new Http2StandInServer();
+        pool = HttpConnectionPool.newInstance();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.clear();
+        server.close();
+    }
+
+    @Test
+    public void shouldReadResponseOverPriorKnowledgeConnection() throws Exception {
+        server.setBody("/hello", "hello".getBytes(US_ASCII));
+
+        HttpURLConnectionImpl connection = get("/hello");
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("HTTP/2 200", connection.getHeaderField(0));
+        assertEquals("application/octet-stream", connection.getHeaderField("Content-Type"));
+        assertEquals("hello", new String(read(connection.getInputStream()), US_ASCII));
+
+        assertEquals("GET", server.getRequests().get(0).get(":method"));
+        assertEquals("/hello", server.getRequests().get(0).get(":path"));
+        assertNull(server.getRequests().get(0).get("host"));
+        assertTrue(server.getErrors().isEmpty());
+    }
+
+    @Test
+    public void shouldMultiplexConcurrentRequestsOnOneConnection() throws Exception {
+        server.setBody("/warm", new byte[0]);
+        read(get("/warm").getInputStream());
+
+        int concurrency = 4;
+        server.holdUntilOpenStreams(concurrency);
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        try {
+            Future<?>[] responses = new Future<?>[concurrency];
+            for (int i = 0; i < concurrency; i++) {
+                final String path = "/stream/" + i;
+                server.setBody(path, path.getBytes(US_ASCII));
+                responses[i] = executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return new String(read(get(path).getInputStream()), US_ASCII);
+                    }
+                });
+            }
+
+            // the server answers only once all the streams are open at the same time
+            for (int i = 0; i < concurrency; i++) {
+                assertEquals("/stream/" + i, responses[i].get());
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        assertEquals(1, server.getConnectionCount());
+        assertEquals(concurrency, server.getMaxOpenStreams());
+        assertEquals(concurrency - 1, pool.getMultiplexedCount());
+        assertTrue(server.getErrors().isEmpty());
+    }
+
+    @Test
+    public void shouldRespectFlowControlWindowsInBothDirections() throws Exception {
+        byte[] upload = new byte[300000];
+        for (int i = 0; i < upload.length; i++) {
+            upload[i] = (byte) i;
+        }
+        byte[] download = new byte[3 * Http2Connection.STREAM_WINDOW_SIZE];
+        for (int i = 0; i < download.length; i++) {
+            download[i] = (byte) (i * 31);
+        }
+        server.setBody("/download", download);
+
+        HttpURLConnectionImpl post = get("/upload");
+        post.setDoOutput(true);
+        post.setFixedLengthStreamingMode(upload.length);
+        OutputStream out = post.getOutputStream();
+        out.write(upload);
+        assertArrayEquals(upload, read(post.getInputStream()));
+        assertEquals(Integer.toString(upload.length), post.getHeaderField("x-request-length"));
+
+        assertArrayEquals(download, read(get("/download").getInputStream()));
+        assertEquals(1, server.getConnectionCount());
+        assertTrue(server.getErrors().toString(), server.getErrors().isEmpty());
+    }
+
+    @Test
+    public void shouldSendRequestBodyBuffersInDataFrames() throws Exception {
+        ByteBuffer direct = ByteBuffer.allocateDirect(Http2Connection.DEFAULT_MAX_FRAME_SIZE + 1);
+        while (direct.hasRemaining()) {
+            direct.put((byte) direct.position());
+        }
+        direct.flip();
+        byte[] upload = new byte[direct.remaining() + 5];
+        direct.duplicate().get(upload, 5, direct.remaining());
+        System.arraycopy("hello".getBytes(US_ASCII), 0, upload, 0, 5);
+
+        HttpURLConnectionImpl post = get("/upload");
+        post.setRequestBody(ByteBuffer.wrap("hello".getBytes(US_ASCII)), direct);
+        assertArrayEquals(upload, read(post.getInputStream()));
+        assertEquals(Integer.toString(upload.length), server.getRequests().get(0).get("content-length"));
+        assertTrue(server.getErrors().toString(), server.getErrors().isEmpty());
+    }
+
+    @Test
+    public void shouldShareDynamicTableAcrossRequests() throws Exception {
+        server.setBody("/same", "same".getBytes(US_ASCII));
+
+        for (int i = 0; i < 3; i++) {
+            HttpURLConnectionImpl connection = get("/same");
+            connection.setRequestProperty("X-Custom-Header", "a reasonably long custom header value");
+            connection.setRequestProperty("User-Agent", "netx-test");
+            assertEquals("same", new String(read(connection.getInputStream()), US_ASCII));
+        }
+
+        // repeated fields are sent as indexes into the dynamic table
+        List<Integer> lengths = server.getHeaderBlockLengths();
+        assertEquals(3, lengths.size());
+        assertTrue(lengths.toString(), lengths.get(1) < lengths.get(0) / 4);
+        assertEquals(lengths.get(1), lengths.get(2));
+        assertEquals("a reasonably long custom header value", server.getRequests().get(2).get("x-custom-header"));
+        assertEquals(1, server.getConnectionCount());
+    }
+
+    @Test
+    public void shouldResetUnreadStreamAndReuseConnection() throws Exception {
+        server.setBody("/large", new byte[2 * Http2Connection.DEFAULT_MAX_FRAME_SIZE]);
+        server.setBody("/small", "small".getBytes(US_ASCII));
+
+        HttpURLConnectionImpl large = get("/large");
+        InputStream in = large.getInputStream();
+        assertEquals(0, in.read());
+        in.close();
+
+        assertEquals("small", new String(read(get("/small").getInputStream()), US_ASCII));
+        assertEquals(1, server.getConnectionCount());
+        assertEquals(1, pool.getIdleConnectionCount(new URL("http", "localhost", server.getLocalPort(), "/"), null, null));
+    }
+
+    private HttpURLConnectionImpl get(String path) throws IOException {
+        URL url = new URL("http", "localhost", server.getLocalPort(), path);
+        HttpURLConnectionImpl connection = new HttpURLConnectionImpl(url);
+        connection.setConnectionPool(pool);
+        connection.setHttp2Enabled(true);
+        return connection;
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int length = in.read(buffer); length != -1; length = in.read(buffer)) {
+            content.write(buffer, 0, length);
+        }
+        in.close();
+        return content.toByteArray();
+    }
+}
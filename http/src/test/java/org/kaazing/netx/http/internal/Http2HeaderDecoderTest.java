@@ -0,0 +1,110 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kaazing.netx.http.internal;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Test;
+
+public class Http2HeaderDecoderTest {
+
+    @Test
+    public void shouldDecodeRequestsWithoutHuffmanCoding() throws Exception {
+        // RFC 7541, Appendix C.3
+        Http2HeaderDecoder decoder = new Http2HeaderDecoder();
+
+        List<String[]> first = decode(decoder, "828684410f7777772e6578616d706c652e636f6d");
+        assertHeaders(first, ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com");
+        assertEquals(1, decoder.tableLength());
+
+        List<String[]> second = decode(decoder, "828684be58086e6f2d6361636865");
+        assertHeaders(second, ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com",
+                "cache-control", "no-cache");
+        assertEquals(2, decoder.tableLength());
+
+        List<String[]> third = decode(decoder, "828785bf400a637573746f6d2d6b65790c637573746f6d2d76616c7565");
+        assertHeaders(third, ":method", "GET", ":scheme", "https", ":path", "/index.html", ":authority", "www.example.com",
+                "custom-key", "custom-value");
+        assertEquals(3, decoder.tableLength());
+    }
+
+    @Test
+    public void shouldDecodeRequestsWithHuffmanCoding() throws Exception {
+        // RFC 7541, Appendix C.4
+        Http2HeaderDecoder decoder = new Http2HeaderDecoder();
+
+        assertHeaders(decode(decoder, "828684418cf1e3c2e5f23a6ba0ab90f4ff"),
+                ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com");
+        assertHeaders(decode(decoder, "828684be5886a8eb10649cbf"),
+                ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com",
+                "cache-control", "no-cache");
+        assertHeaders(decode(decoder, "828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf"),
+                ":method", "GET", ":scheme", "https", ":path", "/index.html", ":authority", "www.example.com",
+                "custom-key", "custom-value");
+    }
+
+    @Test
+    public void shouldEvictOldestEntriesOnTableSizeUpdate() throws Exception {
+        Http2HeaderDecoder decoder = new Http2HeaderDecoder();
+        decode(decoder, "828684410f7777772e6578616d706c652e636f6d");
+        decode(decoder, "828684be58086e6f2d6361636865");
+
+        // size update to 55 octets keeps only cache-control: no-cache, 53 octets
+        assertHeaders(decode(decoder, "3f18be"), "cache-control", "no-cache");
+        assertEquals(1, decoder.tableLength());
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldRejectIndexBeyondTable() throws Exception {
+        decode(new Http2HeaderDecoder(), "be");
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldRejectTableSizeUpdateAfterHeaderField() throws Exception {
+        decode(new Http2HeaderDecoder(), "8220");
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldRejectTableSizeAboveSetting() throws Exception {
+        decode(new Http2HeaderDecoder(), "3fe21f");
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldRejectInvalidHuffmanPadding() throws Exception {
+        // the value "a" padded with zero bits rather than a prefix of EOS
+        decode(new Http2HeaderDecoder(), "0001618118");
+    }
+
+    static List<String[]> decode(Http2HeaderDecoder decoder, String hex) throws IOException {
+        byte[] block = new byte[hex.length() / 2];
+        for (int i = 0; i < block.length; i++) {
+            block[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return decoder.decode(block, 0, block.length);
+    }
+
+    static void assertHeaders(List<String[]> headers, String... expected) {
+        assertEquals(expected.length / 2, headers.size());
+        for (int i = 0; i < headers.size(); i++) {
+            assertEquals(expected[2 * i], headers.get(i)[0]);
+            assertEquals(expected[2 * i + 1], headers.get(i)[1]);
+        }
+    }
+}
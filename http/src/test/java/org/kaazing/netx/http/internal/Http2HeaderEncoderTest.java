@@ -0,0 +1,109 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kaazing.netx.http.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.kaazing.netx.http.internal.Http2HeaderDecoderTest.assertHeaders;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class Http2HeaderEncoderTest {
+
+    @Test
+    public void shouldEncodeRequestsWithHuffmanCoding() throws Exception {
+        // RFC 7541, Appendix C.4
+        Http2HeaderEncoder encoder = new Http2HeaderEncoder();
+
+        assertEquals("828684418cf1e3c2e5f23a6ba0ab90f4ff",
+                encode(encoder, ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com"));
+        assertEquals("828684be5886a8eb10649cbf",
+                encode(encoder, ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com",
+                        "cache-control", "no-cache"));
+        assertEquals("828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf",
+                encode(encoder, ":method", "GET", ":scheme", "https", ":path", "/index.html", ":authority", "www.example.com",
+                        "custom-key", "custom-value"));
+        assertEquals(3, encoder.tableLength());
+    }
+
+    @Test
+    public void shouldNeverIndexCredentials() throws Exception {
+        Http2HeaderEncoder encoder = new Http2HeaderEncoder();
+
+        String encoded = encode(encoder, "authorization", "Basic dXNlcjpwYXNz");
+        assertTrue(encoded, encoded.startsWith("1f08"));
+        assertEquals(0, encoder.tableLength());
+    }
+
+    @Test
+    public void shouldSignalTableSizeUpdate() throws Exception {
+        Http2HeaderEncoder encoder = new Http2HeaderEncoder();
+        Http2HeaderDecoder decoder = new Http2HeaderDecoder();
+        roundTrip(encoder, decoder, "x-first", "1", "x-second", "2");
+        assertEquals(2, decoder.tableLength());
+
+        encoder.setMaxTableSize(0);
+        encoder.setMaxTableSize(128);
+        roundTrip(encoder, decoder, "x-third", "3");
+
+        // emptied by the smallest size, then refilled within the final size
+        assertEquals(1, decoder.tableLength());
+        assertEquals(1, encoder.tableLength());
+    }
+
+    @Test
+    public void shouldRoundTripAllOctets() throws Exception {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 256; i++) {
+            value.append((char) i);
+        }
+
+        Http2HeaderEncoder encoder = new Http2HeaderEncoder();
+        Http2HeaderDecoder decoder = new Http2HeaderDecoder();
+        roundTrip(encoder, decoder, "x-octets", value.toString(), "x-text", "the quick brown fox jumps over the lazy dog");
+        roundTrip(encoder, decoder, "x-octets", value.toString(), "x-text", "the quick brown fox jumps over the lazy dog");
+    }
+
+    private static void roundTrip(Http2HeaderEncoder encoder, Http2HeaderDecoder decoder, String... fields) throws Exception {
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        encoder.encode(headers(fields), block);
+        assertHeaders(decoder.decode(block.toByteArray(), 0, block.size()), fields);
+    }
+
+    private static String encode(Http2HeaderEncoder encoder, String... fields) {
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        encoder.encode(headers(fields), block);
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : block.toByteArray()) {
+            hex.append(String.format("%02x", b & 0xff));
+        }
+        return hex.toString();
+    }
+
+    private static List<String[]> headers(String... fields) {
+        List<String[]> headers = new ArrayList<String[]>();
+        for (int i = 0; i < fields.length; i += 2) {
+            headers.add(new String[] { fields[i], fields[i + 1] });
+        }
+        return headers;
+    }
+}
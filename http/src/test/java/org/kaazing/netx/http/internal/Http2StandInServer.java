@@ -0,0 +1,437 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kaazing.netx.http.internal;
+
+import static org.kaazing.netx.http.internal.Http2Connection.DEFAULT_WINDOW_SIZE;
+import static org.kaazing.netx.http.internal.Http2Connection.FLAG_ACK;
+import static org.kaazing.netx.http.internal.Http2Connection.FLAG_END_HEADERS;
+import static org.kaazing.netx.http.internal.Http2Connection.FLAG_END_STREAM;
+import static org.kaazing.netx.http.internal.Http2Connection.FRAME_HEADER_LENGTH;
+import static org.kaazing.netx.http.internal.Http2Connection.PREFACE;
+import static org.kaazing.netx.http.internal.Http2Connection.SETTINGS_INITIAL_WINDOW_SIZE;
+import static org.kaazing.netx.http.internal.Http2Connection.SETTINGS_MAX_CONCURRENT_STREAMS;
+import static org.kaazing.netx.http.internal.Http2Connection.TYPE_CONTINUATION;
+import static org.kaazing.netx.http.internal.Http2Connection.TYPE_DATA;
+import static org.kaazing.netx.http.internal.Http2Connection.TYPE_GOAWAY;
+import static org.kaazing.netx.http.internal.Http2Connection.TYPE_HEADERS;
+import static org.kaazing.netx.http.internal.Http2Connection.TYPE_PING;
+import static org.kaazing.netx.http.internal.Http2Connection.TYPE_SETTINGS;
+import static org.kaazing.netx.http.internal.Http2Connection.TYPE_WINDOW_UPDATE;
+import static org.kaazing.netx.http.internal.Http2Connection.toBytes;
+import static org.kaazing.netx.http.internal.Http2Connection.toInt;
+import static org.kaazing.netx.http.internal.Http2Connection.writeFrame;
+import static org.kaazing.netx.http.internal.Http2Connection.writeSetting;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A minimal in-process HTTP/2 server with prior knowledge, answering each request once its stream has ended.
+ *
+ * A request for a registered path is answered with the registered body, any other request with its own body. Responses
+ * may be held back until a number of streams are open at once. Flow control is enforced in both directions: the server
+ * opens its receive windows only as request data arrives, and sends response data only within the client's windows.
+ */
+final class Http2StandInServer {
+
+    private final ServerSocket server;
+    private final Map<String, byte[]> bodies;
+    private final AtomicInteger connections;
+    private final List<Integer> headerBlockLengths;
+    private final List<Map<String, String>> requests;
+    private final List<String> errors;
+
+    private int holdUntilOpenStreams;
+    private int openStreams;
+    private int maxOpenStreams;
+
+    Http2StandInServer() throws IOException {
+        this.server = new ServerSocket(0);
+        this.bodies = new ConcurrentHashMap<String, byte[]>();
+        this.connections = new AtomicInteger();
+        this.headerBlockLengths = new CopyOnWriteArrayList<Integer>();
+        this.requests = new CopyOnWriteArrayList<Map<String, String>>();
+        this.errors = new CopyOnWriteArrayList<String>();
+
+        Thread acceptor = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        final Socket socket = server.accept();
+                        connections.incrementAndGet();
+                        Thread reader = new Thread() {
+                            @Override
+                            public void run() {
+                                try {
+                                    new Session(socket).run();
+                                }
+                                catch (IOException e) {
+                                    // connection closed
+                                }
+                            }
+                        };
+                        reader.setDaemon(true);
+                        reader.start();
+                    }
+                }
+                catch (IOException e) {
+                    // server closed
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int getLocalPort() {
+        return server.getLocalPort();
+    }
+
+    void setBody(String path, byte[] body) {
+        bodies.put(path, body);
+    }
+
+    synchronized void holdUntilOpenStreams(int streams) {
+        holdUntilOpenStreams = streams;
+    }
+
+    synchronized int getMaxOpenStreams() {
+        return maxOpenStreams;
+    }
+
+    int getConnectionCount() {
+        return connections.get();
+    }
+
+    List<Integer> getHeaderBlockLengths() {
+        return headerBlockLengths;
+    }
+
+    List<Map<String, String>> getRequests() {
+        return requests;
+    }
+
+    List<String> getErrors() {
+        return errors;
+    }
+
+    void close() throws IOException {
+        server.close();
+    }
+
+    private synchronized void open() {
+        openStreams++;
+        maxOpenStreams = Math.max(maxOpenStreams, openStreams);
+        notifyAll();
+    }
+
+    private synchronized void awaitOpenStreams() throws IOException {
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (openStreams < holdUntilOpenStreams) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0L) {
+                throw new IOException("Streams not opened concurrently");
+            }
+            try {
+                wait(remaining);
+            }
+            catch (InterruptedException e) {
+                throw new IOException(e.getMessage());
+            }
+        }
+
+        // released once, the held responses then complete in any order
+        holdUntilOpenStreams = 0;
+    }
+
+    private synchronized void closed() {
+        openStreams--;
+    }
+
+    private final class Session {
+
+        private final Socket socket;
+        private final DataInputStream input;
+        private final OutputStream output;
+        private final Http2HeaderDecoder decoder;
+        private final Http2HeaderEncoder encoder;
+        private final Map<Integer, Map<String, String>> headers;
+        private final Map<Integer, ByteArrayOutputStream> received;
+        private final Map<Integer, Integer> sendWindows;
+        private final Map<Integer, Integer> receiveWindows;
+
+        private int sendWindow;
+        private int initialWindowSize;
+        private int receiveWindow;
+
+        Session(Socket socket) throws IOException {
+            this.socket = socket;
+            this.input = new DataInputStream(socket.getInputStream());
+            this.output = new BufferedOutputStream(socket.getOutputStream());
+            this.decoder = new Http2HeaderDecoder();
+            this.encoder = new Http2HeaderEncoder();
+            this.headers = new HashMap<Integer, Map<String, String>>();
+            this.received = new HashMap<Integer, ByteArrayOutputStream>();
+            this.sendWindows = new HashMap<Integer, Integer>();
+            this.receiveWindows = new HashMap<Integer, Integer>();
+            this.sendWindow = DEFAULT_WINDOW_SIZE;
+            this.initialWindowSize = DEFAULT_WINDOW_SIZE;
+            this.receiveWindow = DEFAULT_WINDOW_SIZE;
+        }
+
+        void run() throws IOException {
+            byte[] preface = new byte[PREFACE.length];
+            input.readFully(preface);
+            if (!Arrays.equals(PREFACE, preface)) {
+                errors.add("Invalid connection preface");
+                socket.close();
+                return;
+            }
+
+            ByteArrayOutputStream settings = new ByteArrayOutputStream();
+            writeSetting(settings, SETTINGS_MAX_CONCURRENT_STREAMS, 100);
+            write(TYPE_SETTINGS, 0, 0, settings.toByteArray());
+
+            byte[] header = new byte[FRAME_HEADER_LENGTH];
+            while (true) {
+                input.readFully(header);
+                int length = ((header[0] & 0xff) << 16) | ((header[1] & 0xff) << 8) | (header[2] & 0xff);
+                int type = header[3] & 0xff;
+                int flags = header[4] & 0xff;
+                int streamId = toInt(header, 5) & 0x7fffffff;
+                byte[] payload = new byte[length];
+                input.readFully(payload);
+
+                switch (type) {
+                case TYPE_SETTINGS:
+                    if ((flags & FLAG_ACK) == 0) {
+                        applySettings(payload);
+                        write(TYPE_SETTINGS, FLAG_ACK, 0, new byte[0]);
+                    }
+                    break;
+                case TYPE_WINDOW_UPDATE:
+                    openWindow(streamId, toInt(payload, 0));
+                    break;
+                case TYPE_PING:
+                    write(TYPE_PING, FLAG_ACK, 0, payload);
+                    break;
+                case TYPE_HEADERS:
+                    readHeaders(streamId, flags, payload);
+                    break;
+                case TYPE_DATA:
+                    readData(streamId, flags, payload);
+                    break;
+                case TYPE_GOAWAY:
+                    socket.close();
+                    return;
+                default:
+                    break;
+                }
+            }
+        }
+
+        private synchronized void applySettings(byte[] payload) {
+            for (int offset = 0; offset < payload.length; offset += 6) {
+                int identifier = ((payload[offset] & 0xff) << 8) | (payload[offset + 1] & 0xff);
+                int value = toInt(payload, offset + 2);
+                if (identifier == SETTINGS_INITIAL_WINDOW_SIZE) {
+                    for (Map.Entry<Integer, Integer> entry : sendWindows.entrySet()) {
+                        entry.setValue(entry.getValue() + value - initialWindowSize);
+                    }
+                    initialWindowSize = value;
+                }
+            }
+            notifyAll();
+        }
+
+        private synchronized void openWindow(int streamId, int increment) {
+            if (streamId == 0) {
+                sendWindow += increment;
+            }
+            else if (sendWindows.containsKey(streamId)) {
+                sendWindows.put(streamId, sendWindows.get(streamId) + increment);
+            }
+            notifyAll();
+        }
+
+        private void readHeaders(int streamId, int flags, byte[] payload) throws IOException {
+            ByteArrayOutputStream block = new ByteArrayOutputStream();
+            block.write(payload, 0, payload.length);
+            byte[] header = new byte[FRAME_HEADER_LENGTH];
+            while ((flags & FLAG_END_HEADERS) == 0) {
+                input.readFully(header);
+                if ((header[3] & 0xff) != TYPE_CONTINUATION) {
+                    errors.add("Header block interrupted");
+                }
+                byte[] fragment = new byte[((header[0] & 0xff) << 16) | ((header[1] & 0xff) << 8) | (header[2] & 0xff)];
+                input.readFully(fragment);
+                block.write(fragment, 0, fragment.length);
+                flags = header[4] & 0xff;
+            }
+            headerBlockLengths.add(block.size());
+
+            Map<String, String> fields = new HashMap<String, String>();
+            for (String[] field : decoder.decode(block.toByteArray(), 0, block.size())) {
+                if (!field[0].equals(field[0].toLowerCase())) {
+                    errors.add("Upper case header name: " + field[0]);
+                }
+                fields.put(field[0], field[1]);
+            }
+            requests.add(fields);
+
+            synchronized (this) {
+                headers.put(streamId, fields);
+                received.put(streamId, new ByteArrayOutputStream());
+                sendWindows.put(streamId, initialWindowSize);
+            }
+            receiveWindows.put(streamId, DEFAULT_WINDOW_SIZE);
+            open();
+
+            if ((flags & FLAG_END_STREAM) != 0) {
+                respond(streamId);
+            }
+        }
+
+        private void readData(int streamId, int flags, byte[] payload) throws IOException {
+            receiveWindow -= payload.length;
+            if (receiveWindow < 0) {
+                errors.add("Connection receive window exceeded");
+            }
+
+            ByteArrayOutputStream body;
+            synchronized (this) {
+                body = received.get(streamId);
+            }
+            body.write(payload, 0, payload.length);
+
+            int streamWindow = receiveWindows.get(streamId) - payload.length;
+            if (streamWindow < 0) {
+                errors.add("Stream receive window exceeded");
+            }
+
+            // the windows are opened once the client has used half of them
+            if (DEFAULT_WINDOW_SIZE - receiveWindow >= DEFAULT_WINDOW_SIZE / 2) {
+                write(TYPE_WINDOW_UPDATE, 0, 0, toBytes(DEFAULT_WINDOW_SIZE - receiveWindow));
+                receiveWindow = DEFAULT_WINDOW_SIZE;
+            }
+            if (DEFAULT_WINDOW_SIZE - streamWindow >= DEFAULT_WINDOW_SIZE / 2 && (flags & FLAG_END_STREAM) == 0) {
+                write(TYPE_WINDOW_UPDATE, 0, streamId, toBytes(DEFAULT_WINDOW_SIZE - streamWindow));
+                streamWindow = DEFAULT_WINDOW_SIZE;
+            }
+            receiveWindows.put(streamId, streamWindow);
+
+            if ((flags & FLAG_END_STREAM) != 0) {
+                respond(streamId);
+            }
+        }
+
+        private void respond(final int streamId) {
+            Thread responder = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        awaitOpenStreams();
+
+                        Map<String, String> fields;
+                        byte[] requestBody;
+                        synchronized (Session.this) {
+                            fields = headers.get(streamId);
+                            requestBody = received.get(streamId).toByteArray();
+                        }
+
+                        byte[] body = bodies.get(fields.get(":path"));
+                        if (body == null) {
+                            body = requestBody;
+                        }
+
+                        List<String[]> response = new ArrayList<String[]>();
+                        response.add(new String[] { ":status", "200" });
+                        response.add(new String[] { "content-type", "application/octet-stream" });
+                        response.add(new String[] { "x-request-length", Integer.toString(requestBody.length) });
+                        writeHeaders(streamId, response, body.length == 0);
+
+                        for (int offset = 0; offset < body.length; ) {
+                            int length = acquireWindow(streamId, body.length - offset);
+                            int flags = (offset + length == body.length) ? FLAG_END_STREAM : 0;
+                            write(TYPE_DATA, flags, streamId, Arrays.copyOfRange(body, offset, offset + length));
+                            offset += length;
+                        }
+                        closed();
+                    }
+                    catch (IOException e) {
+                        errors.add(e.getMessage());
+                    }
+                }
+            };
+            responder.setDaemon(true);
+            responder.start();
+        }
+
+        private synchronized int acquireWindow(int streamId, int length) throws IOException {
+            long deadline = System.currentTimeMillis() + 5000L;
+            while (sendWindow <= 0 || sendWindows.get(streamId) <= 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0L) {
+                    throw new IOException("Flow control window not opened");
+                }
+                try {
+                    wait(remaining);
+                }
+                catch (InterruptedException e) {
+                    throw new IOException(e.getMessage());
+                }
+            }
+
+            int available = Math.min(Math.min(length, Http2Connection.DEFAULT_MAX_FRAME_SIZE),
+                    Math.min(sendWindow, sendWindows.get(streamId)));
+            sendWindow -= available;
+            sendWindows.put(streamId, sendWindows.get(streamId) - available);
+            return available;
+        }
+
+        private void writeHeaders(int streamId, List<String[]> fields, boolean endStream) throws IOException {
+            synchronized (output) {
+                ByteArrayOutputStream block = new ByteArrayOutputStream();
+                encoder.encode(fields, block);
+                int flags = FLAG_END_HEADERS | (endStream ? FLAG_END_STREAM : 0);
+                writeFrame(output, TYPE_HEADERS, flags, streamId, block.toByteArray(), 0, block.size());
+                output.flush();
+            }
+        }
+
+        private void write(int type, int flags, int streamId, byte[] payload) throws IOException {
+            synchronized (output) {
+                writeFrame(output, type, flags, streamId, payload, 0, payload.length);
+                output.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.kaazing.netx.http.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+public class HttpChunkedInputStreamTest {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    @Test
+    public void shouldReadChunksWithExtensionsAndTrailers() throws Exception {
+        HttpChunkedInputStream in = chunked("3;name=value\r\nhel\r\n2\r\nlo\r\n0\r\nX-Trailer: yes\r\n\r\nnext", 64);
+
+        byte[] buffer = new byte[16];
+        assertEquals(3, in.read(buffer, 0, buffer.length));
+        assertEquals(2, in.read(buffer, 3, buffer.length - 3));
+        assertEquals("hello", new String(buffer, 0, 5, US_ASCII));
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void shouldReturnChunkDataAsReadOnlySlices() throws Exception {
+        HttpChunkedInputStream in = chunked("5\r\nhello\r\n6\r\n world\r\n0\r\n\r\n", 64);
+
+        ByteBuffer first = in.readSlice();
+        assertTrue(first.isReadOnly());
+        assertEquals("hello", ascii(first));
+        assertEquals(" world", ascii(in.readSlice()));
+        assertNull(in.readSlice());
+        assertNull(in.readSlice());
+    }
+
+    @Test
+    public void shouldSplitSlicesAtBufferBoundary() throws Exception {
+        HttpChunkedInputStream in = chunked("10\r\n0123456789abcdef\r\n0\r\n\r\n", 8);
+
+        StringBuilder data = new StringBuilder();
+        for (ByteBuffer slice = in.readSlice(); slice != null; slice = in.readSlice()) {
+            assertTrue(slice.remaining() <= 8);
+            data.append(ascii(slice));
+        }
+        assertEquals("0123456789abcdef", data.toString());
+    }
+
+    @Test(expected = EOFException.class)
+    public void shouldRejectTruncatedChunk() throws Exception {
+        HttpChunkedInputStream in = chunked("5\r\nhel", 64);
+        while (in.readSlice() != null) {
+            // discard
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldRejectBadChunkSize() throws Exception {
+        chunked("xyz\r\n", 64).read();
+    }
+
+    private static HttpChunkedInputStream chunked(String body, int bufferSize) {
+        byte[] bytes = body.getBytes(US_ASCII);
+        return new HttpChunkedInputStream(new HttpResponseInputStream(new ByteArrayInputStream(bytes), bufferSize));
+    }
+
+    private static String ascii(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes, US_ASCII);
+    }
+}
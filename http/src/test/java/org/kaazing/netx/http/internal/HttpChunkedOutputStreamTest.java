@@ -0,0 +1,154 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.kaazing.netx.http.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class HttpChunkedOutputStreamTest {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    @Test
+    public void shouldWriteBufferedChunkWithSingleWrite() throws Exception {
+        RecordingOutputStream out = new RecordingOutputStream();
+        HttpChunkedOutputStream chunked = new HttpChunkedOutputStream(out, 16);
+
+        chunked.write("hel".getBytes(US_ASCII));
+        chunked.write('l');
+        chunked.write("o".getBytes(US_ASCII));
+        chunked.flush();
+
+        assertEquals(1, out.writes.size());
+        assertEquals("5\r\nhello", out.toString("US-ASCII"));
+    }
+
+    @Test
+    public void shouldFrameLargeWriteWithoutCopy() throws Exception {
+        RecordingOutputStream out = new RecordingOutputStream();
+        HttpChunkedOutputStream chunked = new HttpChunkedOutputStream(out, 4);
+
+        byte[] payload = "hello world".getBytes(US_ASCII);
+        chunked.write(payload);
+
+        assertEquals(2, out.writes.size());
+        assertSame(payload, out.writes.get(1));
+        assertEquals("b\r\nhello world", out.toString("US-ASCII"));
+    }
+
+    @Test
+    public void shouldGrowChunkSizeWhenChunksFill() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HttpChunkedOutputStream chunked = new HttpChunkedOutputStream(out, 4);
+
+        chunked.write("abcd".getBytes(US_ASCII), 0, 2);
+        chunked.write("abcd".getBytes(US_ASCII), 2, 2);
+        assertEquals(8, chunked.chunkSize());
+
+        chunked.write("0123".getBytes(US_ASCII));
+        chunked.write("4567".getBytes(US_ASCII));
+        assertEquals(16, chunked.chunkSize());
+
+        chunked.write("89".getBytes(US_ASCII));
+        chunked.close();
+
+        assertEquals("4\r\nabcd\r\n8\r\n01234567\r\n2\r\n89\r\n0\r\n\r\n", out.toString("US-ASCII"));
+    }
+
+    @Test
+    public void shouldNotExceedMaximumChunkSize() throws Exception {
+        HttpChunkedOutputStream chunked = new HttpChunkedOutputStream(new ByteArrayOutputStream(), Integer.MAX_VALUE);
+        assertEquals(HttpChunkedOutputStream.MAX_CHUNK_SIZE, chunked.chunkSize());
+
+        chunked.write(new byte[HttpChunkedOutputStream.MAX_CHUNK_SIZE]);
+        assertEquals(HttpChunkedOutputStream.MAX_CHUNK_SIZE, chunked.chunkSize());
+    }
+
+    @Test
+    public void shouldWriteLastChunkOnlyOnClose() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HttpChunkedOutputStream chunked = new HttpChunkedOutputStream(out, 0);
+
+        chunked.close();
+        chunked.close();
+
+        assertEquals(HttpChunkedOutputStream.DEFAULT_CHUNK_SIZE, chunked.chunkSize());
+        assertEquals("0\r\n\r\n", out.toString("US-ASCII"));
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldRejectWriteAfterClose() throws Exception {
+        HttpChunkedOutputStream chunked = new HttpChunkedOutputStream(new ByteArrayOutputStream(), 16);
+        chunked.close();
+        chunked.write('a');
+    }
+
+    @Test
+    public void shouldDecodeEncodedChunks() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HttpChunkedOutputStream chunked = new HttpChunkedOutputStream(out, 3);
+        for (int i = 0; i < 100; i++) {
+            chunked.write(Integer.toString(i).getBytes(US_ASCII));
+        }
+        chunked.close();
+
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            expected.append(i);
+        }
+
+        HttpResponseInputStream response = new HttpResponseInputStream(new ByteArrayInputStream(out.toByteArray()));
+        HttpChunkedInputStream in = new HttpChunkedInputStream(response);
+        StringBuilder actual = new StringBuilder();
+        for (int ch = in.read(); ch != -1; ch = in.read()) {
+            actual.append((char) ch);
+        }
+        assertEquals(expected.toString(), actual.toString());
+    }
+
+    private static final class RecordingOutputStream extends OutputStream {
+
+        private final List<byte[]> writes = new ArrayList<byte[]>();
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            writes.add(b);
+            bytes.write(b, off, len);
+        }
+
+        String toString(String charsetName) throws IOException {
+            return bytes.toString(charsetName);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.kaazing.netx.http.internal;
+
+import static java.lang.String.format;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.Charset;
+
+import org.kaazing.netx.http.HttpConnectionPool;
+
+/**
+ * Compares sequential small GET requests sent through the JDK delegate with those sent by the netx HTTP/1.1 engine, with
+ * and without pipelining, against a local server.
+ * <p>
+ * Run with {@code java -cp ... org.kaazing.netx.http.internal.HttpConnectionPoolBenchmark [requests]}.
+ */
+public final class HttpConnectionPoolBenchmark {
+
+    private static final byte[] CONTENT = new byte[512];
+    private static final byte[] RESPONSE = response();
+
+    private HttpConnectionPoolBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int requests = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+
+        final ServerSocket server = new ServerSocket(0);
+        Thread acceptor = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        final Socket socket = server.accept();
+                        Thread handler = new Thread() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        };
+                        handler.setDaemon(true);
+                        handler.start();
+                    }
+                }
+                catch (IOException e) {
+                    // server closed
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        try {
+            URL url = new URL("http", "localhost", server.getLocalPort(), "/resource");
+            HttpConnectionPool pool = HttpConnectionPool.newInstance();
+            HttpConnectionPool pipelining = HttpConnectionPool.newInstance(8, 15000L, 8);
+
+            for (int round = 0; round < 3; round++) {
+                report("jdk", requests, sequential(url, null, requests));
+                report("netx", requests, sequential(url, pool, requests));
+                report("netx-pipelined", requests, pipelined(url, pipelining, requests, 8));
+            }
+        }
+        finally {
+            server.close();
+        }
+    }
+
+    private static long sequential(URL url, HttpConnectionPool pool, int requests) throws IOException {
+        byte[] buffer = new byte[CONTENT.length];
+        long startedAt = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            HttpURLConnectionImpl connection = new HttpURLConnectionImpl(url);
+            connection.setConnectionPool(pool);
+            drain(connection.getInputStream(), buffer);
+        }
+        return System.nanoTime() - startedAt;
+    }
+
+    private static long pipelined(URL url, HttpConnectionPool pool, int requests, int depth) throws IOException {
+        byte[] buffer = new byte[CONTENT.length];
+        HttpURLConnectionImpl[] batch = new HttpURLConnectionImpl[depth];
+        long startedAt = System.nanoTime();
+        for (int i = 0; i < requests; i += depth) {
+            for (int j = 0; j < depth; j++) {
+                batch[j] = new HttpURLConnectionImpl(url);
+                batch[j].setConnectionPool(pool);
+                batch[j].connect();
+            }
+            for (int j = 0; j < depth; j++) {
+                drain(batch[j].getInputStream(), buffer);
+            }
+        }
+        return System.nanoTime() - startedAt;
+    }
+
+    // answers each request head with a fixed response, keeping the connection alive
+    private static void serve(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            int matched = 0;
+            for (int ch = in.read(); ch != -1; ch = in.read()) {
+                if (ch == ((matched % 2 == 0) ? '\r' : '\n')) {
+                    matched++;
+                }
+                else {
+                    matched = (ch == '\r') ? 1 : 0;
+                }
+
+                if (matched == 4) {
+                    matched = 0;
+                    out.write(RESPONSE);
+                    if (in.available() == 0) {
+                        out.flush();
+                    }
+                }
+            }
+            socket.close();
+        }
+        catch (IOException e) {
+            // client gone
+        }
+    }
+
+    private static byte[] response() {
+        String head = format("HTTP/1.1 200 OK\r\nContent-Length: %d\r\n\r\n", CONTENT.length);
+        byte[] headBytes = head.getBytes(Charset.forName("US-ASCII"));
+        byte[] response = new byte[headBytes.length + CONTENT.length];
+        System.arraycopy(headBytes, 0, response, 0, headBytes.length);
+        System.arraycopy(CONTENT, 0, response, headBytes.length, CONTENT.length);
+        return response;
+    }
+
+    private static void drain(InputStream input, byte[] buffer) throws IOException {
+        while (input.read(buffer) != -1) {
+            // discard
+        }
+        input.close();
+    }
+
+    private static void report(String name, int requests, long elapsedNanos) {
+        System.out.println(format("%-16s %8.1f us/request", name, elapsedNanos / 1000.0 / requests));
+    }
+}
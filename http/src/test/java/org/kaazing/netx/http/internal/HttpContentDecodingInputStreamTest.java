@@ -0,0 +1,165 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.kaazing.netx.http.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+public class HttpContentDecodingInputStreamTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String CONTENT = repeat("compressible netx content ", 1000);
+
+    @Test
+    public void shouldDecodeGzip() throws Exception {
+        byte[] encoded = gzip(CONTENT);
+        HttpContentDecodingInputStream in = decode(encoded, "gzip");
+
+        assertEquals(CONTENT, read(in));
+        assertEquals(encoded.length, in.getEncodedCount());
+        assertEquals(CONTENT.getBytes(UTF_8).length, in.getDecodedCount());
+    }
+
+    @Test
+    public void shouldDecodeGzipWithFileName() throws Exception {
+        byte[] encoded = gzip("hello");
+        byte[] named = new byte[encoded.length + 4];
+        System.arraycopy(encoded, 0, named, 0, 10);
+        named[3] = 0x08;
+        named[10] = 'a';
+        named[11] = '.';
+        named[12] = 'z';
+        named[13] = 0;
+        System.arraycopy(encoded, 10, named, 14, encoded.length - 10);
+
+        assertEquals("hello", read(decode(named, "x-gzip")));
+    }
+
+    @Test
+    public void shouldDecodeZlibDeflate() throws Exception {
+        assertEquals(CONTENT, read(decode(deflate(CONTENT, false), "deflate")));
+    }
+
+    @Test
+    public void shouldDecodeZlibDeflateReadOneByteAtATime() throws Exception {
+        InputStream trickle = new ByteArrayInputStream(deflate(CONTENT, false)) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1));
+            }
+        };
+
+        assertEquals(CONTENT, read(HttpContentDecodingInputStream.newInstance(trickle, "deflate")));
+    }
+
+    @Test
+    public void shouldDecodeRawDeflate() throws Exception {
+        assertEquals(CONTENT, read(decode(deflate(CONTENT, true), "Deflate")));
+    }
+
+    @Test
+    public void shouldReadEmptyBodyAsEndOfStream() throws Exception {
+        assertEquals(-1, decode(new byte[0], "gzip").read());
+    }
+
+    @Test
+    public void shouldDecodeRepeatedlyWithPooledInflaters() throws Exception {
+        for (int i = 0; i < 40; i++) {
+            HttpContentDecodingInputStream in = decode(gzip(CONTENT), "gzip");
+            if (i % 2 == 0) {
+                assertEquals(CONTENT, read(in));
+            }
+            else {
+                // released while only partly decoded
+                in.read(new byte[16]);
+                in.close();
+            }
+        }
+    }
+
+    @Test
+    public void shouldNotSupportUnknownCoding() throws Exception {
+        assertNull(HttpContentDecodingInputStream.newInstance(new ByteArrayInputStream(new byte[0]), "br"));
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldRejectCorruptGzipTrailer() throws Exception {
+        byte[] encoded = gzip(CONTENT);
+        encoded[encoded.length - 8] ^= 0x01;
+        read(decode(encoded, "gzip"));
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldRejectTruncatedGzip() throws Exception {
+        byte[] encoded = gzip(CONTENT);
+        byte[] truncated = new byte[encoded.length / 2];
+        System.arraycopy(encoded, 0, truncated, 0, truncated.length);
+        read(decode(truncated, "gzip"));
+    }
+
+    static byte[] gzip(String content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(content.getBytes(UTF_8));
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] deflate(String content, boolean nowrap) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, nowrap);
+        DeflaterOutputStream out = new DeflaterOutputStream(bytes, deflater);
+        out.write(content.getBytes(UTF_8));
+        out.close();
+        deflater.end();
+        return bytes.toByteArray();
+    }
+
+    private static HttpContentDecodingInputStream decode(byte[] encoded, String contentEncoding) {
+        return HttpContentDecodingInputStream.newInstance(new ByteArrayInputStream(encoded), contentEncoding);
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1000];
+        for (int length = in.read(buffer); length != -1; length = in.read(buffer)) {
+            bytes.write(buffer, 0, length);
+        }
+        in.close();
+        return new String(bytes.toByteArray(), UTF_8);
+    }
+
+    private static String repeat(String value, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(value);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.kaazing.netx.http.internal;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class HttpHeaderFieldsTest {
+
+    private HttpHeaderFields headerFields;
+
+    @Before
+    public void setUp() {
+        headerFields = new HttpHeaderFields();
+    }
+
+    @Test
+    public void shouldLookupValueIgnoringCase() {
+        headerFields.add("Sec-WebSocket-Accept", "s3pPLMBiTxaQ9kYGzzhZRbK+xOo=");
+
+        assertEquals("s3pPLMBiTxaQ9kYGzzhZRbK+xOo=", headerFields.value("sec-websocket-accept"));
+        assertEquals("s3pPLMBiTxaQ9kYGzzhZRbK+xOo=", headerFields.value(HttpHeaderFields.SEC_WEBSOCKET_ACCEPT));
+        assertEquals(asList("s3pPLMBiTxaQ9kYGzzhZRbK+xOo="), headerFields.map().get("SEC-WEBSOCKET-ACCEPT"));
+    }
+
+    @Test
+    public void shouldAccessFieldsByIndex() {
+        headerFields.add(null, "HTTP/1.1 101 Switching Protocols");
+        headerFields.add("Upgrade", "websocket");
+        headerFields.add("Connection", "Upgrade");
+
+        assertNull(headerFields.key(0));
+        assertEquals("HTTP/1.1 101 Switching Protocols", headerFields.value(0));
+        assertEquals("HTTP/1.1 101 Switching Protocols", headerFields.value((String) null));
+        assertEquals("Connection", headerFields.key(2));
+        assertEquals("Upgrade", headerFields.value(2));
+        assertNull(headerFields.key(3));
+        assertNull(headerFields.value(-1));
+    }
+
+    @Test
+    public void shouldKeepRepeatedValuesInOrder() {
+        headerFields.add("WWW-Authenticate", "Basic realm=\"a\"");
+        headerFields.add("Location", "/path");
+        headerFields.add("www-authenticate", "Digest realm=\"b\"");
+
+        assertEquals("Basic realm=\"a\"", headerFields.value("WWW-Authenticate"));
+        assertEquals(asList("Basic realm=\"a\"", "Digest realm=\"b\""), headerFields.map().get("WWW-Authenticate"));
+        assertEquals(2, headerFields.map().size());
+    }
+
+    @Test
+    public void shouldReplaceOnlyMatchingFieldsOnSet() {
+        headerFields.add("Upgrade", "websocket");
+        headerFields.add("Authorization", "Basic c3RhbGU=");
+        headerFields.add("Connection", "Upgrade");
+
+        headerFields.set("authorization", "Basic am9lOndlbGNvbWU=");
+
+        assertEquals("websocket", headerFields.value("Upgrade"));
+        assertEquals("Upgrade", headerFields.value("Connection"));
+        assertEquals(asList("Basic am9lOndlbGNvbWU="), headerFields.map().get("Authorization"));
+        assertEquals("authorization", headerFields.key(2));
+        assertEquals(3, headerFields.map().size());
+    }
+
+    @Test
+    public void shouldIterateDistinctNamesInArrivalOrder() {
+        headerFields.add("Upgrade", "websocket");
+        headerFields.add("Sec-WebSocket-Protocol", "a");
+        headerFields.add("Sec-WebSocket-Protocol", "b");
+        headerFields.add("Connection", "Upgrade");
+
+        Iterator<Map.Entry<String, List<String>>> entries = headerFields.map().entrySet().iterator();
+        assertEquals("Upgrade", entries.next().getKey());
+        Map.Entry<String, List<String>> protocols = entries.next();
+        assertEquals("Sec-WebSocket-Protocol", protocols.getKey());
+        assertEquals(asList("a", "b"), protocols.getValue());
+        assertEquals("Connection", entries.next().getKey());
+        assertTrue(!entries.hasNext());
+    }
+
+    @Test
+    public void shouldGrowBeyondInitialCapacity() {
+        for (int i = 0; i < 100; i++) {
+            headerFields.add("X-Header-" + i, Integer.toString(i));
+            headerFields.add("X-Repeated", Integer.toString(i));
+        }
+
+        assertEquals("42", headerFields.value("x-header-42"));
+        assertEquals(100, headerFields.map().get("X-Repeated").size());
+        assertEquals(101, headerFields.map().size());
+        assertEquals("99", headerFields.value(199));
+    }
+
+    @Test
+    public void shouldClear() {
+        headerFields.add("Upgrade", "websocket");
+        headerFields.clear();
+
+        assertNull(headerFields.value("Upgrade"));
+        assertNull(headerFields.key(0));
+        assertTrue(headerFields.map().isEmpty());
+    }
+}
@@ -22,9 +22,18 @@
 package org.kaazing.netx.http.internal;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.kaazing.netx.http.internal.HttpOriginSecuritySpi.asOrigin;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 
@@ -54,4 +63,91 @@ public class HttpOriginSecuritySpiTest {
         assertEquals("https://example.com", asOrigin(url));
     }
 
+    @Test
+    public void shouldComputeOriginOnce() throws Exception {
+        assertSame(HttpOriginSecuritySpi.getOrigin(), HttpOriginSecuritySpi.getOrigin());
+    }
+
+    @Test
+    public void shouldCreatePlainSocketWithoutChannel() throws Exception {
+        ServerSocket server = new ServerSocket(0);
+        try {
+            URL url = new URL("http", "localhost", server.getLocalPort(), "/");
+            Socket socket = HttpOriginSecuritySpi.newInstance().createSocket(url, null, 0, null);
+            try {
+                assertNull(socket.getChannel());
+            }
+            finally {
+                socket.close();
+            }
+        }
+        finally {
+            server.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void shouldWriteWhileReadIsBlocked() throws Exception {
+        final ServerSocket server = new ServerSocket(0);
+        try {
+            URL url = new URL("http", "localhost", server.getLocalPort(), "/");
+            final Socket socket = HttpOriginSecuritySpi.newInstance().createSocket(url, null, 0, null);
+            Socket accepted = server.accept();
+            try {
+                final AtomicInteger read = new AtomicInteger(-2);
+                Thread reader = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            read.set(socket.getInputStream().read());
+                        }
+                        catch (Exception e) {
+                            // fails the test below
+                        }
+                    }
+                };
+                reader.start();
+                Thread.sleep(100L);
+
+                // a write blocked behind the pending read never reaches the server
+                OutputStream output = socket.getOutputStream();
+                output.write('a');
+                output.flush();
+                InputStream input = accepted.getInputStream();
+                assertEquals('a', input.read());
+
+                accepted.getOutputStream().write('b');
+                reader.join();
+                assertEquals('b', read.get());
+            }
+            finally {
+                accepted.close();
+                socket.close();
+            }
+        }
+        finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void shouldNotPipelineConnectionOverChannelSocket() throws Exception {
+        ServerSocket server = new ServerSocket(0);
+        try {
+            URL url = new URL("http", "localhost", server.getLocalPort(), "/");
+            Socket socket = HttpOriginSecuritySpi.newInstance().createChannelSocket(url, null, 0, null);
+            assertNotNull(socket.getChannel());
+
+            HttpKeepAliveConnection connection = new HttpKeepAliveConnection(socket);
+            try {
+                assertFalse(connection.reserve(8));
+            }
+            finally {
+                connection.close();
+            }
+        }
+        finally {
+            server.close();
+        }
+    }
 }
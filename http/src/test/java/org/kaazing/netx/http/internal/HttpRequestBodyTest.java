@@ -0,0 +1,143 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kaazing.netx.http.internal;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class HttpRequestBodyTest {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private RandomAccessFile file;
+    private FileChannel channel;
+
+    @Before
+    public void setUp() throws Exception {
+        File path = folder.newFile("body");
+        file = new RandomAccessFile(path, "rw");
+        file.write("0123456789".getBytes(US_ASCII));
+        channel = file.getChannel();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        file.close();
+    }
+
+    @Test
+    public void shouldSendChunkedFileRegionOverSocketChannel() throws Exception {
+        HttpRequestBody body = HttpRequestBody.newInstance(channel, 2L, 7L);
+
+        assertEquals("HEAD\r\n3\r\n234\r\n3\r\n567\r\n1\r\n8\r\n0\r\n\r\n", sendOverChannel(body, 3));
+        assertEquals(10L, channel.position());
+    }
+
+    @Test
+    public void shouldSendChunkedFileRegionOverStream() throws Exception {
+        HttpRequestBody body = HttpRequestBody.newInstance(channel, 2L, 7L);
+
+        assertEquals("HEAD\r\n3\r\n234\r\n3\r\n567\r\n1\r\n8\r\n0\r\n\r\n", sendOverStream(body, 3));
+    }
+
+    @Test
+    public void shouldSendBuffersWithHeadInGatheringWrite() throws Exception {
+        ByteBuffer direct = ByteBuffer.allocateDirect(4);
+        direct.put("ijkl".getBytes(US_ASCII)).flip();
+        HttpRequestBody body = HttpRequestBody.newInstance(ByteBuffer.wrap("abcdefgh".getBytes(US_ASCII), 2, 4), direct);
+
+        assertEquals(8L, body.length());
+        assertEquals("HEAD\r\ncdefijkl", sendOverChannel(body, -1));
+        assertEquals("HEAD\r\ncdefijkl", sendOverStream(body, -1));
+        assertEquals("HEAD\r\n5\r\ncdefi\r\n3\r\njkl\r\n0\r\n\r\n", sendOverChannel(body, 5));
+        assertEquals(4, direct.remaining());
+    }
+
+    @Test(expected = EOFException.class)
+    public void shouldFailWhenFileEndsBeforeRegion() throws Exception {
+        sendOverStream(HttpRequestBody.newInstance(channel, 8L, 4L), -1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectNegativeCount() throws Exception {
+        HttpRequestBody.newInstance(channel, 0L, -1L);
+    }
+
+    private static String sendOverStream(HttpRequestBody body, int chunkLength) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Socket socket = new Socket();
+        try {
+            body.send(head(), socket, output, chunkLength);
+        }
+        finally {
+            socket.close();
+        }
+        return new String(output.toByteArray(), US_ASCII);
+    }
+
+    private static String sendOverChannel(HttpRequestBody body, int chunkLength) throws Exception {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        try {
+            server.socket().bind(new InetSocketAddress("localhost", 0));
+            SocketChannel client = SocketChannel.open(server.socket().getLocalSocketAddress());
+            SocketChannel accepted = server.accept();
+            try {
+                body.send(head(), client.socket(), client.socket().getOutputStream(), chunkLength);
+                client.socket().shutdownOutput();
+
+                ByteArrayOutputStream received = new ByteArrayOutputStream();
+                InputStream input = accepted.socket().getInputStream();
+                for (int b = input.read(); b != -1; b = input.read()) {
+                    received.write(b);
+                }
+                return new String(received.toByteArray(), US_ASCII);
+            }
+            finally {
+                accepted.close();
+                client.close();
+            }
+        }
+        finally {
+            server.close();
+        }
+    }
+
+    private static ByteBuffer head() {
+        return ByteBuffer.wrap("HEAD\r\n".getBytes(US_ASCII));
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kaazing.netx.http.internal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+public class HttpResponseInputStreamTest {
+
+    @Test
+    public void shouldReadResponseLines() throws Exception {
+        byte[] response = ascii("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\n\r\n");
+        HttpResponseInputStream input = new HttpResponseInputStream(new ByteArrayInputStream(response));
+
+        assertEquals("HTTP/1.1 101 Switching Protocols", input.readLine());
+        assertEquals("Upgrade: websocket", input.readLine());
+        assertEquals("", input.readLine());
+        assertNull(input.readLine());
+    }
+
+    @Test
+    public void shouldRetainBytesAfterResponseHead() throws Exception {
+        byte[] head = ascii("HTTP/1.1 101 Switching Protocols\r\n\r\n");
+        byte[] frame = new byte[] { (byte) 0x82, 0x02, 0x01, 0x02 };
+        HttpResponseInputStream input = new HttpResponseInputStream(new ByteArrayInputStream(concat(head, frame)));
+
+        assertEquals("HTTP/1.1 101 Switching Protocols", input.readLine());
+        assertEquals("", input.readLine());
+        assertEquals(frame.length, input.buffered());
+
+        byte[] actual = new byte[frame.length];
+        assertEquals(frame.length, input.read(actual, 0, actual.length));
+        assertArrayEquals(frame, actual);
+        assertEquals(-1, input.read());
+    }
+
+    @Test
+    public void shouldReadLinesSplitAcrossReads() throws Exception {
+        byte[] response = ascii("HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n");
+        HttpResponseInputStream input = new HttpResponseInputStream(new TrickleInputStream(response), 32);
+
+        assertEquals("HTTP/1.1 200 OK", input.readLine());
+        assertEquals("Content-Length: 0", input.readLine());
+        assertEquals("", input.readLine());
+    }
+
+    @Test
+    public void shouldReadLineWithoutCarriageReturn() throws Exception {
+        byte[] response = ascii("HTTP/1.1 200 OK\nServer: test");
+        HttpResponseInputStream input = new HttpResponseInputStream(new ByteArrayInputStream(response));
+
+        assertEquals("HTTP/1.1 200 OK", input.readLine());
+        assertEquals("Server: test", input.readLine());
+        assertNull(input.readLine());
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldRejectNonAsciiLine() throws Exception {
+        byte[] response = new byte[] { 'H', (byte) 0xc3, (byte) 0xa9, '\r', '\n' };
+        HttpResponseInputStream input = new HttpResponseInputStream(new ByteArrayInputStream(response));
+        input.readLine();
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldRejectLineLongerThanBuffer() throws Exception {
+        byte[] response = ascii("X-Header: 0123456789abcdef\r\n");
+        HttpResponseInputStream input = new HttpResponseInputStream(new ByteArrayInputStream(response), 8);
+        input.readLine();
+    }
+
+    @Test
+    public void shouldWriteRequestHead() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        new HttpRequestWriter()
+            .requestLine("GET", "/path?query")
+            .host("localhost", 8080)
+            .header("Upgrade", "websocket")
+            .writeTo(output);
+
+        String expected = "GET /path?query HTTP/1.1\r\nHost: localhost:8080\r\nUpgrade: websocket\r\n\r\n";
+        assertArrayEquals(ascii(expected), output.toByteArray());
+    }
+
+    private static byte[] ascii(String value) {
+        byte[] bytes = new byte[value.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) value.charAt(i);
+        }
+        return bytes;
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] bytes = new byte[first.length + second.length];
+        System.arraycopy(first, 0, bytes, 0, first.length);
+        System.arraycopy(second, 0, bytes, first.length, second.length);
+        return bytes;
+    }
+
+    private static final class TrickleInputStream extends InputStream {
+
+        private final byte[] bytes;
+        private int offset;
+
+        TrickleInputStream(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return (offset < bytes.length) ? bytes[offset++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (offset == bytes.length) {
+                return -1;
+            }
+            int length = Math.min(3, Math.min(len, bytes.length - offset));
+            System.arraycopy(bytes, offset, b, off, length);
+            offset += length;
+            return length;
+        }
+    }
+}
@@ -0,0 +1,1030 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kaazing.netx.http.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.Authenticator;
+import java.net.PasswordAuthentication;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.kaazing.netx.http.HttpConnectionPool;
+import org.kaazing.netx.http.HttpCookieStore;
+import org.kaazing.netx.http.HttpCredentialCache;
+import org.kaazing.netx.http.HttpRedirectCache;
+import org.kaazing.netx.http.HttpRequestCoalescer;
+import org.kaazing.netx.http.HttpResponseCache;
+import org.kaazing.netx.http.ResetAuthenticatorRule;
+
+public class HttpURLConnectionImplTest {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final Pattern PATTERN_CONTENT_LENGTH = Pattern.compile("\r\nContent-Length: (\\d+)\r\n");
+    private static final String SWITCHING_PROTOCOLS =
+            "HTTP/1.1 101 Switching Protocols\r\nUpgrade: test\r\nConnection: Upgrade\r\n\r\n";
+    private static final String CLOSE_WITHOUT_RESPONSE = "<close>";
+    private static final String NO_RESPONSE = "<none>";
+
+    @Rule
+    public final ResetAuthenticatorRule reset = new ResetAuthenticatorRule();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private ServerSocket server;
+    private Queue<String> responses;
+    private List<String> requests;
+    private AtomicInteger connections;
+    private HttpCredentialCache credentialCache;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new ServerSocket(0);
+        responses = new ConcurrentLinkedQueue<String>();
+        requests = new CopyOnWriteArrayList<String>();
+        connections = new AtomicInteger();
+        credentialCache = HttpCredentialCache.newInstance();
+
+        Thread acceptor = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        final Socket socket = server.accept();
+                        connections.incrementAndGet();
+                        Thread handler = new Thread() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        };
+                        handler.setDaemon(true);
+                        handler.start();
+                    }
+                }
+                catch (IOException e) {
+                    // server closed
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Test
+    public void shouldReuseSocketAfterBasicChallenge() throws Exception {
+        setPasswordAuthenticator();
+
+        responses.add("HTTP/1.1 401 Unauthorized\r\nWWW-Authenticate: Basic realm=\"test\"\r\nContent-Length: 6\r\n\r\ndenied");
+        responses.add(SWITCHING_PROTOCOLS);
+
+        assertEquals(101, upgrade("/path").getResponseCode());
+        assertEquals(2, requests.size());
+        assertTrue(requests.get(1).contains("Authorization: Basic "));
+        assertEquals(1, connections.get());
+    }
+
+    @Test
+    public void shouldSendCachedCredentialsPreemptively() throws Exception {
+        setPasswordAuthenticator();
+
+        responses.add("HTTP/1.1 401 Unauthorized\r\nWWW-Authenticate: Basic realm=\"test\"\r\nContent-Length: 0\r\n\r\n");
+        responses.add(SWITCHING_PROTOCOLS);
+        responses.add(SWITCHING_PROTOCOLS);
+
+        assertEquals(101, upgrade("/path").getResponseCode());
+        assertEquals(1, credentialCache.size());
+
+        assertEquals(101, upgrade("/other").getResponseCode());
+        assertEquals(3, requests.size());
+        assertTrue(requests.get(2).contains("Authorization: Basic am9lOndlbGNvbWU=\r\n"));
+    }
+
+    @Test
+    public void shouldInvalidateRejectedCachedCredentials() throws Exception {
+        Authenticator authenticator = setPasswordAuthenticator();
+        URL location = new URL("http", "localhost", server.getLocalPort(), "/");
+        credentialCache.put(location, authenticator, "Basic", "test", "Basic c3RhbGU=");
+
+        responses.add("HTTP/1.1 401 Unauthorized\r\nWWW-Authenticate: Basic realm=\"test\"\r\nContent-Length: 0\r\n\r\n");
+        responses.add(SWITCHING_PROTOCOLS);
+
+        assertEquals(101, upgrade("/path").getResponseCode());
+        assertEquals(2, requests.size());
+        assertTrue(requests.get(0).contains("Authorization: Basic c3RhbGU=\r\n"));
+        assertTrue(requests.get(1).contains("Authorization: Basic am9lOndlbGNvbWU=\r\n"));
+        assertEquals("Basic am9lOndlbGNvbWU=", credentialCache.getAuthorization("GET", location, authenticator).getValue());
+    }
+
+    @Test
+    public void shouldNotSendCachedCredentialsOfAnotherAuthenticator() throws Exception {
+        Authenticator other = setPasswordAuthenticator();
+        setPasswordAuthenticator();
+        URL location = new URL("http", "localhost", server.getLocalPort(), "/");
+        credentialCache.put(location, other, "Basic", "test", "Basic b3RoZXI=");
+
+        responses.add(SWITCHING_PROTOCOLS);
+
+        assertEquals(101, upgrade("/path").getResponseCode());
+        assertFalse(requests.get(0).contains("Authorization:"));
+    }
+
+    @Test
+    public void shouldNotSendCachedCredentialsOutsideProtectionSpace() throws Exception {
+        setPasswordAuthenticator();
+
+        responses.add("HTTP/1.1 401 Unauthorized\r\nWWW-Authenticate: Basic realm=\"test\"\r\nContent-Length: 0\r\n\r\n");
+        responses.add(SWITCHING_PROTOCOLS);
+        responses.add(SWITCHING_PROTOCOLS);
+
+        assertEquals(101, upgrade("/private/path").getResponseCode());
+        assertEquals(101, upgrade("/public").getResponseCode());
+        assertEquals(3, requests.size());
+        assertFalse(requests.get(2).contains("Authorization:"));
+    }
+
+    @Test
+    public void shouldNotCacheCredentialsByDefault() throws Exception {
+        setPasswordAuthenticator();
+
+        responses.add("HTTP/1.1 401 Unauthorized\r\nWWW-Authenticate: Basic realm=\"test\"\r\nContent-Length: 0\r\n\r\n");
+        responses.add(SWITCHING_PROTOCOLS);
+        responses.add(SWITCHING_PROTOCOLS);
+
+        HttpURLConnectionImpl first = upgrade("/path");
+        first.setCredentialCache(null);
+        assertEquals(101, first.getResponseCode());
+        HttpURLConnectionImpl second = new HttpURLConnectionImpl(new URL("http", "localhost", server.getLocalPort(), "/path"));
+        second.setRequestProperty("Upgrade", "test");
+        second.setRequestProperty("Connection", "Upgrade");
+        assertNull(second.getCredentialCache());
+        assertEquals(101, second.getResponseCode());
+
+        assertFalse(requests.get(2).contains("Authorization:"));
+        assertEquals(0, credentialCache.size());
+    }
+
+    @Test
+    public void shouldNotRequestPasswordForUnsupportedDigestChallenge() throws Exception {
+        final AtomicInteger requested = new AtomicInteger();
+        Authenticator.setDefault(new Authenticator() {
+            @Override
+            protected PasswordAuthentication getPasswordAuthentication() {
+                requested.incrementAndGet();
+                assertEquals("Basic", getRequestingScheme());
+                return new PasswordAuthentication("joe", "welcome".toCharArray());
+            }
+        });
+
+        responses.add("HTTP/1.1 401 Unauthorized\r\n" +
+                "WWW-Authenticate: Digest realm=\"test\", qop=\"auth-int\", nonce=\"abc\"\r\n" +
+                "WWW-Authenticate: Basic realm=\"test\"\r\n" +
+                "Content-Length: 0\r\n\r\n");
+        responses.add(SWITCHING_PROTOCOLS);
+
+        assertEquals(101, upgrade("/path").getResponseCode());
+        assertTrue(requests.get(1).contains("Authorization: Basic "));
+        assertEquals(1, requested.get());
+    }
+
+    @Test
+    public void shouldSendCachedDigestCredentialsWithNextNonceCount() throws Exception {
+        setPasswordAuthenticator();
+
+        responses.add("HTTP/1.1 401 Unauthorized\r\n" +
+                "WWW-Authenticate: Digest realm=\"test\", qop=\"auth\", algorithm=SHA-256, nonce=\"abc\", opaque=\"xyz\"\r\n" +
+                "Content-Length: 0\r\n\r\n");
+        responses.add(SWITCHING_PROTOCOLS);
+        responses.add(SWITCHING_PROTOCOLS);
+
+        assertEquals(101, upgrade("/path").getResponseCode());
+        assertEquals(2, requests.size());
+        assertTrue(requests.get(1).contains("Authorization: Digest username=\"joe\", realm=\"test\", nonce=\"abc\""));
+        assertTrue(requests.get(1).contains("nc=00000001"));
+        assertEquals(1, connections.get());
+
+        assertEquals(101, upgrade("/other").getResponseCode());
+        assertEquals(3, requests.size());
+        assertTrue(requests.get(2).contains("uri=\"/other\""));
+        assertTrue(requests.get(2).contains("nc=00000002"));
+    }
+
+    @Test
+    public void shouldReuseSocketAfterSameOriginRedirect() throws Exception {
+        responses.add("HTTP/1.1 302 Found\r\nLocation: /other\r\nContent-Length: 0\r\n\r\n");
+        responses.add(SWITCHING_PROTOCOLS);
+
+        assertEquals(101, upgrade("/path").getResponseCode());
+        assertEquals(2, requests.size());
+        assertTrue(requests.get(1).startsWith("GET /other HTTP/1.1"));
+        assertEquals(1, connections.get());
+    }
+
+    @Test
+    public void shouldNotReuseSocketAfterConnectionClose() throws Exception {
+        responses.add("HTTP/1.1 302 Found\r\nLocation: /other\r\nConnection: close\r\nContent-Length: 0\r\n\r\n");
+        responses.add(SWITCHING_PROTOCOLS);
+
+        assertEquals(101, upgrade("/path").getResponseCode());
+        assertEquals(2, requests.size());
+        assertEquals(2, connections.get());
+    }
+
+    @Test
+    public void shouldNotReuseSocketAfterConnectionCloseToken() throws Exception {
+        responses.add("HTTP/1.1 302 Found\r\nLocation: /other\r\nConnection: keep-alive, close\r\nContent-Length: 0\r\n\r\n");
+        responses.add(SWITCHING_PROTOCOLS);
+
+        assertEquals(101, upgrade("/path").getResponseCode());
+        assertEquals(2, requests.size());
+        assertEquals(2, connections.get());
+    }
+
+    @Test
+    public void shouldNotReuseSocketAfterHttp10Redirect() throws Exception {
+        responses.add("HTTP/1.0 302 Found\r\nLocation: /other\r\nContent-Length: 0\r\n\r\n");
+        responses.add(SWITCHING_PROTOCOLS);
+
+        assertEquals(101, upgrade("/path").getResponseCode());
+        assertEquals(2, requests.size());
+        assertEquals(2, connections.get());
+    }
+
+    @Test
+    public void shouldReuseSocketAfterHttp10KeepAliveRedirect() throws Exception {
+        responses.add("HTTP/1.0 302 Found\r\nLocation: /other\r\nConnection: Keep-Alive\r\nContent-Length: 0\r\n\r\n");
+        responses.add(SWITCHING_PROTOCOLS);
+
+        assertEquals(101, upgrade("/path").getResponseCode());
+        assertEquals(2, requests.size());
+        assertEquals(1, connections.get());
+    }
+
+    @Test
+    public void shouldNotReuseSocketAfterResponseWithUnknownLength() throws Exception {
+        responses.add("HTTP/1.1 302 Found\r\nLocation: /other\r\n\r\n");
+        responses.add(SWITCHING_PROTOCOLS);
+
+        assertEquals(101, upgrade("/path").getResponseCode());
+        assertEquals(2, connections.get());
+    }
+
+    @Test
+    public void shouldReuseSocketAfterChunkedRedirect() throws Exception {
+        responses.add("HTTP/1.1 302 Found\r\nLocation: /other\r\nTransfer-Encoding: chunked\r\n\r\n5\r\nmoved\r\n0\r\n\r\n");
+        responses.add(SWITCHING_PROTOCOLS);
+
+        assertEquals(101, upgrade("/path").getResponseCode());
+        assertEquals(2, requests.size());
+        assertEquals(1, connections.get());
+    }
+
+    @Test(timeout = 10000)
+    public void shouldNotDrainLongRedirectBody() throws Exception {
+        // the declared body never arrives, draining it would block the handshake
+        responses.add("HTTP/1.1 302 Found\r\nLocation: /other\r\nContent-Length: 1000000\r\n\r\nmoved");
+        responses.add(SWITCHING_PROTOCOLS);
+
+        assertEquals(101, upgrade("/path").getResponseCode());
+        assertEquals(2, requests.size());
+        assertEquals(2, connections.get());
+    }
+
+    @Test(timeout = 10000)
+    public void shouldNotDrainLongChunkedRedirectBody() throws Exception {
+        StringBuilder chunk = new StringBuilder();
+        while (chunk.length() < 0x20000) {
+            chunk.append("moved");
+        }
+        chunk.setLength(0x20000);
+        responses.add("HTTP/1.1 302 Found\r\nLocation: /other\r\nTransfer-Encoding: chunked\r\n\r\n20000\r\n" + chunk + "\r\n");
+        responses.add(SWITCHING_PROTOCOLS);
+
+        assertEquals(101, upgrade("/path").getResponseCode());
+        assertEquals(2, requests.size());
+        assertEquals(2, connections.get());
+    }
+
+    @Test
+    public void shouldUpgradeRememberedPermanentRedirectTarget() throws Exception {
+        HttpRedirectCache redirectCache = HttpRedirectCache.newInstance();
+        responses.add("HTTP/1.1 301 Moved Permanently\r\nLocation: /new\r\nContent-Length: 0\r\n\r\n");
+        responses.add(SWITCHING_PROTOCOLS);
+        responses.add(SWITCHING_PROTOCOLS);
+
+        HttpURLConnectionImpl first = upgrade("/old");
+        first.setRedirectCache(redirectCache);
+        assertEquals(101, first.getResponseCode());
+        assertEquals(1, redirectCache.size());
+
+        HttpURLConnectionImpl second = upgrade("/old");
+        second.setRedirectCache(redirectCache);
+        assertEquals(101, second.getResponseCode());
+        assertEquals(3, requests.size());
+        assertTrue(requests.get(2).startsWith("GET /new HTTP/1.1"));
+        assertEquals("/new", second.getURL().getPath());
+    }
+
+    @Test
+    public void shouldRememberOnlyPermanentRedirects() throws Exception {
+        HttpConnectionPool pool = HttpConnectionPool.newInstance();
+        HttpRedirectCache redirectCache = HttpRedirectCache.newInstance();
+        responses.add("HTTP/1.1 307 Temporary Redirect\r\nLocation: /new\r\nContent-Length: 0\r\n\r\n");
+        responses.add("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nhello");
+        responses.add("HTTP/1.1 308 Permanent Redirect\r\nLocation: /new\r\nContent-Length: 0\r\n\r\n");
+        responses.add("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nhello");
+
+        HttpURLConnectionImpl temporary = get("/temporary", pool);
+        temporary.setRedirectCache(redirectCache);
+        assertEquals("hello", read(temporary));
+        assertEquals(0, redirectCache.size());
+
+        HttpURLConnectionImpl permanent = get("/permanent", pool);
+        permanent.setRedirectCache(redirectCache);
+        assertEquals("hello", read(permanent));
+        assertEquals(1, redirectCache.size());
+        assertTrue(requests.get(3).startsWith("GET /new HTTP/1.1"));
+    }
+
+    @Test
+    public void shouldForgetRememberedRedirectTargetThatFails() throws Exception {
+        HttpConnectionPool pool = HttpConnectionPool.newInstance();
+        HttpRedirectCache redirectCache = HttpRedirectCache.newInstance();
+        URL location = new URL("http", "localhost", server.getLocalPort(), "/old");
+        redirectCache.put(location, new URL(location, "/gone"));
+        responses.add("HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\n\r\n");
+
+        HttpURLConnectionImpl connection = get("/old", pool);
+        connection.setRedirectCache(redirectCache);
+        assertEquals(404, connection.getResponseCode());
+        assertTrue(requests.get(0).startsWith("GET /gone HTTP/1.1"));
+        assertEquals(0, redirectCache.size());
+        assertEquals(1L, redirectCache.getInvalidationCount());
+    }
+
+    @Test
+    public void shouldNotFollowRememberedRedirectAgainstPolicy() throws Exception {
+        HttpConnectionPool pool = HttpConnectionPool.newInstance();
+        HttpRedirectCache redirectCache = HttpRedirectCache.newInstance();
+        URL location = new URL("http", "localhost", server.getLocalPort(), "/old");
+        redirectCache.put(location, new URL("http://example.com/new"));
+        responses.add("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nhello");
+
+        HttpURLConnectionImpl connection = get("/old", pool);
+        connection.setRedirectCache(redirectCache);
+        assertEquals("hello", read(connection));
+        assertTrue(requests.get(0).startsWith("GET /old HTTP/1.1"));
+        assertEquals(1, redirectCache.size());
+    }
+
+    @Test(timeout = 10000)
+    public void shouldNotFollowTemporaryRedirectOfWrittenRequestBody() throws Exception {
+        HttpConnectionPool pool = HttpConnectionPool.newInstance();
+        responses.add("HTTP/1.1 307 Temporary Redirect\r\nLocation: /new\r\nContent-Length: 5\r\n\r\nmoved");
+
+        HttpURLConnectionImpl connection = get("/old", pool);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        OutputStream output = connection.getOutputStream();
+        output.write("hello".getBytes(US_ASCII));
+        output.close();
+
+        assertEquals(307, connection.getResponseCode());
+        assertEquals("moved", read(connection));
+        assertEquals(1, requests.size());
+    }
+
+    @Test
+    public void shouldRepeatRequestBodyOnTemporaryRedirect() throws Exception {
+        HttpConnectionPool pool = HttpConnectionPool.newInstance();
+        responses.add("HTTP/1.1 307 Temporary Redirect\r\nLocation: /new\r\nContent-Length: 0\r\n\r\n");
+        responses.add("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok");
+
+        HttpURLConnectionImpl connection = get("/old", pool);
+        connection.setRequestMethod("POST");
+        connection.setRequestBody(ByteBuffer.wrap("hello".getBytes(US_ASCII)));
+
+        assertEquals("ok", read(connection));
+        assertEquals(2, requests.size());
+        assertTrue(requests.get(0).startsWith("POST /old HTTP/1.1"));
+        assertTrue(requests.get(0).endsWith("\r\nContent-Length: 5\r\n\r\nhello"));
+        assertTrue(requests.get(1).startsWith("POST /new HTTP/1.1"));
+        assertTrue(requests.get(1).endsWith("\r\nContent-Length: 5\r\n\r\nhello"));
+    }
+
+    @Test
+    public void shouldReuseKeptAliveConnection() throws Exception {
+        HttpConnectionPool pool = HttpConnectionPool.newInstance();
+        responses.add("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nhello");
+        responses.add("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nworld");
+
+        assertEquals("hello", read(get("/first", pool)));
+        assertEquals("world", read(get("/second", pool)));
+        assertEquals(1, connections.get());
+        assertEquals(1L, pool.getHitCount());
+        assertTrue(requests.get(1).startsWith("GET /second HTTP/1.1"));
+    }
+
+    @Test
+    public void shouldReuseConnectionAfterChunkedResponse() throws Exception {
+        HttpConnectionPool pool = HttpConnectionPool.newInstance();
+        responses.add("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n3;ext=1\r\nhel\r\n2\r\nlo\r\n0\r\n\r\n");
+        responses.add("HTTP/1.1 204 No Content\r\n\r\n");
+
+        assertEquals("hello", read(get("/first", pool)));
+        HttpURLConnectionImpl second = get("/second", pool);
+        assertEquals(204, second.getResponseCode());
+        assertEquals(1, connections.get());
+    }
+
+    @Test
+    public void shouldNotReuseHttp10Connection() throws Exception {
+        HttpConnectionPool pool = HttpConnectionPool.newInstance();
+        responses.add("HTTP/1.0 200 OK\r\nContent-Length: 5\r\nConnection: close\r\n\r\nhello");
+        responses.add("HTTP/1.0 200 OK\r\nContent-Length: 5\r\n\r\nworld");
+
+        HttpURLConnectionImpl first = get("/first", pool);
+        assertEquals(200, first.getResponseCode());
+        assertEquals("hello", read(first));
+        assertEquals("world", read(get("/second", pool)));
+        assertEquals(2, connections.get());
+        assertEquals(0L, pool.getHitCount());
+    }
+
+    @Test
+    public void shouldReuseHttp10ConnectionWithKeepAlive() throws Exception {
+        HttpConnectionPool pool = HttpConnectionPool.newInstance();
+        responses.add("HTTP/1.0 200 OK\r\nContent-Length: 5\r\nConnection: Keep-Alive\r\n\r\nhello");
+        responses.add("HTTP/1.0 200 OK\r\nContent-Length: 5\r\nConnection: close\r\n\r\nworld");
+
+        assertEquals("hello", read(get("/first", pool)));
+        assertEquals("world", read(get("/second", pool)));
+        assertEquals(1, connections.get());
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldRejectMalformedStatusLine() throws Exception {
+        responses.add("HTTP/2.0 200 OK\r\nContent-Length: 0\r\nConnection: close\r\n\r\n");
+
+        get("/", HttpConnectionPool.newInstance()).getInputStream();
+    }
+
+    @Test
+    public void shouldReadChunkedTransferCodingAppliedLast() throws Exception {
+        HttpConnectionPool pool = HttpConnectionPool.newInstance();
+        responses.add("HTTP/1.1 200 OK\r\nTransfer-Encoding: identity, chunked\r\n\r\n5\r\nhello\r\n0\r\n\r\n");
+        responses.add("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked, identity\r\nConnection: close\r\n\r\nworld");
+
+        assertEquals("hello", read(get("/first", pool)));
+        assertEquals("world", read(get("/second", pool)));
+        assertEquals(1, connections.get());
+    }
+
+    @Test
+    public void shouldRetryIdempotentRequestOnStaleConnection() throws Exception {
+        HttpConnectionPool pool = HttpConnectionPool.newInstance();
+        responses.add("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nhello");
+        responses.add(CLOSE_WITHOUT_RESPONSE);
+        responses.add("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nworld");
+
+        assertEquals("hello", read(get("/first", pool)));
+        assertEquals("world", read(get("/second", pool)));
+        assertEquals(3, requests.size());
+        assertEquals(2, connections.get());
+    }
+
+    @Test
+    public void shouldNotRetryPostOnStaleConnection() throws Exception {
+        HttpConnectionPool pool = HttpConnectionPool.newInstance();
+        responses.add("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nhello");
+        responses.add(CLOSE_WITHOUT_RESPONSE);
+        responses.add("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok");
+
+        assertEquals("hello", read(get("/first", pool)));
+        HttpURLConnectionImpl post = get("/second", pool);
+        post.setRequestMethod("POST");
+        post.setDoOutput(true);
+        post.getOutputStream().write("hello".getBytes(US_ASCII));
+        try {
+            post.getInputStream();
+            fail("POST was retried");
+        }
+        catch (IOException e) {
+            // expected
+        }
+        assertEquals(2, requests.size());
+    }
+
+    @Test(timeout = 10000)
+    public void shouldNotRetryAfterReadTimeout() throws Exception {
+        HttpConnectionPool pool = HttpConnectionPool.newInstance();
+        responses.add("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nhello");
+        responses.add(NO_RESPONSE);
+        responses.add("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nworld");
+
+        assertEquals("hello", read(get("/first", pool)));
+        HttpURLConnectionImpl second = get("/second", pool);
+        second.setReadTimeout(200);
+        try {
+            second.getInputStream();
+            fail("read did not time out");
+        }
+        catch (SocketTimeoutException e) {
+            // expected
+        }
+        assertEquals(2, requests.size());
+        assertEquals(1, connections.get());
+    }
+
+    @Test
+    public void shouldStreamChunkedRequestBody() throws Exception {
+        HttpConnectionPool pool = HttpConnectionPool.newInstance();
+        responses.add("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok");
+
+        HttpURLConnectionImpl connection = get("/upload", pool);
+        connection.setRequestMethod("PUT");
+        connection.setRequestProperty("Transfer-Encoding", "chunked");
+        connection.setDoOutput(true);
+        connection.setChunkedStreamingMode(4);
+        OutputStream out = connection.getOutputStream();
+        out.write("hi".getBytes(US_ASCII));
+        out.flush();
+        out.write("hello world".getBytes(US_ASCII));
+
+        assertEquals("ok", read(connection));
+        String request = requests.get(0);
+        assertTrue(request.startsWith("PUT /upload HTTP/1.1"));
+        assertEquals(request.indexOf("Transfer-Encoding: chunked"), request.lastIndexOf("Transfer-Encoding: chunked"));
+        assertFalse(request.contains("Content-Length"));
+        assertTrue(request.endsWith("\r\n\r\n2\r\nhi\r\nb\r\nhello world\r\n0\r\n\r\n"));
+    }
+
+    @Test
+    public void shouldDecodeGzipResponseWhenEnabled() throws Exception {
+        HttpConnectionPool pool = HttpConnectionPool.newInstance();
+        byte[] encoded = HttpContentDecodingInputStreamTest.gzip("hello, compressed world");
+        String body = new String(encoded, ISO_8859_1);
+        responses.add("HTTP/1.1 200 OK\r\nContent-Encoding: gzip\r\nContent-Length: " + encoded.length + "\r\n\r\n" + body);
+        responses.add("HTTP/1.1 200 OK\r\nContent-Encoding: gzip\r\nContent-Length: " + encoded.length + "\r\n\r\n" + body);
+
+        HttpURLConnectionImpl decoded = get("/decoded", pool);
+        decoded.setContentDecodingEnabled(true);
+        assertEquals("hello, compressed world", read(decoded));
+        assertEquals(encoded.length, decoded.getEncodedByteCount());
+        assertEquals(23L, decoded.getDecodedByteCount());
+        assertNull(decoded.getContentEncoding());
+        assertEquals(-1, decoded.getContentLength());
+        assertTrue(requests.get(0).contains("Accept-Encoding: gzip, deflate\r\n"));
+
+        HttpURLConnectionImpl raw = get("/raw", pool);
+        raw.setContentDecodingEnabled(true);
+        raw.setRequestProperty("Accept-Encoding", "gzip");
+        assertEquals(body, read(raw));
+        assertEquals(0L, raw.getDecodedByteCount());
+        assertEquals("gzip", raw.getContentEncoding());
+        assertEquals(encoded.length, raw.getContentLength());
+    }
+
+    @Test
+    public void shouldAnswerFreshResponseFromCache() throws Exception {
+        HttpConnectionPool pool = HttpConnectionPool.newInstance();
+        HttpResponseCache cache = HttpResponseCache.newInstance();
+        responses.add("HTTP/1.1 200 OK\r\nCache-Control: max-age=60\r\nContent-Length: 5\r\n\r\nhello");
+
+        HttpURLConnectionImpl first = get("/cached", pool);
+        first.setResponseCache(cache);
+        assertEquals("hello", read(first));
+
+        HttpURLConnectionImpl second = get("/cached", pool);
+        second.setResponseCache(cache);
+        assertEquals(200, second.getResponseCode());
+        assertEquals("max-age=60", second.getHeaderField("Cache-Control"));
+        assertEquals("hello", read(second));
+        assertEquals(1, requests.size());
+        assertEquals(1L, cache.getHitCount());
+    }
+
+    @Test
+    public void shouldRevalidateStaleResponseFromCache() throws Exception {
+        HttpConnectionPool pool = HttpConnectionPool.newInstance();
+        HttpResponseCache cache = HttpResponseCache.newInstance();
+        responses.add("HTTP/1.1 200 OK\r\nETag: \"v1\"\r\nCache-Control: no-cache\r\nContent-Length: 5\r\n\r\nhello");
+        responses.add("HTTP/1.1 304 Not Modified\r\nETag: \"v1\"\r\n\r\n");
+        responses.add("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nworld");
+
+        HttpURLConnectionImpl first = get("/cached", pool);
+        first.setResponseCache(cache);
+        assertEquals("hello", read(first));
+
+        HttpURLConnectionImpl second = get("/cached", pool);
+        second.setResponseCache(cache);
+        assertEquals(200, second.getResponseCode());
+        assertEquals("hello", read(second));
+        assertTrue(requests.get(1).contains("If-None-Match: \"v1\"\r\n"));
+        assertEquals(1L, cache.getRevalidationCount());
+
+        HttpURLConnectionImpl uncached = get("/cached", pool);
+        uncached.setResponseCache(cache);
+        uncached.setUseCaches(false);
+        assertEquals("world", read(uncached));
+        assertEquals(1, connections.get());
+    }
+
+    @Test
+    public void shouldNotAnswerAnonymousRequestWithAuthorizedResponse() throws Exception {
+        HttpConnectionPool pool = HttpConnectionPool.newInstance();
+        HttpResponseCache cache = HttpResponseCache.newInstance();
+        responses.add("HTTP/1.1 200 OK\r\nCache-Control: max-age=60\r\nContent-Length: 6\r\n\r\nsecret");
+        responses.add("HTTP/1.1 200 OK\r\nCache-Control: max-age=60\r\nContent-Length: 6\r\n\r\npublic");
+
+        HttpURLConnectionImpl authorized = get("/cached", pool);
+        authorized.setResponseCache(cache);
+        authorized.setRequestProperty("Authorization", "Basic am9lOndlbGNvbWU=");
+        assertEquals("secret", read(authorized));
+        assertEquals(0, cache.size());
+
+        HttpURLConnectionImpl anonymous = get("/cached", pool);
+        anonymous.setResponseCache(cache);
+        assertEquals("public", read(anonymous));
+        assertEquals(2, requests.size());
+        assertFalse(requests.get(1).contains("Authorization"));
+
+        // nor the other way around, the anonymous response is kept but does not allow sharing with authorized requests
+        responses.add("HTTP/1.1 200 OK\r\nCache-Control: max-age=60\r\nContent-Length: 6\r\n\r\nsecret");
+        HttpURLConnectionImpl reauthorized = get("/cached", pool);
+        reauthorized.setResponseCache(cache);
+        reauthorized.setRequestProperty("Authorization", "Basic am9lOndlbGNvbWU=");
+        assertEquals("secret", read(reauthorized));
+        assertEquals(3, requests.size());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void shouldAnswerAnonymousRequestWithPublicAuthorizedResponse() throws Exception {
+        HttpConnectionPool pool = HttpConnectionPool.newInstance();
+        HttpResponseCache cache = HttpResponseCache.newInstance();
+        responses.add("HTTP/1.1 200 OK\r\nCache-Control: public, max-age=60\r\nContent-Length: 5\r\n\r\nhello");
+
+        HttpURLConnectionImpl authorized = get("/cached", pool);
+        authorized.setResponseCache(cache);
+        authorized.setRequestProperty("Authorization", "Basic am9lOndlbGNvbWU=");
+        assertEquals("hello", read(authorized));
+
+        HttpURLConnectionImpl anonymous = get("/cached", pool);
+        anonymous.setResponseCache(cache);
+        assertEquals("hello", read(anonymous));
+        assertEquals(1, requests.size());
+    }
+
+    @Test
+    public void shouldNotKeepPrivateResponse() throws Exception {
+        HttpConnectionPool pool = HttpConnectionPool.newInstance();
+        HttpResponseCache cache = HttpResponseCache.newInstance();
+        responses.add("HTTP/1.1 200 OK\r\nCache-Control: private, max-age=60\r\nContent-Length: 5\r\n\r\nhello");
+
+        HttpURLConnectionImpl connection = get("/cached", pool);
+        connection.setResponseCache(cache);
+        assertEquals("hello", read(connection));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void shouldSendFileRegionAsRequestBody() throws Exception {
+        HttpConnectionPool pool = HttpConnectionPool.newInstance();
+        responses.add("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok");
+        File file = folder.newFile("upload");
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.write("skipped:hello world".getBytes(US_ASCII));
+            FileChannel channel = randomAccessFile.getChannel();
+
+            HttpURLConnectionImpl connection = get("/upload", pool);
+            connection.setRequestMethod("PUT");
+            connection.setRequestBody(channel, 8L, 11L);
+
+            assertEquals("ok", read(connection));
+            assertEquals(19L, channel.position());
+        }
+        finally {
+            randomAccessFile.close();
+        }
+
+        String request = requests.get(0);
+        assertTrue(request.startsWith("PUT /upload HTTP/1.1"));
+        assertTrue(request.endsWith("\r\nContent-Length: 11\r\n\r\nhello world"));
+    }
+
+    @Test
+    public void shouldSendBuffersAsChunkedRequestBody() throws Exception {
+        HttpConnectionPool pool = HttpConnectionPool.newInstance();
+        responses.add("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok");
+        ByteBuffer heap = ByteBuffer.wrap("hello ".getBytes(US_ASCII));
+        ByteBuffer direct = ByteBuffer.allocateDirect(5);
+        direct.put("world".getBytes(US_ASCII)).flip();
+
+        HttpURLConnectionImpl connection = get("/upload", pool);
+        connection.setRequestProperty("Transfer-Encoding", "chunked");
+        connection.setChunkedStreamingMode(4);
+        connection.setRequestBody(heap, direct);
+
+        assertEquals("ok", read(connection));
+        assertEquals(6, heap.remaining());
+        assertEquals(5, direct.remaining());
+        String request = requests.get(0);
+        assertTrue(request.startsWith("POST /upload HTTP/1.1"));
+        assertTrue(request.endsWith("\r\n\r\n4\r\nhell\r\n4\r\no wo\r\n3\r\nrld\r\n0\r\n\r\n"));
+    }
+
+    @Test
+    public void shouldSendBuffersAsRequestBodyWithoutConnectionPool() throws Exception {
+        responses.add("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok");
+
+        HttpURLConnectionImpl connection = new HttpURLConnectionImpl(new URL("http", "localhost", server.getLocalPort(), "/"));
+        connection.setRequestBody(ByteBuffer.wrap("hello".getBytes(US_ASCII)), ByteBuffer.wrap(" world".getBytes(US_ASCII)));
+
+        assertEquals("ok", read(connection));
+        assertTrue(requests.get(0).endsWith("\r\n\r\nhello world"));
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void shouldNotWriteOutputWhenRequestBodySet() throws Exception {
+        HttpURLConnectionImpl connection = get("/upload", HttpConnectionPool.newInstance());
+        connection.setRequestBody(ByteBuffer.allocate(0));
+        connection.getOutputStream();
+    }
+
+    @Test
+    public void shouldShareInFlightResponseWithIdenticalRequest() throws Exception {
+        HttpConnectionPool pool = HttpConnectionPool.newInstance();
+        HttpRequestCoalescer coalescer = HttpRequestCoalescer.newInstance();
+        responses.add("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nhello");
+
+        HttpURLConnectionImpl leader = get("/shared", pool);
+        leader.setRequestCoalescer(coalescer);
+        InputStream leaderInput = leader.getInputStream();
+
+        HttpURLConnectionImpl follower = get("/shared", pool);
+        follower.setRequestCoalescer(coalescer);
+        assertEquals(200, follower.getResponseCode());
+        assertEquals("5", follower.getHeaderField("Content-Length"));
+        assertEquals("hello", read(follower));
+        assertEquals("hello", read(leaderInput));
+        assertEquals(1, requests.size());
+        assertEquals(1L, coalescer.getCoalescedCount());
+        assertEquals(0, coalescer.size());
+    }
+
+    @Test
+    public void shouldNotShareResponseWithDifferentRequest() throws Exception {
+        HttpConnectionPool pool = HttpConnectionPool.newInstance();
+        HttpRequestCoalescer coalescer = HttpRequestCoalescer.newInstance();
+        responses.add("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nhello");
+        responses.add("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nworld");
+
+        HttpURLConnectionImpl first = get("/shared", pool);
+        first.setRequestCoalescer(coalescer);
+        InputStream firstInput = first.getInputStream();
+
+        HttpURLConnectionImpl second = get("/shared", pool);
+        second.setRequestCoalescer(coalescer);
+        second.setRequestProperty("Accept", "text/plain");
+        assertEquals("world", read(second));
+        assertEquals("hello", read(firstInput));
+        assertEquals(2, requests.size());
+        assertEquals(0L, coalescer.getCoalescedCount());
+    }
+
+    @Test
+    public void shouldPipelineRequests() throws Exception {
+        HttpConnectionPool pool = HttpConnectionPool.newInstance(8, 15000L, 4);
+        responses.add("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nhello");
+        responses.add("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nworld");
+
+        HttpURLConnectionImpl first = get("/first", pool);
+        HttpURLConnectionImpl second = get("/second", pool);
+        first.connect();
+        second.connect();
+
+        assertEquals("hello", read(first));
+        assertEquals("world", read(second));
+        assertEquals(1, connections.get());
+        assertEquals(1L, pool.getPipelinedCount());
+    }
+
+    @Test
+    public void shouldNotReuseConnectionAfterConnectionClose() throws Exception {
+        HttpConnectionPool pool = HttpConnectionPool.newInstance();
+        responses.add("HTTP/1.1 200 OK\r\nConnection: close\r\nContent-Length: 5\r\n\r\nhello");
+        responses.add("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nworld");
+
+        assertEquals("hello", read(get("/first", pool)));
+        assertEquals("world", read(get("/second", pool)));
+        assertEquals(2, connections.get());
+    }
+
+    @Test
+    public void shouldReuseConnectionAfterErrorResponse() throws Exception {
+        HttpConnectionPool pool = HttpConnectionPool.newInstance();
+        responses.add("HTTP/1.1 404 Not Found\r\nContent-Length: 7\r\n\r\nmissing");
+        responses.add("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nworld");
+
+        HttpURLConnectionImpl first = get("/first", pool);
+        assertEquals(404, first.getResponseCode());
+        assertEquals("missing", read(first.getErrorStream()));
+        assertEquals("world", read(get("/second", pool)));
+        assertEquals(1, connections.get());
+    }
+
+    @Test
+    public void shouldSendStoredCookiesOnKeptAliveConnection() throws Exception {
+        HttpConnectionPool pool = HttpConnectionPool.newInstance();
+        HttpCookieStore cookieStore = HttpCookieStore.newInstance();
+        responses.add("HTTP/1.1 200 OK\r\nSet-Cookie: session=abc; Path=/\r\nSet-Cookie: theme=dark; Path=/app\r\n" +
+                "Content-Length: 5\r\n\r\nhello");
+        responses.add("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nworld");
+        responses.add("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nagain");
+
+        HttpURLConnectionImpl first = get("/first", pool);
+        first.setCookieStore(cookieStore);
+        assertEquals("hello", read(first));
+        HttpURLConnectionImpl second = get("/app/second", pool);
+        second.setCookieStore(cookieStore);
+        assertEquals("world", read(second));
+        HttpURLConnectionImpl third = get("/third", pool);
+        third.setCookieStore(cookieStore);
+        assertEquals("again", read(third));
+
+        assertFalse(requests.get(0).contains("Cookie:"));
+        assertTrue(requests.get(1).contains("\r\nCookie: theme=dark; session=abc\r\n"));
+        assertTrue(requests.get(2).contains("\r\nCookie: session=abc\r\n"));
+        assertEquals(2, cookieStore.size());
+    }
+
+    @Test
+    public void shouldStoreCookiesOfUpgradeResponse() throws Exception {
+        HttpCookieStore cookieStore = HttpCookieStore.newInstance();
+        responses.add("HTTP/1.1 101 Switching Protocols\r\nUpgrade: test\r\nConnection: Upgrade\r\n" +
+                "Set-Cookie: session=abc\r\n\r\n");
+        responses.add(SWITCHING_PROTOCOLS);
+
+        HttpURLConnectionImpl first = upgrade("/path");
+        first.setCookieStore(cookieStore);
+        assertEquals(101, first.getResponseCode());
+        HttpURLConnectionImpl second = upgrade("/path");
+        second.setCookieStore(cookieStore);
+        assertEquals(101, second.getResponseCode());
+
+        assertEquals(1, cookieStore.size());
+        assertTrue(requests.get(1).contains("\r\nCookie: session=abc\r\n"));
+    }
+
+    private HttpURLConnectionImpl get(String path, HttpConnectionPool pool) throws IOException {
+        HttpURLConnectionImpl connection = new HttpURLConnectionImpl(new URL("http", "localhost", server.getLocalPort(), path));
+        connection.setConnectionPool(pool);
+        return connection;
+    }
+
+    private static String read(HttpURLConnectionImpl connection) throws IOException {
+        return read(connection.getInputStream());
+    }
+
+    private static String read(InputStream in) throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (int ch = in.read(); ch != -1; ch = in.read()) {
+            content.append((char) ch);
+        }
+        in.close();
+        return content.toString();
+    }
+
+    private static Authenticator setPasswordAuthenticator() {
+        Authenticator authenticator = new Authenticator() {
+            @Override
+            protected PasswordAuthentication getPasswordAuthentication() {
+                return new PasswordAuthentication("joe", "welcome".toCharArray());
+            }
+        };
+        Authenticator.setDefault(authenticator);
+        return authenticator;
+    }
+
+    private HttpURLConnectionImpl upgrade(String path) throws IOException {
+        HttpURLConnectionImpl connection = new HttpURLConnectionImpl(new URL("http", "localhost", server.getLocalPort(), path));
+        connection.setRequestProperty("Upgrade", "test");
+        connection.setRequestProperty("Connection", "Upgrade");
+        connection.setCredentialCache(credentialCache);
+        return connection;
+    }
+
+    private void serve(Socket socket) {
+        try {
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            for (String request = readHead(in); request != null; request = readHead(in)) {
+                Matcher contentLength = PATTERN_CONTENT_LENGTH.matcher(request);
+                if (request.contains("Transfer-Encoding: chunked")) {
+                    request += readChunkedBody(in);
+                }
+                else if (contentLength.find()) {
+                    request += readBody(in, Integer.parseInt(contentLength.group(1)));
+                }
+                requests.add(request);
+                String response = responses.poll();
+                if (CLOSE_WITHOUT_RESPONSE.equals(response)) {
+                    break;
+                }
+                if (NO_RESPONSE.equals(response)) {
+                    continue;
+                }
+                out.write(response.getBytes(ISO_8859_1));
+                out.flush();
+                if (response.contains("Connection: close")) {
+                    break;
+                }
+            }
+            socket.close();
+        }
+        catch (IOException e) {
+            // client gone
+        }
+    }
+
+    private static String readHead(InputStream in) throws IOException {
+        StringBuilder head = new StringBuilder();
+        for (int ch = in.read(); ch != -1; ch = in.read()) {
+            head.append((char) ch);
+            if (head.length() >= 4 && head.lastIndexOf("\r\n\r\n") == head.length() - 4) {
+                return head.toString();
+            }
+        }
+        return null;
+    }
+
+    private static String readBody(InputStream in, int length) throws IOException {
+        StringBuilder body = new StringBuilder();
+        for (int ch = (length > 0) ? in.read() : -1; ch != -1; ch = (body.length() < length) ? in.read() : -1) {
+            body.append((char) ch);
+        }
+        return body.toString();
+    }
+
+    private static String readChunkedBody(InputStream in) throws IOException {
+        StringBuilder body = new StringBuilder();
+        for (int ch = in.read(); ch != -1; ch = in.read()) {
+            body.append((char) ch);
+            if (body.length() >= 5 && body.lastIndexOf("0\r\n\r\n") == body.length() - 5 &&
+                (body.length() == 5 || body.charAt(body.length() - 6) == '\n')) {
+                break;
+            }
+        }
+        return body.toString();
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.kaazing.netx.http.internal.auth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URL;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class DigestCredentialsTest {
+
+    // RFC 7616, section 3.9.1
+    private static final String CHALLENGE = "realm=\"http-auth@example.org\", qop=\"auth, auth-int\", algorithm=%s, " +
+            "nonce=\"7ypf/xlj9XXwfDPEoM4URrv/xwf94BcCAzFZH4GiTo0v\", opaque=\"FQhe/qaU925kfnzjCev0ciny7QMkPqMAFRtzCUYo5tdS\"";
+    private static final String CNONCE = "f2/wE4q74E6zIJEtWaHKaf5wv/H5QzzpXusqGemxURZJ";
+
+    @Test
+    public void shouldParseParameters() throws Exception {
+        Map<String, String> parameters = DigestCredentials.parseParameters(String.format(CHALLENGE, "MD5"));
+
+        assertEquals("http-auth@example.org", parameters.get("realm"));
+        assertEquals("auth, auth-int", parameters.get("qop"));
+        assertEquals("MD5", parameters.get("algorithm"));
+        assertEquals("7ypf/xlj9XXwfDPEoM4URrv/xwf94BcCAzFZH4GiTo0v", parameters.get("nonce"));
+    }
+
+    @Test
+    public void shouldAuthorizeWithMD5() throws Exception {
+        DigestCredentials credentials = newCredentials("MD5");
+        String authorization = credentials.authorize("GET", new URL("http://www.example.org/dir/index.html"), CNONCE);
+
+        assertTrue(authorization.startsWith("Digest username=\"Mufasa\", realm=\"http-auth@example.org\""));
+        assertTrue(authorization.contains("uri=\"/dir/index.html\""));
+        assertTrue(authorization.contains("response=\"8ca523f5e9506fed4657c9700eebdbec\""));
+        assertTrue(authorization.contains("qop=auth, nc=00000001"));
+        assertTrue(authorization.contains("opaque=\"FQhe/qaU925kfnzjCev0ciny7QMkPqMAFRtzCUYo5tdS\""));
+    }
+
+    @Test
+    public void shouldAuthorizeWithSHA256() throws Exception {
+        DigestCredentials credentials = newCredentials("SHA-256");
+        String authorization = credentials.authorize("GET", new URL("http://www.example.org/dir/index.html"), CNONCE);
+
+        assertTrue(authorization.contains("algorithm=SHA-256"));
+        assertTrue(authorization.contains("response=\"753927fa0e85d155564e2e272a28d1802ca10daf4496794697cf8db5856cb6c1\""));
+    }
+
+    @Test
+    public void shouldIncrementNonceCount() throws Exception {
+        DigestCredentials credentials = newCredentials("MD5");
+        URL location = new URL("http://www.example.org/dir/index.html");
+
+        assertTrue(credentials.authorize("GET", location).contains("nc=00000001"));
+        assertTrue(credentials.authorize("GET", location).contains("nc=00000002"));
+    }
+
+    @Test
+    public void shouldRejectUnsupportedAlgorithm() throws Exception {
+        assertNull(newCredentials("MD5-sess"));
+    }
+
+    @Test
+    public void shouldReportSupportBeforeCredentials() throws Exception {
+        assertTrue(DigestCredentials.isSupported(DigestCredentials.parseParameters(String.format(CHALLENGE, "SHA-256"))));
+        assertFalse(DigestCredentials.isSupported(DigestCredentials.parseParameters(String.format(CHALLENGE, "MD5-sess"))));
+        assertFalse(DigestCredentials.isSupported(DigestCredentials.parseParameters("realm=\"test\", nonce=\"abc\", qop=auth-int")));
+        assertFalse(DigestCredentials.isSupported(DigestCredentials.parseParameters("realm=\"test\"")));
+    }
+
+    private static DigestCredentials newCredentials(String algorithm) {
+        Map<String, String> parameters = DigestCredentials.parseParameters(String.format(CHALLENGE, algorithm));
+        return DigestCredentials.newInstance(parameters, "Mufasa", "Circle of Life".toCharArray());
+    }
+}
@@ -235,6 +235,33 @@ public class DispatchChallengeHandlerTest {
 
     }
 
+    @Test
+    public void shouldReuseCachedLookupForRepeatedLocation() throws Exception {
+        dispatch.register("http://foo.example.com/*", sampleHandler);
+        List<ChallengeHandler> lookup = dispatch.lookup("http://foo.example.com/path");
+        assertSame(lookup, dispatch.lookup("http://foo.example.com/path"));
+    }
+
+    @Test
+    public void shouldInvalidateCachedLookupWhenRegistrationsChange() throws Exception {
+        String location = "http://foo.example.com/path";
+        assertIsEmpty("Not expecting a handler before registration", dispatch.lookup(location));
+
+        dispatch.register("http://foo.example.com/*", sampleHandler);
+        Assert.assertEquals(1, dispatch.lookup(location).size());
+
+        dispatch.unregister("http://foo.example.com/*", sampleHandler);
+        assertIsEmpty("Not expecting a handler after unregistration", dispatch.lookup(location));
+    }
+
+    @Test
+    public void shouldBoundLookupCache() throws Exception {
+        dispatch.register("http://*.example.com", sampleHandler);
+        for (int i = 0; i < DefaultDispatchChallengeHandler.LOOKUP_CACHE_CAPACITY * 2; i++) {
+            Assert.assertEquals(1, dispatch.lookup("http://host" + i + ".example.com").size());
+        }
+    }
+
     @Test
     public void testSubdomainIsSignificant() throws Exception {
         doesNotMatch("http://sub.hostname.com:8000/path1/path2/*",
@@ -22,7 +22,6 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.URI;
@@ -31,6 +30,10 @@ import java.net.URLConnection;
 import java.net.URLStreamHandler;
 import java.util.Collection;
 
+import javax.net.SocketFactory;
+
+import org.kaazing.netx.SocketConnector;
+import org.kaazing.netx.TransportOptions;
 import org.kaazing.netx.URLConnectionHelperSpi;
 
 public final class TcpURLConnectionHelper extends URLConnectionHelperSpi {
@@ -64,9 +67,12 @@ public final class TcpURLConnectionHelper extends URLConnectionHelperSpi {
 
     private static final class TcpURLConnection extends URLConnection implements Closeable {
 
-        private final Socket socket;
-        private final InetSocketAddress endpoint;
+        private final String hostname;
+        private final int port;
+        private final TransportOptions transportOptions;
 
+        private Socket socket;
+        private int readTimeout;
         private InputStream input;
         private OutputStream output;
 
@@ -97,38 +103,47 @@ public final class TcpURLConnectionHelper extends URLConnectionHelperSpi {
                 throw new IllegalArgumentException("Expected port: " + port);
             }
 
-            socket = new Socket();
-            endpoint = new InetSocketAddress(hostname, port);
+            this.hostname = hostname;
+            this.port = port;
+            this.transportOptions = TransportOptions.fromQuery(locationURI.getRawQuery(), null);
         }
 
         @Override
         public void connect() throws IOException {
-            socket.connect(endpoint);
-            connected = true;
+            if (!connected) {
+                SocketConnector connector = SocketConnector.getDefault();
+                socket = connector.connect(SocketFactory.getDefault(), hostname, port, getConnectTimeout(), transportOptions);
+                socket.setSoTimeout(readTimeout);
+                connected = true;
+            }
         }
 
         @Override
         public void setReadTimeout(int timeout) {
-            try {
-                socket.setSoTimeout(timeout);
+            if (timeout < 0) {
+                throw new IllegalArgumentException("timeout can not be negative");
             }
-            catch (SocketException e) {
-                throw new RuntimeException(e);
+
+            readTimeout = timeout;
+
+            if (socket != null) {
+                try {
+                    socket.setSoTimeout(timeout);
+                }
+                catch (SocketException e) {
+                    throw new RuntimeException(e);
+                }
             }
         }
 
         @Override
         public int getReadTimeout() {
-            try {
-                return socket.getSoTimeout();
-            }
-            catch (SocketException e) {
-                throw new RuntimeException(e);
-            }
+            return readTimeout;
         }
 
         @Override
         public InputStream getInputStream() throws IOException {
+            connect();
             if (input == null) {
                 input = new TcpInputStream(socket);
             }
@@ -137,6 +152,7 @@ public final class TcpURLConnectionHelper extends URLConnectionHelperSpi {
 
         @Override
         public OutputStream getOutputStream() throws IOException {
+            connect();
             if (output == null) {
                 output = new TcpOutputStream(socket);
             }
@@ -145,7 +161,9 @@ public final class TcpURLConnectionHelper extends URLConnectionHelperSpi {
 
         @Override
         public void close() throws IOException {
-            socket.close();
+            if (socket != null) {
+                socket.close();
+            }
         }
 
         private final class TcpInputStream extends InputStream {
@@ -24,7 +24,11 @@ import java.io.Reader;
 import java.io.Writer;
 import java.util.Collection;
 
+import javax.net.ssl.SSLContext;
+
+import org.kaazing.netx.TransportOptions;
 import org.kaazing.netx.http.HttpRedirectPolicy;
+import org.kaazing.netx.http.SSLSessionCache;
 import org.kaazing.netx.http.auth.ChallengeHandler;
 
 
@@ -186,6 +190,20 @@ public abstract class WebSocket implements Closeable {
      */
     public abstract HttpRedirectPolicy getRedirectPolicy();
 
+    /**
+     * Returns the {@link SSLContext} used for secure connections, or <I>null</I> if the default SSLContext is used.
+     *
+     * @return  the SSL context
+     */
+    public abstract SSLContext getSSLContext();
+
+    /**
+     * Returns the socket options applied to this connection, or <I>null</I> if platform defaults are used.
+     *
+     * @return  the socket options
+     */
+    public abstract TransportOptions getTransportOptions();
+
     /**
      * Returns the names of extensions that have been discovered for this connection. An empty Collection is returned if no
      * extensions were discovered for this connection.
@@ -203,6 +221,13 @@ public abstract class WebSocket implements Closeable {
      */
     public abstract Writer getWriter() throws IOException;
 
+    /**
+     * Returns whether messages may be sent before the WebSocket upgrade response is received.
+     *
+     * @return <I>true</I> if early data is enabled
+     */
+    public abstract boolean isEarlyDataEnabled();
+
     /**
      * Sets the {@link ChallengeHandler} that is used during authentication both at the connect-time as well as at subsequent
      * revalidation-time that occurs at regular intervals.
@@ -221,6 +246,17 @@ public abstract class WebSocket implements Closeable {
      */
     public abstract void setConnectTimeout(int connectTimeout);
 
+    /**
+     * Sets whether messages may be sent before the WebSocket upgrade response is received. When enabled, the first messages
+     * are sent back-to-back with the upgrade request instead of one round trip later, and the upgrade response is validated
+     * when the first message is received. If the upgrade fails, the messages sent early are discarded and an IOException is
+     * reported. Early data is not used when extensions are enabled, because they cannot be applied before negotiation, and
+     * redirects or authentication challenges are not followed. This method must be invoked before {@link #connect()} is called.
+     *
+     * @param earlyDataEnabled   <I>true</I> to send messages before the upgrade response
+     */
+    public abstract void setEarlyDataEnabled(boolean earlyDataEnabled);
+
     /**
      * Registers the protocols to be negotiated with the server during the handshake. This method must be invoked before
      * the {@link #connect()} method is called. Invoking this method clears previously enabled extensions.
@@ -250,4 +286,20 @@ public abstract class WebSocket implements Closeable {
      */
     public abstract void setRedirectPolicy(HttpRedirectPolicy policy);
 
+    /**
+     * Sets the {@link SSLContext} used for secure connections, or <I>null</I> to use the default SSLContext. TLS sessions
+     * are resumed per host and port as configured by the {@link SSLSessionCache} of the context.
+     *
+     * @param sslContext   the SSL context used for secure connections
+     */
+    public abstract void setSSLContext(SSLContext sslContext);
+
+    /**
+     * Sets the socket options applied to this connection, or <I>null</I> to use platform defaults. Individual options can
+     * also be overridden by <code>netx.*</code> query parameters of the location.
+     *
+     * @param transportOptions   the socket options
+     */
+    public abstract void setTransportOptions(TransportOptions transportOptions);
+
 }
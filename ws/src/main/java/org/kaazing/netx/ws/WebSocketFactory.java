@@ -20,16 +20,30 @@ import static java.lang.String.format;
 import static java.util.Collections.unmodifiableList;
 import static org.kaazing.netx.ws.WsURLConnection.MAX_MESSAGE_LENGTH_LIMIT;
 
+import java.io.IOException;
+import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.Future;
 
+import javax.net.ssl.SSLContext;
+
+import org.kaazing.netx.TransportOptions;
+import org.kaazing.netx.TransportProfile;
+import org.kaazing.netx.http.HttpCredentialCache;
 import org.kaazing.netx.http.HttpRedirectPolicy;
+import org.kaazing.netx.http.HttpSocketPool;
+import org.kaazing.netx.http.SSLSessionCache;
 import org.kaazing.netx.http.auth.ChallengeHandler;
+import org.kaazing.netx.ws.internal.ResilientWebSocket;
+import org.kaazing.netx.ws.internal.WebSocketBulkConnector;
 import org.kaazing.netx.ws.internal.WebSocketExtensionFactory;
 import org.kaazing.netx.ws.internal.WebSocketImpl;
+import org.kaazing.netx.ws.internal.WebSocketReconnectMetrics;
 
 /**
  * {@link WebSocketFactory} is an abstract class that can be used to create {@link WebSocket}s by specifying the end-point and
@@ -42,22 +56,47 @@ import org.kaazing.netx.ws.internal.WebSocketImpl;
  */
 public final class WebSocketFactory {
     private static final int DEFAULT_MAX_PAYLOAD_LENGTH = 8192;
+    private static final int DEFAULT_CONNECT_JITTER = 50;
+    private static final int DEFAULT_RECONNECT_DELAY = 100;
+    private static final int DEFAULT_MAX_RECONNECT_DELAY = 5000;
+    private static final int DEFAULT_RECONNECT_TIMEOUT = 30000;
+    private static final int DEFAULT_REPLAY_BUFFER_SIZE = 65536;
 
     private final List<String> defaultEnabledExtensions;
     private final List<String> defaultEnabledExtensionsRO;
     private final WebSocketExtensionFactory extensionFactory;
+    private final WebSocketBulkConnector bulkConnector;
+    private final WebSocketReconnectMetrics reconnectMetrics;
+    private final HttpSocketPool socketPool;
 
     private HttpRedirectPolicy defaultRedirectPolicy;
     private ChallengeHandler defaultChallengeHandler;
+    private SSLContext defaultSSLContext;
+    private HttpCredentialCache defaultCredentialCache;
+    private TransportOptions defaultTransportOptions;
     private int defaultConnectTimeout; // milliseconds
+    private int defaultConnectJitter; // milliseconds
     private int defaultMaxMessageLength;
+    private int defaultReconnectDelay; // milliseconds
+    private int defaultMaxReconnectDelay; // milliseconds
+    private int defaultReconnectTimeout; // milliseconds
+    private int defaultReplayBufferSize;
+    private boolean defaultEarlyDataEnabled;
 
     private WebSocketFactory(WebSocketExtensionFactory extensionFactory) {
         this.defaultEnabledExtensions = new ArrayList<String>();
         this.defaultEnabledExtensionsRO = unmodifiableList(defaultEnabledExtensions);
         this.extensionFactory = extensionFactory;
+        this.bulkConnector = new WebSocketBulkConnector(this);
+        this.reconnectMetrics = new WebSocketReconnectMetrics();
+        this.socketPool = HttpSocketPool.newInstance();
         this.defaultRedirectPolicy = HttpRedirectPolicy.ORIGIN;
+        this.defaultConnectJitter = DEFAULT_CONNECT_JITTER;
         this.defaultMaxMessageLength = DEFAULT_MAX_PAYLOAD_LENGTH;
+        this.defaultReconnectDelay = DEFAULT_RECONNECT_DELAY;
+        this.defaultMaxReconnectDelay = DEFAULT_MAX_RECONNECT_DELAY;
+        this.defaultReconnectTimeout = DEFAULT_RECONNECT_TIMEOUT;
+        this.defaultReplayBufferSize = DEFAULT_REPLAY_BUFFER_SIZE;
     }
 
     /**
@@ -107,6 +146,23 @@ public final class WebSocketFactory {
         }
     }
 
+    /**
+     * Creates and connects a {@link WebSocket} for each of the specified locations, with at most {@code parallelism}
+     * opening handshakes in progress at any time.
+     * <p>
+     * Each {@link WebSocket} is created as if by {@link #createWebSocket(URI)} and connected on a worker thread after a
+     * random delay of up to the default connect jitter, so that reconnecting many WebSockets at once does not overwhelm the
+     * server. This method returns immediately. Each returned {@link Future} completes with the connected {@link WebSocket},
+     * or fails with the exception thrown while connecting it.
+     *
+     * @param locations      URIs of the WebSocket services to connect to
+     * @param parallelism    maximum number of concurrent connects
+     * @return a Future for each location, in iteration order of the locations
+     */
+    public List<Future<WebSocket>> connectAll(Collection<URI> locations, int parallelism) {
+        return bulkConnector.connectAll(locations, parallelism, defaultConnectJitter);
+    }
+
     /**
      * Creates a {@link WebSocket} to establish a full-duplex connection to the target location.
      * <p>
@@ -147,11 +203,45 @@ public final class WebSocketFactory {
         ws.setEnabledProtocols(protocols);
         ws.setChallengeHandler(defaultChallengeHandler);
         ws.setConnectTimeout(defaultConnectTimeout);
-        ws.addEnabledExtensions(defaultEnabledExtensions.toArray(new String[defaultEnabledExtensions.size()]));
+        ws.setSSLContext(defaultSSLContext);
+        ws.setSocketPool(socketPool);
+        ws.setCredentialCache(defaultCredentialCache);
+        ws.setEarlyDataEnabled(defaultEarlyDataEnabled);
+        if (defaultTransportOptions != null) {
+            ws.setTransportOptions(new TransportOptions(defaultTransportOptions));
+        }
+        if (!defaultEnabledExtensions.isEmpty()) {
+            ws.addEnabledExtensions(defaultEnabledExtensions.toArray(new String[defaultEnabledExtensions.size()]));
+        }
 
         return ws;
     }
 
+    /**
+     * Creates a resilient {@link WebSocket} to establish a full-duplex connection to the target location with one of the
+     * specified protocols, inheriting the same defaults as {@link #createWebSocket(URI, String...)}.
+     * <p>
+     * After the resilient WebSocket is connected, a failed connection is replaced transparently when it is detected by a
+     * read or a write. Reconnect attempts start immediately and are retried with exponential backoff and jitter, from the
+     * default reconnect delay up to the default maximum reconnect delay, until the default reconnect timeout expires. The
+     * new connection negotiates the same protocols and extensions. Messages written but not yet acknowledged by the server
+     * are retained in a replay buffer of the default replay buffer size, and are sent again on the new connection, so the
+     * server may receive a message more than once. Reconnects are measured by {@link #getReconnectCount()},
+     * {@link #getAverageReconnectTime()} and {@link #getMaxReconnectTime()}.
+     *
+     * @param location    URI of the WebSocket service for the connection
+     * @param protocols   protocols to be negotiated over the WebSocket, or
+     *                    <I>null</I> for any protocol
+     * @return WebSocket instance
+     * @throws URISyntaxException if the URI syntax is invalid
+     */
+    public WebSocket createResilientWebSocket(URI location, String... protocols)
+            throws URISyntaxException {
+        WebSocketImpl ws = (WebSocketImpl) createWebSocket(location, protocols);
+        return new ResilientWebSocket(location, ws, extensionFactory, reconnectMetrics,
+                defaultReconnectDelay, defaultMaxReconnectDelay, defaultReconnectTimeout, defaultReplayBufferSize);
+    }
+
     /**
      * Gets the default {@link ChallengeHandler} that is used during authentication both at the connect-time as well as at
      * subsequent revalidation-time that occurs at regular intervals.
@@ -162,6 +252,26 @@ public final class WebSocketFactory {
         return defaultChallengeHandler;
     }
 
+    /**
+     * Gets the maximum random delay in milliseconds applied before each connect started by
+     * {@link #connectAll(Collection, int)}. The default connect jitter is 50 milliseconds.
+     *
+     * @return connect jitter in milliseconds
+     */
+    public int getDefaultConnectJitter() {
+        return defaultConnectJitter;
+    }
+
+    /**
+     * Returns the rate of successful connects achieved by the most recent {@link #connectAll(Collection, int)}, measured from
+     * the start of the bulk connect until its most recent successful connect. Returns zero if no connect has succeeded yet.
+     *
+     * @return successful connects per second
+     */
+    public double getConnectsPerSecond() {
+        return bulkConnector.getConnectsPerSecond();
+    }
+
     /**
      * Gets the default connect timeout in milliseconds. Default value of the default connect timeout is zero -- which means
      * no timeout.
@@ -184,6 +294,16 @@ public final class WebSocketFactory {
         return defaultEnabledExtensionsRO;
     }
 
+    /**
+     * Returns whether the {@link WebSocket}s created using this factory send messages before the upgrade response is
+     * received. Early data is disabled by default.
+     *
+     * @return <I>true</I> if early data is enabled by default
+     */
+    public boolean isDefaultEarlyDataEnabled() {
+        return defaultEarlyDataEnabled;
+    }
+
     /**
      * Returns the maximum message length that this connection will support. The default maximum message length is 8192 bytes.
      *
@@ -193,6 +313,86 @@ public final class WebSocketFactory {
         return defaultMaxMessageLength;
     }
 
+    /**
+     * Gets the initial delay in milliseconds between reconnect attempts of resilient WebSockets. The delay doubles after
+     * each failed attempt. The default reconnect delay is 100 milliseconds.
+     *
+     * @return reconnect delay in milliseconds
+     */
+    public int getDefaultReconnectDelay() {
+        return defaultReconnectDelay;
+    }
+
+    /**
+     * Gets the maximum delay in milliseconds between reconnect attempts of resilient WebSockets. The default maximum
+     * reconnect delay is 5000 milliseconds.
+     *
+     * @return maximum reconnect delay in milliseconds
+     */
+    public int getDefaultMaxReconnectDelay() {
+        return defaultMaxReconnectDelay;
+    }
+
+    /**
+     * Gets the time in milliseconds within which a resilient WebSocket must reconnect before the failure is reported to the
+     * application. The default reconnect timeout is 30000 milliseconds.
+     *
+     * @return reconnect timeout in milliseconds
+     */
+    public int getDefaultReconnectTimeout() {
+        return defaultReconnectTimeout;
+    }
+
+    /**
+     * Gets the maximum size in bytes of the unacknowledged messages retained by each resilient WebSocket for replay after a
+     * reconnect. The default replay buffer size is 65536 bytes.
+     *
+     * @return replay buffer size in bytes
+     */
+    public int getDefaultReplayBufferSize() {
+        return defaultReplayBufferSize;
+    }
+
+    /**
+     * Returns the number of successful reconnects of the resilient WebSockets created using this factory.
+     *
+     * @return number of reconnects
+     */
+    public long getReconnectCount() {
+        return reconnectMetrics.getReconnectCount();
+    }
+
+    /**
+     * Returns the number of resilient WebSockets created using this factory that failed to reconnect before the reconnect
+     * timeout expired.
+     *
+     * @return number of failed reconnects
+     */
+    public long getFailedReconnectCount() {
+        return reconnectMetrics.getFailedReconnectCount();
+    }
+
+    /**
+     * Returns the average time in milliseconds of the successful reconnects of the resilient WebSockets created using this
+     * factory, measured from the detection of the failure until all unacknowledged messages were replayed. Returns zero if no
+     * reconnect has succeeded yet.
+     *
+     * @return average reconnect time in milliseconds
+     */
+    public double getAverageReconnectTime() {
+        return reconnectMetrics.getAverageReconnectTime();
+    }
+
+    /**
+     * Returns the longest time in milliseconds of the successful reconnects of the resilient WebSockets created using this
+     * factory.
+     *
+     * @return maximum reconnect time in milliseconds
+     */
+    public long getMaxReconnectTime() {
+        return reconnectMetrics.getMaxReconnectTime();
+    }
+
     /**
      * Returns the default {@link HttpRedirectPolicy} that was specified at on the factory. The default redirect policy
      * is {@link HttpRedirectPolicy.ORIGIN}.
@@ -203,6 +403,58 @@ public final class WebSocketFactory {
         return defaultRedirectPolicy;
     }
 
+    /**
+     * Returns the default {@link SSLContext} inherited by all the {@link WebSocket}s created using this factory, or
+     * <I>null</I> if the default SSLContext is used.
+     *
+     * @return SSLContext
+     */
+    public SSLContext getDefaultSSLContext() {
+        return defaultSSLContext;
+    }
+
+    /**
+     * Returns the default {@link HttpCredentialCache} inherited by all the {@link WebSocket}s created using this factory, or
+     * <I>null</I> if credentials are only sent in response to an authentication challenge.
+     *
+     * @return HttpCredentialCache
+     */
+    public HttpCredentialCache getDefaultCredentialCache() {
+        return defaultCredentialCache;
+    }
+
+    /**
+     * Returns the {@link SSLSessionCache} for the default {@link SSLContext} of this factory, used to configure TLS session
+     * resumption and to report the number of full and resumed handshakes for wss connections.
+     *
+     * @return SSLSessionCache
+     * @throws IOException if the default SSLContext is not available
+     */
+    public SSLSessionCache getSSLSessionCache() throws IOException {
+        return (defaultSSLContext != null) ? SSLSessionCache.getInstance(defaultSSLContext) : SSLSessionCache.getDefault();
+    }
+
+    /**
+     * Returns the pool of pre-connected sockets used by the {@link WebSocket}s created using this factory, to report pool
+     * hits, misses and evictions.
+     *
+     * @return HttpSocketPool
+     */
+    public HttpSocketPool getSocketPool() {
+        return socketPool;
+    }
+
+    /**
+     * Returns the default socket options inherited by all the {@link WebSocket}s created using this factory, or <I>null</I>
+     * if platform defaults are used. Platform defaults are used unless set with
+     * {@link #setDefaultTransportOptions(TransportOptions)} or {@link #setDefaultTransportProfile(TransportProfile)}.
+     *
+     * @return TransportOptions
+     */
+    public TransportOptions getDefaultTransportOptions() {
+        return defaultTransportOptions;
+    }
+
     /**
      * Returns the names of supported extensions that have been discovered. An empty Collection is returned if no extensions
      * were discovered.
@@ -236,6 +488,31 @@ public final class WebSocketFactory {
         this.defaultConnectTimeout = connectTimeout;
      }
 
+    /**
+     * Sets whether the {@link WebSocket}s created using this factory send messages before the upgrade response is received,
+     * saving a round trip on the first message. See {@link WebSocket#setEarlyDataEnabled(boolean)}.
+     *
+     * @param earlyDataEnabled    <I>true</I> to send messages before the upgrade response by default
+     */
+    public void setDefaultEarlyDataEnabled(boolean earlyDataEnabled) {
+        this.defaultEarlyDataEnabled = earlyDataEnabled;
+    }
+
+    /**
+     * Sets the maximum random delay in milliseconds applied before each connect started by
+     * {@link #connectAll(Collection, int)}. A value of zero disables the delay. An IllegalArgumentException is thrown if
+     * the connect jitter is negative.
+     *
+     * @param connectJitter    connect jitter in milliseconds
+     */
+    public void setDefaultConnectJitter(int connectJitter) {
+        if (connectJitter < 0) {
+            throw new IllegalArgumentException("Connect jitter must not be negative");
+        }
+
+        this.defaultConnectJitter = connectJitter;
+    }
+
     /**
      * Sets the maximum message length that is inherited by all the @{link WebSocket}s created using this factory.
      * The maximum message length can be {@link WsURLConnection#MAX_MESSAGE_LENGTH_LIMIT}.
@@ -258,6 +535,57 @@ public final class WebSocketFactory {
         this.defaultMaxMessageLength = maxMessageLength;
     }
 
+    /**
+     * Sets the initial and maximum delays in milliseconds between reconnect attempts of resilient WebSockets created using
+     * this factory. The delay doubles after each failed attempt up to the maximum delay, and a random jitter of up to half of
+     * the delay is subtracted from it. An IllegalArgumentException is thrown if the initial delay is not positive or the
+     * maximum delay is less than the initial delay.
+     *
+     * @param reconnectDelay       initial reconnect delay in milliseconds
+     * @param maxReconnectDelay    maximum reconnect delay in milliseconds
+     */
+    public void setDefaultReconnectDelay(int reconnectDelay, int maxReconnectDelay) {
+        if (reconnectDelay <= 0) {
+            throw new IllegalArgumentException("Reconnect delay must be positive integer value");
+        }
+
+        if (maxReconnectDelay < reconnectDelay) {
+            throw new IllegalArgumentException("Maximum reconnect delay must not be less than reconnect delay");
+        }
+
+        this.defaultReconnectDelay = reconnectDelay;
+        this.defaultMaxReconnectDelay = maxReconnectDelay;
+    }
+
+    /**
+     * Sets the time in milliseconds within which resilient WebSockets created using this factory must reconnect before the
+     * failure is reported to the application. An IllegalArgumentException is thrown if the timeout is not positive.
+     *
+     * @param reconnectTimeout    reconnect timeout in milliseconds
+     */
+    public void setDefaultReconnectTimeout(int reconnectTimeout) {
+        if (reconnectTimeout <= 0) {
+            throw new IllegalArgumentException("Reconnect timeout must be positive integer value");
+        }
+
+        this.defaultReconnectTimeout = reconnectTimeout;
+    }
+
+    /**
+     * Sets the maximum size in bytes of the unacknowledged messages retained by each resilient WebSocket created using this
+     * factory. When the replay buffer is full, the oldest messages are discarded and are not replayed after a reconnect. A
+     * size of zero disables replay. An IllegalArgumentException is thrown if the size is negative.
+     *
+     * @param replayBufferSize    replay buffer size in bytes
+     */
+    public void setDefaultReplayBufferSize(int replayBufferSize) {
+        if (replayBufferSize < 0) {
+            throw new IllegalArgumentException("Replay buffer size must not be negative");
+        }
+
+        this.defaultReplayBufferSize = replayBufferSize;
+    }
+
     /**
      * Sets the default {@link HttpRedirectPolicy} that is to be inherited by all the {@link WebSocket}s created using this
      * factory instance.
@@ -267,4 +595,85 @@ public final class WebSocketFactory {
     public void setDefaultRedirectPolicy(HttpRedirectPolicy redirectPolicy) {
         this.defaultRedirectPolicy = redirectPolicy;
     }
+
+    /**
+     * Sets the default {@link SSLContext} that is to be inherited by all the {@link WebSocket}s created using this factory
+     * instance, or <I>null</I> to use the default SSLContext.
+     *
+     * @param sslContext     SSLContext used for wss connections
+     */
+    public void setDefaultSSLContext(SSLContext sslContext) {
+        this.defaultSSLContext = sslContext;
+    }
+
+    /**
+     * Sets the default {@link HttpCredentialCache} that is to be inherited by all the {@link WebSocket}s created using this
+     * factory instance, or <I>null</I> to only send credentials in response to an authentication challenge, which is the
+     * default. With a cache, the credentials that answered a challenge are sent with later opening handshakes to the same
+     * protection space, so that those connects do not first receive a 401 response.
+     *
+     * @param credentialCache     credential cache used for opening handshakes
+     */
+    public void setDefaultCredentialCache(HttpCredentialCache credentialCache) {
+        this.defaultCredentialCache = credentialCache;
+    }
+
+    /**
+     * Keeps the specified number of pre-connected sockets ready for the target location, so that connecting a
+     * {@link WebSocket} created using this factory only sends the opening handshake. For wss locations, the TLS handshake is
+     * also completed in advance. The sockets are connected with the default SSLContext, socket options and connect timeout
+     * in effect when this method is called, and are only used by WebSockets with the same settings. Idle sockets are
+     * health-checked, and replaced when closed by the server or idle for too long. A count of zero stops keeping sockets for
+     * the location.
+     *
+     * @param location    URI of the WebSocket service
+     * @param count       number of pre-connected sockets to keep
+     */
+    public void setWarmSocketCount(URI location, int count) {
+        if (location == null) {
+            throw new NullPointerException("Null location passed in");
+        }
+
+        String scheme = location.getScheme();
+        String httpScheme;
+        if ("ws".equalsIgnoreCase(scheme)) {
+            httpScheme = "http";
+        }
+        else if ("wss".equalsIgnoreCase(scheme)) {
+            httpScheme = "https";
+        }
+        else {
+            throw new IllegalArgumentException(format("Unsupported scheme: %s", scheme));
+        }
+
+        try {
+            URL url = new URL(httpScheme, location.getHost(), location.getPort(), "/");
+            TransportOptions transportOptions = TransportOptions.fromQuery(location.getQuery(), defaultTransportOptions);
+            socketPool.setWarmSocketCount(url, defaultSSLContext, transportOptions, defaultConnectTimeout, count);
+        }
+        catch (MalformedURLException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Sets the default socket options that are to be inherited by all the {@link WebSocket}s created using this factory
+     * instance, or <I>null</I> to use platform defaults. Individual options can be overridden per WebSocket using
+     * {@link WebSocket#setTransportOptions(TransportOptions)} or <code>netx.*</code> query parameters of the location.
+     *
+     * @param transportOptions     socket options applied to WebSocket connections
+     */
+    public void setDefaultTransportOptions(TransportOptions transportOptions) {
+        this.defaultTransportOptions = transportOptions;
+    }
+
+    /**
+     * Sets the default socket options to those of the specified {@link TransportProfile}. For example,
+     * {@link TransportProfile#LOW_LATENCY} reduces the latency of small messages.
+     *
+     * @param profile     transport profile applied to WebSocket connections
+     */
+    public void setDefaultTransportProfile(TransportProfile profile) {
+        this.defaultTransportOptions = new TransportOptions(profile);
+    }
 }
@@ -0,0 +1,651 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kaazing.netx.ws.internal;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+import javax.net.ssl.SSLContext;
+
+import org.kaazing.netx.TransportOptions;
+import org.kaazing.netx.http.HttpRedirectPolicy;
+import org.kaazing.netx.http.auth.ChallengeHandler;
+import org.kaazing.netx.ws.WebSocket;
+import org.kaazing.netx.ws.internal.WebSocketReplayBuffer.Message;
+
+/**
+ * A {@link WebSocket} that transparently replaces its connection when it fails.
+ *
+ * When a read reaches the end of the stream, or a read or write fails, before the application has closed the WebSocket,
+ * a new connection is established to the same location with the same enabled protocols, enabled extensions and other
+ * settings. Attempts are retried with exponential backoff and jitter until the reconnect timeout expires, after which the
+ * WebSocket is closed and the failure is reported to the application.
+ * <p>
+ * Each message written is retained in a bounded replay buffer until the server acknowledges it. WebSocket has no message
+ * acknowledgement, so a PING carrying the sequence number of the latest message is sent periodically, and the matching
+ * PONG acknowledges that message and all earlier ones. PONGs are processed as the application reads. Unacknowledged
+ * messages are sent again on the new connection, so delivery is at-least-once: the server may receive a message twice.
+ * Inbound data in flight when the connection failed is lost.
+ */
+public final class ResilientWebSocket extends WebSocket {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String MSG_CLOSED = "WebSocket closed";
+    private static final String MSG_RECONNECT_TIMED_OUT = "Reconnect timed out";
+
+    private static final int ACKNOWLEDGE_INTERVAL = 16;
+    private static final byte ACKNOWLEDGE_MARKER = 'R';
+    private static final int MAX_BACKOFF_SHIFT = 30;
+
+    private final URI location;
+    private final WebSocketExtensionFactory extensionFactory;
+    private final WebSocketReplayBuffer replayBuffer;
+    private final WebSocketReconnectMetrics metrics;
+    private final long initialReconnectDelay;
+    private final long maxReconnectDelay;
+    private final long reconnectTimeout;
+    private final Random random;
+    private final Object lock;
+    private final Object reconnectLock;
+    private final WsPongListener pongListener;
+    private final InputStream inputStream;
+    private final OutputStream outputStream;
+    private final Reader reader;
+    private final Writer writer;
+
+    private volatile WebSocketImpl delegate;
+    private volatile int generation;
+    private volatile boolean closed;
+
+    private int connectTimeout;
+    private int unacknowledged;
+    private boolean reconnecting;
+
+    public ResilientWebSocket(
+            URI location,
+            WebSocketImpl delegate,
+            WebSocketExtensionFactory extensionFactory,
+            WebSocketReconnectMetrics metrics,
+            long initialReconnectDelay,
+            long maxReconnectDelay,
+            long reconnectTimeout,
+            int replayBufferSize) {
+        this.location = location;
+        this.delegate = delegate;
+        this.extensionFactory = extensionFactory;
+        this.metrics = metrics;
+        this.initialReconnectDelay = initialReconnectDelay;
+        this.maxReconnectDelay = maxReconnectDelay;
+        this.reconnectTimeout = reconnectTimeout;
+        this.replayBuffer = new WebSocketReplayBuffer(replayBufferSize);
+        this.random = new Random();
+        this.lock = new Object();
+        this.reconnectLock = new Object();
+        this.connectTimeout = delegate.getConnectTimeout();
+        this.pongListener = new WsPongListener() {
+            @Override
+            public void pongReceived(byte[] payload) {
+                if (payload.length == 9 && payload[0] == ACKNOWLEDGE_MARKER) {
+                    long sequence = 0L;
+                    for (int i = 1; i < payload.length; i++) {
+                        sequence = (sequence << 8) | (payload[i] & 0xff);
+                    }
+                    replayBuffer.acknowledge(sequence);
+                }
+            }
+        };
+        this.inputStream = new ResilientInputStream();
+        this.outputStream = new ResilientOutputStream();
+        this.reader = new ResilientReader();
+        this.writer = new ResilientWriter();
+
+        delegate.getConnection().setPongListener(pongListener);
+    }
+
+    @Override
+    public void addEnabledExtensions(String... extensions) {
+        delegate.addEnabledExtensions(extensions);
+    }
+
+    @Override
+    public void close() throws IOException {
+        close(0, null);
+    }
+
+    @Override
+    public void close(int code) throws IOException {
+        close(code, null);
+    }
+
+    @Override
+    public void close(int code, String reason) throws IOException {
+        closed = true;
+        synchronized (reconnectLock) {
+            // wakes a reconnect waiting out its backoff delay
+            reconnectLock.notifyAll();
+        }
+        delegate.close(code, reason);
+    }
+
+    @Override
+    public void connect() throws IOException {
+        delegate.connect();
+    }
+
+    @Override
+    public ChallengeHandler getChallengeHandler() {
+        return delegate.getChallengeHandler();
+    }
+
+    @Override
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    @Override
+    public Collection<String> getEnabledExtensions() {
+        return delegate.getEnabledExtensions();
+    }
+
+    @Override
+    public Collection<String> getEnabledProtocols() {
+        return delegate.getEnabledProtocols();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        ensureOpen();
+        delegate.getInputStream();
+        return inputStream;
+    }
+
+    @Override
+    public int getMaxMessageLength() {
+        return delegate.getMaxMessageLength();
+    }
+
+    @Override
+    public Collection<String> getNegotiatedExtensions() throws IOException {
+        return delegate.getNegotiatedExtensions();
+    }
+
+    @Override
+    public String getNegotiatedProtocol() throws IOException {
+        return delegate.getNegotiatedProtocol();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        ensureOpen();
+        delegate.getOutputStream();
+        return outputStream;
+    }
+
+    @Override
+    public Reader getReader() throws IOException {
+        ensureOpen();
+        delegate.getReader();
+        return reader;
+    }
+
+    @Override
+    public HttpRedirectPolicy getRedirectPolicy() {
+        return delegate.getRedirectPolicy();
+    }
+
+    @Override
+    public SSLContext getSSLContext() {
+        return delegate.getSSLContext();
+    }
+
+    @Override
+    public TransportOptions getTransportOptions() {
+        return delegate.getTransportOptions();
+    }
+
+    @Override
+    public Collection<String> getSupportedExtensions() {
+        return delegate.getSupportedExtensions();
+    }
+
+    @Override
+    public Writer getWriter() throws IOException {
+        ensureOpen();
+        delegate.getWriter();
+        return writer;
+    }
+
+    @Override
+    public boolean isEarlyDataEnabled() {
+        return delegate.isEarlyDataEnabled();
+    }
+
+    @Override
+    public void setChallengeHandler(ChallengeHandler challengeHandler) {
+        delegate.setChallengeHandler(challengeHandler);
+    }
+
+    @Override
+    public void setConnectTimeout(int connectTimeout) {
+        delegate.setConnectTimeout(connectTimeout);
+        this.connectTimeout = connectTimeout;
+    }
+
+    @Override
+    public void setEarlyDataEnabled(boolean earlyDataEnabled) {
+        delegate.setEarlyDataEnabled(earlyDataEnabled);
+    }
+
+    @Override
+    public void setEnabledProtocols(String... protocols) {
+        delegate.setEnabledProtocols(protocols);
+    }
+
+    @Override
+    public void setMaxMessageLength(int maxMessageLength) {
+        delegate.setMaxMessageLength(maxMessageLength);
+    }
+
+    @Override
+    public void setRedirectPolicy(HttpRedirectPolicy policy) {
+        delegate.setRedirectPolicy(policy);
+    }
+
+    @Override
+    public void setSSLContext(SSLContext sslContext) {
+        delegate.setSSLContext(sslContext);
+    }
+
+    @Override
+    public void setTransportOptions(TransportOptions transportOptions) {
+        delegate.setTransportOptions(transportOptions);
+    }
+
+    /**
+     * Returns the number of bytes of sent messages that have not yet been acknowledged by the server.
+     *
+     * @return unacknowledged bytes in the replay buffer
+     */
+    public int getUnacknowledgedSize() {
+        return replayBuffer.size();
+    }
+
+    private void ensureOpen() throws IOException {
+        // the delegate would open a new connection for streams first requested after close
+        if (closed) {
+            throw new IOException(MSG_CLOSED);
+        }
+    }
+
+    private void send(boolean text, byte[] payload, int offset, int length) throws IOException {
+        boolean retained;
+        int sentGeneration;
+        IOException failure;
+
+        synchronized (lock) {
+            if (closed) {
+                throw new IOException(MSG_CLOSED);
+            }
+
+            long sequence = replayBuffer.add(text, payload, offset, length);
+            retained = length <= replayBuffer.capacity();
+            sentGeneration = generation;
+
+            try {
+                write(delegate, text, payload, offset, length);
+
+                if (++unacknowledged >= ACKNOWLEDGE_INTERVAL || replayBuffer.size() > replayBuffer.capacity() / 4) {
+                    requestAcknowledge(delegate, sequence);
+                }
+                return;
+            }
+            catch (IOException e) {
+                failure = e;
+            }
+        }
+
+        // reconnects without holding the lock, the message is already in the replay buffer
+        reconnect(sentGeneration, failure);
+
+        if (!retained) {
+            // too large for the replay buffer, so it was not replayed
+            synchronized (lock) {
+                write(delegate, text, payload, offset, length);
+            }
+        }
+    }
+
+    private void write(WebSocketImpl ws, boolean text, byte[] payload, int offset, int length) throws IOException {
+        if (text) {
+            ws.getWriter().write(new String(payload, offset, length, UTF_8));
+        }
+        else {
+            ws.getOutputStream().write(payload, offset, length);
+        }
+    }
+
+    private void requestAcknowledge(WebSocketImpl ws, long sequence) throws IOException {
+        byte[] payload = new byte[9];
+        payload[0] = ACKNOWLEDGE_MARKER;
+        for (int i = payload.length - 1; i > 0; i--) {
+            payload[i] = (byte) sequence;
+            sequence >>>= 8;
+        }
+
+        ws.getConnection().sendPing(payload, 0, payload.length);
+        unacknowledged = 0;
+    }
+
+    private void reconnect(int failedGeneration, IOException cause) throws IOException {
+        synchronized (reconnectLock) {
+            while (true) {
+                if (closed) {
+                    throw (cause != null) ? cause : new IOException(MSG_CLOSED);
+                }
+
+                if (generation != failedGeneration) {
+                    // another thread has already replaced the failed connection
+                    return;
+                }
+
+                if (!reconnecting) {
+                    reconnecting = true;
+                    break;
+                }
+
+                // another thread is replacing the failed connection
+                await(0L);
+            }
+        }
+
+        try {
+            reconnect(cause);
+        }
+        finally {
+            synchronized (reconnectLock) {
+                reconnecting = false;
+                reconnectLock.notifyAll();
+            }
+        }
+    }
+
+    private void reconnect(IOException cause) throws IOException {
+        long startedAt = System.nanoTime();
+        long deadline = startedAt + NANOSECONDS.convert(reconnectTimeout, MILLISECONDS);
+        WebSocketImpl previous = delegate;
+        IOException failure = cause;
+
+        previous.getConnection().abort();
+
+        // neither connecting nor the backoff delay holds the lock, so senders and close() are not blocked
+        for (int attempt = 0;; attempt++) {
+            long remaining = MILLISECONDS.convert(deadline - System.nanoTime(), NANOSECONDS);
+            if (remaining <= 0L) {
+                closed = true;
+                metrics.failed();
+                IOException e = new IOException(MSG_RECONNECT_TIMED_OUT);
+                e.initCause(failure);
+                throw e;
+            }
+
+            WebSocketImpl ws = newWebSocket(previous, (int) Math.min(remaining, Integer.MAX_VALUE));
+            try {
+                connect(ws);
+
+                synchronized (lock) {
+                    if (closed) {
+                        ws.getConnection().abort();
+                        throw (cause != null) ? cause : new IOException(MSG_CLOSED);
+                    }
+
+                    List<Message> replayed = replayBuffer.unacknowledged();
+                    for (Message message : replayed) {
+                        write(ws, message.text, message.payload, 0, message.payload.length);
+                    }
+
+                    if (!replayed.isEmpty()) {
+                        requestAcknowledge(ws, replayed.get(replayed.size() - 1).sequence);
+                    }
+
+                    delegate = ws;
+                    generation++;
+                }
+
+                if (closed) {
+                    // closed while replacing the connection, after close() read the previous delegate
+                    ws.getConnection().abort();
+                }
+                metrics.reconnected(System.nanoTime() - startedAt);
+                return;
+            }
+            catch (IOException e) {
+                if (closed) {
+                    throw e;
+                }
+                failure = e;
+                ws.getConnection().abort();
+            }
+
+            long delay = Math.min(maxReconnectDelay, initialReconnectDelay << Math.min(attempt, MAX_BACKOFF_SHIFT));
+            long jitter = (long) (random.nextDouble() * (delay / 2));
+            long untilDeadline = MILLISECONDS.convert(deadline - System.nanoTime(), NANOSECONDS);
+            long sleep = Math.min(delay - delay / 2 + jitter, untilDeadline);
+
+            if (sleep > 0L) {
+                synchronized (reconnectLock) {
+                    if (!closed) {
+                        await(sleep);
+                    }
+                }
+            }
+
+            if (closed) {
+                throw (failure != null) ? failure : new IOException(MSG_CLOSED);
+            }
+        }
+    }
+
+    private static void connect(WebSocketImpl ws) throws IOException {
+        try {
+            ws.connect();
+        }
+        catch (IllegalStateException e) {
+            // a malformed opening handshake response, such as when the server closes the connection without responding
+            throw (IOException) new IOException(e.getMessage()).initCause(e);
+        }
+    }
+
+    private void await(long millis) throws IOException {
+        try {
+            reconnectLock.wait(millis);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(MSG_RECONNECT_TIMED_OUT);
+        }
+    }
+
+    private WebSocketImpl newWebSocket(WebSocketImpl previous, int remaining) {
+        WebSocketImpl ws;
+        try {
+            ws = new WebSocketImpl(location, extensionFactory);
+        }
+        catch (URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+
+        Collection<String> protocols = previous.getEnabledProtocols();
+        Collection<String> extensions = previous.getEnabledExtensions();
+
+        ws.setEnabledProtocols(protocols.toArray(new String[protocols.size()]));
+        if (!extensions.isEmpty()) {
+            ws.addEnabledExtensions(extensions.toArray(new String[extensions.size()]));
+        }
+        ws.setChallengeHandler(previous.getChallengeHandler());
+        ws.setRedirectPolicy(previous.getRedirectPolicy());
+        ws.setSSLContext(previous.getSSLContext());
+        ws.setTransportOptions(previous.getTransportOptions());
+        ws.setSocketPool(previous.getSocketPool());
+        ws.setCredentialCache(previous.getCredentialCache());
+        ws.setEarlyDataEnabled(previous.isEarlyDataEnabled());
+        ws.setMaxMessageLength(previous.getMaxMessageLength());
+        ws.setConnectTimeout((connectTimeout != 0) ? Math.min(connectTimeout, remaining) : remaining);
+        ws.getConnection().setPongListener(pongListener);
+
+        return ws;
+    }
+
+    private final class ResilientInputStream extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            while (true) {
+                int readGeneration = generation;
+                try {
+                    int b = delegate.getInputStream().read();
+                    if (b != -1 || closed) {
+                        return b;
+                    }
+                    reconnect(readGeneration, null);
+                }
+                catch (IOException e) {
+                    if (closed) {
+                        throw e;
+                    }
+                    reconnect(readGeneration, e);
+                }
+            }
+        }
+
+        @Override
+        public int read(byte[] buf, int offset, int length) throws IOException {
+            while (true) {
+                int readGeneration = generation;
+                try {
+                    int bytesRead = delegate.getInputStream().read(buf, offset, length);
+                    if (bytesRead != -1 || closed) {
+                        return bytesRead;
+                    }
+                    reconnect(readGeneration, null);
+                }
+                catch (IOException e) {
+                    if (closed) {
+                        throw e;
+                    }
+                    reconnect(readGeneration, e);
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            ResilientWebSocket.this.close();
+        }
+    }
+
+    private final class ResilientReader extends Reader {
+
+        @Override
+        public int read(char[] cbuf, int offset, int length) throws IOException {
+            while (true) {
+                int readGeneration = generation;
+                try {
+                    int charsRead = delegate.getReader().read(cbuf, offset, length);
+                    if (charsRead != -1 || closed) {
+                        return charsRead;
+                    }
+                    reconnect(readGeneration, null);
+                }
+                catch (IOException e) {
+                    if (closed) {
+                        throw e;
+                    }
+                    reconnect(readGeneration, e);
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            ResilientWebSocket.this.close();
+        }
+    }
+
+    private final class ResilientOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            send(false, new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buf, int offset, int length) throws IOException {
+            if (buf == null) {
+                throw new NullPointerException("Null buffer passed in");
+            }
+            else if ((offset < 0) || (length < 0) || (offset + length > buf.length)) {
+                throw new IndexOutOfBoundsException();
+            }
+
+            send(false, buf, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            ResilientWebSocket.this.close();
+        }
+    }
+
+    private final class ResilientWriter extends Writer {
+
+        @Override
+        public void write(char[] cbuf, int offset, int length) throws IOException {
+            if (cbuf == null) {
+                throw new NullPointerException("Null buffer passed in");
+            }
+            else if ((offset < 0) || (length < 0) || (offset + length > cbuf.length)) {
+                throw new IndexOutOfBoundsException();
+            }
+
+            byte[] payload = new String(cbuf, offset, length).getBytes(UTF_8);
+            send(true, payload, 0, payload.length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // No-op
+        }
+
+        @Override
+        public void close() throws IOException {
+            ResilientWebSocket.this.close();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kaazing.netx.ws.internal;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.kaazing.netx.ws.WebSocket;
+import org.kaazing.netx.ws.WebSocketFactory;
+
+/**
+ * Connects many {@link WebSocket}s with at most a bounded number of opening handshakes in flight.
+ *
+ * Each connect is still a blocking TCP connect, TLS handshake and HTTP upgrade, but different connections overlap their
+ * phases across a fixed set of worker threads. Each connect is scheduled after a random delay of up to the configured
+ * jitter, so that a bulk reconnect does not arrive at the server as a single burst. A delayed connect does not occupy a
+ * worker thread while it waits. Host names are resolved by the default {@link org.kaazing.netx.HostResolver}, which looks
+ * up a host once for all of the concurrent connects to it.
+ */
+public final class WebSocketBulkConnector {
+
+    private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+
+    private final WebSocketFactory factory;
+    private final Random random;
+
+    private volatile BulkConnect latest;
+
+    public WebSocketBulkConnector(WebSocketFactory factory) {
+        this.factory = factory;
+        this.random = new Random();
+    }
+
+    public List<Future<WebSocket>> connectAll(Collection<URI> locations, int parallelism, int jitter) {
+        if (locations == null) {
+            throw new NullPointerException("Null locations passed in");
+        }
+
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism must be a positive integer value");
+        }
+
+        if (jitter < 0) {
+            throw new IllegalArgumentException("Jitter must not be negative");
+        }
+
+        int poolSize = Math.max(1, Math.min(parallelism, locations.size()));
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(poolSize, new ConnectThreadFactory());
+
+        BulkConnect bulkConnect = new BulkConnect();
+        latest = bulkConnect;
+
+        List<Future<WebSocket>> futures = new ArrayList<Future<WebSocket>>(locations.size());
+        try {
+            for (URI location : locations) {
+                long delay = (jitter > 0) ? random.nextInt(jitter + 1) : 0L;
+                futures.add(executor.schedule(new ConnectTask(location, bulkConnect), delay, MILLISECONDS));
+            }
+        }
+        finally {
+            // delayed connects still complete, worker threads exit once none remain
+            executor.shutdown();
+        }
+
+        return futures;
+    }
+
+    /**
+     * Returns the rate of successful connects for the most recent bulk connect, measured from the start of the bulk
+     * connect until the most recent successful connect.
+     *
+     * @return the number of successful connects per second
+     */
+    public double getConnectsPerSecond() {
+        BulkConnect bulkConnect = latest;
+        return (bulkConnect != null) ? bulkConnect.getConnectsPerSecond() : 0.0;
+    }
+
+    // measures a single bulk connect, so that concurrent bulk connects do not count each other's connects
+    private static final class BulkConnect {
+
+        private final long startedAt;
+        private int connected;
+        private long lastConnectedAt;
+
+        BulkConnect() {
+            this.startedAt = System.nanoTime();
+            this.lastConnectedAt = startedAt;
+        }
+
+        synchronized void connected() {
+            connected++;
+            lastConnectedAt = System.nanoTime();
+        }
+
+        synchronized double getConnectsPerSecond() {
+            long elapsed = lastConnectedAt - startedAt;
+            if (connected == 0 || elapsed <= 0) {
+                return 0.0;
+            }
+            return connected / (elapsed / (double) NANOSECONDS.convert(1L, SECONDS));
+        }
+    }
+
+    private final class ConnectTask implements Callable<WebSocket> {
+
+        private final URI location;
+        private final BulkConnect bulkConnect;
+
+        ConnectTask(URI location, BulkConnect bulkConnect) {
+            this.location = location;
+            this.bulkConnect = bulkConnect;
+        }
+
+        @Override
+        public WebSocket call() throws Exception {
+            WebSocket webSocket = factory.createWebSocket(location);
+            webSocket.connect();
+
+            bulkConnect.connected();
+
+            return webSocket;
+        }
+    }
+
+    private static final class ConnectThreadFactory implements ThreadFactory {
+
+        private final int poolId = POOL_COUNT.incrementAndGet();
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "netx-ws-connect-" + poolId + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
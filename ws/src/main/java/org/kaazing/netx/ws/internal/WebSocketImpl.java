@@ -27,8 +27,13 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.Collection;
 
+import javax.net.ssl.SSLContext;
+
+import org.kaazing.netx.TransportOptions;
 import org.kaazing.netx.URLConnectionHelper;
+import org.kaazing.netx.http.HttpCredentialCache;
 import org.kaazing.netx.http.HttpRedirectPolicy;
+import org.kaazing.netx.http.HttpSocketPool;
 import org.kaazing.netx.http.auth.ChallengeHandler;
 import org.kaazing.netx.ws.WebSocket;
 import org.kaazing.netx.ws.internal.io.MessageReader;
@@ -102,6 +107,24 @@ public class WebSocketImpl extends WebSocket {
         return connection.getRedirectPolicy();
     }
 
+    @Override
+    public SSLContext getSSLContext() {
+        return connection.getSSLContext();
+    }
+
+    @Override
+    public TransportOptions getTransportOptions() {
+        return connection.getTransportOptions();
+    }
+
+    public HttpSocketPool getSocketPool() {
+        return connection.getSocketPool();
+    }
+
+    public HttpCredentialCache getCredentialCache() {
+        return connection.getCredentialCache();
+    }
+
     @Override
     public InputStream getInputStream() throws IOException {
         return connection.getInputStream();
@@ -150,6 +173,11 @@ public class WebSocketImpl extends WebSocket {
         return connection.getWriter();
     }
 
+    @Override
+    public boolean isEarlyDataEnabled() {
+        return connection.isEarlyDataEnabled();
+    }
+
     @Override
     public void setChallengeHandler(ChallengeHandler challengeHandler) {
         connection.setChallengeHandler(challengeHandler);
@@ -160,6 +188,11 @@ public class WebSocketImpl extends WebSocket {
         connection.setConnectTimeout(connectTimeout);
     }
 
+    @Override
+    public void setEarlyDataEnabled(boolean earlyDataEnabled) {
+        connection.setEarlyDataEnabled(earlyDataEnabled);
+    }
+
     @Override
     public void setEnabledProtocols(String... protocols) {
         connection.setEnabledProtocols(protocols);
@@ -170,8 +203,30 @@ public class WebSocketImpl extends WebSocket {
         connection.setRedirectPolicy(policy);
     }
 
+    @Override
+    public void setSSLContext(SSLContext sslContext) {
+        connection.setSSLContext(sslContext);
+    }
+
+    @Override
+    public void setTransportOptions(TransportOptions transportOptions) {
+        connection.setTransportOptions(transportOptions);
+    }
+
+    public void setSocketPool(HttpSocketPool socketPool) {
+        connection.setSocketPool(socketPool);
+    }
+
+    public void setCredentialCache(HttpCredentialCache credentialCache) {
+        connection.setCredentialCache(credentialCache);
+    }
+
     @Override
     public void setMaxMessageLength(int maxPayloadLength) {
         connection.setMaxMessageLength(maxPayloadLength);
     }
+
+    WsURLConnectionImpl getConnection() {
+        return connection;
+    }
 }
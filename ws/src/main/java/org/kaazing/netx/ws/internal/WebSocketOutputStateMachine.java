@@ -24,6 +24,7 @@ import static org.kaazing.netx.ws.internal.WebSocketTransition.ERROR;
 import static org.kaazing.netx.ws.internal.WebSocketTransition.SEND_BINARY_FRAME;
 import static org.kaazing.netx.ws.internal.WebSocketTransition.SEND_CLOSE_FRAME;
 import static org.kaazing.netx.ws.internal.WebSocketTransition.SEND_CONTINUATION_FRAME;
+import static org.kaazing.netx.ws.internal.WebSocketTransition.SEND_PING_FRAME;
 import static org.kaazing.netx.ws.internal.WebSocketTransition.SEND_PONG_FRAME;
 import static org.kaazing.netx.ws.internal.WebSocketTransition.SEND_TEXT_FRAME;
 
@@ -48,6 +49,7 @@ public final class WebSocketOutputStateMachine {
             stateMachine[state.ordinal()][ERROR.ordinal()] = CLOSED;
         }
 
+        stateMachine[OPEN.ordinal()][SEND_PING_FRAME.ordinal()] = OPEN;
         stateMachine[OPEN.ordinal()][SEND_PONG_FRAME.ordinal()] = OPEN;
         stateMachine[OPEN.ordinal()][SEND_CLOSE_FRAME.ordinal()] = CLOSED;
         stateMachine[OPEN.ordinal()][SEND_BINARY_FRAME.ordinal()] = OPEN;
@@ -89,6 +91,10 @@ public final class WebSocketOutputStateMachine {
                     transition(connection, SEND_CONTINUATION_FRAME);
                     context.onContinuationSent(frame);
                     break;
+                case PING:
+                    transition(connection, SEND_PING_FRAME);
+                    context.onPingSent(frame);
+                    break;
                 case PONG:
                     transition(connection, SEND_PONG_FRAME);
                     context.onPongSent(frame);
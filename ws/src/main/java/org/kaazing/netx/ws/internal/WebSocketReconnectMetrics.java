@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kaazing.netx.ws.internal;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the reconnects of resilient WebSockets, from the detection of a failed connection until the replacement
+ * connection has replayed all unacknowledged messages.
+ */
+public final class WebSocketReconnectMetrics {
+
+    private final AtomicLong reconnects;
+    private final AtomicLong failures;
+    private final AtomicLong totalTime;
+    private final AtomicLong maxTime;
+
+    public WebSocketReconnectMetrics() {
+        this.reconnects = new AtomicLong();
+        this.failures = new AtomicLong();
+        this.totalTime = new AtomicLong();
+        this.maxTime = new AtomicLong();
+    }
+
+    public long getReconnectCount() {
+        return reconnects.get();
+    }
+
+    public long getFailedReconnectCount() {
+        return failures.get();
+    }
+
+    public double getAverageReconnectTime() {
+        long count = reconnects.get();
+        return (count != 0L) ? (double) totalTime.get() / NANOSECONDS.convert(1L, MILLISECONDS) / count : 0.0;
+    }
+
+    public long getMaxReconnectTime() {
+        return MILLISECONDS.convert(maxTime.get(), NANOSECONDS);
+    }
+
+    void reconnected(long elapsed) {
+        reconnects.incrementAndGet();
+        totalTime.addAndGet(elapsed);
+
+        long max = maxTime.get();
+        while (elapsed > max && !maxTime.compareAndSet(max, elapsed)) {
+            max = maxTime.get();
+        }
+    }
+
+    void failed() {
+        failures.incrementAndGet();
+    }
+}
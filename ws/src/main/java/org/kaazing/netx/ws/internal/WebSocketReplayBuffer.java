@@ -0,0 +1,109 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kaazing.netx.ws.internal;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Retains the messages sent on a resilient WebSocket until the server acknowledges them, so that they can be sent again
+ * after a reconnect.
+ *
+ * Each message is assigned the next sequence number. An acknowledgement of a sequence number releases that message and all
+ * earlier messages. The buffer is bounded by the total payload size of the retained messages; when a new message exceeds
+ * the capacity, the oldest messages are evicted and can no longer be replayed. A message larger than the whole capacity is
+ * never retained.
+ */
+final class WebSocketReplayBuffer {
+
+    static final class Message {
+        final long sequence;
+        final boolean text;
+        final byte[] payload;
+
+        Message(long sequence, boolean text, byte[] payload) {
+            this.sequence = sequence;
+            this.text = text;
+            this.payload = payload;
+        }
+    }
+
+    private final int capacity;
+    private final LinkedList<Message> messages;
+
+    private long nextSequence;
+    private int size;
+    private long evicted;
+
+    WebSocketReplayBuffer(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Replay buffer size must not be negative");
+        }
+
+        this.capacity = capacity;
+        this.messages = new LinkedList<Message>();
+        this.nextSequence = 1L;
+    }
+
+    synchronized long add(boolean text, byte[] payload, int offset, int length) {
+        long sequence = nextSequence++;
+
+        if (length > capacity) {
+            evicted++;
+            return sequence;
+        }
+
+        while (size + length > capacity) {
+            size -= messages.removeFirst().payload.length;
+            evicted++;
+        }
+
+        byte[] copy = new byte[length];
+        System.arraycopy(payload, offset, copy, 0, length);
+        messages.addLast(new Message(sequence, text, copy));
+        size += length;
+
+        return sequence;
+    }
+
+    synchronized void acknowledge(long sequence) {
+        while (!messages.isEmpty() && messages.getFirst().sequence <= sequence) {
+            size -= messages.removeFirst().payload.length;
+        }
+    }
+
+    synchronized List<Message> unacknowledged() {
+        return new ArrayList<Message>(messages);
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    synchronized int count() {
+        return messages.size();
+    }
+
+    synchronized long evicted() {
+        return evicted;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+}
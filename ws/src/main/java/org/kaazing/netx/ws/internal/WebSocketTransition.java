@@ -28,5 +28,6 @@ public enum WebSocketTransition {
     SEND_BINARY_FRAME,
     RECEIVE_TEXT_FRAME,
     SEND_TEXT_FRAME,
-    ERROR
+    ERROR,
+    SEND_PING_FRAME
 }
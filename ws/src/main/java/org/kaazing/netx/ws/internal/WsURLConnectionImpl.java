@@ -46,8 +46,13 @@ import java.util.concurrent.locks.Lock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.net.ssl.SSLContext;
+
+import org.kaazing.netx.TransportOptions;
 import org.kaazing.netx.URLConnectionHelper;
+import org.kaazing.netx.http.HttpCredentialCache;
 import org.kaazing.netx.http.HttpRedirectPolicy;
+import org.kaazing.netx.http.HttpSocketPool;
 import org.kaazing.netx.http.HttpURLConnection;
 import org.kaazing.netx.http.auth.ChallengeHandler;
 import org.kaazing.netx.ws.WsURLConnection;
@@ -83,6 +88,7 @@ public final class WsURLConnectionImpl extends WsURLConnection {
     private static final String MSG_INVALID_CLOSE_CODE = "CLOSE code must be equal to 1000 or within the range 3000-4999";
     private static final String MSG_ALREADY_CONNECTED = "Already connected";
     private static final String MSG_WEBSOCKET_BIDIRECTIONAL = "WebSocket is bidirectional";
+    private static final String MSG_EARLY_DATA_DISCARDED = "Connection failed, %d early message(s) discarded";
 
     private static final Charset UTF_8 = Charset.forName("UTF-8");
 
@@ -127,6 +133,12 @@ public final class WsURLConnectionImpl extends WsURLConnection {
     private volatile WebSocketState outputState;
     private volatile DefaultWebSocketContext incomingContext;
     private volatile DefaultWebSocketContext outgoingContext;
+    private volatile WsPongListener pongListener;
+    private volatile boolean upgradePending;
+
+    private boolean earlyDataEnabled;
+    private String websocketKey;
+    private int earlyMessageCount;
 
     private int maxMessageLength;
     private int maxFrameLength;
@@ -266,6 +278,9 @@ public final class WsURLConnectionImpl extends WsURLConnection {
             stateLock.lock();
             switch (inputState) {
             case START:
+                if (upgradePending) {
+                    throw new IOException(MSG_ALREADY_CONNECTED);
+                }
                 doConnect();
                 break;
             default:
@@ -307,6 +322,24 @@ public final class WsURLConnectionImpl extends WsURLConnection {
         return connection.getRedirectPolicy();
     }
 
+    @Override
+    public SSLContext getSSLContext() {
+        return connection.getSSLContext();
+    }
+
+    @Override
+    public TransportOptions getTransportOptions() {
+        return connection.getTransportOptions();
+    }
+
+    public HttpSocketPool getSocketPool() {
+        return connection.getSocketPool();
+    }
+
+    public HttpCredentialCache getCredentialCache() {
+        return connection.getCredentialCache();
+    }
+
     @Override
     public WsInputStream getInputStream() throws IOException {
         if (inputStream != null) {
@@ -376,6 +409,7 @@ public final class WsURLConnectionImpl extends WsURLConnection {
         try {
             stateLock.lock();
             ensureConnected();
+            ensureUpgraded();
             return negotiatedExtensionsRO;
         }
         finally {
@@ -388,6 +422,7 @@ public final class WsURLConnectionImpl extends WsURLConnection {
         try {
             stateLock.lock();
             ensureConnected();
+            ensureUpgraded();
             return negotiatedProtocol;
         }
         finally {
@@ -466,6 +501,11 @@ public final class WsURLConnectionImpl extends WsURLConnection {
         }
     }
 
+    @Override
+    public boolean isEarlyDataEnabled() {
+        return earlyDataEnabled;
+    }
+
     @Override
     public void setChallengeHandler(ChallengeHandler challengeHandler) {
         ensureReconfigurable();
@@ -478,6 +518,12 @@ public final class WsURLConnectionImpl extends WsURLConnection {
         connection.setConnectTimeout(timeout);
     }
 
+    @Override
+    public void setEarlyDataEnabled(boolean earlyDataEnabled) {
+        ensureReconfigurable();
+        this.earlyDataEnabled = earlyDataEnabled;
+    }
+
     @Override
     public void setEnabledProtocols(String... enabledProtocols) {
         ensureReconfigurable();
@@ -485,7 +531,9 @@ public final class WsURLConnectionImpl extends WsURLConnection {
         try {
             stateLock.lock();
             this.enabledProtocols.clear();
-            this.enabledProtocols.addAll(Arrays.asList(enabledProtocols));
+            if (enabledProtocols != null) {
+                this.enabledProtocols.addAll(Arrays.asList(enabledProtocols));
+            }
         }
         finally {
             stateLock.unlock();
@@ -514,6 +562,28 @@ public final class WsURLConnectionImpl extends WsURLConnection {
         connection.setRedirectPolicy(redirectPolicy);
     }
 
+    @Override
+    public void setSSLContext(SSLContext sslContext) {
+        ensureReconfigurable();
+        connection.setSSLContext(sslContext);
+    }
+
+    @Override
+    public void setTransportOptions(TransportOptions transportOptions) {
+        ensureReconfigurable();
+        connection.setTransportOptions(transportOptions);
+    }
+
+    public void setSocketPool(HttpSocketPool socketPool) {
+        ensureReconfigurable();
+        connection.setSocketPool(socketPool);
+    }
+
+    public void setCredentialCache(HttpCredentialCache credentialCache) {
+        ensureReconfigurable();
+        connection.setCredentialCache(credentialCache);
+    }
+
     // ---------------------- URLConnection Methods ----------------------
     @Override
     public void addRequestProperty(String key, String value) {
@@ -664,6 +734,9 @@ public final class WsURLConnectionImpl extends WsURLConnection {
     }
 
     public InputStream getTcpInputStream() throws IOException {
+        if (upgradePending) {
+            return new UpgradeInputStream();
+        }
         return connection.getInputStream();
     }
 
@@ -729,6 +802,18 @@ public final class WsURLConnectionImpl extends WsURLConnection {
 
     public void processOutgoingFrame(final Frame frameRO) throws IOException {
         outputStateMachine.processFrame(this, frameRO);
+
+        if (upgradePending && frameRO.fin()) {
+            switch (frameRO.opcode()) {
+            case BINARY:
+            case CONTINUATION:
+            case TEXT:
+                earlyMessageCount++;
+                break;
+            default:
+                break;
+            }
+        }
     }
 
     public void sendCloseIfNecessary(Frame closeFrame) throws IOException {
@@ -770,6 +855,38 @@ public final class WsURLConnectionImpl extends WsURLConnection {
         getOutputStream().writePong(commandFramePayload, 0, (int) payloadLength);
     }
 
+    public void sendPing(byte[] buf, int offset, int length) throws IOException {
+        getOutputStream().writePing(buf, offset, length);
+    }
+
+    public void receivePong(Frame frame) throws IOException {
+        WsPongListener listener = pongListener;
+
+        if (listener == null) {
+            return;
+        }
+
+        long payloadLength = frame.payloadLength();
+        int  payloadOffset = frame.payloadOffset();
+        byte[] payload = new byte[(int) payloadLength];
+
+        for (int i = 0; i < payloadLength; i++) {
+            payload[i] = frame.buffer().get(payloadOffset + i);
+        }
+
+        listener.pongReceived(payload);
+    }
+
+    public void abort() {
+        if (outputState == CLOSED && inputState == CLOSED) {
+            return;
+        }
+
+        inputState = CLOSED;
+        outputState = CLOSED;
+        disconnect();
+    }
+
     public void setInputState(WebSocketState state) {
         this.inputState = state;
     }
@@ -778,11 +895,18 @@ public final class WsURLConnectionImpl extends WsURLConnection {
         this.outputState = state;
     }
 
+    void setPongListener(WsPongListener listener) {
+        this.pongListener = listener;
+    }
+
 
     ///////////////////////////////////////////////////////////////////////////
     private void ensureReconfigurable() {
         switch (inputState) {
         case START:
+            if (upgradePending) {
+                throw new IllegalStateException(MSG_ALREADY_CONNECTED);
+            }
             break;
         default:
             throw new IllegalStateException(MSG_ALREADY_CONNECTED);
@@ -792,7 +916,9 @@ public final class WsURLConnectionImpl extends WsURLConnection {
     private void ensureConnected() throws IOException {
         switch (inputState) {
         case START:
-            doConnect();
+            if (!upgradePending) {
+                doConnect();
+            }
             break;
         case OPEN:
         case CLOSED:
@@ -800,8 +926,24 @@ public final class WsURLConnectionImpl extends WsURLConnection {
         }
     }
 
+    private void ensureUpgraded() throws IOException {
+        if (!upgradePending) {
+            return;
+        }
+
+        try {
+            stateLock.lock();
+            if (upgradePending) {
+                receiveUpgrade();
+            }
+        }
+        finally {
+            stateLock.unlock();
+        }
+    }
+
     private void doConnect() throws IOException {
-        String websocketKey = base64Encode(randomBytes(16));
+        websocketKey = base64Encode(randomBytes(16));
 
         connection.setRequestMethod("GET");
         connection.setRequestProperty(HEADER_UPGRADE, "websocket");
@@ -819,6 +961,52 @@ public final class WsURLConnectionImpl extends WsURLConnection {
             connection.setRequestProperty(HEADER_SEC_WEBSOCKET_PROTOCOL, formattedProtocols);
         }
 
+        // extensions transform outgoing frames, so they cannot be applied before they are negotiated
+        if (earlyDataEnabled && enabledExtensions.isEmpty()) {
+            connection.setEarlyDataEnabled(true);
+            connection.connect();
+
+            upgradePending = true;
+            outputState = OPEN;
+            return;
+        }
+
+        receiveUpgrade();
+    }
+
+    private void receiveUpgrade() throws IOException {
+        if (upgradePending) {
+            try {
+                validateUpgrade();
+            }
+            catch (IOException e) {
+                throw discardEarlyData(e);
+            }
+            catch (IllegalStateException e) {
+                throw discardEarlyData(e);
+            }
+            upgradePending = false;
+        }
+        else {
+            validateUpgrade();
+        }
+
+        inputState = OPEN;
+        outputState = OPEN;
+    }
+
+    private IOException discardEarlyData(Exception cause) {
+        upgradePending = false;
+        inputState = CLOSED;
+        outputState = CLOSED;
+        connection.disconnect();
+
+        IOException exception = new IOException(format(MSG_EARLY_DATA_DISCARDED, earlyMessageCount));
+        exception.initCause(cause);
+        return exception;
+    }
+
+    private void validateUpgrade() throws IOException {
         if (HTTP_SWITCHING_PROTOCOLS != connection.getResponseCode() ||
             !"websocket".equalsIgnoreCase(connection.getHeaderField(HEADER_UPGRADE)) ||
             !"Upgrade".equalsIgnoreCase(connection.getHeaderField(HEADER_CONNECTION)) ||
@@ -829,9 +1017,6 @@ public final class WsURLConnectionImpl extends WsURLConnection {
 
         negotiateProtocol(enabledProtocols, connection.getHeaderField(HEADER_SEC_WEBSOCKET_PROTOCOL));
         negotiateExtensions(enabledExtensions, connection.getHeaderField(HEADER_SEC_WEBSOCKET_EXTENSIONS));
-
-        inputState = OPEN;
-        outputState = OPEN;
     }
 
     private void disconnect() {
@@ -981,4 +1166,42 @@ public final class WsURLConnectionImpl extends WsURLConnection {
             return false;
         }
     }
+
+    private final class UpgradeInputStream extends InputStream {
+        private InputStream in;
+
+        @Override
+        public int read() throws IOException {
+            return in().read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return in().read(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (in != null) ? in.available() : 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (in != null) {
+                in.close();
+            }
+        }
+
+        private InputStream in() throws IOException {
+            if (in == null) {
+                // the upgrade response precedes the first incoming frame
+                ensureUpgraded();
+                if (inputState == CLOSED) {
+                    throw new IOException(format(MSG_EARLY_DATA_DISCARDED, earlyMessageCount));
+                }
+                in = connection.getInputStream();
+            }
+            return in;
+        }
+    }
 }
@@ -135,6 +135,16 @@ public abstract class WebSocketContext {
         nextExtension().onContinuationSent.accept(this, frame);
     }
 
+    /**
+     * Exercises the <code>onPingSent</code> hook of a negotiated extension.
+     *
+     * @param frame outgoing PING frame
+     * @throws IOException
+     */
+    public void onPingSent(Frame frame) throws IOException {
+        nextExtension().onPingSent.accept(this, frame);
+    }
+
     /**
      * Exercises the <code>onPongSent</code> hook of a negotiated extension.
      *
@@ -185,6 +195,16 @@ public abstract class WebSocketContext {
         connection.processOutgoingFrame(dataFrame);
     }
 
+    /**
+     * Writes out a PING frame on the wire.
+     *
+     * @param frame outgoing PING frame
+     * @throws IOException
+     */
+    public void doSendPing(Frame pingFrame) throws IOException {
+        connection.processOutgoingFrame(pingFrame);
+    }
+
     /**
      * Writes out a PONG frame on the wire.
      *
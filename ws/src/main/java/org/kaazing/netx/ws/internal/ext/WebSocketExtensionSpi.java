@@ -138,6 +138,17 @@ public abstract class WebSocketExtensionSpi {
         }
     };
 
+    /**
+     * onPingSent hook is exercised when sending a PING frame.
+     */
+    public WebSocketFrameConsumer onPingSent = new WebSocketFrameConsumer() {
+
+        @Override
+        public void accept(WebSocketContext context, Frame frame) throws IOException {
+            context.onPingSent(frame);
+        }
+    };
+
     /**
      * onPongReceived hook is exercised when a PONG frame is received.
      */
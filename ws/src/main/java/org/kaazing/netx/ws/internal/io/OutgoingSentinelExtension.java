@@ -32,6 +32,7 @@ import static org.kaazing.netx.ws.WsURLConnection.WS_VIOLATE_POLICY;
 import static org.kaazing.netx.ws.internal.ext.flyweight.Opcode.BINARY;
 import static org.kaazing.netx.ws.internal.ext.flyweight.Opcode.CLOSE;
 import static org.kaazing.netx.ws.internal.ext.flyweight.Opcode.CONTINUATION;
+import static org.kaazing.netx.ws.internal.ext.flyweight.Opcode.PING;
 import static org.kaazing.netx.ws.internal.ext.flyweight.Opcode.PONG;
 import static org.kaazing.netx.ws.internal.ext.flyweight.Opcode.TEXT;
 import static org.kaazing.netx.ws.internal.util.Utf8Util.validBytesUTF8;
@@ -83,6 +84,14 @@ public class OutgoingSentinelExtension extends WebSocketExtensionSpi {
             }
         };
 
+        super.onPingSent = new WebSocketFrameConsumer() {
+            @Override
+            public void accept(WebSocketContext context, Frame frame) throws IOException {
+                assert frame.opcode() == PING;
+                encodeFrame(connection, frame);
+            }
+        };
+
         super.onPongSent = new WebSocketFrameConsumer() {
             @Override
             public void accept(WebSocketContext context, Frame frame) throws IOException {
@@ -115,6 +124,9 @@ public class OutgoingSentinelExtension extends WebSocketExtensionSpi {
         out.write(buf.get(offset));
         encodePayloadLength(out, payloadLength);
         encodeMaskAndPayload(out, buf, payloadOffset, payloadLength, mask);
+
+        // the transport buffers frames, along with the upgrade request when sending early data
+        out.flush();
     }
 
     private void encodePayloadLength(OutputStream out, int len) throws IOException {
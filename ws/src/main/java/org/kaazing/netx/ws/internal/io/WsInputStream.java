@@ -105,6 +105,7 @@ public final class WsInputStream extends InputStream {
                 connection.sendPong(frame);
                 break;
             case PONG:
+                connection.receivePong(frame);
                 break;
             case TEXT:
                 connection.doFail(WS_PROTOCOL_ERROR, format(MSG_NON_BINARY_FRAME, Opcode.toInt(TEXT)));
@@ -264,14 +265,14 @@ public final class WsInputStream extends InputStream {
             incomingFrame.wrap(heapBuffer, networkBufferReadOffset);
             int payloadLength = incomingFrame.payloadLength();
 
-            if (incomingFrame.offset() + payloadLength > networkBufferWriteOffset) {
+            if (incomingFrame.payloadOffset() + payloadLength > networkBufferWriteOffset) {
                 if (payloadLength > networkBuffer.length) {
                     int maxPayloadLength = connection.getMaxMessageLength();
                     throw new IOException(format(MSG_MAX_MESSAGE_LENGTH, payloadLength, maxPayloadLength));
                 }
                 else {
                     // Enough space. But may need shifting the frame to the beginning to be able to fit the payload.
-                    if (incomingFrame.offset() + payloadLength > networkBuffer.length) {
+                    if (incomingFrame.payloadOffset() + payloadLength > networkBuffer.length) {
                         int len = networkBufferWriteOffset - networkBufferReadOffset;
                         System.arraycopy(networkBuffer, networkBufferReadOffset, networkBuffer, 0, len);
                         networkBufferReadOffset = 0;
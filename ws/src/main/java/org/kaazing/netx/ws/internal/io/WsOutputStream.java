@@ -20,6 +20,7 @@ import static java.lang.String.format;
 import static org.kaazing.netx.ws.internal.WebSocketState.CLOSED;
 import static org.kaazing.netx.ws.internal.ext.flyweight.Opcode.BINARY;
 import static org.kaazing.netx.ws.internal.ext.flyweight.Opcode.CLOSE;
+import static org.kaazing.netx.ws.internal.ext.flyweight.Opcode.PING;
 import static org.kaazing.netx.ws.internal.ext.flyweight.Opcode.PONG;
 
 import java.io.FilterOutputStream;
@@ -200,4 +201,23 @@ public final class WsOutputStream extends FilterOutputStream {
             stateLock.unlock();
         }
     }
+
+    public void writePing(byte[] buf, int offset, int length) throws IOException {
+        if (connection.getOutputState() == CLOSED) {
+            throw new IOException("Connection closed");
+        }
+
+        try {
+            stateLock.lock();
+            outgoingControlFrame.fin(true);
+            outgoingControlFrame.opcode(PING);
+            outgoingControlFrame.payloadPut(buf, offset, length);
+
+            outgoingFrameRO.wrap(heapBufferControlFrameRO, outgoingControlFrame.offset());
+            connection.processOutgoingFrame(outgoingFrameRO);
+        }
+        finally {
+            stateLock.unlock();
+        }
+    }
 }
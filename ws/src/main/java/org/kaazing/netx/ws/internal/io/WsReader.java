@@ -108,6 +108,7 @@ public class WsReader extends Reader {
                 connection.sendPong(frame);
                 break;
             case PONG:
+                connection.receivePong(frame);
                 break;
             case BINARY:
                 connection.doFail(WS_PROTOCOL_ERROR, format(MSG_NON_TEXT_FRAME, Opcode.toInt(BINARY)));
@@ -202,14 +203,14 @@ public class WsReader extends Reader {
                     incomingFrame.wrap(heapBuffer, networkBufferReadOffset);
                     int payloadLength = incomingFrame.payloadLength();
 
-                    if (incomingFrame.offset() + payloadLength > networkBufferWriteOffset) {
+                    if (incomingFrame.payloadOffset() + payloadLength > networkBufferWriteOffset) {
                         if (payloadLength > networkBuffer.length) {
                             int maxPayloadLength = connection.getMaxMessageLength();
                             throw new IOException(format(MSG_MAX_MESSAGE_LENGTH, payloadLength, maxPayloadLength));
                         }
                         else {
                             // Enough space. But may need shifting the frame to the beginning to be able to fit the payload.
-                            if (incomingFrame.offset() + payloadLength > networkBuffer.length) {
+                            if (incomingFrame.payloadOffset() + payloadLength > networkBuffer.length) {
                                 int len = networkBufferWriteOffset - networkBufferReadOffset;
                                 System.arraycopy(networkBuffer, networkBufferReadOffset, networkBuffer, 0, len);
                                 networkBufferReadOffset = 0;
@@ -0,0 +1,379 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.kaazing.netx.ws.internal;
+
+import static java.lang.String.format;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.kaazing.netx.ws.WebSocketFactory;
+import org.kaazing.netx.ws.internal.util.Base64Util;
+
+public class ResilientWebSocketTest {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test(timeout = 10000)
+    public void shouldReconnectAndReplayUnacknowledgedMessages() throws Exception {
+        ReconnectServer server = new ReconnectServer();
+        server.start();
+
+        WebSocketFactory factory = WebSocketFactory.newInstance();
+        factory.setDefaultReconnectDelay(50, 100);
+        ResilientWebSocket ws = (ResilientWebSocket) factory.createResilientWebSocket(server.getLocation());
+        ws.connect();
+
+        Writer writer = ws.getWriter();
+        writer.write("one");
+        server.awaitMessages(0, 1);
+        assertTrue(ws.getUnacknowledgedSize() > 0);
+
+        server.drop();
+
+        // the read sees the dropped connection, reconnects and replays "one" before reading from the new connection
+        char[] cbuf = new char[32];
+        int length = ws.getReader().read(cbuf);
+        assertEquals("reconnected", new String(cbuf, 0, length));
+        assertEquals(1, factory.getReconnectCount());
+
+        writer.write("two");
+        assertEquals(Arrays.asList("one", "two"), server.awaitMessages(1, 2));
+        assertEquals(Arrays.asList("one"), server.getMessages(0));
+
+        ws.close();
+    }
+
+    @Test(timeout = 10000)
+    public void shouldNotReplayAcknowledgedMessages() throws Exception {
+        ReconnectServer server = new ReconnectServer();
+        server.start();
+
+        WebSocketFactory factory = WebSocketFactory.newInstance();
+        factory.setDefaultReconnectDelay(50, 100);
+        ResilientWebSocket ws = (ResilientWebSocket) factory.createResilientWebSocket(server.getLocation());
+        ws.connect();
+
+        // enough messages to request an acknowledgement, which the server answers before sending "acknowledged"
+        Writer writer = ws.getWriter();
+        for (int i = 0; i < 16; i++) {
+            writer.write("message " + i);
+        }
+
+        Reader reader = ws.getReader();
+        char[] cbuf = new char[32];
+        int length = reader.read(cbuf);
+        assertEquals("acknowledged", new String(cbuf, 0, length));
+        assertEquals(0, ws.getUnacknowledgedSize());
+
+        server.drop();
+
+        length = reader.read(cbuf);
+        assertEquals("reconnected", new String(cbuf, 0, length));
+
+        writer.write("after");
+        assertEquals(Arrays.asList("after"), server.awaitMessages(1, 1));
+
+        ws.close();
+    }
+
+    @Test(timeout = 10000)
+    public void shouldEndReadAfterClose() throws Exception {
+        ReconnectServer server = new ReconnectServer();
+        server.start();
+
+        WebSocketFactory factory = WebSocketFactory.newInstance();
+        ResilientWebSocket ws = (ResilientWebSocket) factory.createResilientWebSocket(server.getLocation());
+        ws.connect();
+
+        // a close that wins the race with a read ends the stream rather than reconnecting
+        Reader reader = ws.getReader();
+        ws.close();
+        assertEquals(-1, reader.read(new char[32]));
+
+        try {
+            ws.getInputStream();
+            fail("Closed WebSocket should not open a new connection");
+        }
+        catch (IOException e) {
+            // expected
+        }
+        assertEquals(0, factory.getReconnectCount());
+        assertEquals(1, server.getConnectionCount());
+    }
+
+    @Test(timeout = 10000)
+    public void shouldCloseDuringReconnectBackoff() throws Exception {
+        ReconnectServer server = new ReconnectServer();
+        server.start();
+
+        WebSocketFactory factory = WebSocketFactory.newInstance();
+        factory.setDefaultReconnectDelay(30000, 30000);
+        factory.setDefaultReconnectTimeout(60000);
+        final ResilientWebSocket ws = (ResilientWebSocket) factory.createResilientWebSocket(server.getLocation());
+        ws.connect();
+
+        // fails the reconnect, so the reader backs off for at least 15 seconds
+        server.refuse();
+
+        final AtomicReference<Exception> readFailure = new AtomicReference<Exception>();
+        Thread readerThread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    ws.getReader().read(new char[32]);
+                }
+                catch (Exception e) {
+                    readFailure.set(e);
+                }
+            }
+        };
+        readerThread.start();
+
+        // the reader is reconnecting once its first attempt has been refused
+        server.awaitRefused();
+
+        final AtomicReference<Exception> writeFailure = new AtomicReference<Exception>();
+        Thread writerThread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    ws.getWriter().write("blocked");
+                }
+                catch (Exception e) {
+                    writeFailure.set(e);
+                }
+            }
+        };
+        writerThread.start();
+
+        long start = System.nanoTime();
+        ws.close();
+        readerThread.join(2000);
+        writerThread.join(2000);
+
+        assertTrue(format("close took %dms", (System.nanoTime() - start) / 1000000), System.nanoTime() - start < 2000000000L);
+        assertFalse("reader still reconnecting", readerThread.isAlive());
+        assertFalse("writer still reconnecting", writerThread.isAlive());
+        assertTrue(String.valueOf(readFailure.get()), readFailure.get() instanceof IOException);
+        assertTrue(String.valueOf(writeFailure.get()), writeFailure.get() instanceof IOException);
+        assertEquals(0, factory.getReconnectCount());
+
+        try {
+            ws.getWriter().write("closed");
+            fail("Write should have failed");
+        }
+        catch (IOException e) {
+            // expected
+        }
+    }
+
+    // accepts WebSocket connections, greeting every connection after the first with "reconnected", records the text
+    // messages received on each connection and answers pings, following an answered ping with "acknowledged"
+    private static final class ReconnectServer extends Thread {
+        private final ServerSocket server;
+        private final List<List<String>> messages;
+        private final List<Socket> sockets;
+        private final CountDownLatch refused;
+
+        private volatile boolean refusing;
+
+        ReconnectServer() throws IOException {
+            this.server = new ServerSocket(0);
+            this.messages = new CopyOnWriteArrayList<List<String>>();
+            this.sockets = new CopyOnWriteArrayList<Socket>();
+            this.refused = new CountDownLatch(1);
+            setDaemon(true);
+        }
+
+        URI getLocation() {
+            return URI.create(format("ws://localhost:%d/echo", server.getLocalPort()));
+        }
+
+        void drop() throws IOException {
+            sockets.get(sockets.size() - 1).close();
+        }
+
+        void refuse() throws IOException {
+            refusing = true;
+            drop();
+        }
+
+        void awaitRefused() throws InterruptedException {
+            refused.await();
+        }
+
+        int getConnectionCount() {
+            return sockets.size();
+        }
+
+        List<String> getMessages(int connection) {
+            return messages.get(connection);
+        }
+
+        List<String> awaitMessages(int connection, int count) throws InterruptedException {
+            while (messages.size() <= connection || messages.get(connection).size() < count) {
+                Thread.sleep(10);
+            }
+            return messages.get(connection);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final Socket socket = server.accept();
+                    if (refusing) {
+                        // fails the opening handshake
+                        socket.close();
+                        refused.countDown();
+                        continue;
+                    }
+
+                    Thread connection = new Thread() {
+                        @Override
+                        public void run() {
+                            try {
+                                serve(socket);
+                            }
+                            catch (Exception e) {
+                                // connection dropped
+                            }
+                        }
+                    };
+                    connection.setDaemon(true);
+                    connection.start();
+                }
+            }
+            catch (IOException e) {
+                // shut down
+            }
+        }
+
+        private void serve(Socket socket) throws Exception {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                OutputStream out = socket.getOutputStream();
+
+                String key = null;
+                for (String line = readLine(in); line.length() != 0; line = readLine(in)) {
+                    if (line.toLowerCase().startsWith("sec-websocket-key:")) {
+                        key = line.substring(line.indexOf(':') + 1).trim();
+                    }
+                }
+
+                if (key == null) {
+                    // a connection the client abandoned while racing the addresses of localhost
+                    return;
+                }
+
+                List<String> received = new CopyOnWriteArrayList<String>();
+                boolean reconnected;
+                synchronized (this) {
+                    reconnected = !sockets.isEmpty();
+                    sockets.add(socket);
+                    messages.add(received);
+                }
+
+                MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+                byte[] hash = sha1.digest((key + "258EAFA5-E914-47DA-95CA-C5AB0DC85B11").getBytes(US_ASCII));
+                String accept = Base64Util.encode(ByteBuffer.wrap(hash));
+                out.write(format("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n" +
+                        "Sec-WebSocket-Accept: %s\r\n\r\n", accept).getBytes(US_ASCII));
+                if (reconnected) {
+                    writeFrame(out, 0x81, "reconnected".getBytes(UTF_8));
+                }
+                out.flush();
+
+                while (true) {
+                    int opcode = in.readUnsignedByte() & 0x0f;
+                    int length = in.readUnsignedByte() & 0x7f;
+                    if (length == 126) {
+                        length = in.readUnsignedShort();
+                    }
+
+                    byte[] mask = new byte[4];
+                    in.readFully(mask);
+                    byte[] payload = new byte[length];
+                    in.readFully(payload);
+                    for (int i = 0; i < length; i++) {
+                        payload[i] ^= mask[i % 4];
+                    }
+
+                    switch (opcode) {
+                    case 0x01:
+                        received.add(new String(payload, UTF_8));
+                        break;
+                    case 0x08:
+                        writeFrame(out, 0x88, payload);
+                        out.flush();
+                        return;
+                    case 0x09:
+                        writeFrame(out, 0x8a, payload);
+                        writeFrame(out, 0x81, "acknowledged".getBytes(UTF_8));
+                        out.flush();
+                        break;
+                    default:
+                        break;
+                    }
+                }
+            }
+            finally {
+                socket.close();
+            }
+        }
+
+        private static void writeFrame(OutputStream out, int opcode, byte[] payload) throws IOException {
+            out.write(opcode);
+            out.write(payload.length);
+            out.write(payload);
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            StringBuilder line = new StringBuilder();
+            for (int ch = in.read(); ch != -1 && ch != '\n'; ch = in.read()) {
+                if (ch != '\r') {
+                    line.append((char) ch);
+                }
+            }
+            return line.toString();
+        }
+    }
+}
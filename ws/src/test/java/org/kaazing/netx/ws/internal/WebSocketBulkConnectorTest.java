@@ -0,0 +1,251 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.kaazing.netx.ws.internal;
+
+import static java.lang.String.format;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.kaazing.netx.ws.WebSocket;
+import org.kaazing.netx.ws.WebSocketFactory;
+import org.kaazing.netx.ws.internal.util.Base64Util;
+
+public class WebSocketBulkConnectorTest {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    @Test(timeout = 10000)
+    public void shouldConnectAllLocations() throws Exception {
+        HandshakeServer server = new HandshakeServer(0L);
+        server.start();
+
+        WebSocketFactory factory = WebSocketFactory.newInstance();
+        WebSocketBulkConnector connector = new WebSocketBulkConnector(factory);
+        List<Future<WebSocket>> futures = connector.connectAll(server.getLocations(5), 2, 0);
+
+        assertEquals(5, futures.size());
+        for (Future<WebSocket> future : futures) {
+            future.get().close();
+        }
+        assertEquals(5, server.getHandshakes());
+        assertTrue(connector.getConnectsPerSecond() > 0.0);
+    }
+
+    @Test(timeout = 10000)
+    public void shouldLimitConcurrentHandshakes() throws Exception {
+        HandshakeServer server = new HandshakeServer(100L);
+        server.start();
+
+        WebSocketFactory factory = WebSocketFactory.newInstance();
+        WebSocketBulkConnector connector = new WebSocketBulkConnector(factory);
+        List<Future<WebSocket>> futures = connector.connectAll(server.getLocations(6), 2, 50);
+
+        for (Future<WebSocket> future : futures) {
+            future.get().close();
+        }
+        assertEquals(6, server.getHandshakes());
+        assertTrue(format("%d concurrent handshakes", server.getMaxConcurrentHandshakes()),
+                server.getMaxConcurrentHandshakes() <= 2);
+    }
+
+    @Test(timeout = 10000)
+    public void shouldNotHoldWorkerDuringJitter() throws Exception {
+        HandshakeServer server = new HandshakeServer(0L);
+        server.start();
+
+        WebSocketFactory factory = WebSocketFactory.newInstance();
+        WebSocketBulkConnector connector = new WebSocketBulkConnector(factory);
+
+        // the single worker would sleep out each delay in turn if the delay were taken on the worker
+        long start = System.nanoTime();
+        List<Future<WebSocket>> futures = connector.connectAll(server.getLocations(8), 1, 1000);
+
+        for (Future<WebSocket> future : futures) {
+            future.get().close();
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(format("elapsed %dms", elapsed), elapsed < 3000);
+    }
+
+    @Test(timeout = 10000)
+    public void shouldMeasureMostRecentBulkConnectSeparately() throws Exception {
+        HandshakeServer gated = new HandshakeServer(0L);
+        gated.close();
+        gated.start();
+        HandshakeServer server = new HandshakeServer(0L);
+        server.start();
+
+        WebSocketFactory factory = WebSocketFactory.newInstance();
+        WebSocketBulkConnector connector = new WebSocketBulkConnector(factory);
+
+        List<Future<WebSocket>> earlier = connector.connectAll(gated.getLocations(2), 2, 0);
+        List<Future<WebSocket>> latest = connector.connectAll(server.getLocations(1), 1, 0);
+        latest.get(0).get().close();
+
+        double connectsPerSecond = connector.getConnectsPerSecond();
+        assertTrue(connectsPerSecond > 0.0);
+
+        // the earlier bulk connect completing must not change the rate of the latest one
+        gated.open();
+        for (Future<WebSocket> future : earlier) {
+            future.get().close();
+        }
+        assertEquals(connectsPerSecond, connector.getConnectsPerSecond(), 0.0);
+    }
+
+    // completes WebSocket opening handshakes after an optional delay, counting the handshakes in progress
+    private static final class HandshakeServer extends Thread {
+        private final ServerSocket server;
+        private final long delay;
+        private final AtomicInteger handshakes;
+        private final AtomicInteger concurrent;
+        private final AtomicInteger maxConcurrent;
+
+        private volatile CountDownLatch gate;
+
+        HandshakeServer(long delay) throws IOException {
+            this.server = new ServerSocket(0, 50);
+            this.delay = delay;
+            this.handshakes = new AtomicInteger();
+            this.concurrent = new AtomicInteger();
+            this.maxConcurrent = new AtomicInteger();
+            this.gate = new CountDownLatch(0);
+            setDaemon(true);
+        }
+
+        List<URI> getLocations(int count) {
+            URI location = URI.create(format("ws://localhost:%d/echo", server.getLocalPort()));
+            return Collections.nCopies(count, location);
+        }
+
+        int getHandshakes() {
+            return handshakes.get();
+        }
+
+        int getMaxConcurrentHandshakes() {
+            return maxConcurrent.get();
+        }
+
+        void close() {
+            gate = new CountDownLatch(1);
+        }
+
+        void open() {
+            gate.countDown();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final Socket socket = server.accept();
+                    Thread connection = new Thread() {
+                        @Override
+                        public void run() {
+                            try {
+                                serve(socket);
+                            }
+                            catch (Exception e) {
+                                // client gone
+                            }
+                        }
+                    };
+                    connection.setDaemon(true);
+                    connection.start();
+                }
+            }
+            catch (IOException e) {
+                // shut down
+            }
+        }
+
+        private void serve(Socket socket) throws Exception {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+
+            String key = null;
+            for (String line = readLine(in); line.length() != 0; line = readLine(in)) {
+                if (line.toLowerCase().startsWith("sec-websocket-key:")) {
+                    key = line.substring(line.indexOf(':') + 1).trim();
+                }
+            }
+
+            int inProgress = concurrent.incrementAndGet();
+            for (int max = maxConcurrent.get(); inProgress > max; max = maxConcurrent.get()) {
+                maxConcurrent.compareAndSet(max, inProgress);
+            }
+            gate.await();
+            Thread.sleep(delay);
+
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] hash = sha1.digest((key + "258EAFA5-E914-47DA-95CA-C5AB0DC85B11").getBytes(US_ASCII));
+            String accept = Base64Util.encode(ByteBuffer.wrap(hash));
+            handshakes.incrementAndGet();
+            concurrent.decrementAndGet();
+            out.write(format("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n" +
+                    "Sec-WebSocket-Accept: %s\r\n\r\n", accept).getBytes(US_ASCII));
+            out.flush();
+
+            // answers the close handshake
+            DataInputStream frame = new DataInputStream(in);
+            frame.readUnsignedByte();
+            int length = frame.readUnsignedByte() & 0x7f;
+            byte[] mask = new byte[4];
+            frame.readFully(mask);
+            byte[] payload = new byte[length];
+            frame.readFully(payload);
+            for (int i = 0; i < length; i++) {
+                payload[i] ^= mask[i % 4];
+            }
+            out.write(0x88);
+            out.write(length);
+            out.write(payload);
+            out.flush();
+            socket.close();
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            StringBuilder line = new StringBuilder();
+            for (int ch = in.read(); ch != -1 && ch != '\n'; ch = in.read()) {
+                if (ch != '\r') {
+                    line.append((char) ch);
+                }
+            }
+            return line.toString();
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kaazing.netx.ws.internal;
+
+import static java.lang.String.format;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Authenticator;
+import java.net.PasswordAuthentication;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.kaazing.netx.http.HttpCredentialCache;
+import org.kaazing.netx.ws.WebSocket;
+import org.kaazing.netx.ws.WebSocketFactory;
+import org.kaazing.netx.ws.internal.util.Base64Util;
+
+public class WebSocketCredentialCacheTest {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    @Before
+    public void setPasswordAuthenticator() {
+        Authenticator.setDefault(new Authenticator() {
+            @Override
+            protected PasswordAuthentication getPasswordAuthentication() {
+                return new PasswordAuthentication("joe", "welcome".toCharArray());
+            }
+        });
+    }
+
+    @After
+    public void resetAuthenticator() {
+        Authenticator.setDefault(null);
+    }
+
+    @Test(timeout = 10000)
+    public void shouldSendCachedBasicCredentialsOnNextConnect() throws Exception {
+        AuthenticatingServer server = new AuthenticatingServer("Basic realm=\"test\"");
+        server.start();
+
+        WebSocketFactory factory = WebSocketFactory.newInstance();
+        factory.setDefaultCredentialCache(HttpCredentialCache.newInstance());
+
+        connectAndClose(factory, server.getLocation());
+        assertEquals(2, server.getRequests().size());
+        assertFalse(server.getRequests().get(0).contains("Authorization:"));
+        assertTrue(server.getRequests().get(1).contains("Authorization: Basic "));
+
+        // the second connect authenticates with its opening handshake, without a 401 round trip
+        connectAndClose(factory, server.getLocation());
+        assertEquals(3, server.getRequests().size());
+        assertTrue(server.getRequests().get(2).contains("Authorization: Basic "));
+        assertEquals(1, server.getChallengeCount());
+    }
+
+    @Test(timeout = 10000)
+    public void shouldSendCachedDigestCredentialsOnNextConnect() throws Exception {
+        AuthenticatingServer server = new AuthenticatingServer("Digest realm=\"test\", qop=\"auth\", nonce=\"abc\"");
+        server.start();
+
+        WebSocketFactory factory = WebSocketFactory.newInstance();
+        factory.setDefaultCredentialCache(HttpCredentialCache.newInstance());
+
+        connectAndClose(factory, server.getLocation());
+        assertEquals(2, server.getRequests().size());
+        assertTrue(server.getRequests().get(1).contains("nc=00000001"));
+
+        connectAndClose(factory, server.getLocation());
+        assertEquals(3, server.getRequests().size());
+        assertTrue(server.getRequests().get(2).contains("Authorization: Digest username=\"joe\", realm=\"test\", nonce=\"abc\""));
+        assertTrue(server.getRequests().get(2).contains("nc=00000002"));
+        assertEquals(1, server.getChallengeCount());
+    }
+
+    @Test(timeout = 10000)
+    public void shouldNotSendCredentialsWithoutCredentialCache() throws Exception {
+        AuthenticatingServer server = new AuthenticatingServer("Basic realm=\"test\"");
+        server.start();
+
+        WebSocketFactory factory = WebSocketFactory.newInstance();
+
+        connectAndClose(factory, server.getLocation());
+        connectAndClose(factory, server.getLocation());
+        assertEquals(4, server.getRequests().size());
+        assertFalse(server.getRequests().get(2).contains("Authorization:"));
+        assertEquals(2, server.getChallengeCount());
+    }
+
+    private static void connectAndClose(WebSocketFactory factory, URI location) throws Exception {
+        WebSocket ws = factory.createWebSocket(location);
+        ws.connect();
+        ws.close();
+    }
+
+    // challenges each opening handshake without an Authorization header, completing those that carry one and then
+    // answering the close frame
+    private static final class AuthenticatingServer extends Thread {
+        private final ServerSocket server;
+        private final String challenge;
+        private final List<String> requests;
+
+        private volatile int challenges;
+
+        AuthenticatingServer(String challenge) throws IOException {
+            this.server = new ServerSocket(0);
+            this.challenge = challenge;
+            this.requests = new CopyOnWriteArrayList<String>();
+            setDaemon(true);
+        }
+
+        URI getLocation() {
+            return URI.create(format("ws://localhost:%d/echo", server.getLocalPort()));
+        }
+
+        List<String> getRequests() {
+            return requests;
+        }
+
+        int getChallengeCount() {
+            return challenges;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final Socket socket = server.accept();
+                    Thread connection = new Thread() {
+                        @Override
+                        public void run() {
+                            try {
+                                serve(socket);
+                            }
+                            catch (Exception e) {
+                                // connection dropped
+                            }
+                        }
+                    };
+                    connection.setDaemon(true);
+                    connection.start();
+                }
+            }
+            catch (IOException e) {
+                // shut down
+            }
+        }
+
+        private void serve(Socket socket) throws Exception {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                OutputStream out = socket.getOutputStream();
+
+                StringBuilder request = new StringBuilder();
+                String key = null;
+                boolean authorized = false;
+                for (String line = readLine(in); line.length() != 0; line = readLine(in)) {
+                    request.append(line).append("\r\n");
+                    String lowerCase = line.toLowerCase();
+                    if (lowerCase.startsWith("sec-websocket-key:")) {
+                        key = line.substring(line.indexOf(':') + 1).trim();
+                    }
+                    else if (lowerCase.startsWith("authorization:")) {
+                        authorized = true;
+                    }
+                }
+
+                if (key == null) {
+                    // a connection the client abandoned while racing the addresses of localhost
+                    return;
+                }
+                requests.add(request.toString());
+
+                if (!authorized) {
+                    challenges++;
+                    out.write(format("HTTP/1.1 401 Unauthorized\r\nWWW-Authenticate: %s\r\nContent-Length: 0\r\n" +
+                            "Connection: close\r\n\r\n", challenge).getBytes(US_ASCII));
+                    out.flush();
+                    return;
+                }
+
+                MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+                byte[] hash = sha1.digest((key + "258EAFA5-E914-47DA-95CA-C5AB0DC85B11").getBytes(US_ASCII));
+                String accept = Base64Util.encode(ByteBuffer.wrap(hash));
+                out.write(format("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n" +
+                        "Sec-WebSocket-Accept: %s\r\n\r\n", accept).getBytes(US_ASCII));
+                out.flush();
+
+                while (true) {
+                    int opcode = in.readUnsignedByte() & 0x0f;
+                    int length = in.readUnsignedByte() & 0x7f;
+                    byte[] mask = new byte[4];
+                    in.readFully(mask);
+                    byte[] payload = new byte[length];
+                    in.readFully(payload);
+                    for (int i = 0; i < length; i++) {
+                        payload[i] ^= mask[i % 4];
+                    }
+
+                    if (opcode == 0x08) {
+                        out.write(0x88);
+                        out.write(length);
+                        out.write(payload);
+                        out.flush();
+                        return;
+                    }
+                }
+            }
+            finally {
+                socket.close();
+            }
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            StringBuilder line = new StringBuilder();
+            for (int ch = in.read(); ch != -1 && ch != '\n'; ch = in.read()) {
+                if (ch != '\r') {
+                    line.append((char) ch);
+                }
+            }
+            return line.toString();
+        }
+    }
+}
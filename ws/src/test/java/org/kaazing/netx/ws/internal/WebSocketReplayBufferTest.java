@@ -0,0 +1,98 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kaazing.netx.ws.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.kaazing.netx.ws.internal.WebSocketReplayBuffer.Message;
+
+public class WebSocketReplayBufferTest {
+
+    @Test
+    public void shouldRetainUnacknowledgedMessagesInOrder() throws Exception {
+        WebSocketReplayBuffer buffer = new WebSocketReplayBuffer(64);
+
+        long first = buffer.add(false, new byte[] { 1, 2, 3 }, 0, 3);
+        long second = buffer.add(true, "hello".getBytes("UTF-8"), 0, 5);
+
+        List<Message> messages = buffer.unacknowledged();
+        assertEquals(2, messages.size());
+        assertEquals(first, messages.get(0).sequence);
+        assertEquals(second, messages.get(1).sequence);
+        assertTrue(messages.get(1).text);
+        assertEquals(8, buffer.size());
+    }
+
+    @Test
+    public void shouldReleaseAcknowledgedMessages() throws Exception {
+        WebSocketReplayBuffer buffer = new WebSocketReplayBuffer(64);
+
+        buffer.add(false, new byte[4], 0, 4);
+        long second = buffer.add(false, new byte[4], 0, 4);
+        long third = buffer.add(false, new byte[4], 0, 4);
+
+        buffer.acknowledge(second);
+
+        assertEquals(1, buffer.count());
+        assertEquals(third, buffer.unacknowledged().get(0).sequence);
+        assertEquals(4, buffer.size());
+    }
+
+    @Test
+    public void shouldEvictOldestMessagesWhenFull() throws Exception {
+        WebSocketReplayBuffer buffer = new WebSocketReplayBuffer(10);
+
+        buffer.add(false, new byte[4], 0, 4);
+        long second = buffer.add(false, new byte[4], 0, 4);
+        long third = buffer.add(false, new byte[4], 0, 4);
+
+        List<Message> messages = buffer.unacknowledged();
+        assertEquals(2, messages.size());
+        assertEquals(second, messages.get(0).sequence);
+        assertEquals(third, messages.get(1).sequence);
+        assertEquals(1L, buffer.evicted());
+    }
+
+    @Test
+    public void shouldNotRetainMessageLargerThanCapacity() throws Exception {
+        WebSocketReplayBuffer buffer = new WebSocketReplayBuffer(4);
+
+        buffer.add(false, new byte[2], 0, 2);
+        buffer.add(false, new byte[8], 0, 8);
+
+        assertEquals(1, buffer.count());
+        assertEquals(1L, buffer.evicted());
+    }
+
+    @Test
+    public void shouldCopyPayload() throws Exception {
+        WebSocketReplayBuffer buffer = new WebSocketReplayBuffer(16);
+        byte[] payload = new byte[] { 1, 2, 3, 4 };
+
+        buffer.add(false, payload, 1, 2);
+        payload[1] = 9;
+
+        byte[] retained = buffer.unacknowledged().get(0).payload;
+        assertEquals(2, retained.length);
+        assertEquals(2, retained[0]);
+        assertEquals(3, retained[1]);
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.kaazing.netx.ws.internal;
+
+import static java.lang.String.format;
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+
+import org.junit.Test;
+import org.kaazing.netx.ws.WebSocket;
+import org.kaazing.netx.ws.WebSocketFactory;
+import org.kaazing.netx.ws.internal.io.MessageReader;
+import org.kaazing.netx.ws.internal.util.Base64Util;
+
+public class WsSplitFrameTest {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    private static final int OPCODE_TEXT = 0x81;
+    private static final int OPCODE_BINARY = 0x82;
+
+    @Test(timeout = 10000)
+    public void shouldWaitForSplitBinaryFramePayload() throws Exception {
+        WebSocket ws = connect(new SplitFrameServer(OPCODE_BINARY, "hello"));
+
+        InputStream in = ws.getInputStream();
+        byte[] buf = new byte[5];
+        for (int offset = 0; offset < buf.length; ) {
+            offset += in.read(buf, offset, buf.length - offset);
+        }
+        assertEquals("hello", new String(buf, US_ASCII));
+        ws.close();
+    }
+
+    @Test(timeout = 10000)
+    public void shouldWaitForSplitTextFramePayload() throws Exception {
+        WebSocket ws = connect(new SplitFrameServer(OPCODE_TEXT, "hello"));
+
+        char[] cbuf = new char[5];
+        for (int offset = 0; offset < cbuf.length; ) {
+            offset += ws.getReader().read(cbuf, offset, cbuf.length - offset);
+        }
+        assertEquals("hello", new String(cbuf));
+        ws.close();
+    }
+
+    @Test(timeout = 10000)
+    public void shouldWaitForSplitMessagePayload() throws Exception {
+        WebSocket ws = connect(new SplitFrameServer(OPCODE_TEXT, "hello"));
+
+        MessageReader reader = ((WebSocketImpl) ws).getMessageReader();
+        reader.next();
+        char[] cbuf = new char[16];
+        int length = reader.read(cbuf);
+        assertEquals("hello", new String(cbuf, 0, length));
+        ws.close();
+    }
+
+    private static WebSocket connect(SplitFrameServer server) throws Exception {
+        server.start();
+        WebSocket ws = WebSocketFactory.newInstance().createWebSocket(URI.create(format("ws://localhost:%d/", server.getPort())));
+        ws.connect();
+        return ws;
+    }
+
+    // sends one frame, holding back the last payload byte so that the frame arrives in two reads
+    private static final class SplitFrameServer extends Thread {
+        private final ServerSocket server;
+        private final int opcode;
+        private final byte[] payload;
+
+        SplitFrameServer(int opcode, String payload) throws IOException {
+            this.server = new ServerSocket(0);
+            this.opcode = opcode;
+            this.payload = payload.getBytes(US_ASCII);
+            setDaemon(true);
+        }
+
+        int getPort() {
+            return server.getLocalPort();
+        }
+
+        @Override
+        public void run() {
+            try {
+                Socket socket = server.accept();
+                try {
+                    serve(socket);
+                }
+                finally {
+                    socket.close();
+                    server.close();
+                }
+            }
+            catch (Exception e) {
+                // client gone
+            }
+        }
+
+        private void serve(Socket socket) throws Exception {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+
+            String key = null;
+            for (String line = readLine(in); line.length() != 0; line = readLine(in)) {
+                if (line.toLowerCase().startsWith("sec-websocket-key:")) {
+                    key = line.substring(line.indexOf(':') + 1).trim();
+                }
+            }
+
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] hash = sha1.digest((key + "258EAFA5-E914-47DA-95CA-C5AB0DC85B11").getBytes(US_ASCII));
+            String accept = Base64Util.encode(ByteBuffer.wrap(hash));
+            out.write(format("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n" +
+                    "Sec-WebSocket-Accept: %s\r\n\r\n", accept).getBytes(US_ASCII));
+
+            out.write(opcode);
+            out.write(payload.length);
+            out.write(payload, 0, payload.length - 1);
+            out.flush();
+            Thread.sleep(200);
+            out.write(payload, payload.length - 1, 1);
+            out.flush();
+
+            while (in.read() != -1) {
+                // until the client closes
+            }
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            StringBuilder line = new StringBuilder();
+            for (int ch = in.read(); ch != -1 && ch != '\n'; ch = in.read()) {
+                if (ch != '\r') {
+                    line.append((char) ch);
+                }
+            }
+            return line.toString();
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2014, Kaazing Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kaazing.netx.ws.internal;
+
+import static java.lang.String.format;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+
+import org.junit.Test;
+import org.kaazing.netx.ws.WebSocket;
+import org.kaazing.netx.ws.WebSocketFactory;
+import org.kaazing.netx.ws.internal.util.Base64Util;
+
+public class WsURLConnectionEarlyDataTest {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    @Test
+    public void shouldSaveRoundTripOnFirstMessage() throws Exception {
+        // without early data, the first message waits for the 101 response
+        EarlyDataServer server = new EarlyDataServer(101, false);
+        echoFirstMessage(server, false);
+        assertFalse(server.earlyDataReceived);
+
+        // with early data, the server receives the first message before it sends the 101 response
+        server = new EarlyDataServer(101, true);
+        echoFirstMessage(server, true);
+        assertTrue(server.earlyDataReceived);
+    }
+
+    @Test
+    public void shouldDiscardEarlyDataWhenUpgradeFails() throws Exception {
+        EarlyDataServer server = new EarlyDataServer(404, false);
+        server.start();
+
+        WebSocketFactory factory = WebSocketFactory.newInstance();
+        factory.setDefaultEarlyDataEnabled(true);
+        WebSocket ws = factory.createWebSocket(URI.create(format("ws://localhost:%d/echo", server.getPort())));
+        ws.connect();
+
+        Writer writer = ws.getWriter();
+        writer.write("hello");
+        writer.flush();
+
+        try {
+            ws.getReader().read(new char[16]);
+            fail("Upgrade should have failed");
+        }
+        catch (IOException e) {
+            assertEquals("Connection failed, 1 early message(s) discarded", e.getMessage());
+        }
+
+        try {
+            writer.write("again");
+            writer.flush();
+            fail("Write should have failed");
+        }
+        catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static void echoFirstMessage(EarlyDataServer server, boolean earlyDataEnabled) throws Exception {
+        server.start();
+
+        WebSocketFactory factory = WebSocketFactory.newInstance();
+        factory.setDefaultEarlyDataEnabled(earlyDataEnabled);
+        WebSocket ws = factory.createWebSocket(URI.create(format("ws://localhost:%d/echo", server.getPort())));
+
+        ws.connect();
+        Writer writer = ws.getWriter();
+        Reader reader = ws.getReader();
+        writer.write("hello");
+        writer.flush();
+
+        char[] cbuf = new char[16];
+        int length = reader.read(cbuf);
+
+        assertEquals("hello", new String(cbuf, 0, length));
+        ws.close();
+    }
+
+    // echoes frames, recording whether the first frame arrived before the upgrade response was sent
+    private static final class EarlyDataServer extends Thread {
+        private final ServerSocket server;
+        private final int status;
+        private final boolean awaitEarlyData;
+
+        private volatile boolean earlyDataReceived;
+
+        EarlyDataServer(int status, boolean awaitEarlyData) throws IOException {
+            this.server = new ServerSocket(0);
+            this.status = status;
+            this.awaitEarlyData = awaitEarlyData;
+            setDaemon(true);
+        }
+
+        int getPort() {
+            return server.getLocalPort();
+        }
+
+        @Override
+        public void run() {
+            try {
+                Socket socket = server.accept();
+                try {
+                    serve(socket);
+                }
+                finally {
+                    socket.close();
+                    server.close();
+                }
+            }
+            catch (Exception e) {
+                // client gone
+            }
+        }
+
+        private void serve(Socket socket) throws Exception {
+            BufferedInputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+
+            String key = null;
+            for (String line = readLine(in); line.length() != 0; line = readLine(in)) {
+                if (line.toLowerCase().startsWith("sec-websocket-key:")) {
+                    key = line.substring(line.indexOf(':') + 1).trim();
+                }
+            }
+            if (awaitEarlyData) {
+                // holds back the 101 response until the first frame arrives, failing the test rather than hanging
+                socket.setSoTimeout(5000);
+                in.mark(1);
+                earlyDataReceived = in.read() != -1;
+                in.reset();
+                socket.setSoTimeout(0);
+            }
+            else {
+                earlyDataReceived = in.available() > 0;
+            }
+
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            if (status != 101) {
+                response.write(format("HTTP/1.1 %d Not Found\r\nContent-Length: 0\r\n\r\n", status).getBytes(US_ASCII));
+                transmit(out, response);
+                while (in.read() != -1) {
+                    // drain
+                }
+                return;
+            }
+
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] hash = sha1.digest((key + "258EAFA5-E914-47DA-95CA-C5AB0DC85B11").getBytes(US_ASCII));
+            String accept = Base64Util.encode(ByteBuffer.wrap(hash));
+            response.write(format("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n" +
+                    "Sec-WebSocket-Accept: %s\r\n\r\n", accept).getBytes(US_ASCII));
+
+            while (true) {
+                while (in.available() > 0) {
+                    if (!echoFrame(in, response)) {
+                        transmit(out, response);
+                        return;
+                    }
+                }
+                transmit(out, response);
+
+                in.mark(1);
+                if (in.read() == -1) {
+                    return;
+                }
+                in.reset();
+            }
+        }
+
+        private void transmit(OutputStream out, ByteArrayOutputStream response) throws Exception {
+            if (response.size() > 0) {
+                response.writeTo(out);
+                out.flush();
+                response.reset();
+            }
+        }
+
+        private static boolean echoFrame(InputStream input, OutputStream output) throws IOException {
+            DataInputStream in = new DataInputStream(input);
+            int opcode = in.readUnsignedByte();
+            int length = in.readUnsignedByte() & 0x7f;
+            if (length == 126) {
+                length = in.readUnsignedShort();
+            }
+
+            byte[] mask = new byte[4];
+            in.readFully(mask);
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            for (int i = 0; i < length; i++) {
+                payload[i] ^= mask[i % 4];
+            }
+
+            output.write(opcode);
+            if (length < 126) {
+                output.write(length);
+            }
+            else {
+                output.write(126);
+                output.write(length >> 8);
+                output.write(length);
+            }
+            output.write(payload);
+
+            return (opcode & 0x0f) != 0x08;
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            StringBuilder line = new StringBuilder();
+            for (int ch = in.read(); ch != -1 && ch != '\n'; ch = in.read()) {
+                if (ch != '\r') {
+                    line.append((char) ch);
+                }
+            }
+            return line.toString();
+        }
+    }
+}